@@ -21,10 +21,13 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.text.Format;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Locale;
-import java.util.MissingResourceException;
+import java.util.Map;
 import java.util.Properties;
 import java.util.PropertyResourceBundle;
 import java.util.ResourceBundle;
@@ -59,14 +62,16 @@ public class Localiser {
 
     public static final String FALLBACK_LANGUAGE_CODE = "en";
 
-    private ResourceBundle resourceBundle;
-    private MessageFormat formatter;
+    /**
+     * The strings and message templates of the current locale. They are replaced as a whole when the locale changes.
+     */
+    private volatile Messages messages = new Messages(null, null, null);
 
     private Properties versionProperties;
 
     private Properties languageProperties;
 
-    private Locale locale;
+    private volatile Locale locale;
 
     private final static String MISSING_RESOURCE_TEXT = "Missing resource : ";
     
@@ -91,8 +96,6 @@ public class Localiser {
      * @param locale
      */
     public Localiser(Locale locale) {
-        formatter = new MessageFormat("");
-
         languageProperties = new Properties();
         try {
             java.net.URL languagePropertiesURL = Localiser.class.getResource(LANGUAGE_PROPERTIES_FILENAME);
@@ -113,60 +116,41 @@ public class Localiser {
         decimalFormatSymbols = new java.text.DecimalFormatSymbols(locale);
     }
 
-    synchronized public String getString(String key) {
+    public String getString(String key) {
         if (key == null) {
             return "";
         }
 
-        // See if it is the number of languages or a language code.
-        if (languageProperties != null) {
-            String toReturn = (String) languageProperties.get(key);
-            if (toReturn != null) {
-                return toReturn;
-            }
+        Messages currentMessages = messages;
+        String toReturn = currentMessages.strings.get(key);
+        if (toReturn != null) {
+            return toReturn;
         }
-
-        if (resourceBundle != null) {
-            try {
-                return resourceBundle.getString(key);
-            } catch (NullPointerException npe) {
-                return MISSING_RESOURCE_TEXT + key + " (npe)";
-            } catch (ClassCastException cce) {
-                return MISSING_RESOURCE_TEXT + key + " (cce)";
-            } catch (MissingResourceException mre) {
-                return MISSING_RESOURCE_TEXT + key + " (mre)";
-            }
+        if (currentMessages.hasResourceBundle) {
+            return MISSING_RESOURCE_TEXT + key + " (mre)";
         } else {
             return MISSING_RESOURCE_TEXT + key;
         }
     }
 
-    synchronized public String getString(String key, Object[] parameters) {
+    public String getString(String key, Object[] parameters) {
         if (key == null) {
             return "";
         }
 
-        if (resourceBundle != null) {
-            try {
-                String pattern = resourceBundle.getString(key);
-                // Change any apostrophes to  \u2032 as MessageFormatter swallows them
-                pattern = pattern.replaceAll("\u0027", "\u2032");
-                formatter.applyPattern(pattern);
-                return formatter.format(parameters);
-            } catch (NullPointerException npe) {
-                return MISSING_RESOURCE_TEXT + key + " (npe)";
-            } catch (IllegalArgumentException iae) {
-                return MISSING_RESOURCE_TEXT + key + " (iae)";
-            } catch (ClassCastException cce) {
-                return MISSING_RESOURCE_TEXT + key + " (cce)";
-            } catch (MissingResourceException mre) {
-                return MISSING_RESOURCE_TEXT + key + " (mre)";
-            } catch (StringIndexOutOfBoundsException sioobe) {
-                return MISSING_RESOURCE_TEXT + key + " (sioobe)";
-            }
-        } else {
+        Messages currentMessages = messages;
+        if (!currentMessages.hasResourceBundle) {
             return MISSING_RESOURCE_TEXT + key;
         }
+        MessageTemplate template = currentMessages.templates.get(key);
+        if (template == null) {
+            return MISSING_RESOURCE_TEXT + key + " (mre)";
+        }
+        try {
+            return template.format(parameters);
+        } catch (IllegalArgumentException iae) {
+            return MISSING_RESOURCE_TEXT + key + " (iae)";
+        }
     }
 
     public Locale getLocale() {
@@ -191,13 +175,12 @@ public class Localiser {
             this.locale = locale;
         }
 
-        formatter.setLocale(locale);
-
         numberFormat = NumberFormat.getInstance(locale);
         numberFormat.setMaximumFractionDigits(NUMBER_OF_FRACTION_DIGITS_FOR_BITCOIN);
         
         decimalFormatSymbols = new java.text.DecimalFormatSymbols(locale);
 
+        ResourceBundle resourceBundle = null;
         boolean foundIt = false;
         try {
             InputStream inputStream = Localiser.class.getResourceAsStream(propertyFilename);
@@ -226,6 +209,11 @@ public class Localiser {
 
             }
         }
+
+        if (resourceBundle != null || !messages.hasResourceBundle) {
+            // If nothing could be loaded the previous locale's strings are kept.
+            messages = new Messages(resourceBundle, languageProperties, locale);
+        }
     }
 
     /**
@@ -336,4 +324,105 @@ public class Localiser {
     public java.text.DecimalFormatSymbols getDecimalFormatSymbols() {
         return decimalFormatSymbols;
     }
+
+    /**
+     * The strings of a locale, looked up ahead of time, and their message templates, each compiled once. Nothing is
+     * changed once they are built so they can be used from any thread without locking.
+     */
+    private static final class Messages {
+        private final boolean hasResourceBundle;
+
+        /**
+         * The strings of the resource bundle, and the number of languages and language codes.
+         */
+        private final Map<String, String> strings;
+
+        /**
+         * The strings of the resource bundle as message templates.
+         */
+        private final Map<String, MessageTemplate> templates;
+
+        private Messages(ResourceBundle resourceBundle, Properties languageProperties, Locale locale) {
+            Map<String, String> newStrings = new HashMap<String, String>();
+            Map<String, MessageTemplate> newTemplates = new HashMap<String, MessageTemplate>();
+            if (resourceBundle != null) {
+                for (String key : resourceBundle.keySet()) {
+                    try {
+                        String value = resourceBundle.getString(key);
+                        newStrings.put(key, value);
+                        newTemplates.put(key, new MessageTemplate(value, locale));
+                    } catch (ClassCastException cce) {
+                        // Not a string - looking it up reports it missing.
+                    }
+                }
+            }
+            if (languageProperties != null) {
+                for (String key : languageProperties.stringPropertyNames()) {
+                    newStrings.put(key, languageProperties.getProperty(key));
+                }
+            }
+
+            hasResourceBundle = resourceBundle != null;
+            strings = Collections.unmodifiableMap(newStrings);
+            templates = Collections.unmodifiableMap(newTemplates);
+        }
+    }
+
+    /**
+     * A message with its pattern compiled.<p>
+     *
+     * A MessageFormat with no formats of its own (number, date and so on) only reads its compiled pattern when
+     * formatting, so is shared between threads. One with formats of its own is copied for each message, as the formats
+     * are not thread safe. Messages with no parameters are formatted once, up front.
+     */
+    private static final class MessageTemplate {
+        private final MessageFormat messageFormat;
+        private final boolean isShareable;
+        private final String constantMessage;
+
+        /**
+         * Why the pattern could not be compiled, thrown when the template is used - or null if it compiled.
+         */
+        private final IllegalArgumentException invalidPattern;
+
+        private MessageTemplate(String pattern, Locale locale) {
+            MessageFormat newMessageFormat = null;
+            IllegalArgumentException newInvalidPattern = null;
+            try {
+                // Change any apostrophes to \u2032 as MessageFormatter swallows them
+                newMessageFormat = new MessageFormat(pattern.replace('\'', '\u2032'), locale);
+            } catch (IllegalArgumentException iae) {
+                newInvalidPattern = iae;
+            }
+            messageFormat = newMessageFormat;
+            invalidPattern = newInvalidPattern;
+
+            boolean hasFormats = false;
+            String newConstantMessage = null;
+            if (messageFormat != null) {
+                for (Format format : messageFormat.getFormats()) {
+                    hasFormats = hasFormats || format != null;
+                }
+                if (messageFormat.getFormatsByArgumentIndex().length == 0) {
+                    newConstantMessage = messageFormat.format(new Object[0]);
+                }
+            }
+            isShareable = !hasFormats;
+            constantMessage = newConstantMessage;
+        }
+
+        private String format(Object[] parameters) {
+            if (invalidPattern != null) {
+                throw invalidPattern;
+            }
+            if (constantMessage != null) {
+                return constantMessage;
+            }
+            if (isShareable) {
+                return messageFormat.format(parameters);
+            } else {
+                return ((MessageFormat) messageFormat.clone()).format(parameters);
+            }
+        }
+    }
 }
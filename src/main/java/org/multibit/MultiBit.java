@@ -27,6 +27,11 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
@@ -38,8 +43,10 @@ import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.controller.core.CoreController;
 import org.multibit.controller.exchange.ExchangeController;
 import org.multibit.exchange.CurrencyConverter;
+import org.multibit.exchange.ExchangeRateHistory;
 import org.multibit.file.BackupManager;
 import org.multibit.file.FileHandler;
+import org.multibit.file.LoadedWallet;
 import org.multibit.file.WalletLoadException;
 import org.multibit.message.Message;
 import org.multibit.message.MessageManager;
@@ -83,6 +90,11 @@ public class MultiBit {
     private static CoreController coreController = null;
     private static BitcoinController bitcoinController = null;
     private static ExchangeController exchangeController = null;
+
+    /**
+     * The most wallets read from disk at once at startup.
+     */
+    private static final int MAXIMUM_NUMBER_OF_WALLET_READING_THREADS = 4;
     
     /**
      * Start MultiBit user interface.
@@ -192,6 +204,14 @@ public class MultiBit {
             
             // Initialise currency converter.
             CurrencyConverter.INSTANCE.initialise(finalController);
+
+            // Initialise exchange rate history.
+            String exchangeRateHistoryFilename = ExchangeRateHistory.HISTORY_FILENAME;
+            if (!"".equals(applicationDataDirectoryLocator.getApplicationDataDirectory())) {
+                exchangeRateHistoryFilename = applicationDataDirectoryLocator.getApplicationDataDirectory() + File.separator
+                        + exchangeRateHistoryFilename;
+            }
+            ExchangeRateHistory.INSTANCE.initialise(new File(exchangeRateHistoryFilename));
             
             // Initialise replay manager.
             ReplayManager.INSTANCE.initialise(bitcoinController, false);
@@ -411,28 +431,65 @@ public class MultiBit {
                         boolean thereWasAnErrorLoadingTheWallet = false;
 
                         ((MultiBitFrame) swingViewSystem).setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-                        for (String actualOrder : actualOrderToLoad) {
+
+                        // Read the wallets from disk in parallel, then add them to the model one at a time.
+                        // The active wallet is read and added first so that the user can start using it whilst the
+                        // rest load. The wallets are put back into the user's order once they are all loaded.
+                        List<String> loadingOrder = new ArrayList<String>(actualOrderToLoad);
+                        boolean activeWalletLoadedFirst = activeWalletFilename != null && loadingOrder.remove(activeWalletFilename);
+                        if (activeWalletLoadedFirst) {
+                            loadingOrder.add(0, activeWalletFilename);
+                        }
+
+                        // Reading a wallet creates its data directories so note which wallets predate them first.
+                        List<Boolean> firstUsagesSinceWalletDirectoriesIntroduced = new ArrayList<Boolean>();
+                        for (String actualOrder : loadingOrder) {
+                            String topLevelWalletDirectory = BackupManager.INSTANCE.calculateTopLevelBackupDirectoryName(new File(actualOrder));
+                            firstUsagesSinceWalletDirectoriesIntroduced.add(!(new File(topLevelWalletDirectory).exists()));
+                        }
+                        List<Future<LoadedWallet>> loadedWallets = readWalletsInParallel(bitcoinController.getFileHandler(), loadingOrder);
+
+                        for (int i = 0; i < loadingOrder.size(); i++) {
+                            String actualOrder = loadingOrder.get(i);
+                            if (i == 1 && activeWalletLoadedFirst && swingViewSystem instanceof MultiBitFrame) {
+                                // Show the active wallet before adding the rest. The rest are added whilst this is
+                                // drawn so it is drawn on the event dispatch thread from the model's snapshot of the
+                                // wallets.
+                                final MultiBitFrame multiBitFrame = (MultiBitFrame) swingViewSystem;
+                                SwingUtilities.invokeLater(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        multiBitFrame.getWalletsView().initUI();
+                                        multiBitFrame.getWalletsView().displayView(DisplayHint.COMPLETE_REDRAW);
+                                        controller.fireDataChangedUpdateNow();
+                                    }
+                                });
+                            }
                             log.debug("Loading wallet from '{}'", actualOrder);
                             Message message = new Message(controller.getLocaliser().getString("multiBit.openingWallet",
                                     new Object[] { actualOrder }));
                             message.setShowInStatusBar(false);
                             MessageManager.INSTANCE.addMessage(message);
                             try {
-                                // Check if this is the first time this wallet has been opened post addition of data directories.
-                                String topLevelWalletDirectory = BackupManager.INSTANCE.calculateTopLevelBackupDirectoryName(new File(actualOrder));
-                                boolean firstUsageSinceWalletDirectoriesIntroduced = !(new File(topLevelWalletDirectory).exists());
+                                boolean firstUsageSinceWalletDirectoriesIntroduced = firstUsagesSinceWalletDirectoriesIntroduced.get(i);
+
+                                LoadedWallet loadedWallet = getLoadedWallet(loadedWallets.get(i));
+                                long addStartTime = System.currentTimeMillis();
 
                                 WalletData perWalletModelData = null;
                                 if (activeWalletFilename != null && activeWalletFilename.equals(actualOrder)) {
-                                    perWalletModelData = bitcoinController.addWalletFromFilename(actualOrder);
+                                    perWalletModelData = bitcoinController.addWalletFromFilename(actualOrder, loadedWallet);
                                     bitcoinController.getModel().setActiveWalletByFilename(actualOrder);
                                 } else {
-                                    perWalletModelData = bitcoinController.addWalletFromFilename(actualOrder);
+                                    perWalletModelData = bitcoinController.addWalletFromFilename(actualOrder, loadedWallet);
                                 }
                                 Message message2 = new Message(controller.getLocaliser().getString("multiBit.openingWalletIsDone",
                                         new Object[] { actualOrder }));
                                 message2.setShowInStatusBar(false);
                                 MessageManager.INSTANCE.addMessage(message2);
+
+                                long loadTime = loadedWallet.getReadTimeMillis() + System.currentTimeMillis() - addStartTime;
+                                log.debug("Loaded wallet '{}' in {} ms", actualOrder, loadTime);
                                 
                                 if (firstUsageSinceWalletDirectoriesIntroduced) {
                                     if (perWalletModelData != null && perWalletModelData.getWallet() != null) {
@@ -479,6 +536,10 @@ public class MultiBit {
                                 }
                             }
                         }
+
+                        if (activeWalletLoadedFirst) {
+                            bitcoinController.getModel().orderWallets(actualOrderToLoad);
+                        }
                     }
                 } catch (NumberFormatException nfe) {
                     // Carry on.
@@ -608,6 +669,57 @@ public class MultiBit {
         }
     }
 
+    /**
+     * Start reading the wallets from disk on a bounded pool of threads.
+     * 
+     * @return the wallets being read, in the same order as the filenames
+     */
+    static List<Future<LoadedWallet>> readWalletsInParallel(final FileHandler fileHandler, List<String> walletFilenames) {
+        int numberOfThreads = Math.max(1, Math.min(walletFilenames.size(),
+                Math.min(MAXIMUM_NUMBER_OF_WALLET_READING_THREADS, Runtime.getRuntime().availableProcessors())));
+        ExecutorService walletReaders = Executors.newFixedThreadPool(numberOfThreads);
+
+        List<Future<LoadedWallet>> loadedWallets = new ArrayList<Future<LoadedWallet>>();
+        try {
+            for (final String walletFilename : walletFilenames) {
+                loadedWallets.add(walletReaders.submit(new Callable<LoadedWallet>() {
+                    @Override
+                    public LoadedWallet call() throws Exception {
+                        return fileHandler.readWalletFromFile(new File(walletFilename));
+                    }
+                }));
+            }
+        } finally {
+            // The submitted wallets are still read - the threads just finish afterwards.
+            walletReaders.shutdown();
+        }
+        return loadedWallets;
+    }
+
+    /**
+     * Wait for a wallet to be read, rethrowing any exception thrown reading it.
+     */
+    static LoadedWallet getLoadedWallet(Future<LoadedWallet> loadedWallet) throws IOException, WalletVersionException {
+        try {
+            return loadedWallet.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WalletLoadException("Interrupted whilst loading the wallet", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof WalletVersionException) {
+                throw (WalletVersionException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new WalletLoadException(cause.getClass().getCanonicalName() + " " + cause.getMessage(), cause);
+        }
+    }
+
     static void processCommandLineURI(BitcoinController controller, String rawURI) {
         try {
             // Attempt to detect if the command line URI is valid.
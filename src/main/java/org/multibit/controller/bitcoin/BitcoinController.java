@@ -29,6 +29,7 @@ import org.multibit.controller.AbstractController;
 import org.multibit.controller.AbstractEventHandler;
 import org.multibit.controller.core.CoreController;
 import org.multibit.file.FileHandler;
+import org.multibit.file.LoadedWallet;
 import org.multibit.message.MessageManager;
 import org.multibit.model.bitcoin.BitcoinModel;
 import org.multibit.model.bitcoin.WalletBusyListener;
@@ -150,6 +151,22 @@ public class BitcoinController extends AbstractController<CoreController> implem
         return perWalletModelDataToReturn;
     }
 
+    /**
+     * Add a wallet to multibit from a filename, using a wallet already read from disk.
+     * 
+     * @param walletFilename The wallet filename
+     * @param loadedWallet The wallet as read by FileHandler#readWalletFromFile, or null to read it now
+     * 
+     * @return The model data
+     */
+    public WalletData addWalletFromFilename(String walletFilename, LoadedWallet loadedWallet) throws IOException {
+        WalletData perWalletModelDataToReturn = null;
+        if (multiBitService != null) {
+            perWalletModelDataToReturn = multiBitService.addWalletFromFilename(walletFilename, loadedWallet);
+        }
+        return perWalletModelDataToReturn;
+    }
+
     public void fireFilesHaveBeenChangedByAnotherProcess(WalletData perWalletModelData) {
         //log.debug("fireFilesHaveBeenChangedByAnotherProcess called");
         for (ViewSystem viewSystem : super.getViewSystem()) {
@@ -199,6 +216,10 @@ public class BitcoinController extends AbstractController<CoreController> implem
     @Override
     public void onCoinsReceived(Wallet wallet, Transaction transaction, BigInteger prevBalance, BigInteger newBalance) {
         //log.debug("onCoinsReceived called");
+        WalletData perWalletModelData = findWalletData(wallet);
+        if (perWalletModelData != null) {
+            perWalletModelData.getBalanceSeries().transactionSeen(wallet, transaction);
+        }
         for (ViewSystem viewSystem : super.getViewSystem()) {
             viewSystem.onCoinsReceived(wallet, transaction, prevBalance, newBalance);
         }
@@ -207,6 +228,10 @@ public class BitcoinController extends AbstractController<CoreController> implem
     @Override
     public void onCoinsSent(Wallet wallet, Transaction transaction, BigInteger prevBalance, BigInteger newBalance) {
         //log.debug("onCoinsSent called");
+        WalletData perWalletModelData = findWalletData(wallet);
+        if (perWalletModelData != null) {
+            perWalletModelData.getBalanceSeries().transactionSeen(wallet, transaction);
+        }
         for (ViewSystem viewSystem : super.getViewSystem()) {
             viewSystem.onCoinsSent(wallet, transaction, prevBalance, newBalance);
         }
@@ -233,6 +258,13 @@ public class BitcoinController extends AbstractController<CoreController> implem
     @Override
     public void onTransactionConfidenceChanged(Wallet wallet, Transaction transaction) {
         //log.debug("onTransactionConfidenceChanged called");
+        if (transaction != null && transaction.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD) {
+            // The transaction no longer counts towards the balance.
+            WalletData perWalletModelData = findWalletData(wallet);
+            if (perWalletModelData != null) {
+                perWalletModelData.getBalanceSeries().invalidate();
+            }
+        }
         for (ViewSystem viewSystem : super.getViewSystem()) {
             viewSystem.onTransactionConfidenceChanged(wallet, transaction);
         }
@@ -241,6 +273,15 @@ public class BitcoinController extends AbstractController<CoreController> implem
     @Override
     public void onKeyAdded(ECKey ecKey) {
         log.debug("Key added : " + ecKey.toString());
+        // The event does not say which wallet the key was added to - catching up a wallet with no new keys only
+        // compares the size of its keychain.
+        if (getModel() != null) {
+            for (WalletData loopPerWalletModelData : getModel().getPerWalletModelDataList()) {
+                if (loopPerWalletModelData.getWalletInfo() != null) {
+                    loopPerWalletModelData.getWalletInfo().keyAdded();
+                }
+            }
+        }
     }
 
     @Override
@@ -250,6 +291,7 @@ public class BitcoinController extends AbstractController<CoreController> implem
         for (WalletData loopPerWalletModelData : perWalletModelDataList) {
             if (loopPerWalletModelData.getWallet().equals(wallet)) {
                 loopPerWalletModelData.setDirty(true);
+                loopPerWalletModelData.getBalanceSeries().invalidate();
                 log.debug("Marking wallet '" + loopPerWalletModelData.getWalletFilename() + "' as dirty.");
             }
         }
@@ -258,6 +300,21 @@ public class BitcoinController extends AbstractController<CoreController> implem
         }
     }
 
+    /**
+     * @return the wallet data for the wallet object, or null if it is not open
+     */
+    private WalletData findWalletData(Wallet wallet) {
+        if (wallet == null || getModel() == null) {
+            return null;
+        }
+        for (WalletData loopPerWalletModelData : getModel().getPerWalletModelDataList()) {
+            if (loopPerWalletModelData.getWallet() == wallet) {
+                return loopPerWalletModelData;
+            }
+        }
+        return null;
+    }
+
     public MultiBitService getMultiBitService() {
         return multiBitService;
     }
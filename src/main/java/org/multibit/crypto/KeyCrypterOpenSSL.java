@@ -15,12 +15,19 @@
  */
 package org.multibit.crypto;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.nio.CharBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64InputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.BufferedBlockCipher;
@@ -28,8 +35,10 @@ import org.spongycastle.crypto.CipherParameters;
 import org.spongycastle.crypto.PBEParametersGenerator;
 import org.spongycastle.crypto.engines.AESFastEngine;
 import org.spongycastle.crypto.generators.OpenSSLPBEParametersGenerator;
+import org.spongycastle.crypto.io.CipherInputStream;
 import org.spongycastle.crypto.modes.CBCBlockCipher;
 import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.spongycastle.crypto.params.KeyParameter;
 import org.spongycastle.crypto.params.ParametersWithIV;
 
 import com.google.bitcoin.core.Utils;
@@ -102,7 +111,26 @@ public class KeyCrypterOpenSSL {
 
     private static SecureRandom secureRandom = new SecureRandom();
 
+    /**
+     * The most recently used derived keys, most recent first.
+     */
+    private final LinkedList<CachedKey> keyCache = new LinkedList<CachedKey>();
+
+    private final int keyCacheSize;
+
     public KeyCrypterOpenSSL()  {
+        this(0);
+    }
+
+    /**
+     * @param keyCacheSize
+     *            The number of derived keys to keep so that encrypting and
+     *            decrypting with the same password and salt only derives the
+     *            key once. Zero for no cache. The cache must be cleared with
+     *            clearKeyCache() when it is no longer needed.
+     */
+    public KeyCrypterOpenSSL(int keyCacheSize)  {
+        this.keyCacheSize = keyCacheSize;
         try {
             openSSLSaltedBytes = OPENSSL_SALTED_TEXT.getBytes(STRING_ENCODING);
 
@@ -118,6 +146,9 @@ public class KeyCrypterOpenSSL {
     /**
      * Get password and generate key and iv.
      * 
+     * If a key cache is in use, a key previously derived from the same
+     * password and salt is reused instead of being derived again.
+     * 
      * @param password
      *            The password to use in key generation
      * @param salt
@@ -126,12 +157,37 @@ public class KeyCrypterOpenSSL {
      * @throws Exception
      */
     private CipherParameters getAESPasswordKey(CharSequence password, byte[] salt) throws KeyCrypterException {
+        byte[] passwordFingerprint = null;
+        if (keyCacheSize > 0) {
+            passwordFingerprint = createPasswordFingerprint(password);
+            synchronized (keyCache) {
+                for (Iterator<CachedKey> iterator = keyCache.iterator(); iterator.hasNext();) {
+                    CachedKey cachedKey = iterator.next();
+                    if (cachedKey.matches(passwordFingerprint, salt)) {
+                        // Move to the front so that the least recently used key is dropped first.
+                        iterator.remove();
+                        keyCache.addFirst(cachedKey);
+                        Arrays.fill(passwordFingerprint, (byte) 0);
+                        return cachedKey.key;
+                    }
+                }
+            }
+        }
+
         try {
             PBEParametersGenerator generator = new OpenSSLPBEParametersGenerator();
             generator.init(PBEParametersGenerator.PKCS5PasswordToBytes(convertToCharArray(password)), salt, NUMBER_OF_ITERATIONS);
 
             ParametersWithIV key = (ParametersWithIV) generator.generateDerivedParameters(KEY_LENGTH, IV_LENGTH);
 
+            if (passwordFingerprint != null) {
+                synchronized (keyCache) {
+                    keyCache.addFirst(new CachedKey(passwordFingerprint, salt.clone(), key));
+                    while (keyCache.size() > keyCacheSize) {
+                        keyCache.removeLast().clear();
+                    }
+                }
+            }
             return key;
         } catch (Exception e) {
             throw new KeyCrypterException("Could not generate key from password of length " + password.length()
@@ -139,6 +195,39 @@ public class KeyCrypterOpenSSL {
         }
     }
 
+    /**
+     * Zero and forget all the keys in the key cache. Call this when the
+     * operations that the cache was used for are complete.
+     */
+    public void clearKeyCache() {
+        synchronized (keyCache) {
+            for (CachedKey cachedKey : keyCache) {
+                cachedKey.clear();
+            }
+            keyCache.clear();
+        }
+    }
+
+    /**
+     * A SHA-256 hash of the password, so that the password itself is not
+     * kept in the key cache.
+     */
+    private byte[] createPasswordFingerprint(CharSequence password) throws KeyCrypterException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (password != null) {
+                for (int i = 0; i < password.length(); i++) {
+                    char c = password.charAt(i);
+                    digest.update((byte) (c >> 8));
+                    digest.update((byte) c);
+                }
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new KeyCrypterException("Could not create password fingerprint", e);
+        }
+    }
+
     /**
      * Password based encryption using AES - CBC 256 bits.
      * 
@@ -268,6 +357,45 @@ public class KeyCrypterOpenSSL {
         }
     }
 
+    /**
+     * Decrypt a stream of text previously encrypted with this class as it is
+     * read, so that the cipher text never has to be held in memory.
+     * 
+     * @param encryptedInputStream
+     *            The base64 encoded cipher text, starting with the OpenSSL
+     *            salted prefix
+     * @param password
+     *            The password to use for decryption
+     * @return A stream of the decrypted bytes. A wrong password or corrupt
+     *         cipher text causes an IOException to be thrown by the stream,
+     *         at the latest when the end of it is reached
+     * @throws KeyCrypterException
+     */
+    public InputStream decrypt(InputStream encryptedInputStream, CharSequence password) throws KeyCrypterException {
+        try {
+            DataInputStream decodedInputStream = new DataInputStream(new Base64InputStream(encryptedInputStream));
+
+            // Strip off the OPENSSL_SALTED_TEXT prefix then read the salt.
+            byte[] saltedPrefix = new byte[openSSLSaltedBytes.length];
+            decodedInputStream.readFully(saltedPrefix);
+            if (!Arrays.equals(saltedPrefix, openSSLSaltedBytes)) {
+                throw new KeyCrypterException("Could not decrypt input stream as it does not start with '"
+                        + OPENSSL_SALTED_TEXT + "'");
+            }
+            byte[] salt = new byte[SALT_LENGTH];
+            decodedInputStream.readFully(salt);
+
+            ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
+
+            BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+            cipher.init(false, key);
+
+            return new CipherInputStream(decodedInputStream, cipher);
+        } catch (IOException e) {
+            throw new KeyCrypterException("Could not decrypt input stream", e);
+        }
+    }
+
     /**
      * Concatenate two byte arrays.
      */
@@ -333,4 +461,33 @@ public class KeyCrypterOpenSSL {
         return true;
     }
 
-}
\ No newline at end of file
+    /**
+     * A derived key with the password fingerprint and salt it was derived from.
+     */
+    private static class CachedKey {
+        private final byte[] passwordFingerprint;
+        private final byte[] salt;
+        private final ParametersWithIV key;
+
+        CachedKey(byte[] passwordFingerprint, byte[] salt, ParametersWithIV key) {
+            this.passwordFingerprint = passwordFingerprint;
+            this.salt = salt;
+            this.key = key;
+        }
+
+        boolean matches(byte[] otherPasswordFingerprint, byte[] otherSalt) {
+            return Arrays.equals(passwordFingerprint, otherPasswordFingerprint) && Arrays.equals(salt, otherSalt);
+        }
+
+        /**
+         * Zero the key material. The key and IV arrays are shared with the
+         * ParametersWithIV so this wipes them too.
+         */
+        void clear() {
+            Arrays.fill(passwordFingerprint, (byte) 0);
+            Arrays.fill(salt, (byte) 0);
+            Arrays.fill(((KeyParameter) key.getParameters()).getKey(), (byte) 0);
+            Arrays.fill(key.getIV(), (byte) 0);
+        }
+    }
+}
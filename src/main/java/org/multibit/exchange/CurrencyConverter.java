@@ -72,6 +72,12 @@ public enum CurrencyConverter {
     private BigDecimal rateDividedByNumberOfSatoshiInOneBitcoin;
       
     private String groupingSeparator;
+
+    /**
+     * Incremented whenever the rate, currency or formatters change, so that
+     * cached fiat values can tell they are out of date.
+     */
+    private volatile int formatVersion;
     
     /**
      * Map of currency code to currency info.
@@ -310,6 +316,7 @@ public enum CurrencyConverter {
         
         DecimalFormat fiatFormatter = (DecimalFormat) DecimalFormat.getInstance(controller.getLocaliser().getLocale());
         groupingSeparator = String.valueOf(fiatFormatter.getDecimalFormatSymbols().getGroupingSeparator());     
+        formatVersion++;
     }
 
     /**
@@ -635,16 +642,25 @@ public enum CurrencyConverter {
         // Reinitialise currency formatters.
         moneyFormatter = getMoneyFormatter(false);
         moneyFormatterWithCurrencyCode = getMoneyFormatter(true);
+        formatVersion++;
     }
 
     public BigDecimal getRate() {
         return rate;
     }
 
+    /**
+     * @return a number that changes whenever the rate, currency or formatters change
+     */
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
     public void setRate(BigDecimal rate) {
         boolean fireFoundInsteadOfUpdated = (rate== null);
         this.rate = rate;
         rateDividedByNumberOfSatoshiInOneBitcoin = rate.divide(new BigDecimal(CurrencyConverter.NUMBER_OF_SATOSHI_IN_ONE_BITCOIN));
+        formatVersion++;
         
         if (fireFoundInsteadOfUpdated) {
             notifyFoundExchangeRate();
@@ -0,0 +1,409 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.exchange;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.IllegalCurrencyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The exchange rates seen by the ticker, kept between runs so that fiat values can be shown for any time without
+ * asking the exchanges.<p>
+ *
+ * The history is an append only file. Each exchange and currency (a series) is written once, with a short id, and
+ * each rate after that is a fixed size record of the series id, the time and the last price, bid and ask as longs
+ * scaled by 10^8. The whole history is read into memory when initialised - a rate every ten minutes for a year is
+ * under two megabytes - and the queries are binary searches of each series.
+ */
+public enum ExchangeRateHistory {
+    INSTANCE;
+
+    private static final Logger log = LoggerFactory.getLogger(ExchangeRateHistory.class);
+
+    public static final String HISTORY_FILENAME = "exchange-rates.history";
+
+    private static final byte[] MAGIC = new byte[] {'M', 'B', 'R', 'H'};
+    private static final int HISTORY_FORMAT_VERSION = 1;
+
+    private static final byte SERIES_RECORD = 1;
+    private static final byte RATE_RECORD = 2;
+
+    /**
+     * Rates are stored to 8 decimal places.
+     */
+    static final int SCALE = 8;
+
+    /**
+     * Stored for a price the exchange did not give.
+     */
+    private static final long NO_PRICE = Long.MIN_VALUE;
+
+    /**
+     * The rates for one exchange and currency, oldest first.
+     */
+    private static class Series {
+        private final short id;
+        private final String exchange;
+        private final String currency;
+
+        private int size = 0;
+        private long[] timestamps = new long[16];
+        private long[] lasts = new long[16];
+        private long[] bids = new long[16];
+        private long[] asks = new long[16];
+
+        private Series(short id, String exchange, String currency) {
+            this.id = id;
+            this.exchange = exchange;
+            this.currency = currency;
+        }
+
+        private void add(long timestamp, long last, long bid, long ask) {
+            if (size == timestamps.length) {
+                int newLength = size * 2;
+                timestamps = Arrays.copyOf(timestamps, newLength);
+                lasts = Arrays.copyOf(lasts, newLength);
+                bids = Arrays.copyOf(bids, newLength);
+                asks = Arrays.copyOf(asks, newLength);
+            }
+            timestamps[size] = timestamp;
+            lasts[size] = last;
+            bids[size] = bid;
+            asks[size] = ask;
+            size++;
+        }
+
+        /**
+         * @return the index of the first rate at or after the timestamp
+         */
+        private int indexOf(long timestamp) {
+            int index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+            if (index < 0) {
+                return -index - 1;
+            }
+            // Step back over any rates with the same timestamp.
+            while (index > 0 && timestamps[index - 1] == timestamp) {
+                index--;
+            }
+            return index;
+        }
+    }
+
+    private File historyFile;
+
+    private final Map<String, Series> seriesMap = new HashMap<String, Series>();
+    private final List<Series> seriesById = new ArrayList<Series>();
+
+    /**
+     * Read in the history, creating the file if there is none.
+     *
+     * @param historyFile
+     */
+    public synchronized void initialise(File historyFile) {
+        this.historyFile = historyFile;
+        seriesMap.clear();
+        seriesById.clear();
+
+        try {
+            if (historyFile.exists() && historyFile.length() > 0) {
+                load();
+            } else {
+                create();
+            }
+        } catch (IOException ioe) {
+            log.error("Could not read the exchange rate history '" + historyFile.getAbsolutePath() + "'. " + ioe.getMessage());
+            seriesMap.clear();
+            seriesById.clear();
+            this.historyFile = null;
+        }
+    }
+
+    /**
+     * Record a rate from an exchange. Rates older than the latest one recorded for the exchange and currency are
+     * ignored.
+     *
+     * @param exchange the short exchange name
+     * @param currency the currency the rate is in
+     * @param timestamp when the rate was got, in milliseconds
+     * @param last the last price of 1 BTC, or null
+     * @param bid the bid for 1 BTC, or null
+     * @param ask the ask for 1 BTC, or null
+     */
+    public synchronized void add(String exchange, String currency, long timestamp, BigMoney last, BigMoney bid, BigMoney ask) {
+        if (historyFile == null || exchange == null || currency == null) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            Series series = seriesMap.get(createKey(exchange, currency));
+            boolean isNewSeries = series == null;
+            if (isNewSeries) {
+                series = new Series((short) seriesById.size(), exchange, currency);
+                out.writeByte(SERIES_RECORD);
+                out.writeShort(series.id);
+                out.writeUTF(exchange);
+                out.writeUTF(currency);
+            } else if (series.size > 0 && timestamp < series.timestamps[series.size - 1]) {
+                log.debug("Ignoring a rate for " + exchange + " " + currency + " older than the latest one");
+                return;
+            }
+
+            long scaledLast = toScaledLong(last);
+            long scaledBid = toScaledLong(bid);
+            long scaledAsk = toScaledLong(ask);
+            out.writeByte(RATE_RECORD);
+            out.writeShort(series.id);
+            out.writeLong(timestamp);
+            out.writeLong(scaledLast);
+            out.writeLong(scaledBid);
+            out.writeLong(scaledAsk);
+            out.flush();
+
+            append(bytes.toByteArray());
+
+            if (isNewSeries) {
+                addSeries(series);
+            }
+            series.add(timestamp, scaledLast, scaledBid, scaledAsk);
+        } catch (IOException ioe) {
+            log.error("Could not write to the exchange rate history. " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Get the last prices recorded in a time range.
+     *
+     * @param exchange the short exchange name
+     * @param currency the currency of the rates
+     * @param from the start of the range, inclusive, in milliseconds
+     * @param to the end of the range, exclusive, in milliseconds
+     * @return the rates, oldest first
+     */
+    public synchronized List<ExchangeRate> getRates(String exchange, String currency, long from, long to) {
+        List<ExchangeRate> rates = new ArrayList<ExchangeRate>();
+        Series series = seriesMap.get(createKey(exchange, currency));
+        CurrencyUnit currencyUnit = toCurrencyUnit(currency);
+        if (series == null || currencyUnit == null) {
+            return rates;
+        }
+        for (int i = series.indexOf(from); i < series.size && series.timestamps[i] < to; i++) {
+            if (series.lasts[i] != NO_PRICE) {
+                rates.add(new ExchangeRate(currencyUnit, fromScaledLong(series.lasts[i]), new Date(series.timestamps[i])));
+            }
+        }
+        return rates;
+    }
+
+    /**
+     * Get the last price recorded nearest to a time.
+     *
+     * @param exchange the short exchange name
+     * @param currency the currency of the rate
+     * @param timestamp the time, in milliseconds
+     * @return the rate, or null if there are none for the exchange and currency
+     */
+    public synchronized ExchangeRate getNearestRate(String exchange, String currency, long timestamp) {
+        Series series = seriesMap.get(createKey(exchange, currency));
+        CurrencyUnit currencyUnit = toCurrencyUnit(currency);
+        if (series == null || currencyUnit == null) {
+            return null;
+        }
+
+        // Look outwards from the timestamp for the nearest rate with a last price.
+        int after = series.indexOf(timestamp);
+        int before = after - 1;
+        while (after < series.size && series.lasts[after] == NO_PRICE) {
+            after++;
+        }
+        while (before >= 0 && series.lasts[before] == NO_PRICE) {
+            before--;
+        }
+
+        int nearest;
+        if (after >= series.size) {
+            nearest = before;
+        } else if (before < 0) {
+            nearest = after;
+        } else {
+            nearest = timestamp - series.timestamps[before] <= series.timestamps[after] - timestamp ? before : after;
+        }
+        if (nearest < 0) {
+            return null;
+        }
+        return new ExchangeRate(currencyUnit, fromScaledLong(series.lasts[nearest]), new Date(series.timestamps[nearest]));
+    }
+
+    private void create() throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(historyFile));
+        try {
+            out.write(MAGIC);
+            out.writeInt(HISTORY_FORMAT_VERSION);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void load() throws IOException {
+        long validLength;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(historyFile)));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("Not an exchange rate history");
+            }
+            int version = in.readInt();
+            if (version != HISTORY_FORMAT_VERSION) {
+                throw new IOException("Unknown exchange rate history version " + version);
+            }
+            validLength = MAGIC.length + 4;
+
+            while (true) {
+                int recordType = in.read();
+                if (recordType == -1) {
+                    break;
+                }
+                try {
+                    if (recordType == SERIES_RECORD) {
+                        short id = in.readShort();
+                        String exchange = in.readUTF();
+                        String currency = in.readUTF();
+                        if (id != seriesById.size()) {
+                            log.error("Exchange rate history series " + id + " is out of order");
+                            break;
+                        }
+                        addSeries(new Series(id, exchange, currency));
+                        validLength += 1 + 2 + 2 + utfLength(exchange) + 2 + utfLength(currency);
+                    } else if (recordType == RATE_RECORD) {
+                        short id = in.readShort();
+                        long timestamp = in.readLong();
+                        long last = in.readLong();
+                        long bid = in.readLong();
+                        long ask = in.readLong();
+                        if (id < 0 || id >= seriesById.size()) {
+                            log.error("Exchange rate history refers to unknown series " + id);
+                            break;
+                        }
+                        seriesById.get(id).add(timestamp, last, bid, ask);
+                        validLength += 1 + 2 + 8 * 4;
+                    } else {
+                        log.error("Unknown exchange rate history record type " + recordType);
+                        break;
+                    }
+                } catch (EOFException eofe) {
+                    // The last record was only partly written.
+                    break;
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        if (validLength < historyFile.length()) {
+            // Carry on from the last good record.
+            log.debug("Trimming a partly written or damaged record from the end of the exchange rate history");
+            RandomAccessFile file = new RandomAccessFile(historyFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private void append(byte[] records) throws IOException {
+        FileOutputStream out = new FileOutputStream(historyFile, true);
+        try {
+            out.write(records);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void addSeries(Series series) {
+        seriesMap.put(createKey(series.exchange, series.currency), series);
+        seriesById.add(series);
+    }
+
+    private static String createKey(String exchange, String currency) {
+        return exchange + "/" + currency;
+    }
+
+    static long toScaledLong(BigMoney money) {
+        if (money == null) {
+            return NO_PRICE;
+        }
+        try {
+            return money.getAmount().movePointRight(SCALE).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+        } catch (ArithmeticException ae) {
+            // Too large to store.
+            return NO_PRICE;
+        }
+    }
+
+    static BigDecimal fromScaledLong(long scaled) {
+        return BigDecimal.valueOf(scaled, SCALE);
+    }
+
+    private static CurrencyUnit toCurrencyUnit(String currency) {
+        if (currency == null) {
+            return null;
+        }
+        try {
+            return CurrencyUnit.of(currency);
+        } catch (IllegalCurrencyException ice) {
+            return null;
+        }
+    }
+
+    private static int utfLength(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length++;
+            } else if (c > 0x07FF) {
+                length += 3;
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+}
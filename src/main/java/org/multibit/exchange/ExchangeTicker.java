@@ -0,0 +1,444 @@
+/**
+ * Copyright 2012 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.exchange;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
+
+import org.multibit.controller.Controller;
+import org.multibit.controller.exchange.ExchangeController;
+import org.multibit.model.exchange.ExchangeData;
+import org.multibit.model.exchange.ExchangeModel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xeiam.xchange.Exchange;
+import com.xeiam.xchange.ExchangeFactory;
+import com.xeiam.xchange.ExchangeSpecification;
+import com.xeiam.xchange.currency.Currencies;
+import com.xeiam.xchange.currency.CurrencyPair;
+import com.xeiam.xchange.dto.marketdata.Ticker;
+import com.xeiam.xchange.service.polling.PollingMarketDataService;
+
+/**
+ * One row of the ticker - the exchange and currency it shows and the requests to get its ticker data.<p>
+ *
+ * The rows are polled by the TickerFetcher.
+ */
+public class ExchangeTicker {
+
+    public static final int NUMBER_OF_SIGNIFICANT_DIGITS = 20;
+
+    private static Logger log = LoggerFactory.getLogger(ExchangeTicker.class);
+
+    private final Controller controller;
+    private final ExchangeController exchangeController;
+
+    // Is this the first row in the ticker (=true) or the second row (=false).
+    private final boolean isFirstExchange;
+
+    private String shortExchangeName;
+    private String currency;
+    private Exchange exchange;
+    private PollingMarketDataService marketDataService;
+    private List<CurrencyPair> exchangeSymbols;
+
+    /**
+     * The rates got from the exchange, ready to be published.
+     */
+    static class Result {
+        private final long timestamp;
+        private final String shortExchangeName;
+        private final String currency;
+        private final BigMoney last;
+        private final BigMoney bid;
+        private final BigMoney ask;
+
+        Result(long timestamp, String shortExchangeName, String currency, BigMoney last, BigMoney bid, BigMoney ask) {
+            this.timestamp = timestamp;
+            this.shortExchangeName = shortExchangeName;
+            this.currency = currency;
+            this.last = last;
+            this.bid = bid;
+            this.ask = ask;
+        }
+    }
+
+    /**
+     * Constructs the ExchangeTicker.
+     */
+    public ExchangeTicker(ExchangeController exchangeController, boolean isFirstExchange) {
+        this.exchangeController = exchangeController;
+        this.controller = this.exchangeController;
+        this.isFirstExchange = isFirstExchange;
+
+        if (isFirstExchange) {
+            currency = controller.getModel().getUserPreference(ExchangeModel.TICKER_FIRST_ROW_CURRENCY);
+            if (currency == null || currency.length() == 0) {
+                currency = ExchangeData.DEFAULT_CURRENCY;
+                controller.getModel().setUserPreference(ExchangeModel.TICKER_FIRST_ROW_CURRENCY, currency);
+            }
+            shortExchangeName = controller.getModel().getUserPreference(ExchangeModel.TICKER_FIRST_ROW_EXCHANGE);
+        } else {
+            currency = controller.getModel().getUserPreference(ExchangeModel.TICKER_SECOND_ROW_CURRENCY);
+            shortExchangeName = controller.getModel().getUserPreference(ExchangeModel.TICKER_SECOND_ROW_EXCHANGE);
+        }
+    }
+
+    /**
+     * @return false if this is the second row and it is not showing
+     */
+    boolean isShowing() {
+        return isFirstExchange
+                || Boolean.TRUE.toString().equals(controller.getModel().getUserPreference(ExchangeModel.TICKER_SHOW_SECOND_ROW));
+    }
+
+    /**
+     * Get the ticker data for this row from the exchange.
+     *
+     * @param requestExecutor
+     *            used to make the requests to the exchange that can be made at the same time
+     * @param timeoutMillis
+     *            the longest time to wait for each request
+     * @return the rates, or null if there are none to show
+     */
+    Result fetch(ExecutorService requestExecutor, long timeoutMillis) throws Exception {
+        final PollingMarketDataService marketDataServiceToUse;
+        List<CurrencyPair> exchangeSymbolsToUse;
+        String shortExchangeNameToUse;
+        String currencyToUse;
+
+        // Create exchange.
+        synchronized (this) {
+            if (exchange == null) {
+                log.debug("exchange is null ... creating exchange ... (isFirstExchange = " + isFirstExchange + ")");
+                if (shortExchangeName == null) {
+                    log.debug("shortExchangeName is null, defaulting to " + ExchangeData.DEFAULT_EXCHANGE);
+                    shortExchangeName = ExchangeData.DEFAULT_EXCHANGE;
+                }
+
+                createExchangeObjects(shortExchangeName);
+
+                if (exchange == null) {
+                    log.debug("Cannot create exchange (isFirstExchange = " + isFirstExchange + ")");
+                }
+            }
+            marketDataServiceToUse = marketDataService;
+            exchangeSymbolsToUse = exchangeSymbols;
+            shortExchangeNameToUse = shortExchangeName;
+            currencyToUse = currency;
+        }
+
+        if (marketDataServiceToUse == null || exchangeSymbolsToUse == null) {
+            return null;
+        }
+
+        // Only get data from server if ticker is being shown if
+        // currency conversion is switched on.
+        // (This is to minimise the load on the remote servers).
+        if (Boolean.FALSE.toString().equals(controller.getModel().getUserPreference(ExchangeModel.TICKER_SHOW))
+                && Boolean.FALSE.toString().equals(
+                        controller.getModel().getUserPreference(ExchangeModel.SHOW_BITCOIN_CONVERTED_TO_FIAT))) {
+            return null;
+        }
+
+        // Get symbol ticker if it is one of the
+        // currencies we are interested in.
+        // (This is to save hitting the server for every
+        // currency).
+        boolean getItFromTheServer = false;
+        // Is the amount quoted the reciprocal of number
+        // of currency units per BTC
+        boolean invertedRates = false;
+
+        // Is the currency pair the other way round ie
+        // base currency = other, counter currency = BTC
+        boolean reverseRates = ExchangeData.doesExchangeUseReverseRates(shortExchangeNameToUse);
+        CurrencyPair currencyPairToUse = null;
+
+        for (CurrencyPair loopSymbolPair : exchangeSymbolsToUse) {
+            if (ExchangeData.OPEN_EXCHANGE_RATES_EXCHANGE_NAME.equals(shortExchangeNameToUse)) {
+                if (loopSymbolPair.baseCurrency.equals(currencyToUse)) {
+                    getItFromTheServer = true;
+                    invertedRates = true;
+                    currencyPairToUse = loopSymbolPair;
+                    break;
+                }
+            } else {
+                if ("BTC".equals(loopSymbolPair.baseCurrency) && loopSymbolPair.counterCurrency.equals(currencyToUse)) {
+                    getItFromTheServer = true;
+                    currencyPairToUse = loopSymbolPair;
+                    break;
+                }
+                if ("BTC".equals(loopSymbolPair.counterCurrency) && loopSymbolPair.baseCurrency.equals(currencyToUse)) {
+                    getItFromTheServer = true;
+                    invertedRates = true;
+                    currencyPairToUse = loopSymbolPair;
+                    break;
+                }
+            }
+        }
+
+        if (!getItFromTheServer) {
+            return null;
+        }
+
+        BigMoney last = null;
+        BigMoney bid = null;
+        BigMoney ask = null;
+
+        if (ExchangeData.OPEN_EXCHANGE_RATES_EXCHANGE_NAME.equals(shortExchangeNameToUse)) {
+            // The two rates are independent so ask for both at once.
+            log.debug("Getting loopTicker for " + currencyToUse + " USD and btcUsdTicker for BTC/USD");
+            Future<Ticker> loopTickerFuture = requestExecutor.submit(createTickerRequest(marketDataServiceToUse, currencyToUse,
+                    Currencies.USD));
+            Future<Ticker> btcUsdTickerFuture = requestExecutor.submit(createTickerRequest(marketDataServiceToUse, Currencies.BTC,
+                    Currencies.USD));
+            Ticker loopTicker;
+            Ticker btcUsdTicker;
+            try {
+                loopTicker = loopTickerFuture.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                btcUsdTicker = btcUsdTickerFuture.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } finally {
+                loopTickerFuture.cancel(true);
+                btcUsdTickerFuture.cancel(true);
+            }
+
+            BigMoney usdBtcRateMoney = btcUsdTicker.getLast();
+            BigDecimal usdBtcRate = null;
+            if (usdBtcRateMoney != null) {
+                usdBtcRate = usdBtcRateMoney.getAmount();
+                if (loopTicker.getLast() != null) {
+                    last = loopTicker.getLast().dividedBy(usdBtcRate, RoundingMode.HALF_EVEN);
+                }
+                if (loopTicker.getBid() != null) {
+                    bid = loopTicker.getBid().dividedBy(usdBtcRate, RoundingMode.HALF_EVEN);
+                }
+                if (loopTicker.getAsk() != null) {
+                    ask = loopTicker.getAsk().dividedBy(usdBtcRate, RoundingMode.HALF_EVEN);
+                }
+            }
+        } else {
+            log.debug("Getting ticker for " + currencyPairToUse.baseCurrency + " " + currencyPairToUse.counterCurrency);
+            Ticker loopTicker = marketDataServiceToUse.getTicker(currencyPairToUse.baseCurrency,
+                    currencyPairToUse.counterCurrency);
+
+            log.debug("Got ticker for " + currencyPairToUse.baseCurrency + " " + currencyPairToUse.counterCurrency);
+            last = loopTicker.getLast();
+            bid = loopTicker.getBid();
+            ask = loopTicker.getAsk();
+
+            if (invertedRates && !reverseRates) {
+                if (last != null && last.getAmount() != BigDecimal.ZERO) {
+                    last = BigMoney.of(last.getCurrencyUnit(), BigDecimal.ONE.divide(last.getAmount(),
+                            NUMBER_OF_SIGNIFICANT_DIGITS, BigDecimal.ROUND_HALF_EVEN));
+                } else {
+                    last = null;
+                }
+                if (bid != null && bid.getAmount() != BigDecimal.ZERO) {
+                    bid = BigMoney.of(last.getCurrencyUnit(), BigDecimal.ONE.divide(bid.getAmount(),
+                            NUMBER_OF_SIGNIFICANT_DIGITS, BigDecimal.ROUND_HALF_EVEN));
+                } else {
+                    bid = null;
+                }
+
+                if (ask != null && ask.getAmount() != BigDecimal.ZERO) {
+                    ask = BigMoney.of(last.getCurrencyUnit(), BigDecimal.ONE.divide(ask.getAmount(),
+                            NUMBER_OF_SIGNIFICANT_DIGITS, BigDecimal.ROUND_HALF_EVEN));
+                } else {
+                    ask = null;
+                }
+            }
+
+            if (invertedRates) {
+                if (reverseRates) {
+                    // USD/ BTC, reciprocal rate
+                    currencyToUse = currencyPairToUse.baseCurrency;
+                } else {
+                    // BTC/ USD, reciprocal rate
+                    currencyToUse = currencyPairToUse.counterCurrency;
+                }
+            } else {
+                if (reverseRates) {
+                    // USD/ BTC, normal rate
+                    currencyToUse = currencyPairToUse.baseCurrency;
+                } else {
+                    // BTC/ USD, normal rate
+                    currencyToUse = currencyPairToUse.counterCurrency;
+                }
+            }
+        }
+
+        return new Result(System.currentTimeMillis(), shortExchangeNameToUse, currencyToUse, last, bid, ask);
+    }
+
+    /**
+     * Put the rates into the exchange data, the exchange rate history and, for the first row, the currency converter.
+     */
+    void publish(Result result) {
+        ExchangeData exchangeData = this.exchangeController.getModel().getExchangeData(result.shortExchangeName);
+        if (exchangeData != null) {
+            exchangeData.setRates(result.currency, result.last, result.bid, result.ask);
+        }
+        ExchangeRateHistory.INSTANCE.add(result.shortExchangeName, result.currency, result.timestamp, result.last, result.bid,
+                result.ask);
+        log.debug("Exchange = " + result.shortExchangeName);
+
+        // Put the exchange rate into the currency converter.
+        if (isFirstExchange && result.last != null) {
+            String newCurrencyCode = result.currency;
+            if (ExchangeData.BITCOIN_CHARTS_EXCHANGE_NAME.equals(result.shortExchangeName)) {
+                // Use only the last three characters - the
+                // currency code.
+                if (newCurrencyCode.length() >= 3) {
+                    newCurrencyCode = newCurrencyCode.substring(newCurrencyCode.length() - 3);
+                }
+            }
+            CurrencyConverter.INSTANCE.setCurrencyUnit(CurrencyUnit.of(newCurrencyCode));
+            CurrencyConverter.INSTANCE.setRate(result.last.getAmount());
+        }
+    }
+
+    private static Callable<Ticker> createTickerRequest(final PollingMarketDataService marketDataService,
+            final String tradableIdentifier, final String currency) {
+        return new Callable<Ticker>() {
+            @Override
+            public Ticker call() throws Exception {
+                return marketDataService.getTicker(tradableIdentifier, currency);
+            }
+        };
+    }
+
+    public void createExchangeObjects(String newExchangeName) {
+        exchange = createExchange(newExchangeName);
+
+        if (exchange != null) {
+            // Interested in the public market data feed (no authentication).
+            marketDataService = exchange.getPollingMarketDataService();
+            log.debug("marketDataService = " + marketDataService);
+
+            // Get the list of available currencies.
+            exchangeSymbols = marketDataService.getExchangeSymbols();
+            log.debug("exchangeSymbols = " + exchangeSymbols);
+
+            if (exchangeSymbols != null) {
+                Collection<String> availableCurrencies = new java.util.TreeSet<String>();
+
+                for (int i = 0; i < exchangeSymbols.size(); i++) {
+                    String baseCurrency = exchangeSymbols.get(i).baseCurrency;
+                    String counterCurrency = exchangeSymbols.get(i).counterCurrency;
+
+                    if (ExchangeData.OPEN_EXCHANGE_RATES_EXCHANGE_NAME.equals(newExchangeName)) {
+                        if ("USD".equalsIgnoreCase(baseCurrency) && !"BTC".equalsIgnoreCase(counterCurrency)) {
+                            if (!"EEK".equalsIgnoreCase(counterCurrency) && !"CLF".equalsIgnoreCase(counterCurrency) 
+                             && !"JEP".equalsIgnoreCase(counterCurrency) && ! "SVC".equalsIgnoreCase(counterCurrency)) {
+                                availableCurrencies.add(counterCurrency);
+                            }
+                        }
+                        if ("USD".equalsIgnoreCase(counterCurrency) && !"BTC".equalsIgnoreCase(baseCurrency)) {
+                            if (!"EEK".equalsIgnoreCase(baseCurrency) && !"CLF".equalsIgnoreCase(baseCurrency) 
+                                    && !"JEP".equalsIgnoreCase(baseCurrency) && ! "SVC".equalsIgnoreCase(baseCurrency)) {
+                                availableCurrencies.add(baseCurrency);
+                            }
+                        }
+                    } else {
+                        if ("BTC".equalsIgnoreCase(baseCurrency)) {
+                            availableCurrencies.add(counterCurrency);
+                        }
+                        if ("BTC".equalsIgnoreCase(counterCurrency)) {
+                            availableCurrencies.add(baseCurrency);
+                        }
+                    }
+                }
+                ExchangeData.setAvailableCurrenciesForExchange(newExchangeName, availableCurrencies);
+            }
+        }
+    }
+
+    /**
+     * Create the exchange specified by the exchange class name specified e.g.
+     * BitcoinChartsExchange.class.getName();
+     * 
+     * @param exchangeClassName
+     */
+    private Exchange createExchange(String exchangeShortname) {
+        log.debug("creating exchange from exchangeShortname  = " + exchangeShortname);
+        if (exchangeShortname == null) {
+            return null;
+        }
+
+        try {
+            // Demonstrate the public market data service.
+            // Use the factory to get the exchange API using default settings.
+            String exchangeClassname = ExchangeData.convertExchangeShortNameToClassname(exchangeShortname);
+
+            if (exchangeClassname == null) {
+                return null;
+            }
+
+            Exchange exchangeToReturn;
+            if (ExchangeData.OPEN_EXCHANGE_RATES_EXCHANGE_NAME.equalsIgnoreCase(exchangeShortname)) {
+                ExchangeSpecification exchangeSpecification = new ExchangeSpecification(exchangeClassname);
+                exchangeSpecification.setPlainTextUri("http://openexchangerates.org");
+                exchangeSpecification
+                        .setApiKey(controller.getModel().getUserPreference(ExchangeModel.OPEN_EXCHANGE_RATES_API_CODE));
+                exchangeToReturn = ExchangeFactory.INSTANCE.createExchange(exchangeSpecification);
+            } else {
+                exchangeToReturn = ExchangeFactory.INSTANCE.createExchange(exchangeClassname);
+            }
+            
+            if (this.exchangeController.getModel().getExchangeData(shortExchangeName) == null) {
+                ExchangeData exchangeData = new ExchangeData();
+                exchangeData.setShortExchangeName(shortExchangeName);
+                this.exchangeController.getModel().getShortExchangeNameToExchangeMap().put(exchangeShortname, exchangeData);
+            }
+
+            return exchangeToReturn;
+        } catch (com.xeiam.xchange.ExchangeException e) {
+            // Probably xchange is not on classpath - ticker will not run
+            // but error should not spread out from here to rest of MultiBit.
+            log.error(e.getClass().getName() + " " + e.getMessage());
+        }catch (NoClassDefFoundError e) {
+            // Probably xchange is not on classpath - ticker will not run
+            // but error should not spread out from here to rest of MultiBit.
+            log.error(e.getClass().getName() + " " + e.getMessage());
+        } catch (NullPointerException e) {
+            log.error(e.getClass().getName() + " " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Get the exchange used by this ExchangeTicker.
+     */
+    public Exchange getExchange() {
+        return exchange;
+    }
+
+    public boolean isFirstExchange() {
+        return isFirstExchange;
+    }
+}
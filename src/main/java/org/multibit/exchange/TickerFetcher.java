@@ -0,0 +1,209 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.exchange;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.multibit.controller.exchange.ExchangeController;
+import org.multibit.viewsystem.swing.MultiBitFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls the exchanges for the rows of the ticker.<p>
+ *
+ * One scheduler thread starts a fetch for each row every DEFAULT_REPEAT_RATE. The rows are fetched at the same time
+ * on a pool of request threads and each row is published as soon as it arrives, so a slow exchange does not hold up
+ * the other row. A row that has not been fetched within REQUEST_TIMEOUT is abandoned, and it is not asked for again
+ * until the abandoned request has returned.
+ */
+public class TickerFetcher {
+    private static final Logger log = LoggerFactory.getLogger(TickerFetcher.class);
+
+    public static final int DEFAULT_REPEAT_RATE = 600000; // milliseconds
+
+    public static final int INITIAL_DELAY = 0; // milliseconds
+
+    public static final int REQUEST_TIMEOUT = 30000; // milliseconds
+
+    private final ExchangeController exchangeController;
+    private final MultiBitFrame mainFrame;
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService requestExecutor;
+
+    private ScheduledFuture<?> fetchSchedule;
+
+    private ExchangeTicker firstRowTicker;
+    private ExchangeTicker secondRowTicker;
+
+    /**
+     * The rows with a request outstanding, which may have been abandoned.
+     */
+    private final Set<ExchangeTicker> tickersBeingFetched = new HashSet<ExchangeTicker>();
+
+    public TickerFetcher(ExchangeController exchangeController, MultiBitFrame mainFrame) {
+        this.exchangeController = exchangeController;
+        this.mainFrame = mainFrame;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(createThreadFactory("TickerFetcher"));
+        requestExecutor = Executors.newCachedThreadPool(createThreadFactory("TickerFetcher-request"));
+
+        createTickers();
+    }
+
+    /**
+     * Start polling the exchanges.
+     *
+     * @param initialDelay the time to wait before the first fetch, in milliseconds
+     */
+    public synchronized void start(long initialDelay) {
+        if (fetchSchedule != null) {
+            fetchSchedule.cancel(false);
+        }
+        fetchSchedule = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                fetchAll();
+            }
+        }, initialDelay, DEFAULT_REPEAT_RATE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pick up changes to the ticker preferences and fetch all the rows straight away.
+     */
+    public synchronized void restart() {
+        createTickers();
+        start(0);
+    }
+
+    /**
+     * Stop polling the exchanges. Requests already made are left to finish.
+     */
+    public synchronized void stop() {
+        if (fetchSchedule != null) {
+            fetchSchedule.cancel(false);
+            fetchSchedule = null;
+        }
+    }
+
+    public synchronized ExchangeTicker getFirstRowTicker() {
+        return firstRowTicker;
+    }
+
+    public synchronized ExchangeTicker getSecondRowTicker() {
+        return secondRowTicker;
+    }
+
+    private synchronized void createTickers() {
+        firstRowTicker = new ExchangeTicker(exchangeController, true);
+        secondRowTicker = new ExchangeTicker(exchangeController, false);
+    }
+
+    private void fetchAll() {
+        ExchangeTicker[] tickers;
+        synchronized (this) {
+            tickers = new ExchangeTicker[] { firstRowTicker, secondRowTicker };
+        }
+        for (ExchangeTicker ticker : tickers) {
+            fetch(ticker);
+        }
+    }
+
+    private void fetch(final ExchangeTicker ticker) {
+        if (!ticker.isShowing()) {
+            return;
+        }
+        synchronized (this) {
+            if (!tickersBeingFetched.add(ticker)) {
+                log.debug("The previous request for the ticker (isFirstExchange = " + ticker.isFirstExchange()
+                        + ") has not returned yet");
+                return;
+            }
+        }
+
+        final Future<?> request = requestExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                fetchAndPublish(ticker);
+            }
+        });
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!request.isDone()) {
+                    log.debug("Ticker request timed out (isFirstExchange = " + ticker.isFirstExchange() + ")");
+                    request.cancel(true);
+                }
+            }
+        }, REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private void fetchAndPublish(ExchangeTicker ticker) {
+        try {
+            ExchangeTicker.Result result = ticker.fetch(requestExecutor, REQUEST_TIMEOUT);
+
+            if (Thread.currentThread().isInterrupted()) {
+                // Timed out - the rates are left as they were.
+                return;
+            }
+            boolean isCurrentTicker;
+            synchronized (this) {
+                isCurrentTicker = ticker == firstRowTicker || ticker == secondRowTicker;
+            }
+            if (result != null && isCurrentTicker) {
+                ticker.publish(result);
+            }
+
+            // Fire exchange rate data changed - used by rest of MultiBit.
+            mainFrame.fireExchangeDataChanged();
+        } catch (InterruptedException e) {
+            log.debug("Ticker request was interrupted (isFirstExchange = " + ticker.isFirstExchange() + ")");
+        } catch (Exception e) {
+            // Stop any xchange errors percolating out.
+            log.error(e.getClass().getName() + " " + e.getMessage());
+            if (e.getCause() != null) {
+                log.error(e.getCause().getClass().getName() + " " + e.getCause().getMessage());
+            }
+        } finally {
+            synchronized (this) {
+                tickersBeingFetched.remove(ticker);
+            }
+        }
+    }
+
+    private static ThreadFactory createThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A catalogue of the timestamped wallet backups in one backup directory, kept in a small index file in the wallet's
+ * -data directory.<p>
+ *
+ * The catalogue records the last modified time of the backup directory when it was written. If the directory has
+ * changed since - because backups were added, moved or deleted outside the catalogue - it is rebuilt by listing the
+ * directory. Otherwise the backups are known without listing the directory or parsing their filenames.
+ */
+class BackupCatalogue {
+    private static final Logger log = LoggerFactory.getLogger(BackupCatalogue.class);
+
+    static final String CATALOGUE_FILE_SUFFIX = ".catalogue";
+
+    private static final String CATALOGUE_FORMAT_VERSION = "1";
+    private static final String SEPARATOR = " ";
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * A backup wallet, its timestamp and size.
+     */
+    static class Entry {
+        private final String filename;
+        private final long timestamp;
+        private final long size;
+
+        Entry(String filename, long timestamp, long size) {
+            this.filename = filename;
+            this.timestamp = timestamp;
+            this.size = size;
+        }
+
+        String getFilename() {
+            return filename;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+
+    private static final Comparator<Entry> OLDEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            if (entry1.timestamp != entry2.timestamp) {
+                return entry1.timestamp < entry2.timestamp ? -1 : 1;
+            }
+            return entry1.filename.compareTo(entry2.filename);
+        }
+    };
+
+    private final File backupDirectory;
+    private final File catalogueFile;
+
+    // Oldest first.
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    // The last modified time of the backup directory that the entries match.
+    private long directoryLastModified = -1;
+
+    BackupCatalogue(File backupDirectory, File catalogueFile) {
+        this.backupDirectory = backupDirectory;
+        this.catalogueFile = catalogueFile;
+    }
+
+    File getBackupDirectory() {
+        return backupDirectory;
+    }
+
+    /**
+     * @return the non empty backups, oldest first
+     */
+    synchronized List<Entry> getBackups() {
+        refresh();
+        List<Entry> backups = new ArrayList<Entry>(entries.size());
+        for (Entry entry : entries) {
+            if (entry.size > 0) {
+                backups.add(entry);
+            }
+        }
+        return backups;
+    }
+
+    /**
+     * Add a backup that has just been written to the backup directory.
+     */
+    synchronized void add(File backupFile, long timestamp) {
+        if (directoryLastModified == -1) {
+            // Not read in yet. The new backup changes the directory so it cannot be checked against the catalogue.
+            rebuild();
+        }
+        Entry entry = new Entry(backupFile.getName(), timestamp, backupFile.length());
+        int insertionPoint = Collections.binarySearch(entries, entry, OLDEST_FIRST);
+        if (insertionPoint < 0) {
+            entries.add(-insertionPoint - 1, entry);
+        } else {
+            entries.set(insertionPoint, entry);
+        }
+        save();
+    }
+
+    /**
+     * Remove backups that are about to be, or have been, deleted.
+     */
+    synchronized void remove(Collection<Entry> backupsToRemove) {
+        Set<String> filenamesToRemove = new HashSet<String>();
+        for (Entry entry : backupsToRemove) {
+            filenamesToRemove.add(entry.filename);
+        }
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (filenamesToRemove.contains(entries.get(i).filename)) {
+                entries.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Write the catalogue out, recording the current state of the backup directory.
+     */
+    synchronized void save() {
+        directoryLastModified = backupDirectory.lastModified();
+
+        File temporaryFile = new File(catalogueFile.getAbsolutePath() + FileHandler.TEMPORARY_FILE_SUFFIX);
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporaryFile), ENCODING));
+            writer.write(CATALOGUE_FORMAT_VERSION + SEPARATOR + directoryLastModified);
+            writer.newLine();
+            for (Entry entry : entries) {
+                writer.write(entry.timestamp + SEPARATOR + entry.size + SEPARATOR + entry.filename);
+                writer.newLine();
+            }
+            writer.close();
+            writer = null;
+
+            if (!temporaryFile.renameTo(catalogueFile)) {
+                if (catalogueFile.exists() && !catalogueFile.delete()) {
+                    throw new IOException("Could not delete '" + catalogueFile.getAbsolutePath() + "'");
+                }
+                if (!temporaryFile.renameTo(catalogueFile)) {
+                    throw new IOException("Could not rename '" + temporaryFile.getAbsolutePath() + "'");
+                }
+            }
+        } catch (IOException ioe) {
+            // The catalogue is rebuilt from the backup directory next time.
+            log.error("Could not write backup catalogue '" + catalogueFile.getAbsolutePath() + "'. " + ioe.getMessage());
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ioe) {
+                    log.debug(ioe.getClass().getName() + " " + ioe.getMessage());
+                }
+            }
+            if (temporaryFile.exists()) {
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Make sure the entries match the backup directory, reading in the catalogue file or listing the directory if
+     * they may not.
+     */
+    private void refresh() {
+        long lastModified = backupDirectory.lastModified();
+        if (lastModified == directoryLastModified) {
+            return;
+        }
+        if (directoryLastModified == -1 && load() && lastModified == directoryLastModified) {
+            return;
+        }
+        rebuild();
+        save();
+    }
+
+    /**
+     * @return true if the catalogue file was read
+     */
+    private boolean load() {
+        if (!catalogueFile.exists()) {
+            return false;
+        }
+
+        List<Entry> loadedEntries = new ArrayList<Entry>();
+        long loadedDirectoryLastModified;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(catalogueFile), ENCODING));
+            String header = reader.readLine();
+            if (header == null || !header.startsWith(CATALOGUE_FORMAT_VERSION + SEPARATOR)) {
+                return false;
+            }
+            loadedDirectoryLastModified = Long.parseLong(header.substring(header.indexOf(SEPARATOR) + 1));
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int firstSeparator = line.indexOf(SEPARATOR);
+                int secondSeparator = line.indexOf(SEPARATOR, firstSeparator + 1);
+                if (firstSeparator < 0 || secondSeparator < 0) {
+                    return false;
+                }
+                loadedEntries.add(new Entry(line.substring(secondSeparator + 1), Long.parseLong(line.substring(0,
+                        firstSeparator)), Long.parseLong(line.substring(firstSeparator + 1, secondSeparator))));
+            }
+        } catch (IOException ioe) {
+            log.debug("Could not read backup catalogue '" + catalogueFile.getAbsolutePath() + "'. " + ioe.getMessage());
+            return false;
+        } catch (NumberFormatException nfe) {
+            log.debug("Backup catalogue '" + catalogueFile.getAbsolutePath() + "' is damaged. " + nfe.getMessage());
+            return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ioe) {
+                    log.debug(ioe.getClass().getName() + " " + ioe.getMessage());
+                }
+            }
+        }
+
+        Collections.sort(loadedEntries, OLDEST_FIRST);
+        entries.clear();
+        entries.addAll(loadedEntries);
+        directoryLastModified = loadedDirectoryLastModified;
+        return true;
+    }
+
+    /**
+     * List the backup directory and work out the date each backup was made from its timestamp. This is done using
+     * the timestamp rather than the write time of the file.
+     */
+    private void rebuild() {
+        log.debug("Rebuilding backup catalogue for '" + backupDirectory.getAbsolutePath() + "'");
+        entries.clear();
+
+        File[] listOfFiles = backupDirectory.listFiles();
+        if (listOfFiles == null) {
+            return;
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat(BackupManager.BACKUP_SUFFIX_FORMAT);
+        for (File file : listOfFiles) {
+            String filename = file.getName();
+            if (file.isFile() && filename.matches(BackupManager.REGEX_FOR_TIMESTAMP_AND_WALLET_SUFFIX)) {
+                // 21 = 14 for timestamp + 1 for dot + 6 for wallet.
+                int startOfTimestamp = filename.length() - 21;
+                String timestampText = filename.substring(startOfTimestamp, startOfTimestamp + BackupManager.BACKUP_SUFFIX_FORMAT.length());
+                try {
+                    entries.add(new Entry(filename, dateFormat.parse(timestampText).getTime(), file.length()));
+                } catch (ParseException pe) {
+                    // Cannot parse text - may be some other type of file the user has put in the directory.
+                    log.debug("For wallet '" + filename + " could not parse the timestamp of '" + timestampText + "'.");
+                }
+            }
+        }
+        Collections.sort(entries, OLDEST_FIRST);
+    }
+}
@@ -1,14 +1,21 @@
 package org.multibit.file;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -17,6 +24,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 
 import org.bitcoinj.wallet.Protos;
 import org.bitcoinj.wallet.Protos.ScryptParameters;
@@ -26,11 +34,17 @@ import org.multibit.model.bitcoin.WalletData;
 import org.multibit.model.bitcoin.WalletInfoData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.BufferedBlockCipher;
+import org.spongycastle.crypto.DataLengthException;
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.engines.AESFastEngine;
+import org.spongycastle.crypto.modes.CBCBlockCipher;
+import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.crypto.params.ParametersWithIV;
 import org.spongycastle.util.Arrays;
 
-import com.google.bitcoin.core.Utils;
 import com.google.bitcoin.core.Wallet;
-import com.google.bitcoin.crypto.EncryptedPrivateKey;
 import com.google.bitcoin.crypto.KeyCrypter;
 import com.google.bitcoin.crypto.KeyCrypterException;
 import com.google.bitcoin.crypto.KeyCrypterScrypt;
@@ -52,6 +66,9 @@ public enum BackupManager {
     private DateFormat dateFormat;
     private Date dateForBackupName = null;
 
+    // The backup catalogues read in so far, by backup directory.
+    private final Map<String, BackupCatalogue> backupCatalogues = new HashMap<String, BackupCatalogue>();
+
     public static final String TOP_LEVEL_WALLET_BACKUP_SUFFIX = "-data";
     public static final String PRIVATE_KEY_BACKUP_DIRECTORY_NAME = "key-backup";
     public static final String ROLLING_WALLET_BACKUP_DIRECTORY_NAME = "rolling-backup";
@@ -76,6 +93,12 @@ public enum BackupManager {
     public static final byte FILE_ENCRYPTED_VERSION_NUMBER = (byte) 0x00;
 
     public static final byte[] ENCRYPTED_FILE_FORMAT_MAGIC_BYTES = new byte[]{(byte) 0x6D, (byte) 0x65, (byte) 0x6E, (byte) 0x64, (byte) 0x6F, (byte) 0x7A, (byte) 0x61}; // mendoza in ASCII
+
+    // Magic bytes + version + salt + iv.
+    private static final int ENCRYPTED_FILE_HEADER_LENGTH = ENCRYPTED_FILE_FORMAT_MAGIC_BYTES.length + 1
+            + KeyCrypterScrypt.SALT_LENGTH + KeyCrypterScrypt.BLOCK_LENGTH;
+
+    private static final int ENCRYPTION_BUFFER_SIZE = 64 * 1024;
      
     /**
      * Backup the perWalletModelData to the <wallet>-data/wallet-backup (encrypted) or wallet-unenc-backup (unencrypted) directories.
@@ -96,6 +119,8 @@ public enum BackupManager {
                 backupSuffixText = ENCRYPTED_WALLET_BACKUP_DIRECTORY_NAME;
             }
             String walletBackupFilename = createBackupFilename(new File(perWalletModelData.getWalletFilename()), backupSuffixText, true, false, BitcoinModel.WALLET_FILE_EXTENSION);
+            // The timestamp in the backup filename is to the second.
+            long backupTimestamp = dateForBackupName.getTime() / 1000 * 1000;
             perWalletModelData.setWalletBackupFilename(walletBackupFilename);
 
             String walletInfoBackupFilename = walletBackupFilename.replaceAll(BitcoinModel.WALLET_FILE_EXTENSION + "$", INFO_FILE_SUFFIX_STRING);
@@ -105,6 +130,8 @@ public enum BackupManager {
             thinBackupDirectory(perWalletModelData.getWalletFilename(), backupSuffixText);
             
             fileHandler.saveWalletAndWalletInfoSimple(perWalletModelData, walletBackupFilename, walletInfoBackupFilename);
+            getBackupCatalogue(perWalletModelData.getWalletFilename(), backupSuffixText).add(new File(walletBackupFilename),
+                    backupTimestamp);
 
             log.info("Written backup wallet files to '" + walletBackupFilename + "', '" + walletInfoBackupFilename + "'");
         } catch (IOException ioe) {
@@ -116,25 +143,51 @@ public enum BackupManager {
         }
     }
     
+    /**
+     * File level encrypt all the unencrypted wallet backups of a wallet and secure delete the originals.
+     * 
+     * The scrypt key derivation is by far the slowest part of encrypting a backup, so the key is derived once and
+     * used for all the backups. Each backup still has its own IV.
+     */
     public void fileLevelEncryptUnencryptedWalletBackups(WalletData perWalletModelData, CharSequence passwordToUse) {
         // See if there are any unencrypted wallet backups.
         Collection<File> unencryptedWalletBackups = getWalletsInBackupDirectory(perWalletModelData.getWalletFilename(),
                 UNENCRYPTED_WALLET_BACKUP_DIRECTORY_NAME);
+        if (unencryptedWalletBackups.isEmpty()) {
+            return;
+        }
+        if (passwordToUse == null || passwordToUse.length() == 0) {
+            log.error("Cannot encrypt the wallet backups as the password is blank");
+            return;
+        }
 
-        // Copy and encrypt each file and secure delete the original.
-        for (File loopFile : unencryptedWalletBackups) {
-            try {
-                String encryptedFilename = loopFile.getAbsolutePath() + "." + FILE_ENCRYPTED_WALLET_SUFFIX;
-                copyFileAndEncrypt(loopFile, new File(encryptedFilename), passwordToUse);
-                FileHandler.secureDelete(loopFile);
-            } catch (IOException ioe) {
-                log.error(ioe.getClass().getName() + " " + ioe.getMessage());
-            } catch (IllegalArgumentException iae) {
-                log.error(iae.getClass().getName() + " " + iae.getMessage());
-            } catch (IllegalStateException ise) {
-                log.error(ise.getClass().getName() + " " + ise.getMessage());
-            } catch (KeyCrypterException kce) {
-                log.error(kce.getClass().getName() + " " + kce.getMessage());
+        KeyCrypterScrypt keyCrypter = createBackupKeyCrypter();
+        KeyParameter aesKey = null;
+        try {
+            aesKey = keyCrypter.deriveKey(passwordToUse);
+
+            // Copy and encrypt each file and secure delete the original.
+            for (File loopFile : unencryptedWalletBackups) {
+                try {
+                    String encryptedFilename = loopFile.getAbsolutePath() + "." + FILE_ENCRYPTED_WALLET_SUFFIX;
+                    copyFileAndEncrypt(loopFile, new File(encryptedFilename), keyCrypter, aesKey);
+                    // The backup holds unencrypted private keys so it is gone before returning.
+                    FileHandler.secureDelete(loopFile);
+                } catch (IOException ioe) {
+                    log.error(ioe.getClass().getName() + " " + ioe.getMessage());
+                } catch (IllegalArgumentException iae) {
+                    log.error(iae.getClass().getName() + " " + iae.getMessage());
+                } catch (IllegalStateException ise) {
+                    log.error(ise.getClass().getName() + " " + ise.getMessage());
+                } catch (KeyCrypterException kce) {
+                    log.error(kce.getClass().getName() + " " + kce.getMessage());
+                }
+            }
+        } catch (KeyCrypterException kce) {
+            log.error(kce.getClass().getName() + " " + kce.getMessage());
+        } finally {
+            if (aesKey != null) {
+                Arrays.fill(aesKey.getKey(), (byte) 0);
             }
         }
     }
@@ -208,91 +261,161 @@ public enum BackupManager {
    
     /**
      * Thin the wallet backups when they reach the MAXIMUM_NUMBER_OF_BACKUPS setting.
-     * Thinning is done by removing the most quickly replaced backup, except for the first and last few 
+     * Thinning is done by removing the most quickly replaced backups, except for the first and last few 
      * (as they are considered to be more valuable backups).
      * 
+     * The backups to delete are all chosen in one pass over the backup catalogue and then secure deleted in the
+     * background.
+     * 
      * @param backupDirectoryName
      */
     void thinBackupDirectory(String walletFilename, String backupSuffixText) {
-        if (dateFormat == null) {
-            dateFormat = new SimpleDateFormat(BACKUP_SUFFIX_FORMAT);
-        }
-        
         if (walletFilename == null || backupSuffixText == null) {
             return;
         }
         
         // Find out how many wallet backups there are.
-        List<File> backupWallets = getWalletsInBackupDirectory(walletFilename, backupSuffixText);
+        final BackupCatalogue catalogue = getBackupCatalogue(walletFilename, backupSuffixText);
+        List<BackupCatalogue.Entry> backupWallets = catalogue.getBackups();
         
         if (backupWallets.size() < MAXIMUM_NUMBER_OF_BACKUPS) {
             // No thinning required.
             return;
         }
         
-        // Work out the date the backup was made for each of the wallet.
-        // This is done using the timestamp rather than the write time of the file.
-        Map<File, Date> mapOfFileToBackupTimes = new HashMap<File, Date>();
-        for (int i = 0; i < backupWallets.size(); i++) {
-            String filename = backupWallets.get(i).getName();
-            if (filename.length() > 22) { // 22 = 1 for hyphen + 14 for timestamp + 1 for dot + 6 for wallet.
-                int startOfTimestamp = filename.length() - 21; // 21 = 14 for timestamp + 1 for dot + 6 for wallet.
-                String timestampText = filename.substring(startOfTimestamp, startOfTimestamp + BACKUP_SUFFIX_FORMAT.length() );
-                try {
-                    Date parsedTimestamp = dateFormat.parse(timestampText);
-                    mapOfFileToBackupTimes.put(backupWallets.get(i), parsedTimestamp);
-                } catch (ParseException pe) {
-                    // Cannot parse text - may be some other type of file the user has put in the directory.
-                    log.debug("For wallet '" + filename + " could not parse the timestamp of '" + timestampText + "'.");
-                }
+        // Leave room for the backup about to be written.
+        final List<BackupCatalogue.Entry> backupsToDelete = chooseBackupsToThin(catalogue.getBackupDirectory(), backupWallets,
+                backupWallets.size() - MAXIMUM_NUMBER_OF_BACKUPS + 1);
+        if (backupsToDelete.isEmpty()) {
+            return;
+        }
+        catalogue.remove(backupsToDelete);
+
+        // Secure delete the chosen backup wallets and their info files if present.
+        List<File> filesToDelete = new ArrayList<File>();
+        for (BackupCatalogue.Entry backupToDelete : backupsToDelete) {
+            File backupWallet = new File(catalogue.getBackupDirectory(), backupToDelete.getFilename());
+            log.debug("To save space, secure deleting backup wallet '" + backupWallet.getAbsolutePath() + "'.");
+            filesToDelete.add(backupWallet);
+
+            String walletInfoBackupFilename = backupWallet.getAbsolutePath()
+                    .replaceAll(BitcoinModel.WALLET_FILE_EXTENSION + "$", INFO_FILE_SUFFIX_STRING);
+            filesToDelete.add(new File(walletInfoBackupFilename));
+        }
+
+        FileShredder.INSTANCE.shredLater(filesToDelete, new Runnable() {
+            @Override
+            public void run() {
+                // Record the directory as it is after the deletes. They are removed again in case the catalogue was
+                // rebuilt from the directory part way through.
+                catalogue.remove(backupsToDelete);
+                catalogue.save();
+            }
+        });
+    }
+
+    /**
+     * Choose which backups to delete, most quickly replaced first. When a backup is chosen the one before it is then
+     * replaced by the one after it, so its replacement time is recalculated. A priority queue keeps this to
+     * O(n log n) for any number of deletions.
+     * 
+     * @param backupWallets The backups, oldest first
+     */
+    List<BackupCatalogue.Entry> chooseBackupsToThin(File backupDirectory, List<BackupCatalogue.Entry> backupWallets,
+            int numberToDelete) {
+        final int numberOfBackups = backupWallets.size();
+        final long[] timestamps = new long[numberOfBackups];
+        for (int i = 0; i < numberOfBackups; i++) {
+            timestamps[i] = backupWallets.get(i).getTimestamp();
+        }
+
+        // A doubly linked list of the backups that are left.
+        int[] previous = new int[numberOfBackups];
+        int[] next = new int[numberOfBackups];
+        // Incremented when the replacement time of a backup changes, so older queue entries can be ignored.
+        int[] versions = new int[numberOfBackups];
+        for (int i = 0; i < numberOfBackups; i++) {
+            previous[i] = i - 1;
+            next[i] = i + 1;
+        }
+
+        // The first and last wallets are always kept so never go in the queue.
+        int firstCandidate = NUMBER_OF_FIRST_WALLETS_TO_ALWAYS_KEEP;
+        int endOfCandidates = numberOfBackups - NUMBER_OF_LAST_WALLETS_TO_ALWAYS_KEEP;
+        PriorityQueue<ThinningCandidate> queue = new PriorityQueue<ThinningCandidate>(Math.max(1, endOfCandidates - firstCandidate));
+        for (int i = firstCandidate; i < endOfCandidates; i++) {
+            queue.add(new ThinningCandidate(i, timestamps[next[i]] - timestamps[i], 0));
+        }
+
+        List<BackupCatalogue.Entry> backupsToDelete = new ArrayList<BackupCatalogue.Entry>();
+        while (backupsToDelete.size() < numberToDelete && !queue.isEmpty()) {
+            ThinningCandidate candidate = queue.poll();
+            if (candidate.version != versions[candidate.index]) {
+                // Superseded by a later replacement time.
+                continue;
+            }
+
+            // If there is a data directory for the backup then it may have been opened
+            // in MultiBit so we will skip considering it for deletion.
+            BackupCatalogue.Entry backup = backupWallets.get(candidate.index);
+            String possibleDataDirectory = calculateTopLevelBackupDirectoryName(new File(backupDirectory, backup.getFilename()));
+            if ((new File(possibleDataDirectory)).exists()) {
+                continue;
+            }
+
+            backupsToDelete.add(backup);
+
+            // Unlink the backup. The one before it is now replaced by the one after it.
+            int before = previous[candidate.index];
+            int after = next[candidate.index];
+            next[before] = after;
+            previous[after] = before;
+            if (before >= firstCandidate) {
+                versions[before]++;
+                queue.add(new ThinningCandidate(before, timestamps[after] - timestamps[before], versions[before]));
             }
         }
+        return backupsToDelete;
+    }
 
-        // See which wallet is most quickly replaced by another backup - this will be thinned.
-        int walletBackupToDeleteIndex = -1; // Not set yet.
-        long walletBackupToDeleteReplacementTimeMillis = Integer.MAX_VALUE; // How quickly the wallet was replaced by a later one.
-        
-        for (int i = 0; i < backupWallets.size(); i++) {
-            if ((i < NUMBER_OF_FIRST_WALLETS_TO_ALWAYS_KEEP)
-                    || (i >= backupWallets.size() - NUMBER_OF_LAST_WALLETS_TO_ALWAYS_KEEP)) {
-                // Keep the very first and last wallets always.
-            } else {
-                // If there is a data directory for the backup then it may have been opened
-                // in MultiBit so we will skip considering it for deletion.
-                String possibleDataDirectory = calculateTopLevelBackupDirectoryName(backupWallets.get(i));
-                boolean theWalletHasADataDirectory = (new File(possibleDataDirectory)).exists();
-
-                // Work out how quickly the wallet is replaced by the next backup.
-                Date thisWalletTimestamp = mapOfFileToBackupTimes.get(backupWallets.get(i));
-                Date nextWalletTimestamp = mapOfFileToBackupTimes.get(backupWallets.get(i + 1));
-                if (thisWalletTimestamp != null && nextWalletTimestamp != null) {
-                    long deltaTimeMillis = nextWalletTimestamp.getTime() - thisWalletTimestamp.getTime();
-                    if (deltaTimeMillis < walletBackupToDeleteReplacementTimeMillis && !theWalletHasADataDirectory) {
-                        // This is the best candidate for deletion so far.
-                        walletBackupToDeleteIndex = i;
-                        walletBackupToDeleteReplacementTimeMillis = deltaTimeMillis;
-                    }
-                }
+    /**
+     * A backup that could be thinned and how quickly it was replaced by the next backup.
+     */
+    private static class ThinningCandidate implements Comparable<ThinningCandidate> {
+        private final int index;
+        private final long replacementTimeMillis;
+        private final int version;
+
+        ThinningCandidate(int index, long replacementTimeMillis, int version) {
+            this.index = index;
+            this.replacementTimeMillis = replacementTimeMillis;
+            this.version = version;
+        }
+
+        @Override
+        public int compareTo(ThinningCandidate other) {
+            if (replacementTimeMillis != other.replacementTimeMillis) {
+                return replacementTimeMillis < other.replacementTimeMillis ? -1 : 1;
             }
+            return index < other.index ? -1 : (index == other.index ? 0 : 1);
         }
-        
-        if (walletBackupToDeleteIndex > -1) {
-           try {
-                // Secure delete the chosen backup wallet and its info file if present.
-                log.debug("To save space, secure deleting backup wallet '"
-                        + backupWallets.get(walletBackupToDeleteIndex).getAbsolutePath() + "'.");
-                FileHandler.secureDelete(backupWallets.get(walletBackupToDeleteIndex));
-
-                String walletInfoBackupFilename = backupWallets.get(walletBackupToDeleteIndex).getAbsolutePath()
-                        .replaceAll(BitcoinModel.WALLET_FILE_EXTENSION + "$", INFO_FILE_SUFFIX_STRING);
-                File walletInfoBackup = new File(walletInfoBackupFilename);
-                if (walletInfoBackup.exists()) {
-                    log.debug("To save space, secure deleting backup info file '" + walletInfoBackup.getAbsolutePath() + "'.");
-                    FileHandler.secureDelete(walletInfoBackup);
-                }
-            } catch (IOException ioe) {
-                log.error(ioe.getClass().getName() + " " + ioe.getMessage());
+    }
+
+    /**
+     * Get the catalogue of the backups in one of the backup directories of a wallet, reading it in if necessary.
+     */
+    BackupCatalogue getBackupCatalogue(String walletFilename, String backupSuffixText) {
+        String topLevelBackupDirectoryName = calculateTopLevelBackupDirectoryName(new File(walletFilename));
+        File backupDirectory = new File(topLevelBackupDirectoryName + File.separator + backupSuffixText);
+        String key = backupDirectory.getAbsolutePath();
+        synchronized (backupCatalogues) {
+            BackupCatalogue catalogue = backupCatalogues.get(key);
+            if (catalogue == null) {
+                catalogue = new BackupCatalogue(backupDirectory, new File(topLevelBackupDirectoryName + File.separator
+                        + backupSuffixText + BackupCatalogue.CATALOGUE_FILE_SUFFIX));
+                backupCatalogues.put(key, catalogue);
             }
+            return catalogue;
         }
     }
         
@@ -300,104 +423,247 @@ public enum BackupManager {
         if (passwordToUse == null || passwordToUse.length() == 0) {
             throw new IllegalArgumentException("Password cannot be blank");
         }
-       
+
+        KeyCrypterScrypt keyCrypter = createBackupKeyCrypter();
+        KeyParameter aesKey = keyCrypter.deriveKey(passwordToUse);
+        try {
+            copyFileAndEncrypt(sourceFile, destinationFile, keyCrypter, aesKey);
+        } finally {
+            Arrays.fill(aesKey.getKey(), (byte) 0);
+        }
+    }
+
+    /**
+     * Copy and encrypt a file with a key that has already been derived by the keyCrypter.
+     * 
+     * The file is encrypted as it is copied, a buffer at a time, so any size of file can be encrypted in constant
+     * memory. The encrypted file is then decrypted the same way to check it matches the source.
+     */
+    void copyFileAndEncrypt(File sourceFile, File destinationFile, KeyCrypterScrypt keyCrypter, KeyParameter aesKey) throws IOException {
         if (destinationFile.exists()) {
             throw new IllegalArgumentException("The destination file '" + destinationFile.getAbsolutePath() + "' already exists.");            
         }
-        
-        // Read in the source file.
-        byte[] sourceFileUnencrypted = FileHandler.read(sourceFile);
-        
-        // Create the destination file.
-        if (!destinationFile.exists()) {
-            destinationFile.createNewFile();
-        }
-        
-        // Encrypt the data.
-        byte[] salt = new byte[KeyCrypterScrypt.SALT_LENGTH];
-        secureRandom.nextBytes(salt);
-        
-        Protos.ScryptParameters.Builder scryptParametersBuilder = Protos.ScryptParameters.newBuilder()
-        .setSalt(ByteString.copyFrom(salt));
-        ScryptParameters scryptParameters = scryptParametersBuilder.build();
-        KeyCrypterScrypt keyCrypter = new KeyCrypterScrypt(scryptParameters);
-        EncryptedPrivateKey encryptedData = keyCrypter.encrypt(sourceFileUnencrypted, keyCrypter.deriveKey(passwordToUse));
-        
+
+        byte[] salt = keyCrypter.getScryptParameters().getSalt().toByteArray();
+        byte[] iv = new byte[KeyCrypterScrypt.BLOCK_LENGTH];
+        secureRandom.nextBytes(iv);
+
+        BufferedBlockCipher cipher = createBackupCipher(true, aesKey, iv);
+        MessageDigest sourceDigest = createDigest();
+
         // The format of the encrypted data is:
         // 7 magic bytes 'mendoza' in ASCII.
         // 1 byte version number of format - initially set to 0
         // 8 bytes salt
         // 16 bytes iv
         // rest of file is the encrypted byte data
-        
+        ByteBuffer header = ByteBuffer.allocate(ENCRYPTED_FILE_HEADER_LENGTH);
+        header.put(ENCRYPTED_FILE_FORMAT_MAGIC_BYTES);
+        header.put(FILE_ENCRYPTED_VERSION_NUMBER);
+        header.put(salt); // 8 bytes.
+        header.put(iv); // 16 bytes.
+        header.flip();
+
+        FileInputStream fileInputStream = null;
         FileOutputStream fileOutputStream = null;
         try {
+            fileInputStream = new FileInputStream(sourceFile);
             fileOutputStream = new FileOutputStream(destinationFile);
-            fileOutputStream.write(ENCRYPTED_FILE_FORMAT_MAGIC_BYTES);
-            
-            // file format version.
-            fileOutputStream.write(FILE_ENCRYPTED_VERSION_NUMBER);
-            
-            fileOutputStream.write(salt); // 8 bytes.
-            fileOutputStream.write(encryptedData.getInitialisationVector()); // 16 bytes.
-            System.out.println(Utils.bytesToHexString(encryptedData.getInitialisationVector()));
-            
-            fileOutputStream.write(encryptedData.getEncryptedBytes());
-            System.out.println(Utils.bytesToHexString(encryptedData.getEncryptedBytes()));
-        } finally {
-            if (fileOutputStream != null) {
-                fileOutputStream.flush();
-                fileOutputStream.close();
+            FileChannel outputChannel = fileOutputStream.getChannel();
+            writeFully(outputChannel, header);
+
+            byte[] plainBuffer = new byte[ENCRYPTION_BUFFER_SIZE];
+            byte[] cipherBuffer = new byte[ENCRYPTION_BUFFER_SIZE + KeyCrypterScrypt.BLOCK_LENGTH];
+            int read;
+            while ((read = fileInputStream.read(plainBuffer)) != -1) {
+                sourceDigest.update(plainBuffer, 0, read);
+                int length = cipher.processBytes(plainBuffer, 0, read, cipherBuffer, 0);
+                writeFully(outputChannel, ByteBuffer.wrap(cipherBuffer, 0, length));
             }
+            int length = cipher.doFinal(cipherBuffer, 0);
+            writeFully(outputChannel, ByteBuffer.wrap(cipherBuffer, 0, length));
+
+            // The source is secure deleted once it is encrypted so make sure the encrypted copy is on disk.
+            outputChannel.force(true);
+        } catch (InvalidCipherTextException icte) {
+            throw new KeyCrypterException("Could not encrypt bytes", icte);
+        } finally {
+            closeQuietly(fileInputStream);
+            closeQuietly(fileOutputStream);
         }
-        
+
         // Read in the file again and decrypt it to make sure everything was ok.
-        byte[] phoenix = readFileAndDecrypt(destinationFile, passwordToUse);
-        
-        if (!Arrays.areEqual(sourceFileUnencrypted, phoenix)) {
+        MessageDigest phoenixDigest = createDigest();
+        decryptFile(destinationFile, null, keyCrypter, aesKey, new DigestOutputStream(new DiscardingOutputStream(), phoenixDigest));
+
+        if (!MessageDigest.isEqual(sourceDigest.digest(), phoenixDigest.digest())) {
             throw new IOException("File '" + sourceFile.getAbsolutePath() + "' was not correctly encrypted to file '" + destinationFile.getAbsolutePath());
         }
     }
     
     public byte[] readFileAndDecrypt(File encryptedFile, CharSequence passwordToUse) throws IOException {
-        // Read in the encrypted file.
-        byte[] sourceFileEncrypted = FileHandler.read(encryptedFile);
-        
-        // Check the first bytes match the magic number.
-        if (!Arrays.areEqual(ENCRYPTED_FILE_FORMAT_MAGIC_BYTES, Arrays.copyOfRange(sourceFileEncrypted, 0, ENCRYPTED_FILE_FORMAT_MAGIC_BYTES.length))) {
-            throw new IOException("File '" + encryptedFile.getAbsolutePath() + "' did not start with the correct magic bytes.");            
+        ByteArrayOutputStream decryptedBytes = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, encryptedFile.length()));
+        decryptFile(encryptedFile, passwordToUse, null, null, decryptedBytes);
+        return decryptedBytes.toByteArray();
+    }
+
+    /**
+     * Decrypt a file level encrypted wallet straight to another file, in constant memory.
+     * If the decryption fails the destination file is deleted.
+     */
+    public void copyFileAndDecrypt(File encryptedFile, File destinationFile, CharSequence passwordToUse) throws IOException {
+        if (destinationFile.exists()) {
+            throw new IllegalArgumentException("The destination file '" + destinationFile.getAbsolutePath() + "' already exists.");            
         }
-        
-        // If the file is too short don't process it.
-        if (sourceFileEncrypted.length < ENCRYPTED_FILE_FORMAT_MAGIC_BYTES.length + 1 + KeyCrypterScrypt.SALT_LENGTH + KeyCrypterScrypt.BLOCK_LENGTH) {
-            throw new IOException("File '" + encryptedFile.getAbsolutePath() + "' is too short to decrypt. It is " + sourceFileEncrypted.length + " bytes long.");                        
+
+        boolean success = false;
+        FileOutputStream fileOutputStream = new FileOutputStream(destinationFile);
+        try {
+            decryptFile(encryptedFile, passwordToUse, null, null, fileOutputStream);
+            success = true;
+        } finally {
+            closeQuietly(fileOutputStream);
+            if (!success && destinationFile.exists() && !destinationFile.delete()) {
+                log.error("Could not delete the partly decrypted file '" + destinationFile.getAbsolutePath() + "'");
+            }
         }
-        
-        // Check the format version.
-        String versionNumber = "" + sourceFileEncrypted[ENCRYPTED_FILE_FORMAT_MAGIC_BYTES.length];
-        //System.out.println("FileHandler - versionNumber = " + versionNumber);
-        if (!("0".equals(versionNumber))) {
-            throw new IOException("File '" + encryptedFile.getAbsolutePath() + "' did not have the expected version number of 0. It was " + versionNumber);            
+    }
+
+    /**
+     * Decrypt a file level encrypted wallet a buffer at a time to the output stream.
+     * 
+     * The key is only derived from the password if the file was not encrypted with the knownKey, which is derived
+     * by the knownKeyCrypter.
+     */
+    private void decryptFile(File encryptedFile, CharSequence passwordToUse, KeyCrypterScrypt knownKeyCrypter,
+            KeyParameter knownKey, OutputStream outputStream) throws IOException {
+        FileInputStream fileInputStream = new FileInputStream(encryptedFile);
+        KeyParameter derivedKey = null;
+        try {
+            FileChannel inputChannel = fileInputStream.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(ENCRYPTED_FILE_HEADER_LENGTH);
+            while (header.hasRemaining() && inputChannel.read(header) != -1) {
+                // Keep reading until the header is full or the file ends.
+            }
+            header.flip();
+
+            // Check the first bytes match the magic number.
+            byte[] magicBytes = new byte[ENCRYPTED_FILE_FORMAT_MAGIC_BYTES.length];
+            header.get(magicBytes, 0, Math.min(magicBytes.length, header.remaining()));
+            if (!Arrays.areEqual(ENCRYPTED_FILE_FORMAT_MAGIC_BYTES, magicBytes)) {
+                throw new IOException("File '" + encryptedFile.getAbsolutePath() + "' did not start with the correct magic bytes.");            
+            }
+
+            // If the file is too short don't process it.
+            if (header.limit() < ENCRYPTED_FILE_HEADER_LENGTH) {
+                throw new IOException("File '" + encryptedFile.getAbsolutePath() + "' is too short to decrypt. It is " + encryptedFile.length() + " bytes long.");                        
+            }
+
+            // Check the format version.
+            String versionNumber = "" + header.get();
+            if (!("0".equals(versionNumber))) {
+                throw new IOException("File '" + encryptedFile.getAbsolutePath() + "' did not have the expected version number of 0. It was " + versionNumber);            
+            }
+
+            // Extract the salt and IV.
+            byte[] salt = new byte[KeyCrypterScrypt.SALT_LENGTH];
+            header.get(salt);
+            byte[] iv = new byte[KeyCrypterScrypt.BLOCK_LENGTH];
+            header.get(iv);
+
+            KeyParameter aesKey;
+            if (knownKeyCrypter != null && Arrays.areEqual(salt, knownKeyCrypter.getScryptParameters().getSalt().toByteArray())) {
+                aesKey = knownKey;
+            } else {
+                Protos.ScryptParameters.Builder scryptParametersBuilder = Protos.ScryptParameters.newBuilder().setSalt(ByteString.copyFrom(salt));
+                ScryptParameters scryptParameters = scryptParametersBuilder.build();
+                KeyCrypter keyCrypter = new KeyCrypterScrypt(scryptParameters);
+                derivedKey = keyCrypter.deriveKey(passwordToUse);
+                aesKey = derivedKey;
+            }
+
+            // Decrypt the rest of the file.
+            BufferedBlockCipher cipher = createBackupCipher(false, aesKey, iv);
+            ByteBuffer cipherBuffer = ByteBuffer.allocate(ENCRYPTION_BUFFER_SIZE);
+            byte[] plainBuffer = new byte[ENCRYPTION_BUFFER_SIZE + KeyCrypterScrypt.BLOCK_LENGTH];
+            while (inputChannel.read(cipherBuffer) != -1) {
+                cipherBuffer.flip();
+                int length = cipher.processBytes(cipherBuffer.array(), 0, cipherBuffer.limit(), plainBuffer, 0);
+                outputStream.write(plainBuffer, 0, length);
+                cipherBuffer.clear();
+            }
+            int length = cipher.doFinal(plainBuffer, 0);
+            outputStream.write(plainBuffer, 0, length);
+            outputStream.flush();
+        } catch (InvalidCipherTextException icte) {
+            throw new KeyCrypterException("Could not decrypt bytes", icte);
+        } catch (DataLengthException dle) {
+            throw new KeyCrypterException("Could not decrypt bytes", dle);
+        } finally {
+            if (derivedKey != null) {
+                Arrays.fill(derivedKey.getKey(), (byte) 0);
+            }
+            closeQuietly(fileInputStream);
         }
+    }
 
-        // Extract the salt.
-        byte[] salt = Arrays.copyOfRange(sourceFileEncrypted, ENCRYPTED_FILE_FORMAT_MAGIC_BYTES.length + 1, ENCRYPTED_FILE_FORMAT_MAGIC_BYTES.length + 1 + KeyCrypterScrypt.SALT_LENGTH);
-        //System.out.println("FileHandler - salt = " + Utils.bytesToHexString(salt));
-        
-        // Extract the IV.
-        byte[] iv = Arrays.copyOfRange(sourceFileEncrypted, ENCRYPTED_FILE_FORMAT_MAGIC_BYTES.length + 1 + KeyCrypterScrypt.SALT_LENGTH , ENCRYPTED_FILE_FORMAT_MAGIC_BYTES.length + 1 + KeyCrypterScrypt.SALT_LENGTH + KeyCrypterScrypt.BLOCK_LENGTH);
-        //System.out.println("FileHandler - iv = " + Utils.bytesToHexString(iv));
+    /**
+     * Create an AES CBC cipher with PKCS7 padding, the same as KeyCrypterScrypt uses.
+     */
+    private static BufferedBlockCipher createBackupCipher(boolean forEncryption, KeyParameter aesKey, byte[] iv) {
+        BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+        cipher.init(forEncryption, new ParametersWithIV(aesKey, iv));
+        return cipher;
+    }
+
+    private static MessageDigest createDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IOException("Could not create a digest to check the encrypted file", nsae);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ioe) {
+                log.error(ioe.getClass().getName() + " " + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * An OutputStream that throws away everything written to it.
+     */
+    private static class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    /**
+     * Create a KeyCrypter for file level encryption of backups, with a new random salt.
+     */
+    private KeyCrypterScrypt createBackupKeyCrypter() {
+        byte[] salt = new byte[KeyCrypterScrypt.SALT_LENGTH];
+        secureRandom.nextBytes(salt);
         
-        // Extract the encrypted bytes.
-        byte[] encryptedBytes = Arrays.copyOfRange(sourceFileEncrypted, ENCRYPTED_FILE_FORMAT_MAGIC_BYTES.length + 1 + KeyCrypterScrypt.SALT_LENGTH + KeyCrypterScrypt.BLOCK_LENGTH , sourceFileEncrypted.length);
-        //System.out.println("FileHandler - encryptedBytes = " + Utils.bytesToHexString(encryptedBytes));
-         
-        // Decrypt the data.
-        Protos.ScryptParameters.Builder scryptParametersBuilder = Protos.ScryptParameters.newBuilder().setSalt(ByteString.copyFrom(salt));
+        Protos.ScryptParameters.Builder scryptParametersBuilder = Protos.ScryptParameters.newBuilder()
+        .setSalt(ByteString.copyFrom(salt));
         ScryptParameters scryptParameters = scryptParametersBuilder.build();
-        KeyCrypter keyCrypter = new KeyCrypterScrypt(scryptParameters);
-        EncryptedPrivateKey encryptedPrivateKey = new EncryptedPrivateKey(iv, encryptedBytes);
-        return keyCrypter.decrypt(encryptedPrivateKey, keyCrypter.deriveKey(passwordToUse));
+        return new KeyCrypterScrypt(scryptParameters);
     }
     
     void createBackupDirectories(File walletFile) {
@@ -27,7 +27,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -73,36 +72,87 @@ public class FileHandler {
     private final Controller controller;
     private final BitcoinController bitcoinController;
     
+    /**
+     * Suffix of the file a wallet is written to before it replaces the wallet file.
+     */
+    public static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
     private static final int MAX_FILE_SIZE = 1024 * 1024 * 1024; // Dont read files greater than 1 gigabyte.
 
     private MultiBitWalletProtobufSerializer walletProtobufSerializer;
-    
-    // Nonsense bytes to fill up deleted files - these have no meaning.
-    private static byte[] NONSENSE_BYTES = new byte[] { (byte) 0xF0, (byte) 0xA6, (byte) 0x55, (byte) 0xAA, (byte) 0x33,
-            (byte) 0x77, (byte) 0x33, (byte) 0x37, (byte) 0x12, (byte) 0x34, (byte) 0x56, (byte) 0x78, (byte) 0xC2, (byte) 0xB3,
-            (byte) 0xA4, (byte) 0x9A, (byte) 0x30, (byte) 0x7F, (byte) 0xE5, (byte) 0x5A, (byte) 0x23, (byte) 0x47, (byte) 0x13,
-            (byte) 0x17, (byte) 0x15, (byte) 0x32, (byte) 0x5C, (byte) 0x77, (byte) 0xC9, (byte) 0x73, (byte) 0x04, (byte) 0x2D,
-            (byte) 0x40, (byte) 0x0F, (byte) 0xA5, (byte) 0xA6, (byte) 0x43, (byte) 0x77, (byte) 0x33, (byte) 0x3B, (byte) 0x62,
-            (byte) 0x34, (byte) 0xB6, (byte) 0x72, (byte) 0x32, (byte) 0xB3, (byte) 0xA4, (byte) 0x4B, (byte) 0x80, (byte) 0x7F,
-            (byte) 0xC5, (byte) 0x43, (byte) 0x23, (byte) 0x47, (byte) 0x13, (byte) 0xB7, (byte) 0xA5, (byte) 0x32, (byte) 0xDC,
-            (byte) 0x79, (byte) 0x19, (byte) 0xB1, (byte) 0x03, (byte) 0x9D };
-
-    private static int BULKING_UP_FACTOR = 16;
-    private static byte[] SECURE_DELETE_FILL_BYTES = new byte[NONSENSE_BYTES.length * BULKING_UP_FACTOR];
-
-    static {
-        // Make some SECURE_DELETE_FILL_BYTES bytes = x BULKING_UP_FACTOR the
-        // NONSENSE just to save write time.
-        for (int i = 0; i < BULKING_UP_FACTOR; i++) {
-            System.arraycopy(NONSENSE_BYTES, 0, SECURE_DELETE_FILL_BYTES, NONSENSE_BYTES.length * i, NONSENSE_BYTES.length);
-        }
-    }
 
+    private final WalletSaveService walletSaveService;
+
+    /**
+     * Null if the Java runtime cannot watch files.
+     */
+    private final WalletFileWatcher walletFileWatcher;
+
+    private static final String NIO_WALLET_FILE_WATCHER_CLASS_NAME = "org.multibit.file.NioWalletFileWatcher";
+    
     public FileHandler(BitcoinController bitcoinController) {
         this.bitcoinController = bitcoinController;
         this.controller = this.bitcoinController;
 
         walletProtobufSerializer = new MultiBitWalletProtobufSerializer();
+        walletSaveService = new WalletSaveService(bitcoinController);
+        walletFileWatcher = createWalletFileWatcher(bitcoinController);
+    }
+
+    /**
+     * The watcher uses java.nio.file, which only exists from Java 7, so it is only loaded by name once the Java runtime
+     * is known to have a WatchService.
+     * 
+     * @return the watcher, or null if the Java runtime cannot watch files
+     */
+    private static WalletFileWatcher createWalletFileWatcher(BitcoinController bitcoinController) {
+        try {
+            Class.forName("java.nio.file.WatchService");
+        } catch (ClassNotFoundException e) {
+            log.debug("The Java runtime cannot watch files so the wallet files will be polled for changes");
+            return null;
+        }
+        try {
+            return (WalletFileWatcher) Class.forName(NIO_WALLET_FILE_WATCHER_CLASS_NAME)
+                    .getConstructor(BitcoinController.class).newInstance(bitcoinController);
+        } catch (Exception e) {
+            log.error("Could not create the wallet file watcher, the wallet files will be polled for changes : "
+                    + e.getClass().getCanonicalName() + " " + e.getMessage());
+        } catch (LinkageError e) {
+            log.error("Could not create the wallet file watcher, the wallet files will be polled for changes : "
+                    + e.getClass().getCanonicalName() + " " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * @return the watcher of the wallet directories, or null if the Java runtime cannot watch files
+     */
+    public WalletFileWatcher getWalletFileWatcher() {
+        return walletFileWatcher;
+    }
+
+    /**
+     * @return true if changes to wallet files are picked up by the WalletFileWatcher, false if they need polling
+     */
+    public boolean isWatchingWalletFiles() {
+        return walletFileWatcher != null && walletFileWatcher.isRunning();
+    }
+
+    /**
+     * Start watching the directory containing the wallet, if wallet files are being watched.
+     */
+    private void watchWalletFile(String walletFilename) {
+        if (walletFileWatcher != null) {
+            walletFileWatcher.watch(walletFilename);
+        }
+    }
+
+    /**
+     * @return the service that saves dirty wallets in the background
+     */
+    public WalletSaveService getWalletSaveService() {
+        return walletSaveService;
     }
 
     /**
@@ -119,7 +169,27 @@ public class FileHandler {
         if (walletFile == null) {
             return null;
         }
+        return addLoadedWalletToModel(readWalletFromFile(walletFile));
+    }
+
+    /**
+     * Read a wallet and its wallet info from disk without adding it to the model.
+     * If the main wallet cannot be loaded, the most recent backup is tried, 
+     * followed by the next recent.
+     * 
+     * This does not change the model so several wallets can be read at once on different threads.
+     * 
+     * @param walletFile
+     * @return LoadedWallet - the wallet read, to be passed to addLoadedWalletToModel
+     * @throws WalletLoadException
+     * @throws WalletVersionException
+     */
+    public LoadedWallet readWalletFromFile(File walletFile) throws WalletLoadException, WalletVersionException {
+        if (walletFile == null) {
+            return null;
+        }
 
+        long startTime = System.currentTimeMillis();
         String walletFilenameToUseInModel = walletFile.getAbsolutePath();
 
         try {
@@ -140,6 +210,7 @@ public class FileHandler {
             boolean useBackupWallets = ( !walletFile.exists() || walletFile.length() == 0 );
             boolean walletWasLoadedSuccessfully = false;
             Collection<String> errorMessages = new ArrayList<String>();
+            List<String> messages = new ArrayList<String>();
 
             Wallet wallet = null;
 
@@ -188,9 +259,8 @@ public class FileHandler {
                         walletWasLoadedSuccessfully = true;
                         
                         // Mention to user that backup is being used.
-                        // Report failure to user.
-                        MessageManager.INSTANCE.addMessage(new Message(bitcoinController.getLocaliser().getString("fileHandler.walletCannotLoadUsingBackup",
-                                new String[]{walletFilenameToUseInModel, walletToTry})));
+                        messages.add(bitcoinController.getLocaliser().getString("fileHandler.walletCannotLoadUsingBackup",
+                                new String[]{walletFilenameToUseInModel, walletToTry}));
                     } catch (Exception e) {
                         e.printStackTrace();
                         String description = e.getClass().getCanonicalName() + " " + e.getMessage();
@@ -205,8 +275,6 @@ public class FileHandler {
                 }
             }
 
-            WalletData perWalletModelData = null;
-
             if (walletWasLoadedSuccessfully) {
                 if (walletInfo != null) {
                     // If wallet description is only in the wallet, copy it to
@@ -231,29 +299,7 @@ public class FileHandler {
                 // keys, rolling backups and regular backups exist.
                 BackupManager.INSTANCE.createBackupDirectories(walletFile);
 
-                // Add the new wallet into the model.
                 wallet.setNetworkParameters(bitcoinController.getModel().getNetworkParameters());
-
-                perWalletModelData = bitcoinController.getModel().addWallet(this.bitcoinController, wallet,
-                        walletFilenameToUseInModel);
-
-                perWalletModelData.setWalletInfo(walletInfo);
-
-                // If the backup files were used save them immediately and don't
-                // delete any rolling backups.
-                if (useBackupWallets) {
-                    // Wipe the wallet backup property so that the rolling
-                    // backup file will not be overwritten
-                    walletInfo.put(BitcoinModel.WALLET_BACKUP_FILE, "");
-
-                    // Save the wallet immediately just to be on the safe side.
-                    savePerWalletModelData(perWalletModelData, true);
-                }
-
-                synchronized (walletInfo) {
-                    rememberFileSizesAndLastModified(new File(walletFilenameToUseInModel), walletInfo);
-                    perWalletModelData.setDirty(false);
-                }
             } else {
                 // No wallet was loaded successfully.
                 // Wipe the rolling backup property to ensure that file wont be deleted.
@@ -274,8 +320,70 @@ public class FileHandler {
                     }
                     messageText = messageText + "\n" + bitcoinController.getLocaliser().getString("deleteWalletConfirmDialog.walletDeleteError2", new String[]{errorMessagesAsString});
                 }
-                MessageManager.INSTANCE.addMessage(new Message(messageText));
+                messages.add(messageText);
+                wallet = null;
             }
+            return new LoadedWallet(new File(walletFilenameToUseInModel), walletInfo, wallet, useBackupWallets, messages,
+                    System.currentTimeMillis() - startTime);
+        } catch (WalletVersionException wve) {
+            // We want this to propagate out.
+            throw wve;
+        } catch (Exception e) {
+            e.printStackTrace();
+            log.error(e.getClass().getCanonicalName() + " " + e.getMessage());
+            throw new WalletLoadException(e.getClass().getCanonicalName() + " " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Add a wallet read by readWalletFromFile to the model and report any messages collected whilst reading it.
+     * This must be called on one thread at a time, in the order the wallets are to appear.
+     * 
+     * @param loadedWallet
+     * @return WalletData - the walletData for the created wallet, or null if the wallet could not be read
+     * @throws WalletLoadException
+     * @throws WalletVersionException
+     */
+    public WalletData addLoadedWalletToModel(LoadedWallet loadedWallet) throws WalletLoadException, WalletVersionException {
+        if (loadedWallet == null) {
+            return null;
+        }
+
+        for (String messageText : loadedWallet.getMessages()) {
+            MessageManager.INSTANCE.addMessage(new Message(messageText));
+        }
+
+        Wallet wallet = loadedWallet.getWallet();
+        if (wallet == null) {
+            return null;
+        }
+
+        String walletFilenameToUseInModel = loadedWallet.getWalletFile().getAbsolutePath();
+        WalletInfoData walletInfo = loadedWallet.getWalletInfo();
+
+        try {
+            // Add the new wallet into the model.
+            WalletData perWalletModelData = bitcoinController.getModel().addWallet(this.bitcoinController, wallet,
+                    walletFilenameToUseInModel);
+
+            perWalletModelData.setWalletInfo(walletInfo);
+
+            // If the backup files were used save them immediately and don't
+            // delete any rolling backups.
+            if (loadedWallet.isBackupWalletUsed()) {
+                // Wipe the wallet backup property so that the rolling
+                // backup file will not be overwritten
+                walletInfo.put(BitcoinModel.WALLET_BACKUP_FILE, "");
+
+                // Save the wallet immediately just to be on the safe side.
+                savePerWalletModelData(perWalletModelData, true);
+            }
+
+            synchronized (walletInfo) {
+                rememberFileSizesAndLastModified(new File(walletFilenameToUseInModel), walletInfo);
+                perWalletModelData.setDirty(false);
+            }
+            watchWalletFile(walletFilenameToUseInModel);
             return perWalletModelData;
         } catch (WalletVersionException wve) {
             // We want this to propagate out.
@@ -340,6 +448,7 @@ public class FileHandler {
                         saveWalletAndWalletInfo(perWalletModelData, perWalletModelData.getWalletFilename(), walletInfoFilename);
 
                         rememberFileSizesAndLastModified(walletFile, walletInfo);
+                        watchWalletFile(perWalletModelData.getWalletFilename());
 
                         // The perWalletModelData is no longer dirty.
                         perWalletModelData.setDirty(false);
@@ -435,23 +544,30 @@ public class FileHandler {
             }
         }
 
-        // Write wallet info.
-        walletInfo.writeToFile(walletInfoFilename, walletInfo.getWalletVersion());
+        // Write wallet info. This is a copy so the next save still appends to the wallet's own wallet info file.
+        walletInfo.writeCopyToFile(walletInfoFilename, walletInfo.getWalletVersion());
     }
 
     /**
-     * To protect the wallet data, the write is in steps: 1) Create a backup
-     * file called <wallet file name>-<yyyymmddhhmmss>.wallet and copy the
-     * original wallet to that 2) Write the new wallet to the walletFilename 3)
-     * Delete the old backup file 4) Make the backup file in step 1) the new
-     * backup file
+     * To protect the wallet data, the write is in steps: 1) Write the new
+     * wallet to a temporary file next to the wallet file and sync it 2) Move
+     * the original wallet to a backup file called
+     * <wallet file name>-<yyyymmddhhmmss>.wallet 3) Rename the temporary file
+     * to the walletFilename 4) Delete the old backup file 5) Make the backup
+     * file in step 2) the new backup file
      * 
+     * The original is renamed rather than copied so each save writes the
+     * wallet once. It is only copied if it cannot be renamed. Once the
+     * original has been moved or deleted the temporary file is never deleted,
+     * and if it cannot be renamed into place the original is moved back.
      **/
     private void saveWalletAndWalletInfo(WalletData perWalletModelData, String walletFilename, String walletInfoFilename) {
         File walletFile = new File(walletFilename);
+        File temporaryWalletFile = new File(walletFilename + TEMPORARY_FILE_SUFFIX);
         WalletInfoData walletInfo = perWalletModelData.getWalletInfo();
 
         FileOutputStream fileOutputStream = null;
+        boolean walletFileMoved = false;
 
         // Save the wallet file
         try {
@@ -475,10 +591,6 @@ public class FileHandler {
                 if (null != oldBackupFilename && !"".equals(oldBackupFilename)) {
                     oldBackupFile = new File(oldBackupFilename);
                 }
-                if (MultiBitWalletVersion.PROTOBUF == walletInfo.getWalletVersion()
-                        || MultiBitWalletVersion.PROTOBUF_ENCRYPTED == walletInfo.getWalletVersion()) {
-                    newBackupFilename = copyExistingWalletToBackupAndDeleteOriginal(walletFile);
-                }
 
                 log.debug("Saving wallet file '" + walletFile.getAbsolutePath() + "' ...");
                 if (MultiBitWalletVersion.SERIALIZED == walletInfo.getWalletVersion()) {
@@ -502,10 +614,12 @@ public class FileHandler {
                     }
 
                     if (MultiBitWalletVersion.PROTOBUF == walletInfo.getWalletVersion()) {
+                        fileOutputStream = new FileOutputStream(temporaryWalletFile);
+
                         // Save as a Wallet message.
-                        perWalletModelData.getWallet().saveToFile(walletFile);
+                        perWalletModelData.getWallet().saveToFileStream(fileOutputStream);
                     } else if (MultiBitWalletVersion.PROTOBUF_ENCRYPTED == walletInfo.getWalletVersion()) {
-                        fileOutputStream = new FileOutputStream(walletFile);
+                        fileOutputStream = new FileOutputStream(temporaryWalletFile);
 
                         // Save as a Wallet message with a mandatory extension
                         // to prevent loading by older versions of multibit.
@@ -515,43 +629,71 @@ public class FileHandler {
                                 + "'. Its wallet version is '" + walletInfo.getWalletVersion().toString()
                                 + "' but this version of MultiBit does not understand that format.");
                     }
-                }
-                log.debug("... done saving wallet file.");
 
-                if (MultiBitWalletVersion.PROTOBUF == walletInfo.getWalletVersion()
-                        || MultiBitWalletVersion.PROTOBUF_ENCRYPTED == walletInfo.getWalletVersion()) {
-                    perWalletModelData.getWalletInfo().put(BitcoinModel.WALLET_BACKUP_FILE, newBackupFilename);
-
-                    // Delete the oldBackupFile unless the user has manually
-                    // opened it.
-                    boolean userHasOpenedBackupFile = false;
-                    List<WalletData> perWalletModelDataList = this.bitcoinController.getModel().getPerWalletModelDataList();
-                    if (perWalletModelDataList != null) {
-                        for (WalletData perWalletModelDataLoop : perWalletModelDataList) {
-                            if ((oldBackupFilename != null && oldBackupFilename.equals(perWalletModelDataLoop.getWalletFilename()))
-                                    || (newBackupFilename != null && newBackupFilename.equals(perWalletModelDataLoop
-                                            .getWalletFilename()))) {
-                                userHasOpenedBackupFile = true;
-                                break;
+                    // Make sure the new wallet is on disk before it replaces the original.
+                    fileOutputStream.flush();
+                    fileOutputStream.getFD().sync();
+                    fileOutputStream.close();
+                    fileOutputStream = null;
+
+                    newBackupFilename = BackupManager.INSTANCE.createBackupFilename(walletFile,
+                            BackupManager.ROLLING_WALLET_BACKUP_DIRECTORY_NAME, false, false, BitcoinModel.WALLET_FILE_EXTENSION);
+                    File newBackupFile = new File(newBackupFilename);
+                    boolean walletMovedToBackup = moveExistingWalletToBackup(walletFile, newBackupFile);
+                    walletFileMoved = walletMovedToBackup;
+                    if (!temporaryWalletFile.renameTo(walletFile)) {
+                        // Some platforms cannot rename over an existing file.
+                        if (walletFile.exists()) {
+                            secureDelete(walletFile);
+                            walletFileMoved = true;
+                        }
+                        if (!temporaryWalletFile.renameTo(walletFile)) {
+                            if (walletMovedToBackup && !walletFile.exists() && !newBackupFile.renameTo(walletFile)) {
+                                log.error("Could not move the backup '" + newBackupFilename + "' back to '"
+                                        + walletFile.getAbsolutePath() + "'");
                             }
+                            throw new IOException("Failed to rename the new wallet from '"
+                                    + temporaryWalletFile.getAbsolutePath() + "' to '" + walletFile.getAbsolutePath() + "'");
                         }
                     }
-                    if (!userHasOpenedBackupFile) {
-                        secureDelete(oldBackupFile);
+                }
+                log.debug("... done saving wallet file.");
+
+                perWalletModelData.getWalletInfo().put(BitcoinModel.WALLET_BACKUP_FILE, newBackupFilename);
+
+                // Delete the oldBackupFile unless the user has manually
+                // opened it.
+                boolean userHasOpenedBackupFile = false;
+                List<WalletData> perWalletModelDataList = this.bitcoinController.getModel().getPerWalletModelDataList();
+                if (perWalletModelDataList != null) {
+                    for (WalletData perWalletModelDataLoop : perWalletModelDataList) {
+                        if ((oldBackupFilename != null && oldBackupFilename.equals(perWalletModelDataLoop.getWalletFilename()))
+                                || (newBackupFilename != null && newBackupFilename.equals(perWalletModelDataLoop
+                                        .getWalletFilename()))) {
+                            userHasOpenedBackupFile = true;
+                            break;
+                        }
                     }
                 }
+                if (!userHasOpenedBackupFile && oldBackupFile != null
+                        && !oldBackupFile.getAbsolutePath().equals(new File(newBackupFilename).getAbsolutePath())) {
+                    FileShredder.INSTANCE.shredLater(oldBackupFile);
+                }
             }
         } catch (IOException ioe) {
             throw new WalletSaveException("Cannot save wallet '" + perWalletModelData.getWalletFilename(), ioe);
         } finally {
             if (fileOutputStream != null) {
                 try {
-                    fileOutputStream.flush();
                     fileOutputStream.close();
                 } catch (IOException e) {
                     throw new WalletSaveException("Cannot save wallet '" + perWalletModelData.getWalletFilename(), e);
                 }
             }
+            // Once the original has been moved the temporary file may be the only copy of the latest wallet.
+            if (!walletFileMoved && temporaryWalletFile.exists() && !temporaryWalletFile.delete()) {
+                log.error("Could not delete the temporary wallet file '" + temporaryWalletFile.getAbsolutePath() + "'");
+            }
         }
 
         // Write wallet info.
@@ -588,8 +730,12 @@ public class FileHandler {
                     blockChain = this.bitcoinController.getMultiBitService().getChain();
                 }
 
-                privateKeysHandler.exportPrivateKeys(privateKeysBackupFile, this.bitcoinController.getModel().getActiveWallet(),
-                        blockChain, true, passwordToUse, passwordToUse);
+                try {
+                    privateKeysHandler.exportPrivateKeys(privateKeysBackupFile, this.bitcoinController.getModel().getActiveWallet(),
+                            blockChain, true, passwordToUse, passwordToUse);
+                } finally {
+                    privateKeysHandler.clearKeyCache();
+                }
             } else {
                 log.debug("Wallet '" + this.bitcoinController.getModel().getActiveWalletFilename()
                         + "' private keys not backed up as not PROTOBUF_ENCRYPTED");
@@ -602,29 +748,33 @@ public class FileHandler {
     }
 
     /**
-     * Copy an existing wallet to a backup file and delete the original.
-     * Used in rolling backups
+     * Move the existing wallet to a new rolling backup file. The wallet is
+     * renamed if possible. Otherwise it is copied and the original is left in
+     * place until the new wallet is renamed over it.
      * 
-     * @param walletFile
-     * @return
-     * @throws IOException
+     * @return true if the wallet was renamed, so there is no longer a wallet
+     *         file
      */
-    private String copyExistingWalletToBackupAndDeleteOriginal(File walletFile) throws IOException {
-        String newWalletBackupFilename = BackupManager.INSTANCE.createBackupFilename(walletFile, BackupManager.ROLLING_WALLET_BACKUP_DIRECTORY_NAME, false, false, BitcoinModel.WALLET_FILE_EXTENSION);
-        File newWalletBackupFile = new File(newWalletBackupFilename);
-        if (walletFile != null && walletFile.exists()) {
-            FileHandler.copyFile(walletFile, newWalletBackupFile);
-            if (walletFile.length() != newWalletBackupFile.length()) {
-                throw new IOException("Failed to copy the existing wallet from '" + walletFile.getAbsolutePath() + "' to '"
-                        + newWalletBackupFilename + "'");
-            }
-
-            if (!walletFile.getAbsolutePath().equals(newWalletBackupFile.getAbsolutePath())) {
-                secureDelete(walletFile);
-            }
+    private boolean moveExistingWalletToBackup(File walletFile, File newWalletBackupFile) throws IOException {
+        if (walletFile == null || !walletFile.exists()
+                || walletFile.getAbsolutePath().equals(newWalletBackupFile.getAbsolutePath())) {
+            return false;
+        }
+        if (walletFile.renameTo(newWalletBackupFile)) {
+            return true;
+        }
+        // A backup made earlier in the same second has the same name. It is older than the wallet so it is replaced.
+        if (newWalletBackupFile.exists() && newWalletBackupFile.delete() && walletFile.renameTo(newWalletBackupFile)) {
+            return true;
         }
 
-        return newWalletBackupFilename;
+        // The rename did not work (for instance the backup is on a different file system) so copy instead.
+        FileHandler.copyFile(walletFile, newWalletBackupFile);
+        if (walletFile.length() != newWalletBackupFile.length()) {
+            throw new IOException("Failed to copy the existing wallet from '" + walletFile.getAbsolutePath() + "' to '"
+                    + newWalletBackupFile.getAbsolutePath() + "'");
+        }
+        return false;
     }
 
     /**
@@ -712,6 +862,25 @@ public class FileHandler {
         return haveFilesChanged;
     }
 
+    /**
+     * See if the wallet files have been changed by another process and if so tell the views, once.
+     * 
+     * @param perWalletModelData
+     */
+    public void checkForChangesByAnotherProcess(WalletData perWalletModelData) {
+        boolean haveFilesChanged = haveFilesChanged(perWalletModelData);
+        if (haveFilesChanged) {
+            boolean previousFilesHaveBeenChanged = perWalletModelData.isFilesHaveBeenChangedByAnotherProcess();
+            perWalletModelData.setFilesHaveBeenChangedByAnotherProcess(true);
+            if (!previousFilesHaveBeenChanged) {
+                // only fire once, when change happens
+                bitcoinController.fireFilesHaveBeenChangedByAnotherProcess(perWalletModelData);
+                log.debug("Marking wallet " + perWalletModelData.getWalletFilename()
+                        + " as having been changed by another process.");
+            }
+        }
+    }
+
     /**
      * Keep a record of the wallet and wallet info files sizes and date last
      * modified.
@@ -1062,45 +1231,16 @@ public class FileHandler {
     }
 
     /**
-     * Delete a file with an overwrite of all of the data.
+     * Delete a file with an overwrite of all of the data, before returning.
      * 
-     * Set bit patterns are used rather than random numbers to avoid a
-     * futex_wait_queue_me error on Linux systems (related to /dev/random usage)
+     * Use FileShredder.shredLater() for files that do not need to be gone
+     * before the caller carries on.
      * 
      * @param file
      * @throws IOException
      */
     public static void secureDelete(File file) throws IOException {
-        log.debug("Start of secureDelete");
-
-        RandomAccessFile raf = null;
-        if (file != null && file.exists()) {
-            try {
-                // Prep for file delete as this can be fiddly on windows.
-                // Make sure it is writable and any references to it are garbage
-                // collected and finalized.
-                file.setWritable(true);
-                System.gc();
-
-                long length = file.length();
-                raf = new RandomAccessFile(file, "rws");
-                raf.seek(0);
-                raf.getFilePointer();
-                int pos = 0;
-                while (pos < length) {
-                    raf.write(SECURE_DELETE_FILL_BYTES);
-                    pos += SECURE_DELETE_FILL_BYTES.length;
-                }
-            } finally {
-                if (raf != null) {
-                    raf.close();
-                    raf = null;
-                }
-            }
-            boolean deleteSuccess = file.delete();
-            log.debug("Result of delete of file '" + file.getAbsolutePath() + "' was " + deleteSuccess);
-        }
-        log.debug("End of secureDelete");
+        FileShredder.INSTANCE.shred(file);
     }
 
     public static byte[] read(File file) throws IOException {
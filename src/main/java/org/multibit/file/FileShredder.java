@@ -0,0 +1,226 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Secure deletes files by overwriting them with a fill pattern and then deleting them.<p>
+ *
+ * Files are overwritten with gathering writes of a large direct buffer and forced to disk once, rather than being
+ * written synchronously a few hundred bytes at a time. Files that do not need to be gone before the caller carries on
+ * (old backups, rolling backups) can be queued with shredLater() and are shredded in order on a single background
+ * thread.
+ */
+public enum FileShredder {
+    INSTANCE;
+
+    private static final Logger log = LoggerFactory.getLogger(FileShredder.class);
+
+    static final int SHRED_BUFFER_SIZE = 64 * 1024;
+
+    // Nonsense bytes to fill up deleted files - these have no meaning.
+    // Set bit patterns are used rather than random numbers to avoid a
+    // futex_wait_queue_me error on Linux systems (related to /dev/random usage)
+    private static final byte[] NONSENSE_BYTES = new byte[] { (byte) 0xF0, (byte) 0xA6, (byte) 0x55, (byte) 0xAA, (byte) 0x33,
+            (byte) 0x77, (byte) 0x33, (byte) 0x37, (byte) 0x12, (byte) 0x34, (byte) 0x56, (byte) 0x78, (byte) 0xC2, (byte) 0xB3,
+            (byte) 0xA4, (byte) 0x9A, (byte) 0x30, (byte) 0x7F, (byte) 0xE5, (byte) 0x5A, (byte) 0x23, (byte) 0x47, (byte) 0x13,
+            (byte) 0x17, (byte) 0x15, (byte) 0x32, (byte) 0x5C, (byte) 0x77, (byte) 0xC9, (byte) 0x73, (byte) 0x04, (byte) 0x2D,
+            (byte) 0x40, (byte) 0x0F, (byte) 0xA5, (byte) 0xA6, (byte) 0x43, (byte) 0x77, (byte) 0x33, (byte) 0x3B, (byte) 0x62,
+            (byte) 0x34, (byte) 0xB6, (byte) 0x72, (byte) 0x32, (byte) 0xB3, (byte) 0xA4, (byte) 0x4B, (byte) 0x80, (byte) 0x7F,
+            (byte) 0xC5, (byte) 0x43, (byte) 0x23, (byte) 0x47, (byte) 0x13, (byte) 0xB7, (byte) 0xA5, (byte) 0x32, (byte) 0xDC,
+            (byte) 0x79, (byte) 0x19, (byte) 0xB1, (byte) 0x03, (byte) 0x9D };
+
+    /**
+     * The number of fill buffers written by each gathering write.
+     */
+    private static final int BUFFERS_PER_WRITE = 16;
+
+    /**
+     * The fill pattern, repeated to fill a direct buffer. It is only ever read through duplicates.
+     */
+    private static final ByteBuffer FILL_BUFFER = createFillBuffer();
+
+    /**
+     * The number of shred requests queued and not yet finished.
+     */
+    private int pendingShreds = 0;
+
+    private ExecutorService shredder;
+
+    /**
+     * Overwrite the file and delete it now.
+     *
+     * @param file the file to shred - nothing is done if it is null or does not exist
+     * @throws IOException if the file could not be overwritten
+     */
+    public void shred(File file) throws IOException {
+        if (file == null || !file.exists()) {
+            return;
+        }
+
+        // Prep for file delete as this can be fiddly on windows.
+        file.setWritable(true);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            overwrite(raf.getChannel(), file.length());
+        } finally {
+            raf.close();
+        }
+
+        boolean deleteSuccess = file.delete();
+        if (!deleteSuccess) {
+            // Any references to the file that have not been garbage collected and finalized can stop it being
+            // deleted on windows.
+            System.gc();
+            deleteSuccess = file.delete();
+        }
+        log.debug("Result of delete of file '" + file.getAbsolutePath() + "' was " + deleteSuccess);
+    }
+
+    /**
+     * Queue the file to be shredded in the background.
+     *
+     * @param file the file to shred
+     */
+    public void shredLater(File file) {
+        if (file == null) {
+            return;
+        }
+        shredLater(Collections.singletonList(file), null);
+    }
+
+    /**
+     * Queue the files to be shredded in the background, in order.
+     *
+     * @param files the files to shred
+     * @param whenShredded run on the shredder thread once all the files have been shredded, or null
+     */
+    public void shredLater(Collection<File> files, final Runnable whenShredded) {
+        final List<File> filesToShred = new ArrayList<File>(files);
+        synchronized (this) {
+            pendingShreds++;
+            if (shredder == null) {
+                shredder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "FileShredder");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        shredder.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (File file : filesToShred) {
+                        try {
+                            shred(file);
+                        } catch (IOException ioe) {
+                            log.error("Could not secure delete '" + file.getAbsolutePath() + "'. " + ioe.getClass().getName() + " "
+                                    + ioe.getMessage());
+                        }
+                    }
+                    if (whenShredded != null) {
+                        whenShredded.run();
+                    }
+                } catch (RuntimeException e) {
+                    // Keep the shredder going for the other files.
+                    log.error(e.getClass().getName() + " " + e.getMessage());
+                } finally {
+                    synchronized (FileShredder.this) {
+                        pendingShreds--;
+                        FileShredder.this.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for all the files queued so far to be shredded.
+     *
+     * @param timeoutMillis the longest time to wait
+     * @return true if all the files were shredded, false if the wait timed out or was interrupted
+     */
+    public synchronized boolean waitUntilShredded(long timeoutMillis) {
+        long waitUntil = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (pendingShreds > 0) {
+                long timeToWait = waitUntil - System.currentTimeMillis();
+                if (timeToWait <= 0) {
+                    return false;
+                }
+                wait(timeToWait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Overwrite the first length bytes of the channel with the fill pattern and force them to disk.
+     */
+    private void overwrite(FileChannel channel, long length) throws IOException {
+        channel.position(0);
+        long remaining = length;
+        while (remaining > 0) {
+            int count = (int) Math.min(BUFFERS_PER_WRITE, (remaining + SHRED_BUFFER_SIZE - 1) / SHRED_BUFFER_SIZE);
+            ByteBuffer[] buffers = new ByteBuffer[count];
+            long toWrite = 0;
+            for (int i = 0; i < count; i++) {
+                buffers[i] = FILL_BUFFER.duplicate();
+                buffers[i].limit((int) Math.min(SHRED_BUFFER_SIZE, remaining - toWrite));
+                toWrite += buffers[i].limit();
+            }
+
+            long written = 0;
+            while (written < toWrite) {
+                written += channel.write(buffers);
+            }
+            remaining -= toWrite;
+        }
+        channel.force(true);
+    }
+
+    private static ByteBuffer createFillBuffer() {
+        ByteBuffer fillBuffer = ByteBuffer.allocateDirect(SHRED_BUFFER_SIZE);
+        while (fillBuffer.hasRemaining()) {
+            fillBuffer.put(NONSENSE_BYTES, 0, Math.min(NONSENSE_BYTES.length, fillBuffer.remaining()));
+        }
+        fillBuffer.flip();
+        return fillBuffer;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Utils;
+
+/**
+ * A set of keys, used to check whether a key is already in a wallet without comparing it against every key.<p>
+ * 
+ * Keys are identified by their public key, so the keys of an encrypted wallet do not need decrypting to be checked.
+ * (There is no equals on ECKey.) The compressed and uncompressed encodings of a public key are the same key, as they
+ * are for the same private key, so the public key is always taken in its compressed encoding.
+ */
+public class KeyFingerprints {
+    private static final int COMPRESSED_LENGTH = 33;
+    private static final int UNCOMPRESSED_LENGTH = 65;
+
+    private final Set<String> fingerprints = new HashSet<String>();
+
+    /**
+     * @param keys the keys to start with, for instance a wallet's keychain
+     */
+    public KeyFingerprints(Collection<ECKey> keys) {
+        if (keys != null) {
+            for (ECKey key : keys) {
+                add(key);
+            }
+        }
+    }
+
+    /**
+     * @return true if the set has a key with the same public key
+     */
+    public boolean contains(ECKey key) {
+        return key != null && fingerprints.contains(fingerprintOf(key));
+    }
+
+    /**
+     * Add the key to the set.
+     * 
+     * @return true if the key was added, false if the set already had a key with the same public key
+     */
+    public boolean add(ECKey key) {
+        return key != null && fingerprints.add(fingerprintOf(key));
+    }
+
+    public int size() {
+        return fingerprints.size();
+    }
+
+    private static String fingerprintOf(ECKey key) {
+        return Utils.bytesToHexString(compress(key.getPubKey()));
+    }
+
+    /**
+     * An uncompressed public key is 0x04, X and Y. Its compressed encoding is 0x02 or 0x03, for an even or odd Y, and X.
+     * 
+     * @return the compressed encoding of the public key
+     */
+    static byte[] compress(byte[] pubKey) {
+        if (pubKey == null || pubKey.length != UNCOMPRESSED_LENGTH || pubKey[0] != 0x04) {
+            return pubKey;
+        }
+        byte[] compressed = new byte[COMPRESSED_LENGTH];
+        compressed[0] = (byte) ((pubKey[UNCOMPRESSED_LENGTH - 1] & 1) == 0 ? 0x02 : 0x03);
+        System.arraycopy(pubKey, 1, compressed, 1, COMPRESSED_LENGTH - 1);
+        return compressed;
+    }
+}
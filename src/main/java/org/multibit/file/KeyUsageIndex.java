@@ -0,0 +1,126 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Utils;
+
+/**
+ * The earliest date each key was used in a set of transactions, built by looking at each transaction once.<p>
+ * 
+ * A key is used by a transaction if an output pays to its pubkey hash or an input is signed with its pubkey. Keys
+ * are looked up by pubkey hash so finding the date for a key does not depend on the number of transactions.
+ */
+class KeyUsageIndex {
+    private static final Logger log = LoggerFactory.getLogger(KeyUsageIndex.class);
+
+    /**
+     * Hex of the pubkey hash to the earliest update time of a transaction using it.
+     */
+    private final Map<String, Date> earliestUsageDates = new HashMap<String, Date>();
+
+    /**
+     * Hex of the pubkey hash to the latest update time of a transaction using it.
+     */
+    private final Map<String, Date> latestUsageDates = new HashMap<String, Date>();
+
+    KeyUsageIndex(Collection<Transaction> transactions) {
+        if (transactions != null) {
+            for (Transaction transaction : transactions) {
+                add(transaction);
+            }
+        }
+    }
+
+    /**
+     * @return the earliest update time of a transaction using the key, or null if none do
+     */
+    Date getEarliestUsageDate(ECKey ecKey) {
+        if (ecKey == null) {
+            return null;
+        }
+        return earliestUsageDates.get(Utils.bytesToHexString(ecKey.getPubKeyHash()));
+    }
+
+    /**
+     * @return the latest update time of a transaction using the key, or null if none do
+     */
+    Date getLatestUsageDate(ECKey ecKey) {
+        if (ecKey == null) {
+            return null;
+        }
+        return latestUsageDates.get(Utils.bytesToHexString(ecKey.getPubKeyHash()));
+    }
+
+    private void add(Transaction transaction) {
+        Date updateTime = transaction.getUpdateTime();
+        if (updateTime == null) {
+            return;
+        }
+
+        boolean scriptsCanBeParsed = true;
+        for (TransactionOutput output : transaction.getOutputs()) {
+            try {
+                byte[] pubkeyHash = output.getScriptPubKey().getPubKeyHash();
+                recordUsage(pubkeyHash, updateTime);
+            } catch (ScriptException e) {
+                // The rest of the transaction is ignored, as it always has been.
+                log.error("Could not parse tx output script: {}", e.toString());
+                scriptsCanBeParsed = false;
+                break;
+            }
+        }
+
+        if (scriptsCanBeParsed) {
+            for (TransactionInput input : transaction.getInputs()) {
+                try {
+                    byte[] pubkey = input.getScriptSig().getPubKey();
+                    recordUsage(Utils.sha256hash160(pubkey), updateTime);
+                } catch (ScriptException e) {
+                    log.error("Could not parse tx input script: {}", e.toString());
+                    break;
+                }
+            }
+        }
+    }
+
+    private void recordUsage(byte[] pubkeyHash, Date updateTime) {
+        if (pubkeyHash == null) {
+            return;
+        }
+        String key = Utils.bytesToHexString(pubkeyHash);
+        Date earliestUsageDate = earliestUsageDates.get(key);
+        if (earliestUsageDate == null || updateTime.before(earliestUsageDate)) {
+            earliestUsageDates.put(key, updateTime);
+        }
+        Date latestUsageDate = latestUsageDates.get(key);
+        if (latestUsageDate == null || updateTime.after(latestUsageDate)) {
+            latestUsageDates.put(key, updateTime);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.multibit.model.bitcoin.WalletInfoData;
+
+import com.google.bitcoin.core.Wallet;
+
+/**
+ * POJO containing a wallet that has been read from disk but not yet added to the model.<p>
+ * 
+ * Reading a wallet (see FileHandler#readWalletFromFile) does not touch the model so it can be done on any thread.
+ * The wallet is then added to the model on a single thread with FileHandler#addLoadedWalletToModel, which also
+ * reports any messages collected whilst reading.
+ */
+public class LoadedWallet {
+    private final File walletFile;
+    private final WalletInfoData walletInfo;
+    private final Wallet wallet;
+    private final boolean backupWalletUsed;
+    private final List<String> messages;
+    private final long readTimeMillis;
+
+    public LoadedWallet(File walletFile, WalletInfoData walletInfo, Wallet wallet, boolean backupWalletUsed, List<String> messages,
+            long readTimeMillis) {
+        this.walletFile = walletFile;
+        this.walletInfo = walletInfo;
+        this.wallet = wallet;
+        this.backupWalletUsed = backupWalletUsed;
+        this.messages = Collections.unmodifiableList(new ArrayList<String>(messages));
+        this.readTimeMillis = readTimeMillis;
+    }
+
+    public File getWalletFile() {
+        return walletFile;
+    }
+
+    public WalletInfoData getWalletInfo() {
+        return walletInfo;
+    }
+
+    /**
+     * @return the wallet, or null if neither the wallet nor any of its backups could be read
+     */
+    public Wallet getWallet() {
+        return wallet;
+    }
+
+    public boolean isBackupWalletUsed() {
+        return backupWalletUsed;
+    }
+
+    /**
+     * @return the messages to show the user once the wallet is added to the model
+     */
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the time taken to read and parse the wallet and its wallet info
+     */
+    public long getReadTimeMillis() {
+        return readTimeMillis;
+    }
+}
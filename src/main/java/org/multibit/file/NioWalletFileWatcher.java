@@ -0,0 +1,185 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.model.bitcoin.WalletData;
+import org.multibit.model.bitcoin.WalletInfoData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the directories containing the open wallets with a java.nio.file WatchService and checks a wallet as soon
+ * as its wallet or wallet info file is changed.<p>
+ * 
+ * java.nio.file is only available on Java 7 and later so this class must not be referred to directly - FileHandler
+ * creates it by name once it has checked the Java runtime has a WatchService.
+ */
+public class NioWalletFileWatcher implements WalletFileWatcher, Runnable {
+    private static final Logger log = LoggerFactory.getLogger(NioWalletFileWatcher.class);
+
+    private final BitcoinController bitcoinController;
+
+    private WatchService watchService;
+
+    /**
+     * The directories being watched.
+     */
+    private final Map<Path, WatchKey> watchedDirectories = new HashMap<Path, WatchKey>();
+
+    private volatile boolean running = false;
+
+    public NioWalletFileWatcher(BitcoinController bitcoinController) {
+        this.bitcoinController = bitcoinController;
+    }
+
+    /**
+     * Start watching on a background thread.
+     */
+    @Override
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        running = true;
+
+        Thread thread = new Thread(this, "NioWalletFileWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        watchedDirectories.clear();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("Could not close the wallet file watcher: " + e.getMessage());
+            }
+            watchService = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public synchronized void watch(String walletFilename) {
+        if (!running || walletFilename == null || "".equals(walletFilename)) {
+            return;
+        }
+        Path directory = new File(walletFilename).getAbsoluteFile().toPath().getParent();
+        if (directory == null || watchedDirectories.containsKey(directory)) {
+            return;
+        }
+        try {
+            WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirectories.put(directory, key);
+            log.debug("Watching wallet directory '" + directory + "'");
+        } catch (IOException e) {
+            log.error("Could not watch wallet directory '" + directory + "' : " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                WatchService service = watchService;
+                if (service == null) {
+                    return;
+                }
+                Set<String> changedFilenames = new HashSet<String>();
+                boolean eventsWereLost = collectChangedFilenames(service.take(), changedFilenames);
+
+                // A single save produces several events so pick up the rest of them before checking the wallets.
+                WatchKey key;
+                while ((key = service.poll()) != null) {
+                    eventsWereLost = collectChangedFilenames(key, changedFilenames) || eventsWereLost;
+                }
+                checkWallets(changedFilenames, eventsWereLost);
+            }
+        } catch (InterruptedException e) {
+            log.debug("Wallet file watcher was interrupted");
+        } catch (ClosedWatchServiceException e) {
+            // Stopped.
+        } finally {
+            running = false;
+        }
+    }
+
+    /**
+     * @return true if events were lost so that every wallet in the directory needs checking
+     */
+    private boolean collectChangedFilenames(WatchKey key, Set<String> changedFilenames) {
+        boolean eventsWereLost = false;
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                eventsWereLost = true;
+            } else {
+                changedFilenames.add(directory.resolve((Path) event.context()).toFile().getAbsolutePath());
+            }
+        }
+        if (!key.reset()) {
+            // The directory is no longer accessible.
+            synchronized (this) {
+                watchedDirectories.remove(directory);
+            }
+        }
+        return eventsWereLost;
+    }
+
+    private void checkWallets(Set<String> changedFilenames, boolean checkAllWallets) {
+        List<WalletData> perWalletModelDataList = bitcoinController.getModel().getPerWalletModelDataList();
+        if (perWalletModelDataList == null) {
+            return;
+        }
+        for (WalletData loopModelData : new ArrayList<WalletData>(perWalletModelDataList)) {
+            String walletFilename = loopModelData.getWalletFilename();
+            if (walletFilename == null) {
+                continue;
+            }
+            String walletInfoFilename = WalletInfoData.createWalletInfoFilename(walletFilename);
+            if (checkAllWallets || changedFilenames.contains(new File(walletFilename).getAbsolutePath())
+                    || changedFilenames.contains(new File(walletInfoFilename).getAbsolutePath())) {
+                bitcoinController.getFileHandler().checkForChangesByAnotherProcess(loopModelData);
+            }
+        }
+    }
+}
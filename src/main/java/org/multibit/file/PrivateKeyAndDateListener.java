@@ -0,0 +1,30 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+/**
+ * Interface to implement to receive the private keys from a private key file one at a time, as they are read.
+ */
+public interface PrivateKeyAndDateListener {
+    /**
+     * A private key has been read from the file.
+     *
+     * If reading the file later fails, the keys already passed to the listener should be discarded.
+     *
+     * @param privateKeyAndDate
+     */
+    public void onPrivateKeyAndDate(PrivateKeyAndDate privateKeyAndDate);
+}
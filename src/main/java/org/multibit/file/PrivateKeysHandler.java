@@ -15,23 +15,25 @@
  */
 package org.multibit.file;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.io.StringReader;
+import java.io.Reader;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.TimeZone;
 
@@ -50,11 +52,8 @@ import com.google.bitcoin.core.BlockChain;
 import com.google.bitcoin.core.DumpedPrivateKey;
 import com.google.bitcoin.core.ECKey;
 import com.google.bitcoin.core.NetworkParameters;
-import com.google.bitcoin.core.ScriptException;
 import com.google.bitcoin.core.StoredBlock;
 import com.google.bitcoin.core.Transaction;
-import com.google.bitcoin.core.TransactionInput;
-import com.google.bitcoin.core.TransactionOutput;
 import com.google.bitcoin.core.Utils;
 import com.google.bitcoin.core.Wallet;
 
@@ -79,6 +78,10 @@ public class PrivateKeysHandler {
 
     private KeyCrypterOpenSSL keyCrypter;
 
+    private static final int IMPORT_BUFFER_SIZE = 8192;
+
+    private static final int KEY_CACHE_SIZE = 2;
+
     public PrivateKeysHandler(NetworkParameters networkParameters) {
         // Date format is UTC with century, T time separator and Z for UTC timezone.
         formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ENGLISH);
@@ -89,7 +92,8 @@ public class PrivateKeysHandler {
         }
         this.networkParameters = networkParameters;
 
-        keyCrypter = new KeyCrypterOpenSSL();
+        // Cache the derived key so that verifying an export straight after writing it does not derive it again.
+        keyCrypter = new KeyCrypterOpenSSL(KEY_CACHE_SIZE);
     }
 
     public void exportPrivateKeys(File exportFile, Wallet wallet, BlockChain blockChain, boolean performEncryptionOfExportFile, CharSequence exportPassword, CharSequence walletPassword)
@@ -113,7 +117,6 @@ public class PrivateKeysHandler {
         String keyOutputText = outputStringBuffer.toString();
 
         if (performEncryptionOfExportFile) {
-            KeyCrypterOpenSSL keyCrypter = new KeyCrypterOpenSSL();
             keyOutputText = keyCrypter.encrypt(keyOutputText, exportPassword);
         }
         
@@ -207,43 +210,124 @@ public class PrivateKeysHandler {
     }
 
     public Collection<PrivateKeyAndDate> readInPrivateKeys(File importFile, CharSequence password) throws PrivateKeysHandlerException, KeyCrypterException {
+        final ArrayList<PrivateKeyAndDate> parseResults = new ArrayList<PrivateKeyAndDate>();
+
+        readInPrivateKeys(importFile, password, new PrivateKeyAndDateListener() {
+            @Override
+            public void onPrivateKeyAndDate(PrivateKeyAndDate privateKeyAndDate) {
+                parseResults.add(privateKeyAndDate);
+            }
+        });
+        return parseResults;
+    }
+
+    /**
+     * Read in the private keys from a file, passing each one to the listener as it is read.
+     * 
+     * The file is decrypted and parsed as it is streamed in so only one line of it is held in memory at a time,
+     * however large it is.
+     */
+    public void readInPrivateKeys(File importFile, CharSequence password, PrivateKeyAndDateListener listener) throws PrivateKeysHandlerException, KeyCrypterException {
         if (importFile == null) {
             throw new PrivateKeysHandlerException("Import file cannot be null");
         }
 
-        ArrayList<PrivateKeyAndDate> parseResults = new ArrayList<PrivateKeyAndDate>();
-
-        Scanner scanner = null;
-
+        InputStream inputStream = null;
+        BufferedReader reader = null;
+        boolean encrypted = false;
         try {
-            // Read in the file.
-            String importFileContents = readFile(importFile);
+            inputStream = new BufferedInputStream(new FileInputStream(importFile), IMPORT_BUFFER_SIZE);
 
-            if (importFileContents != null && importFileContents.startsWith(keyCrypter.getOpenSSLMagicText())) {
+            if (startsWithOpenSSLMagicText(inputStream)) {
                 // Decryption required.
-                KeyCrypterOpenSSL keyCrypter = new KeyCrypterOpenSSL();
-                importFileContents = keyCrypter.decrypt(importFileContents, password);
+                encrypted = true;
+                try {
+                    inputStream = keyCrypter.decrypt(inputStream, password);
+                } catch (KeyCrypterException kce) {
+                    throw new KeyCrypterException("Could not decrypt input string", kce);
+                }
+                reader = new BufferedReader(new InputStreamReader(inputStream, KeyCrypterOpenSSL.STRING_ENCODING), IMPORT_BUFFER_SIZE);
+            } else {
+                reader = new BufferedReader(new InputStreamReader(inputStream), IMPORT_BUFFER_SIZE);
             }
 
-            scanner = new Scanner(new StringReader(importFileContents));
-
-            // First use a Scanner to get each line.
-            while (scanner.hasNextLine()) {
-                processLine(scanner.nextLine(), parseResults);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                PrivateKeyAndDate privateKeyAndDate;
+                try {
+                    privateKeyAndDate = parseLine(line);
+                } catch (PrivateKeysHandlerException pkhe) {
+                    // With the wrong password the first line decrypts to rubbish. Tell the two apart by whether
+                    // the rest of the file decrypts.
+                    if (encrypted && !readsToEnd(reader)) {
+                        throw new KeyCrypterException("Could not decrypt input string", pkhe);
+                    }
+                    throw pkhe;
+                }
+                if (privateKeyAndDate != null) {
+                    listener.onPrivateKeyAndDate(privateKeyAndDate);
+                }
             }
         } catch (IOException ioe) {
+            if (encrypted) {
+                // The cipher stream reports a bad password or padding as an IOException.
+                throw new KeyCrypterException("Could not decrypt input string", ioe);
+            }
             throw new PrivateKeysHandlerException("Could not read import file '" + importFile.getAbsolutePath() + "'", ioe);
         } finally {
-            // Ensure the underlying stream is always closed
-            // this only has any effect if the item passed
-            // to the Scanner
-            // constructor implements Closeable (which it
-            // does in this case).
-            if (scanner != null) {
-                scanner.close();
+            // Reading the file is the last use of any key derived when it was written.
+            clearKeyCache();
+            try {
+                if (reader != null) {
+                    reader.close();
+                } else if (inputStream != null) {
+                    inputStream.close();
+                }
+            } catch (IOException ioe) {
+                log.debug("Could not close import file '" + importFile.getAbsolutePath() + "'. " + ioe.getMessage());
             }
         }
-        return parseResults;
+    }
+
+    /**
+     * Zero and forget the keys derived from the export passwords. This is done after every read so it is only needed
+     * when a file is written without being verified.
+     */
+    public void clearKeyCache() {
+        keyCrypter.clearKeyCache();
+    }
+
+    /**
+     * Look at the start of the stream for the OpenSSL magic text without consuming it.
+     */
+    private boolean startsWithOpenSSLMagicText(InputStream inputStream) throws IOException {
+        String magicText = keyCrypter.getOpenSSLMagicText();
+        inputStream.mark(magicText.length());
+        try {
+            for (int i = 0; i < magicText.length(); i++) {
+                if (inputStream.read() != magicText.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            inputStream.reset();
+        }
+    }
+
+    /**
+     * @return true if the rest of the reader could be read, false if reading it failed
+     */
+    private boolean readsToEnd(Reader reader) {
+        char[] buffer = new char[IMPORT_BUFFER_SIZE];
+        try {
+            while (reader.read(buffer) != -1) {
+                // Discard.
+            }
+            return true;
+        } catch (IOException ioe) {
+            return false;
+        }
     }
 
     private void outputHeaderComment(StringBuffer out) {
@@ -278,6 +362,8 @@ public class PrivateKeysHandler {
 
             Set<Transaction> allTransactions = wallet.getTransactions(true);
             if (keychain != null) {
+                // Look at each transaction once to find when each key was used.
+                KeyUsageIndex keyUsageIndex = new KeyUsageIndex(allTransactions);
                 HashMap<ECKey, Date> keyToEarliestUsageDateMap = new HashMap<ECKey, Date>();
 
                 // The date of the last transaction in the wallet - used where
@@ -286,32 +372,19 @@ public class PrivateKeysHandler {
 
                 for (ECKey ecKey : keychain) {
                     // Find the earliest usage of this key.
-                    Date earliestUsageDate = null;
-                    if (allTransactions != null) {
-                        for (Transaction tx : allTransactions) {
-                            if (transactionUsesKey(tx, ecKey)) {
-                                Date updateTime = tx.getUpdateTime();
-                                if (updateTime != null) {
-                                    if (updateTime != null) {
-                                        if (overallLastUsageDate == null) {
-                                            overallLastUsageDate = updateTime;
-                                        } else {
-                                            overallLastUsageDate = overallLastUsageDate.after(updateTime) ? overallLastUsageDate
-                                                    : updateTime;
-                                        }
-                                    }
-                                    if (earliestUsageDate == null) {
-                                        earliestUsageDate = updateTime;
-                                    } else {
-                                        earliestUsageDate = earliestUsageDate.before(updateTime) ? earliestUsageDate : updateTime;
-                                    }
-                                }
-                            }
-                        }
-                    }
+                    Date earliestUsageDate = keyUsageIndex.getEarliestUsageDate(ecKey);
                     if (earliestUsageDate != null) {
                         keyToEarliestUsageDateMap.put(ecKey, earliestUsageDate);
                     }
+                    Date latestUsageDate = keyUsageIndex.getLatestUsageDate(ecKey);
+                    if (latestUsageDate != null) {
+                        if (overallLastUsageDate == null) {
+                            overallLastUsageDate = latestUsageDate;
+                        } else {
+                            overallLastUsageDate = overallLastUsageDate.after(latestUsageDate) ? overallLastUsageDate
+                                    : latestUsageDate;
+                        }
+                    }
                 }
 
                 // If there are no transactions in the wallet
@@ -387,12 +460,18 @@ public class PrivateKeysHandler {
     public Date calculateReplayDate(Collection<PrivateKeyAndDate> privateKeyAndDates, Wallet wallet) {
         boolean thereWereMissingDates = false;
         Date replayDate =  new Date(DateUtils.nowUtc().getMillis());
+        KeyFingerprints walletKeys = null;
+        if (wallet != null) {
+            synchronized (wallet.getKeychain()) {
+                walletKeys = new KeyFingerprints(wallet.getKeychain());
+            }
+        }
         for (PrivateKeyAndDate loop : privateKeyAndDates) {
             if (loop.getDate() == null) {
                 thereWereMissingDates = true;
             } else {
                 if (loop.getKey() != null) {
-                    if (wallet != null && !keyChainContainsPrivateKey(wallet.getKeychain(), loop.getKey())) {
+                    if (wallet != null && !walletKeys.contains(loop.getKey())) {
                         replayDate = replayDate.before(loop.getDate()) ? replayDate : loop.getDate();
                     }
                 }
@@ -407,89 +486,64 @@ public class PrivateKeysHandler {
     }
 
     /**
-     * This method is here because there is no equals on ECKey.
+     * Parse a line of the form:
+     *   <Base58 encoded private key>[<whitespace>[<key createdAt>]]
+     * 
+     * The tokens are found by scanning the line for whitespace rather than by using a Scanner, which compiles and
+     * runs regular expressions for every line.
+     * 
+     * @return The private key and date, or null if the line is blank or a comment
      */
-    private boolean keyChainContainsPrivateKey(Collection<ECKey> keyChain, ECKey keyToAdd) {
-        if (keyChain == null || keyToAdd == null) {
-            return false;
-        } else {
-            for (ECKey loopKey : keyChain) {
-                if (Arrays.equals(keyToAdd.getPrivKeyBytes(), loopKey.getPrivKeyBytes())) {
-                    return true;
-                }
-            }
-            return false;
-        }
-    }
-
-    private boolean transactionUsesKey(Transaction transaction, ECKey ecKey) {
-        for (TransactionOutput output : transaction.getOutputs()) {
-            // This is not thread safe as a key could be removed between the
-            // call to isMine and receive.
-            try {
-                byte[] pubkeyHash = output.getScriptPubKey().getPubKeyHash();
-                if (Arrays.equals(ecKey.getPubKeyHash(), pubkeyHash)) {
-                    return true;
-                }
-            } catch (ScriptException e) {
-                log.error("Could not parse tx output script: {}", e.toString());
-                return false;
-            }
+    PrivateKeyAndDate parseLine(String line) {
+        if (line == null || line.startsWith(COMMENT_STRING_PREFIX)) {
+            return null;
         }
 
-        for (TransactionInput input : transaction.getInputs()) {
-            // This is not thread safe as a key could be removed between the
-            // call to isPubKeyMine and receive.
-            try {
-                byte[] pubkey = input.getScriptSig().getPubKey();
-                if (Arrays.equals(ecKey.getPubKey(), pubkey)) {
-                    return true;
-                }
-            } catch (ScriptException e) {
-                log.error("Could not parse tx output script: {}", e.toString());
-                return false;
-            }
+        int keyStart = skipWhitespace(line, 0);
+        if (keyStart == line.length()) {
+            return null;
         }
-        return false;
-    }
+        int keyEnd = skipToken(line, keyStart);
+        String sipaKey = line.substring(keyStart, keyEnd);
 
-    private void processLine(String line, ArrayList<PrivateKeyAndDate> parseResults) {
-        if (line != null && !line.trim().equals("") && !line.startsWith(COMMENT_STRING_PREFIX)) {
-            Scanner scanner = null;
-            try {
-                scanner = new Scanner(line);
+        int createdAtStart = skipWhitespace(line, keyEnd);
+        String createdAtAsString = line.substring(createdAtStart, skipToken(line, createdAtStart));
 
-                String sipaKey = "";
-                String createdAtAsString = "";
-                if (scanner.hasNext()) {
-                    sipaKey = scanner.next();
+        try {
+            DumpedPrivateKey dumpedPrivateKey = new DumpedPrivateKey(networkParameters, sipaKey);
+            PrivateKeyAndDate privateKeyAndDate = new PrivateKeyAndDate();
 
-                }
-                if (scanner.hasNext()) {
-                    createdAtAsString = scanner.next();
-                }
+            privateKeyAndDate.setKey(dumpedPrivateKey.getKey());
 
-                DumpedPrivateKey dumpedPrivateKey = new DumpedPrivateKey(networkParameters, sipaKey);
-                PrivateKeyAndDate privateKeyAndDate = new PrivateKeyAndDate();
+            if (!"".equals(createdAtAsString)) {
+                Date date = formatter.parse(createdAtAsString);
+                privateKeyAndDate.setDate(date);
+            }
 
-                privateKeyAndDate.setKey(dumpedPrivateKey.getKey());
+            return privateKeyAndDate;
+        } catch (AddressFormatException e) {
+            throw new PrivateKeysHandlerException("Could not understand address in import file", e);
+        } catch (ParseException pe) {
+            throw new PrivateKeysHandlerException("Could not parse date in import file", pe);
+        }
+    }
 
-                if (createdAtAsString != null && !"".equals(createdAtAsString)) {
-                    Date date = formatter.parse(createdAtAsString);
-                    privateKeyAndDate.setDate(date);
-                }
+    private static int skipWhitespace(String line, int index) {
+        while (index < line.length() && isWhitespace(line.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
 
-                parseResults.add(privateKeyAndDate);
-            } catch (AddressFormatException e) {
-                throw new PrivateKeysHandlerException("Could not understand address in import file", e);
-            } catch (ParseException pe) {
-                throw new PrivateKeysHandlerException("Could not parse date in import file", pe);
-            } finally {
-                if (scanner != null) {
-                    scanner.close();
-                }
-            }
+    private static int skipToken(String line, int index) {
+        while (index < line.length() && !isWhitespace(line.charAt(index))) {
+            index++;
         }
+        return index;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c <= ' ' || Character.isWhitespace(c);
     }
 
     public static String readFile(File file) throws IOException {
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.io.IOException;
+
+/**
+ * Watches the directories containing the open wallets and checks a wallet as soon as its wallet or wallet info file
+ * is changed, rather than waiting for the FileChangeTimerTask to poll it.<p>
+ * 
+ * Watching needs Java 7 or later. When it is not available there is no watcher and the FileChangeTimerTask polls all
+ * the wallets instead.
+ */
+public interface WalletFileWatcher {
+    /**
+     * Start watching on a background thread.
+     * 
+     * @throws IOException if the file system cannot be watched
+     */
+    public void start() throws IOException;
+
+    /**
+     * Stop watching.
+     */
+    public void stop();
+
+    /**
+     * @return true if the wallet directories are being watched
+     */
+    public boolean isRunning();
+
+    /**
+     * Watch the directory containing the wallet, if it is not already watched.
+     * 
+     * @param walletFilename
+     */
+    public void watch(String walletFilename);
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.message.Message;
+import org.multibit.message.MessageManager;
+import org.multibit.model.bitcoin.WalletData;
+import org.multibit.store.WalletVersionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves dirty wallets on a single background thread.<p>
+ * 
+ * Requests to save a wallet that is already waiting to be saved are coalesced, so however many times a wallet is
+ * marked dirty between saves it is written once. Callers (the FileChangeTimerTask, the EDT) never wait for a wallet
+ * to be serialised.
+ */
+public class WalletSaveService {
+    private static final Logger log = LoggerFactory.getLogger(WalletSaveService.class);
+
+    private final BitcoinController bitcoinController;
+
+    /**
+     * The wallets waiting to be saved, in the order they were first asked for.
+     */
+    private final Set<WalletData> walletsToSave = new LinkedHashSet<WalletData>();
+
+    /**
+     * True whilst the writer thread has been asked to save wallets and has not yet finished.
+     */
+    private boolean saving = false;
+
+    private ExecutorService writer;
+
+    public WalletSaveService(BitcoinController bitcoinController) {
+        this.bitcoinController = bitcoinController;
+    }
+
+    /**
+     * Ask for the wallet to be saved in the background if it is dirty.
+     * 
+     * @param perWalletModelData
+     */
+    public void requestSave(WalletData perWalletModelData) {
+        if (perWalletModelData == null) {
+            return;
+        }
+        synchronized (this) {
+            walletsToSave.add(perWalletModelData);
+            if (saving) {
+                // The writer thread will pick it up.
+                return;
+            }
+            saving = true;
+            if (writer == null) {
+                writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "WalletSaveService");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                saveRequestedWallets();
+            }
+        });
+    }
+
+    /**
+     * @return true if there are wallets waiting to be saved or being saved
+     */
+    public synchronized boolean isSaving() {
+        return saving;
+    }
+
+    /**
+     * Wait for all the wallets asked for so far to be saved.
+     * 
+     * @param timeoutMillis the longest time to wait
+     * @return true if all the wallets were saved, false if the wait timed out or was interrupted
+     */
+    public synchronized boolean waitUntilSaved(long timeoutMillis) {
+        long waitUntil = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (saving) {
+                long timeToWait = waitUntil - System.currentTimeMillis();
+                if (timeToWait <= 0) {
+                    return false;
+                }
+                wait(timeToWait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private void saveRequestedWallets() {
+        while (true) {
+            WalletData perWalletModelData;
+            synchronized (this) {
+                Iterator<WalletData> iterator = walletsToSave.iterator();
+                if (!iterator.hasNext()) {
+                    saving = false;
+                    notifyAll();
+                    return;
+                }
+                perWalletModelData = iterator.next();
+                iterator.remove();
+            }
+            save(perWalletModelData);
+        }
+    }
+
+    private void save(WalletData perWalletModelData) {
+        if (!perWalletModelData.isDirty()) {
+            // Already saved by some other route.
+            return;
+        }
+        log.debug("Saving dirty wallet '" + perWalletModelData.getWalletFilename() + "'...");
+        try {
+            bitcoinController.getFileHandler().savePerWalletModelData(perWalletModelData, false);
+            log.debug("... done.");
+        } catch (WalletSaveException e) {
+            reportSaveFailure(perWalletModelData, e);
+        } catch (WalletVersionException e) {
+            reportSaveFailure(perWalletModelData, e);
+        } catch (RuntimeException e) {
+            // Keep the writer going for the other wallets.
+            reportSaveFailure(perWalletModelData, e);
+        }
+    }
+
+    private void reportSaveFailure(WalletData perWalletModelData, Exception e) {
+        String message = bitcoinController.getLocaliser().getString("createNewWalletAction.walletCouldNotBeCreated",
+                new Object[] { perWalletModelData.getWalletFilename(), e.getMessage() });
+        log.error(message);
+        MessageManager.INSTANCE.addMessage(new Message(message));
+    }
+}
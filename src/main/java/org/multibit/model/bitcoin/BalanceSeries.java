@@ -0,0 +1,309 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.bitcoin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.WalletTransaction;
+
+/**
+ * The running balance of a wallet over time, for charting.<p>
+ *
+ * The series is built from the wallet's transactions the first time it is asked for and after that is kept up to
+ * date as transactions arrive, so a chart refresh does not sort and total every transaction in the wallet. Anything
+ * that can change transactions already in the series - a reorganisation, a transaction going dead, the wallet being
+ * replaced - invalidates it and it is rebuilt the next time it is asked for.<p>
+ *
+ * Balances are in satoshi.
+ */
+public class BalanceSeries {
+    private static final Logger log = LoggerFactory.getLogger(BalanceSeries.class);
+
+    /**
+     * The most points a bucket is drawn with: the balance going into it, its lowest and highest balances and the
+     * balance coming out of it.
+     */
+    static final int MAXIMUM_POINTS_PER_BUCKET = 4;
+
+    /**
+     * A point on the chart.
+     */
+    public static class Point {
+        private final long time;
+        private final long balance;
+
+        Point(long time, long balance) {
+            this.time = time;
+            this.balance = balance;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getBalance() {
+            return balance;
+        }
+
+        @Override
+        public String toString() {
+            return "Point [time=" + time + ", balance=" + balance + "]";
+        }
+    }
+
+    private static class Entry {
+        private final long time;
+        private final long value;
+
+        private Entry(long time, long value) {
+            this.time = time;
+            this.value = value;
+        }
+    }
+
+    private static final Comparator<Entry> OLDEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            return entry1.time < entry2.time ? -1 : (entry1.time == entry2.time ? 0 : 1);
+        }
+    };
+
+    private boolean valid = false;
+
+    /**
+     * Incremented whenever the series changes.
+     */
+    private int version = 0;
+
+    private final Set<String> transactionHashes = new HashSet<String>();
+
+    // The time of each transaction, oldest first, and the balance after it.
+    private int size = 0;
+    private long[] times = new long[16];
+    private long[] balances = new long[16];
+
+    /**
+     * Throw the series away. It is rebuilt the next time it is asked for.
+     */
+    public synchronized void invalidate() {
+        if (valid) {
+            valid = false;
+            version++;
+        }
+    }
+
+    /**
+     * A transaction has been added to the wallet.
+     */
+    public synchronized void transactionSeen(Wallet wallet, Transaction transaction) {
+        if (!valid || wallet == null || transaction == null || transactionHashes.contains(transaction.getHashAsString())) {
+            return;
+        }
+        try {
+            add(transaction.getHashAsString(), getTime(transaction), transaction.getValue(wallet).longValue());
+        } catch (ScriptException e) {
+            log.debug("Could not work out the value of transaction " + transaction.getHashAsString() + " : " + e.getMessage());
+            invalidate();
+        }
+    }
+
+    /**
+     * Get the balance over a time range, reduced to at most MAXIMUM_POINTS_PER_BUCKET points per bucket (typically
+     * a bucket is a pixel column of the chart). The lowest and highest balances in each bucket are kept so that no
+     * peak or trough is lost.
+     *
+     * @param wallet the wallet the series is for
+     * @param from the start of the range, in milliseconds
+     * @param to the end of the range, in milliseconds
+     * @param numberOfBuckets the number of equal buckets to divide the range into
+     * @return the points to plot, oldest first, starting at from and ending at to
+     */
+    public synchronized List<Point> getPoints(Wallet wallet, long from, long to, int numberOfBuckets) {
+        if (!valid || !matchesWallet(wallet)) {
+            rebuild(wallet);
+        }
+
+        List<Point> points = new ArrayList<Point>();
+
+        // The first transaction in the range.
+        int index = indexOfFirstAfter(from);
+        points.add(new Point(from, index == 0 ? 0 : balances[index - 1]));
+
+        double bucketWidth = (double) (to - from) / Math.max(1, numberOfBuckets);
+        while (index < size && times[index] <= to) {
+            // Every transaction in the same bucket as this one.
+            long bucketEnd = from + (long) ((Math.floor((times[index] - from) / bucketWidth) + 1) * bucketWidth);
+            int first = index;
+            int lowest = index;
+            int highest = index;
+            while (index < size && times[index] < bucketEnd && times[index] <= to) {
+                if (balances[index] < balances[lowest]) {
+                    lowest = index;
+                }
+                if (balances[index] > balances[highest]) {
+                    highest = index;
+                }
+                index++;
+            }
+            int last = index - 1;
+
+            // The balance going into the bucket, then its extremes - the balance after the last transaction is
+            // drawn anyway.
+            points.add(new Point(times[first], first == 0 ? 0 : balances[first - 1]));
+            if (lowest != last && highest != last) {
+                int earlier = Math.min(lowest, highest);
+                int later = Math.max(lowest, highest);
+                points.add(new Point(times[earlier], balances[earlier]));
+                if (later != earlier) {
+                    points.add(new Point(times[later], balances[later]));
+                }
+            } else if (lowest != last) {
+                points.add(new Point(times[lowest], balances[lowest]));
+            } else if (highest != last) {
+                points.add(new Point(times[highest], balances[highest]));
+            }
+            points.add(new Point(times[last], balances[last]));
+        }
+
+        // The balance at the end of the range.
+        int lastInRange = indexOfFirstAfter(to) - 1;
+        points.add(new Point(to, lastInRange < 0 ? 0 : balances[lastInRange]));
+        return points;
+    }
+
+    /**
+     * @return a number that changes whenever the series changes
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Add a transaction. Transactions normally arrive in time order so are appended - an older one means the
+     * balances after it have to be moved along and recalculated.
+     */
+    void add(String transactionHash, long time, long value) {
+        if (!transactionHashes.add(transactionHash)) {
+            return;
+        }
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            balances = Arrays.copyOf(balances, size * 2);
+        }
+
+        int index = indexOfFirstAfter(time);
+        System.arraycopy(times, index, times, index + 1, size - index);
+        System.arraycopy(balances, index, balances, index + 1, size - index);
+        times[index] = time;
+        balances[index] = (index == 0 ? 0 : balances[index - 1]) + value;
+        size++;
+        for (int i = index + 1; i < size; i++) {
+            balances[i] += value;
+        }
+        version++;
+    }
+
+    /**
+     * Start a new empty series that is then kept up to date.
+     */
+    void clear() {
+        transactionHashes.clear();
+        size = 0;
+        valid = true;
+        version++;
+    }
+
+    private void rebuild(Wallet wallet) {
+        clear();
+        if (wallet == null) {
+            return;
+        }
+
+        Set<Transaction> transactions = wallet.getTransactions(false);
+        List<Entry> entries = new ArrayList<Entry>(transactions.size());
+        for (Transaction transaction : transactions) {
+            try {
+                if (transactionHashes.add(transaction.getHashAsString())) {
+                    entries.add(new Entry(getTime(transaction), transaction.getValue(wallet).longValue()));
+                }
+            } catch (ScriptException e) {
+                log.debug("Could not work out the value of transaction " + transaction.getHashAsString() + " : " + e.getMessage());
+            }
+        }
+        Collections.sort(entries, OLDEST_FIRST);
+
+        times = new long[Math.max(16, entries.size())];
+        balances = new long[times.length];
+        long balance = 0;
+        for (Entry entry : entries) {
+            balance += entry.value;
+            times[size] = entry.time;
+            balances[size] = balance;
+            size++;
+        }
+    }
+
+    /**
+     * @return false if the wallet has a different number of transactions - an event has been missed
+     */
+    private boolean matchesWallet(Wallet wallet) {
+        if (wallet == null) {
+            // Nothing to check against.
+            return true;
+        }
+        int walletSize = wallet.getPoolSize(WalletTransaction.Pool.UNSPENT) + wallet.getPoolSize(WalletTransaction.Pool.SPENT)
+                + wallet.getPoolSize(WalletTransaction.Pool.PENDING);
+        return walletSize == transactionHashes.size();
+    }
+
+    /**
+     * @return the index of the first transaction later than the time
+     */
+    private int indexOfFirstAfter(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Transactions with no time are treated as the oldest.
+     */
+    private static long getTime(Transaction transaction) {
+        Date updateTime = transaction.getUpdateTime();
+        return updateTime == null ? 0 : updateTime.getTime();
+    }
+}
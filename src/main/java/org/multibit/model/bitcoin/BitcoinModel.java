@@ -20,9 +20,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
@@ -144,6 +144,9 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
     public static final String SINGLE_NODE_CONNECTION = "singleNodeConnection";
     public static final String PEERS = "peers";
 
+    // How a ReplayableBlockStore writes its records - the name of one of its Modes.
+    public static final String BLOCK_STORE_MODE = "blockStoreMode";
+
     
     // Sizes and last modified dates of files.
     public static final String WALLET_FILE_SIZE = "walletFileSize";
@@ -167,8 +170,11 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
     
     /**
      * List of each wallet's total model data.
+     * 
+     * Wallets are added on the start up thread whilst the views draw them, so the list is copied on write and the
+     * views iterate over a snapshot.
      */
-    private List<WalletData> perWalletModelDataList;
+    private volatile List<WalletData> perWalletModelDataList;
 
     /**
      * The current active wallet.
@@ -193,7 +199,7 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
     public BitcoinModel(CoreModel coreModel) {
         super(coreModel);
 
-        perWalletModelDataList = new LinkedList<WalletData>();
+        perWalletModelDataList = new CopyOnWriteArrayList<WalletData>();
 
         activeWalletModelData = new WalletData();
         perWalletModelDataList.add(activeWalletModelData);
@@ -308,6 +314,31 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
         }
     }
 
+    /**
+     * Put the wallets into the order of the wallet filenames given. Any wallets not in the list are kept, after
+     * the ones that are.
+     *
+     * @param walletFilenames
+     */
+    public void orderWallets(List<String> walletFilenames) {
+        if (walletFilenames == null || perWalletModelDataList == null) {
+            return;
+        }
+        List<WalletData> orderedPerWalletModelDataList = new ArrayList<WalletData>();
+        for (String walletFilename : walletFilenames) {
+            WalletData loopPerWalletModelData = getPerWalletModelDataByWalletFilename(walletFilename);
+            if (loopPerWalletModelData != null && !orderedPerWalletModelDataList.contains(loopPerWalletModelData)) {
+                orderedPerWalletModelDataList.add(loopPerWalletModelData);
+            }
+        }
+        for (WalletData loopPerWalletModelData : perWalletModelDataList) {
+            if (!orderedPerWalletModelDataList.contains(loopPerWalletModelData)) {
+                orderedPerWalletModelDataList.add(loopPerWalletModelData);
+            }
+        }
+        perWalletModelDataList = new CopyOnWriteArrayList<WalletData>(orderedPerWalletModelDataList);
+    }
+
     /**
      * Remove the specified perWalletModelData. Note that this does not remove
      * any backing wallet or wallet info files.
@@ -450,46 +481,53 @@ public class BitcoinModel extends AbstractModel<CoreModel> {
 
         if (transactions != null) {
             for (Transaction loopTransaction : transactions) {
-                WalletTableData walletDataRow = new WalletTableData(loopTransaction);
-                walletData.add(walletDataRow);
-                walletDataRow.setCredit(loopTransaction.getValueSentToMe(perWalletModelData.getWallet()));
-                try {
-                    walletDataRow.setDebit(loopTransaction.getValueSentFromMe(perWalletModelData.getWallet()));
-                } catch (ScriptException e) {
-                    log.error(e.getMessage(), e);
-
-                }
-                List<TransactionInput> transactionInputs = loopTransaction.getInputs();
-                List<TransactionOutput> transactionOutputs = loopTransaction.getOutputs();
-                if (transactionInputs != null) {
-                    TransactionInput firstInput = transactionInputs.get(0);
-                    if (firstInput != null) {
-                        walletDataRow.setDescription(createDescription(bitcoinController, perWalletModelData.getWallet(), transactionInputs,
-                                transactionOutputs, walletDataRow.getCredit(), walletDataRow.getDebit()));
-                    }
-                }
-                walletDataRow.setDate(createDate(bitcoinController, loopTransaction));
-                walletDataRow.setHeight(workOutHeight(loopTransaction));
+                walletData.add(createWalletTableData(bitcoinController, perWalletModelData, loopTransaction));
             }
         }
 
-        // Run through all the walletdata to see if both credit and debit are
-        // set (this means change was received).
-        for (WalletTableData walletDataRow : walletData) {
-            if (walletDataRow.getCredit() != null && (walletDataRow.getCredit().compareTo(BigInteger.ZERO) > 0)
-                    && (walletDataRow.getDebit() != null) && walletDataRow.getDebit().compareTo(BigInteger.ZERO) > 0) {
-                BigInteger net = walletDataRow.getCredit().subtract(walletDataRow.getDebit());
-                if (net.compareTo(BigInteger.ZERO) >= 0) {
-                    walletDataRow.setCredit(net);
-                    walletDataRow.setDebit(BigInteger.ZERO);
-                } else {
-                    walletDataRow.setCredit(BigInteger.ZERO);
-                    walletDataRow.setDebit(net.negate());
-                }
+        return walletData;
+    }
+
+    /**
+     * Convert a single transaction of a wallet into a walletdata record, so that
+     * a table of transactions can be updated one row at a time.
+     */
+    public WalletTableData createWalletTableData(final BitcoinController bitcoinController, WalletData perWalletModelData,
+            Transaction transaction) {
+        WalletTableData walletDataRow = new WalletTableData(transaction);
+        walletDataRow.setCredit(transaction.getValueSentToMe(perWalletModelData.getWallet()));
+        try {
+            walletDataRow.setDebit(transaction.getValueSentFromMe(perWalletModelData.getWallet()));
+        } catch (ScriptException e) {
+            log.error(e.getMessage(), e);
+
+        }
+        List<TransactionInput> transactionInputs = transaction.getInputs();
+        List<TransactionOutput> transactionOutputs = transaction.getOutputs();
+        if (transactionInputs != null) {
+            TransactionInput firstInput = transactionInputs.get(0);
+            if (firstInput != null) {
+                walletDataRow.setDescription(createDescription(bitcoinController, perWalletModelData.getWallet(), transactionInputs,
+                        transactionOutputs, walletDataRow.getCredit(), walletDataRow.getDebit()));
+            }
+        }
+        walletDataRow.setDate(createDate(bitcoinController, transaction));
+        walletDataRow.setHeight(workOutHeight(transaction));
+
+        // If both credit and debit are set change was received.
+        if (walletDataRow.getCredit() != null && (walletDataRow.getCredit().compareTo(BigInteger.ZERO) > 0)
+                && (walletDataRow.getDebit() != null) && walletDataRow.getDebit().compareTo(BigInteger.ZERO) > 0) {
+            BigInteger net = walletDataRow.getCredit().subtract(walletDataRow.getDebit());
+            if (net.compareTo(BigInteger.ZERO) >= 0) {
+                walletDataRow.setCredit(net);
+                walletDataRow.setDebit(BigInteger.ZERO);
+            } else {
+                walletDataRow.setCredit(BigInteger.ZERO);
+                walletDataRow.setDebit(net.negate());
             }
         }
 
-        return walletData;
+        return walletDataRow;
     }
 
     /**
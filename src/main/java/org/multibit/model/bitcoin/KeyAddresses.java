@@ -0,0 +1,93 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.bitcoin;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Wallet;
+
+/**
+ * The addresses of the keys in a wallet, used to check whether an address belongs to the wallet without hashing every
+ * key.<p>
+ *
+ * Keys are only ever appended to the keychain, so the set is caught up by working out the addresses of the keys added
+ * since it was last updated, without copying the keychain. If the keychain has shrunk the set is worked out again
+ * from scratch. Lookups only read the set - it is updated when a key is added and before bulk checks.
+ */
+public class KeyAddresses {
+    private final Wallet wallet;
+    private final NetworkParameters networkParameters;
+
+    private final Set<String> addresses = new HashSet<String>();
+
+    /**
+     * The number of keys in the keychain that have been added to the set.
+     */
+    private int numberOfKeysSeen = 0;
+
+    public KeyAddresses(Wallet wallet, NetworkParameters networkParameters) {
+        this.wallet = wallet;
+        this.networkParameters = networkParameters;
+        update();
+    }
+
+    /**
+     * @param address the address to check
+     * @return true if the address is the address of a key in the wallet when the set was last updated
+     */
+    public boolean contains(String address) {
+        if (address == null) {
+            return false;
+        }
+        synchronized (wallet.getKeychain()) {
+            return addresses.contains(address);
+        }
+    }
+
+    /**
+     * Add the addresses of any keys added to the wallet since the set was last updated.
+     * 
+     * @return true if any addresses were added
+     */
+    public boolean update() {
+        // The set is guarded by the keychain's own lock, which key imports already hold while adding keys, so
+        // updating from a key added event never waits on a second lock.
+        List<ECKey> keychain = wallet.getKeychain();
+        synchronized (keychain) {
+            int numberOfKeys = keychain.size();
+            if (numberOfKeys < numberOfKeysSeen) {
+                addresses.clear();
+                numberOfKeysSeen = 0;
+            }
+            if (numberOfKeys == numberOfKeysSeen) {
+                return false;
+            }
+            for (int i = numberOfKeysSeen; i < numberOfKeys; i++) {
+                addresses.add(keychain.get(i).toAddress(networkParameters).toString());
+            }
+            numberOfKeysSeen = numberOfKeys;
+            return true;
+        }
+    }
+
+    public Wallet getWallet() {
+        return wallet;
+    }
+}
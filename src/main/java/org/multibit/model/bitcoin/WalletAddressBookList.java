@@ -0,0 +1,116 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.bitcoin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A list of address book entries, in the order they were added, with an index from address to entry.<p>
+ *
+ * The list can still be changed directly (the table models and actions do). Appends keep the index up to date and
+ * any other change to the list is picked up from its version, the index being rebuilt on the next lookup.<p>
+ *
+ * Where an address is in the list more than once the first entry is the one found, as with a linear search. Entries
+ * with no address are never found.
+ */
+public class WalletAddressBookList extends ArrayList<WalletAddressBookData> {
+    private static final long serialVersionUID = -2470838416398523937L;
+
+    private transient Map<String, WalletAddressBookData> index;
+
+    /**
+     * The number of entries replaced with set() - this does not change the modification count.
+     */
+    private transient int replacements;
+
+    /**
+     * The version the index was built at.
+     */
+    private transient int indexedVersion = -1;
+
+    public WalletAddressBookList() {
+        super();
+    }
+
+    public WalletAddressBookList(Collection<WalletAddressBookData> addressBookData) {
+        super(addressBookData);
+    }
+
+    /**
+     * @param address the address to look up
+     * @return the first entry for the address, or null if the address is not in the list
+     */
+    public WalletAddressBookData get(String address) {
+        if (address == null) {
+            return null;
+        }
+        return getIndex().get(address);
+    }
+
+    /**
+     * @param address the address to look up
+     * @return true if the address is in the list
+     */
+    public boolean containsAddress(String address) {
+        return get(address) != null;
+    }
+
+    /**
+     * @return a number that changes whenever an entry is added, removed or replaced (but not when a label is changed)
+     */
+    public int getVersion() {
+        return modCount + replacements;
+    }
+
+    @Override
+    public boolean add(WalletAddressBookData addressBookData) {
+        boolean indexIsCurrent = index != null && indexedVersion == getVersion();
+        super.add(addressBookData);
+        if (indexIsCurrent) {
+            addToIndex(addressBookData);
+            indexedVersion = getVersion();
+        }
+        return true;
+    }
+
+    @Override
+    public WalletAddressBookData set(int position, WalletAddressBookData addressBookData) {
+        WalletAddressBookData previous = super.set(position, addressBookData);
+        replacements++;
+        return previous;
+    }
+
+    private Map<String, WalletAddressBookData> getIndex() {
+        if (index == null || indexedVersion != getVersion()) {
+            index = new HashMap<String, WalletAddressBookData>(Math.max(16, size() * 2));
+            for (WalletAddressBookData addressBookData : this) {
+                addToIndex(addressBookData);
+            }
+            indexedVersion = getVersion();
+        }
+        return index;
+    }
+
+    private void addToIndex(WalletAddressBookData addressBookData) {
+        if (addressBookData != null && addressBookData.getAddress() != null
+                && !index.containsKey(addressBookData.getAddress())) {
+            index.put(addressBookData.getAddress(), addressBookData);
+        }
+    }
+}
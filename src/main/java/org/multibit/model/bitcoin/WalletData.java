@@ -86,6 +86,10 @@ public class WalletData {
      */
     private transient SingleWalletPanelDownloadListener singleWalletDownloadListener;
 
+    /**
+     * The running balance of the wallet, for the charts.
+     */
+    private final transient BalanceSeries balanceSeries = new BalanceSeries();
     
     public WalletData() {
         isDirty = false;
@@ -97,6 +101,7 @@ public class WalletData {
 
     public void setWallet(Wallet wallet) {
         this.wallet = wallet;
+        balanceSeries.invalidate();
     }
 
     public String getWalletFilename() {
@@ -107,6 +112,10 @@ public class WalletData {
         this.walletFilename = walletFilename;
     }
 
+    public BalanceSeries getBalanceSeries() {
+        return balanceSeries;
+    }
+
     public WalletInfoData getWalletInfo() {
         return walletInfo;
     }
@@ -16,21 +16,21 @@
 package org.multibit.model.bitcoin;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.multibit.MultiBit;
@@ -42,7 +42,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.bitcoin.core.Address;
-import com.google.bitcoin.core.ECKey;
 import com.google.bitcoin.core.Wallet;
 
 /**
@@ -50,6 +49,9 @@ import com.google.bitcoin.core.Wallet;
  * it contains the sending and receiving addresses and the wallet version.
  * 
  * It is stored in the same directory as the wallet and has the suffix ".info".
+ * It is written in a binary format that saves can append to (see
+ * WalletInfoFile). The comma separated text format of earlier versions is
+ * still read.
  * 
  * @author jim
  * 
@@ -62,10 +64,10 @@ public class WalletInfoData {
 
     /**
      * The actual receiving addresses exposed for this address book (only keys
-     * that occur in this wallet).
+     * that occur in this wallet). Both address books are indexed by address.
      */
-    private ArrayList<WalletAddressBookData> receivingAddresses;
-    private ArrayList<WalletAddressBookData> sendingAddresses;
+    private WalletAddressBookList receivingAddresses;
+    private WalletAddressBookList sendingAddresses;
 
     private static final String INFO_FILE_EXTENSION = "info";
     private static final String RECEIVE_ADDRESS_MARKER = "receive";
@@ -82,12 +84,40 @@ public class WalletInfoData {
     public static final String SIZE_PROPERTY = "walletSize";
     public static final String DATE_LAST_MODIFED_PROPERTY = "walletLastModified";
 
+    /**
+     * Properties that are not written to the wallet info file. Some are only
+     * needed while MultiBit is running, others are obsolete and are dropped
+     * to tidy them up.
+     */
+    private static final Set<String> TRANSIENT_PROPERTIES = new HashSet<String>(Arrays.asList(BitcoinModel.WALLET_FILE_SIZE,
+            BitcoinModel.WALLET_FILE_LAST_MODIFIED, BitcoinModel.WALLET_INFO_FILE_SIZE, BitcoinModel.WALLET_INFO_FILE_LAST_MODIFIED,
+            BitcoinModel.VALIDATION_ADDRESS_IS_INVALID, BitcoinModel.VALIDATION_ADDRESS_VALUE,
+            BitcoinModel.VALIDATION_AMOUNT_IS_INVALID, BitcoinModel.VALIDATION_AMOUNT_IS_MISSING,
+            BitcoinModel.VALIDATION_AMOUNT_IS_NEGATIVE_OR_ZERO, BitcoinModel.VALIDATION_AMOUNT_VALUE,
+            BitcoinModel.VALIDATION_NOT_ENOUGH_FUNDS, BitcoinModel.SEND_PERFORM_PASTE_NOW, "sendErrorMessage",
+            "sendWasSuccessful", "earliestTransactionDate"));
+
     private String walletFilename;
     private MultiBitWalletVersion walletVersion;
     private Wallet wallet;
 
     private Properties walletPreferences;
 
+    /**
+     * The wallet info file as it was last read or written.
+     */
+    private final WalletInfoFile walletInfoFile = new WalletInfoFile();
+
+    /**
+     * The addresses of the keys of the wallet last checked against.
+     */
+    private volatile KeyAddresses keyAddresses;
+
+    /**
+     * Changes to the address books that their versions do not count: labels changed in place and lists replaced.
+     */
+    private volatile int addressBookChanges = 0;
+
     /**
      * Flag indicated that the wallet has been deleted and should not be used.
      */
@@ -103,8 +133,8 @@ public class WalletInfoData {
         this.walletVersion = walletVersion;
         this.wallet = wallet;
 
-        receivingAddresses = new ArrayList<WalletAddressBookData>();
-        sendingAddresses = new ArrayList<WalletAddressBookData>();
+        receivingAddresses = new WalletAddressBookList();
+        sendingAddresses = new WalletAddressBookList();
 
         walletPreferences = new Properties();
 
@@ -149,16 +179,25 @@ public class WalletInfoData {
         walletPreferences.remove(key);
     }
 
-    public ArrayList<WalletAddressBookData> getReceivingAddresses() {
+    public WalletAddressBookList getReceivingAddresses() {
         return receivingAddresses;
     }
 
-    public ArrayList<WalletAddressBookData> getSendingAddresses() {
+    public WalletAddressBookList getSendingAddresses() {
         return sendingAddresses;
     }
 
     public void setSendingAddresses(ArrayList<WalletAddressBookData> sendingAddresses) {
-        this.sendingAddresses = sendingAddresses;
+        this.sendingAddresses = new WalletAddressBookList(sendingAddresses);
+        addressBookChanges++;
+    }
+
+    /**
+     * @return a number that changes whenever an address or label in the address books is changed through this wallet
+     *         info or its lists, for checking whether anything worked out from the labels is still current
+     */
+    public int getAddressBookVersion() {
+        return receivingAddresses.getVersion() + sendingAddresses.getVersion() + addressBookChanges;
     }
 
     /**
@@ -177,25 +216,21 @@ public class WalletInfoData {
 
         if (checkAlreadyPresent) {
             // Check the address is not already in the set.
-            for (WalletAddressBookData addressBookData : receivingAddresses) {
-                if (addressBookData.getAddress().equals(receivingAddress.getAddress())) {
-                    // Just update label.
-                    addressBookData.setLabel(receivingAddress.getLabel());
-                    justUpdateLabel = true;
-                    break;
-                }
+            WalletAddressBookData addressBookData = receivingAddresses.get(receivingAddress.getAddress());
+            if (addressBookData != null) {
+                // Just update label.
+                addressBookData.setLabel(receivingAddress.getLabel());
+                addressBookChanges++;
+                justUpdateLabel = true;
             }
         }
 
         boolean addressMatchesKey = false;
         if (wallet != null) {
-            for (ECKey key : wallet.getKeys()) {
-                if (receivingAddress.getAddress().equals(
-                        key.toAddress(MultiBit.getBitcoinController().getModel().getNetworkParameters()))) {
-                    addressMatchesKey = true;
-                    break;
-                }
-            }
+            // A key added moments ago may not have been announced yet.
+            KeyAddresses walletKeyAddresses = getKeyAddresses(wallet);
+            addressMatchesKey = walletKeyAddresses.contains(receivingAddress.getAddress())
+                    || (walletKeyAddresses.update() && walletKeyAddresses.contains(receivingAddress.getAddress()));
         }
 
         if (!justUpdateLabel && (wallet == null || addressMatchesKey)) {
@@ -210,17 +245,12 @@ public class WalletInfoData {
     public void checkAllReceivingAddressesAppearInWallet(Wallet wallet) {
         List<WalletAddressBookData> toRemove = new ArrayList<WalletAddressBookData>();
         if (wallet != null) {
+            KeyAddresses walletKeyAddresses = getKeyAddresses(wallet);
+            walletKeyAddresses.update();
             Iterator<WalletAddressBookData> iterator = receivingAddresses.iterator();
             while (iterator.hasNext()) {
-                boolean addressMatchesKey = false;
                 WalletAddressBookData walletAddressBookData = iterator.next();
-                for (ECKey key : wallet.getKeys()) {
-                    if (walletAddressBookData.getAddress().equals(
-                            key.toAddress(MultiBit.getBitcoinController().getModel().getNetworkParameters()).toString())) {
-                        addressMatchesKey = true;
-                        break;
-                    }
-                }
+                boolean addressMatchesKey = walletKeyAddresses.contains(walletAddressBookData.getAddress());
                 
                 if (!addressMatchesKey) {
                     // Remove from receivingAddresses and log.
@@ -233,6 +263,29 @@ public class WalletInfoData {
         }
     }
 
+    /**
+     * Bring the addresses of the wallet's keys up to date after a key has been added.
+     */
+    public void keyAdded() {
+        KeyAddresses currentKeyAddresses = keyAddresses;
+        if (currentKeyAddresses != null) {
+            currentKeyAddresses.update();
+        }
+    }
+
+    /**
+     * Get the addresses of the keys of a wallet. They are worked out the first time they are needed and then kept up
+     * to date.
+     */
+    private KeyAddresses getKeyAddresses(Wallet wallet) {
+        KeyAddresses currentKeyAddresses = keyAddresses;
+        if (currentKeyAddresses == null || currentKeyAddresses.getWallet() != wallet) {
+            currentKeyAddresses = new KeyAddresses(wallet, MultiBit.getBitcoinController().getModel().getNetworkParameters());
+            keyAddresses = currentKeyAddresses;
+        }
+        return currentKeyAddresses;
+    }
+
     /**
      * Add a receiving address that belongs to a key of the current wallet this
      * will always be added and will take the label of any matching address in
@@ -251,17 +304,8 @@ public class WalletInfoData {
     }
 
     public boolean containsReceivingAddress(String receivingAddress) {
-        boolean toReturn = false;
         // see if the receiving address is on the current list
-        for (WalletAddressBookData addressBookData : receivingAddresses) {
-            if (addressBookData.getAddress().equals(receivingAddress.toString())) {
-                // do nothing
-                toReturn = true;
-                break;
-            }
-        }
-
-        return toReturn;
+        return receivingAddresses.containsAddress(receivingAddress);
     }
 
     public void addSendingAddress(WalletAddressBookData sendingAddress) {
@@ -269,45 +313,32 @@ public class WalletInfoData {
             return;
         }
 
-        boolean done = false;
         // Check the address is not already in the arraylist.
-        for (WalletAddressBookData addressBookData : sendingAddresses) {
-            if (addressBookData.getAddress() != null && addressBookData.getAddress().equals(sendingAddress.getAddress())) {
-                // Just update label.
-                addressBookData.setLabel(sendingAddress.getLabel());
-                done = true;
-                break;
-            }
-        }
-
-        if (!done) {
+        WalletAddressBookData addressBookData = sendingAddress.getAddress() == null ? null : sendingAddresses
+                .get(sendingAddress.getAddress());
+        if (addressBookData != null) {
+            // Just update label.
+            addressBookData.setLabel(sendingAddress.getLabel());
+            addressBookChanges++;
+        } else {
             sendingAddresses.add(sendingAddress);
         }
     }
 
     public String lookupLabelForReceivingAddress(String address) {
-        for (WalletAddressBookData addressBookData : receivingAddresses) {
-            if (addressBookData.getAddress().equals(address)) {
-                return addressBookData.getLabel();
-            }
-        }
-
-        return "";
+        WalletAddressBookData addressBookData = receivingAddresses.get(address);
+        return addressBookData == null ? "" : addressBookData.getLabel();
     }
 
     public String lookupLabelForSendingAddress(String address) {
-        for (WalletAddressBookData addressBookData : sendingAddresses) {
-            if (addressBookData.getAddress().equals(address)) {
-                return addressBookData.getLabel();
-            }
-        }
-
-        return "";
+        WalletAddressBookData addressBookData = sendingAddresses.get(address);
+        return addressBookData == null ? "" : addressBookData.getLabel();
     }
 
     /**
-     * Write out the wallet info to the file specified as a parameter - a comma
-     * separated file format is used.
+     * Write out the wallet info to the file specified as a parameter - the
+     * binary format is used. If the file is as this wallet info last read or
+     * wrote it, only the changes since then are appended.
      * 
      * @param walletInfoFilename
      *            The full path of the wallet info file to write
@@ -317,89 +348,60 @@ public class WalletInfoData {
      *             Exception if write is unsuccessful
      */
     public void writeToFile(String walletInfoFilename, MultiBitWalletVersion walletVersion) throws WalletSaveException {
-        BufferedWriter out = null;
         try {
-            // We write out all the receiving addresses.
-            HashMap<String, WalletAddressBookData> allReceivingAddresses = new HashMap<String, WalletAddressBookData>();
-            if (receivingAddresses != null) {
-                for (WalletAddressBookData addressBookData : receivingAddresses) {
-                    allReceivingAddresses.put(addressBookData.address, addressBookData);
-                }
-            }
-
-            // Create file.
-            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(walletInfoFilename), "UTF8"));
-
-            // Write out the multibit addressbook identifier.
-            out.write(INFO_MAGIC_TEXT + SEPARATOR + INFO_VERSION_TEXT + "\n");
+            walletInfoFile.write(new File(walletInfoFilename), createContents(walletVersion));
+        } catch (IOException ioe) {
+            throw new WalletSaveException("Could not write walletinfo file for wallet '" + walletInfoFilename + "'", ioe);
+        }
+    }
 
-            // Write out the wallet version.
-            out.write(WALLET_VERSION_MARKER + SEPARATOR + walletVersion.getWalletVersionString() + "\n");
+    /**
+     * Write out a copy of the wallet info, such as a backup, in full in the
+     * binary format. Unlike writeToFile this does not change which file later
+     * writes append their changes to.
+     * 
+     * @param walletInfoFilename
+     *            The full path of the wallet info file to write
+     * @param walletVersion
+     *            The wallet version.
+     * @throws WalletSaveException
+     *             Exception if write is unsuccessful
+     */
+    public void writeCopyToFile(String walletInfoFilename, MultiBitWalletVersion walletVersion) throws WalletSaveException {
+        try {
+            WalletInfoFile.writeCopy(new File(walletInfoFilename), createContents(walletVersion));
+        } catch (IOException ioe) {
+            throw new WalletSaveException("Could not write walletinfo file for wallet '" + walletInfoFilename + "'", ioe);
+        }
+    }
 
-            Collection<WalletAddressBookData> receiveAddressValues = allReceivingAddresses.values();
-            for (WalletAddressBookData addressBookData : receiveAddressValues) {
-                String columnOne = RECEIVE_ADDRESS_MARKER;
-                String columnTwo = addressBookData.getAddress();
-                String columnThree = addressBookData.getLabel();
-                if (columnTwo == null) {
-                    columnTwo = "";
-                }
-                out.write(columnOne + SEPARATOR + columnTwo + SEPARATOR + encodeURLString(columnThree) + "\n");
-            }
+    private WalletInfoFile.Contents createContents(MultiBitWalletVersion walletVersion) {
+        WalletInfoFile.Contents contents = new WalletInfoFile.Contents();
+        contents.setWalletVersion(walletVersion.getWalletVersionString());
+        if (receivingAddresses != null) {
+            addAddresses(contents.getReceivingAddresses(), receivingAddresses);
+        }
+        addAddresses(contents.getSendingAddresses(), sendingAddresses);
 
-            for (WalletAddressBookData addressBookData : sendingAddresses) {
-                String columnOne = SEND_ADDRESS_MARKER;
-                String columnTwo = addressBookData.getAddress();
-                String columnThree = addressBookData.getLabel();
-                if (columnTwo == null) {
-                    columnTwo = "";
-                }
-                out.write(columnOne + SEPARATOR + columnTwo + SEPARATOR + encodeURLString(columnThree) + "\n");
+        // Some properties do not need to be persisted.
+        for (Map.Entry<Object, Object> entry : walletPreferences.entrySet()) {
+            if (!TRANSIENT_PROPERTIES.contains(entry.getKey())) {
+                contents.getProperties().put((String) entry.getKey(), (String) entry.getValue());
             }
+        }
+        return contents;
+    }
 
-            // Remove some properties form the wallet file that dont need to be persisted.
-            Properties walletPreferencesClone = new Properties();
-            walletPreferencesClone.putAll(walletPreferences);
-            walletPreferencesClone.remove(BitcoinModel.WALLET_FILE_SIZE);
-            walletPreferencesClone.remove(BitcoinModel.WALLET_FILE_LAST_MODIFIED);
-            walletPreferencesClone.remove(BitcoinModel.WALLET_INFO_FILE_SIZE);
-            walletPreferencesClone.remove(BitcoinModel.WALLET_INFO_FILE_LAST_MODIFIED);
-
-            walletPreferencesClone.remove(BitcoinModel.VALIDATION_ADDRESS_IS_INVALID);
-            walletPreferencesClone.remove(BitcoinModel.VALIDATION_ADDRESS_VALUE);
-            walletPreferencesClone.remove(BitcoinModel.VALIDATION_AMOUNT_IS_INVALID);
-            walletPreferencesClone.remove(BitcoinModel.VALIDATION_AMOUNT_IS_MISSING);
-            walletPreferencesClone.remove(BitcoinModel.VALIDATION_AMOUNT_IS_NEGATIVE_OR_ZERO);
-            walletPreferencesClone.remove(BitcoinModel.VALIDATION_AMOUNT_VALUE);
-            walletPreferencesClone.remove(BitcoinModel.VALIDATION_NOT_ENOUGH_FUNDS);
-
-            walletPreferencesClone.remove(BitcoinModel.SEND_PERFORM_PASTE_NOW);
-            
-            // These properties are obselete so removed from the info file to tidy them up.
-            walletPreferencesClone.remove("sendErrorMessage");
-            walletPreferencesClone.remove("sendWasSuccessful");
-            walletPreferencesClone.remove("earliestTransactionDate");
-
-            for (Object key : walletPreferencesClone.keySet()) {
-                String columnOne = PROPERTY_MARKER;
-                String columnTwo = (String) key;
-                String encodedColumnThree = encodeURLString((String) walletPreferencesClone.get(key));
-                if (columnTwo == null) {
-                    columnTwo = "";
-                }
-                out.write(columnOne + SEPARATOR + columnTwo + SEPARATOR + encodedColumnThree + "\n");
-            }
-        } catch (IOException ioe) {
-            throw new WalletSaveException("Could not write walletinfo file for wallet '" + walletInfoFilename + "'", ioe);
-        } finally {
-            // Close the output stream.
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    throw new WalletSaveException("Could not close walletinfo file for wallet '" + walletInfoFilename + "'", e);
-                }
-            }
+    /**
+     * Add the addresses to the address book being written. An address that is
+     * in the list more than once is written once, in its first position, with
+     * its last label.
+     */
+    private static void addAddresses(Map<String, String> addressBook, List<WalletAddressBookData> addresses) {
+        for (WalletAddressBookData addressBookData : addresses) {
+            String address = addressBookData.getAddress() == null ? "" : addressBookData.getAddress();
+            String label = addressBookData.getLabel() == null ? "" : addressBookData.getLabel();
+            addressBook.put(address, label);
         }
     }
 
@@ -410,13 +412,41 @@ public class WalletInfoData {
      *             Exception if read is unsuccessful
      */
     public void loadFromFile() {
-        String walletInfoFilename = null;
+        String walletInfoFilename = createWalletInfoFilename(walletFilename);
+        walletPreferences = new Properties();
+        try {
+            if (WalletInfoFile.isBinary(new File(walletInfoFilename))) {
+                WalletInfoFile.Contents contents = walletInfoFile.read(new File(walletInfoFilename));
+
+                useWalletVersion(contents.getWalletVersion());
+                for (Map.Entry<String, String> entry : contents.getReceivingAddresses().entrySet()) {
+                    addReceivingAddress(new WalletAddressBookData(entry.getValue(), entry.getKey()), true);
+                }
+                for (Map.Entry<String, String> entry : contents.getSendingAddresses().entrySet()) {
+                    addSendingAddress(new WalletAddressBookData(entry.getValue(), entry.getKey()));
+                }
+                walletPreferences.putAll(contents.getProperties());
+                return;
+            }
+        } catch (IOException ioe) {
+            throw new WalletLoadException("Could not load walletinfo file '" + walletInfoFilename + "'", ioe);
+        }
+
+        // The next save rewrites the file in the binary format.
+        walletInfoFile.forget();
+        loadFromTextFile(walletInfoFilename);
+    }
+
+    /**
+     * Load a wallet info file in the text format written by earlier versions
+     * of MultiBit.
+     */
+    private void loadFromTextFile(String walletInfoFilename) {
         InputStream inputStream = null;
         try {
             walletPreferences = new Properties();
 
             // Read in the wallet info data.
-            walletInfoFilename = createWalletInfoFilename(walletFilename);
             FileInputStream fileInputStream = new FileInputStream(walletInfoFilename);
             // Get the object of DataInputStream.
             inputStream = new DataInputStream(fileInputStream);
@@ -453,29 +483,11 @@ public class WalletInfoData {
             if (walletVersionTokenNumber == 2) {
                 String walletVersionMarker = walletVersionTokenizer.nextToken();
                 String walletVersionString = walletVersionTokenizer.nextToken();
-                if (!WALLET_VERSION_MARKER.equals(walletVersionMarker)
-                        || !(MultiBitWalletVersion.SERIALIZED.getWalletVersionString().equals(walletVersionString)
-                                || MultiBitWalletVersion.PROTOBUF.getWalletVersionString().equals(walletVersionString) || MultiBitWalletVersion.PROTOBUF_ENCRYPTED
-                                .getWalletVersionString().equals(walletVersionString))) {
-                    // This refers to a version of the wallet we do not know
-                    // about.
+                if (!WALLET_VERSION_MARKER.equals(walletVersionMarker)) {
                     throw new WalletVersionException("Cannot understand wallet version of '" + walletVersionMarker + "', '"
                             + walletVersionString + "'");
-                } else {
-                    // The wallet version passed in the file is used rather than
-                    // the value in the constructor
-                    if (!walletVersion.getWalletVersionString().equals(walletVersionString)) {
-                        log.debug("The wallet version in the constructor was '" + walletVersion
-                                + "'. In the wallet info file it was '" + walletVersionString + "'. Using the latter.");
-                        if (MultiBitWalletVersion.SERIALIZED.getWalletVersionString().equals(walletVersionString)) {
-                            walletVersion = MultiBitWalletVersion.SERIALIZED;
-                        } else if (MultiBitWalletVersion.PROTOBUF.getWalletVersionString().equals(walletVersionString)) {
-                            walletVersion = MultiBitWalletVersion.PROTOBUF;
-                        } else if (MultiBitWalletVersion.PROTOBUF_ENCRYPTED.getWalletVersionString().equals(walletVersionString)) {
-                            walletVersion = MultiBitWalletVersion.PROTOBUF_ENCRYPTED;
-                        }
-                    }
                 }
+                useWalletVersion(walletVersionString);
             } else {
                 // The format of the info format is wrong.
                 throw new WalletVersionException("Cannot understand wallet version text of '" + secondLine + "'");
@@ -587,6 +599,37 @@ public class WalletInfoData {
         }
     }
 
+    /**
+     * Use the wallet version in the wallet info file rather than the value in
+     * the constructor.
+     * 
+     * @throws WalletVersionException
+     *             if the wallet version is not one this version of MultiBit
+     *             knows about
+     */
+    private void useWalletVersion(String walletVersionString) {
+        if (!(MultiBitWalletVersion.SERIALIZED.getWalletVersionString().equals(walletVersionString)
+                || MultiBitWalletVersion.PROTOBUF.getWalletVersionString().equals(walletVersionString) || MultiBitWalletVersion.PROTOBUF_ENCRYPTED
+                .getWalletVersionString().equals(walletVersionString))) {
+            // This refers to a version of the wallet we do not know
+            // about.
+            throw new WalletVersionException("Cannot understand wallet version of '" + WALLET_VERSION_MARKER + "', '"
+                    + walletVersionString + "'");
+        }
+
+        if (!walletVersion.getWalletVersionString().equals(walletVersionString)) {
+            log.debug("The wallet version in the constructor was '" + walletVersion
+                    + "'. In the wallet info file it was '" + walletVersionString + "'. Using the latter.");
+            if (MultiBitWalletVersion.SERIALIZED.getWalletVersionString().equals(walletVersionString)) {
+                walletVersion = MultiBitWalletVersion.SERIALIZED;
+            } else if (MultiBitWalletVersion.PROTOBUF.getWalletVersionString().equals(walletVersionString)) {
+                walletVersion = MultiBitWalletVersion.PROTOBUF;
+            } else if (MultiBitWalletVersion.PROTOBUF_ENCRYPTED.getWalletVersionString().equals(walletVersionString)) {
+                walletVersion = MultiBitWalletVersion.PROTOBUF_ENCRYPTED;
+            }
+        }
+    }
+
     /**
      * Create wallet info filename.
      * 
@@ -0,0 +1,537 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.bitcoin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.multibit.file.FileHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The binary wallet info format.<p>
+ *
+ * The file is a header followed by batches of records, each batch ending with an END_OF_CHANGES record. The first
+ * batch holds everything in the wallet info. Each save after that appends a batch with just the changes since the
+ * last save: addresses and properties set or removed, and the wallet version if it has changed. Once the changes
+ * appended outnumber the entries in the wallet info the file is compacted - rewritten as a single batch.<p>
+ *
+ * A batch is only applied when its END_OF_CHANGES record has been read, so a save that was cut short is ignored
+ * and the next save compacts the file.<p>
+ *
+ * The file is also compacted if it is not as it was last read or written (it has been replaced by another process
+ * or the wallet info is being written somewhere else), or if the address books have been reordered in a way that
+ * cannot be expressed as changes. Copies such as backups are written in full with writeCopy so that they do not
+ * change which file the changes are appended to.
+ */
+class WalletInfoFile {
+    private static final Logger log = LoggerFactory.getLogger(WalletInfoFile.class);
+
+    private static final byte[] MAGIC = new byte[] { 'M', 'B', 'W', 'I' };
+    static final int FORMAT_VERSION = 1;
+
+    private static final byte END_OF_CHANGES = 0;
+    private static final byte WALLET_VERSION = 1;
+    private static final byte SET_RECEIVING_ADDRESS = 2;
+    private static final byte REMOVE_RECEIVING_ADDRESS = 3;
+    private static final byte SET_SENDING_ADDRESS = 4;
+    private static final byte REMOVE_SENDING_ADDRESS = 5;
+    private static final byte SET_PROPERTY = 6;
+    private static final byte REMOVE_PROPERTY = 7;
+
+    /**
+     * The number of changes that can be appended before the file is compacted, however small the wallet info.
+     */
+    static final int MINIMUM_CHANGES_BEFORE_COMPACTION = 64;
+
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * What is in a wallet info file. The address books are keyed by address, in the order they appear in the wallet
+     * info.
+     */
+    static class Contents {
+        private String walletVersion;
+        private final LinkedHashMap<String, String> receivingAddresses = new LinkedHashMap<String, String>();
+        private final LinkedHashMap<String, String> sendingAddresses = new LinkedHashMap<String, String>();
+        private final Map<String, String> properties = new HashMap<String, String>();
+
+        String getWalletVersion() {
+            return walletVersion;
+        }
+
+        void setWalletVersion(String walletVersion) {
+            this.walletVersion = walletVersion;
+        }
+
+        /**
+         * @return the receiving addresses and their labels
+         */
+        LinkedHashMap<String, String> getReceivingAddresses() {
+            return receivingAddresses;
+        }
+
+        /**
+         * @return the sending addresses and their labels
+         */
+        LinkedHashMap<String, String> getSendingAddresses() {
+            return sendingAddresses;
+        }
+
+        Map<String, String> getProperties() {
+            return properties;
+        }
+
+        private int size() {
+            return receivingAddresses.size() + sendingAddresses.size() + properties.size();
+        }
+    }
+
+    private static class Record {
+        private final byte type;
+        private final String key;
+        private final String value;
+
+        private Record(byte type, String key, String value) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The contents of the file when it was last read or written, or null if they are not known.
+     */
+    private Contents saved;
+
+    // The file as it was left.
+    private String savedPath;
+    private long savedLength;
+    private long savedLastModified;
+
+    /**
+     * The number of changes appended since the file was compacted.
+     */
+    private int changesSinceCompaction;
+
+    /**
+     * @return true if the file is in the binary format, false if it is in the text format
+     * @throws IOException if the file could not be read
+     */
+    static boolean isBinary(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            int read = 0;
+            while (read < magic.length) {
+                int count = inputStream.read(magic, read, magic.length - read);
+                if (count < 0) {
+                    return false;
+                }
+                read += count;
+            }
+            return Arrays.equals(MAGIC, magic);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Read a binary wallet info file.<p>
+     *
+     * The contents returned are what the next write is compared against, so must not be changed.
+     *
+     * @param file the file to read
+     * @return the contents of the file
+     * @throws IOException if the file could not be read or is not a binary wallet info file
+     */
+    synchronized Contents read(File file) throws IOException {
+        forget();
+
+        byte[] bytes = readFully(file);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("The file '" + file.getAbsolutePath() + "' is not a binary wallet info file");
+        }
+        int formatVersion = in.readInt();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Cannot understand wallet info format version " + formatVersion + " in '"
+                    + file.getAbsolutePath() + "'");
+        }
+
+        Contents contents = new Contents();
+        int validLength = bytes.length - in.available();
+        int numberOfBatches = 0;
+        int numberOfChanges = 0;
+        List<Record> batch = new ArrayList<Record>();
+        try {
+            while (in.available() > 0) {
+                Record record = readRecord(in);
+                if (record.type != END_OF_CHANGES) {
+                    batch.add(record);
+                    continue;
+                }
+
+                for (Record loopRecord : batch) {
+                    apply(contents, loopRecord);
+                }
+                if (numberOfBatches > 0) {
+                    numberOfChanges += batch.size();
+                }
+                numberOfBatches++;
+                batch.clear();
+                validLength = bytes.length - in.available();
+            }
+        } catch (IOException ioe) {
+            log.debug("The end of '" + file.getAbsolutePath() + "' is damaged : " + ioe.getMessage());
+        }
+        if (numberOfBatches == 0) {
+            throw new IOException("The file '" + file.getAbsolutePath() + "' has no complete wallet info");
+        }
+        if (validLength < bytes.length) {
+            log.debug("Ignoring an incomplete save at the end of '" + file.getAbsolutePath() + "'");
+        }
+
+        saved = contents;
+        savedPath = file.getAbsolutePath();
+        savedLength = validLength;
+        savedLastModified = file.lastModified();
+        changesSinceCompaction = numberOfChanges;
+        return contents;
+    }
+
+    /**
+     * Write the wallet info, appending the changes since it was last read or written where possible.<p>
+     *
+     * The contents are what the next write is compared against, so must not be changed afterwards.
+     *
+     * @param file the file to write
+     * @param contents the wallet info to write
+     * @throws IOException if the file could not be written
+     */
+    synchronized void write(File file, Contents contents) throws IOException {
+        if (saved == null || !isAsLeft(file)
+                || changesSinceCompaction >= Math.max(MINIMUM_CHANGES_BEFORE_COMPACTION, contents.size())) {
+            compact(file, contents);
+            return;
+        }
+
+        List<Record> changes = findChanges(saved, contents);
+        if (changes == null) {
+            // Cannot be expressed as changes.
+            compact(file, contents);
+            return;
+        }
+        if (changes.isEmpty()) {
+            saved = contents;
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Record change : changes) {
+            writeRecord(out, change);
+        }
+        writeRecord(out, new Record(END_OF_CHANGES, null, null));
+        out.flush();
+
+        FileOutputStream fileOutputStream = new FileOutputStream(file, true);
+        try {
+            bytes.writeTo(fileOutputStream);
+        } finally {
+            fileOutputStream.close();
+        }
+
+        remember(file, contents);
+        changesSinceCompaction += changes.size();
+    }
+
+    /**
+     * Forget the file - the next write rewrites it in full.
+     */
+    synchronized void forget() {
+        saved = null;
+        savedPath = null;
+        changesSinceCompaction = 0;
+    }
+
+    /**
+     * Write a copy of the wallet info, such as a backup, in full. The file last read or written is still the one
+     * that the next write appends to.
+     *
+     * @param file the file to write
+     * @param contents the wallet info to write
+     * @throws IOException if the file could not be written
+     */
+    static void writeCopy(File file, Contents contents) throws IOException {
+        writeCompacted(file, contents);
+    }
+
+    /**
+     * Rewrite the file as a single batch.
+     */
+    private void compact(File file, Contents contents) throws IOException {
+        forget();
+        writeCompacted(file, contents);
+        remember(file, contents);
+    }
+
+    /**
+     * Write the contents as a single batch. It is written alongside the file and renamed over it when complete.
+     */
+    private static void writeCompacted(File file, Contents contents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeRecord(out, new Record(WALLET_VERSION, contents.getWalletVersion(), null));
+        for (Map.Entry<String, String> entry : contents.getReceivingAddresses().entrySet()) {
+            writeRecord(out, new Record(SET_RECEIVING_ADDRESS, entry.getKey(), entry.getValue()));
+        }
+        for (Map.Entry<String, String> entry : contents.getSendingAddresses().entrySet()) {
+            writeRecord(out, new Record(SET_SENDING_ADDRESS, entry.getKey(), entry.getValue()));
+        }
+        for (Map.Entry<String, String> entry : contents.getProperties().entrySet()) {
+            writeRecord(out, new Record(SET_PROPERTY, entry.getKey(), entry.getValue()));
+        }
+        writeRecord(out, new Record(END_OF_CHANGES, null, null));
+        out.flush();
+
+        File temporaryFile = new File(file.getAbsolutePath() + FileHandler.TEMPORARY_FILE_SUFFIX);
+        try {
+            FileOutputStream fileOutputStream = new FileOutputStream(temporaryFile);
+            try {
+                bytes.writeTo(fileOutputStream);
+            } finally {
+                fileOutputStream.close();
+            }
+            replaceWithTemporaryFile(temporaryFile, file);
+        } finally {
+            if (temporaryFile.exists()) {
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    private void remember(File file, Contents contents) {
+        saved = contents;
+        savedPath = file.getAbsolutePath();
+        savedLength = file.length();
+        savedLastModified = file.lastModified();
+    }
+
+    /**
+     * @return true if the file is the one last read or written and nothing else has written to it since
+     */
+    private boolean isAsLeft(File file) {
+        return file.getAbsolutePath().equals(savedPath) && file.exists() && file.length() == savedLength
+                && file.lastModified() == savedLastModified;
+    }
+
+    /**
+     * @return the changes that turn the saved contents into the new contents, or null if they cannot be expressed as
+     *         changes
+     */
+    private static List<Record> findChanges(Contents saved, Contents contents) {
+        if (!isInSameOrder(saved.getReceivingAddresses(), contents.getReceivingAddresses())
+                || !isInSameOrder(saved.getSendingAddresses(), contents.getSendingAddresses())) {
+            return null;
+        }
+
+        List<Record> changes = new ArrayList<Record>();
+        if (contents.getWalletVersion() != null && !contents.getWalletVersion().equals(saved.getWalletVersion())) {
+            changes.add(new Record(WALLET_VERSION, contents.getWalletVersion(), null));
+        }
+        findChanges(saved.getReceivingAddresses(), contents.getReceivingAddresses(), SET_RECEIVING_ADDRESS,
+                REMOVE_RECEIVING_ADDRESS, changes);
+        findChanges(saved.getSendingAddresses(), contents.getSendingAddresses(), SET_SENDING_ADDRESS, REMOVE_SENDING_ADDRESS,
+                changes);
+        findChanges(saved.getProperties(), contents.getProperties(), SET_PROPERTY, REMOVE_PROPERTY, changes);
+        return changes;
+    }
+
+    private static void findChanges(Map<String, String> saved, Map<String, String> current, byte setType, byte removeType,
+            List<Record> changes) {
+        for (String key : saved.keySet()) {
+            if (!current.containsKey(key)) {
+                changes.add(new Record(removeType, key, null));
+            }
+        }
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            String savedValue = saved.get(entry.getKey());
+            if (savedValue == null || !savedValue.equals(entry.getValue())) {
+                changes.add(new Record(setType, entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * @return true if the addresses kept are in the order they were saved in, followed by the new addresses -
+     *         which is the order replaying the changes gives
+     */
+    private static boolean isInSameOrder(LinkedHashMap<String, String> saved, LinkedHashMap<String, String> current) {
+        Iterator<String> currentAddresses = current.keySet().iterator();
+        for (String address : saved.keySet()) {
+            if (current.containsKey(address)) {
+                if (!currentAddresses.hasNext() || !address.equals(currentAddresses.next())) {
+                    return false;
+                }
+            }
+        }
+        while (currentAddresses.hasNext()) {
+            if (saved.containsKey(currentAddresses.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void apply(Contents contents, Record record) {
+        switch (record.type) {
+        case WALLET_VERSION:
+            contents.setWalletVersion(record.key);
+            break;
+        case SET_RECEIVING_ADDRESS:
+            contents.getReceivingAddresses().put(record.key, record.value);
+            break;
+        case REMOVE_RECEIVING_ADDRESS:
+            contents.getReceivingAddresses().remove(record.key);
+            break;
+        case SET_SENDING_ADDRESS:
+            contents.getSendingAddresses().put(record.key, record.value);
+            break;
+        case REMOVE_SENDING_ADDRESS:
+            contents.getSendingAddresses().remove(record.key);
+            break;
+        case SET_PROPERTY:
+            contents.getProperties().put(record.key, record.value);
+            break;
+        case REMOVE_PROPERTY:
+            contents.getProperties().remove(record.key);
+            break;
+        default:
+            break;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, Record record) throws IOException {
+        out.writeByte(record.type);
+        switch (record.type) {
+        case END_OF_CHANGES:
+            break;
+        case WALLET_VERSION:
+        case REMOVE_RECEIVING_ADDRESS:
+        case REMOVE_SENDING_ADDRESS:
+        case REMOVE_PROPERTY:
+            writeString(out, record.key);
+            break;
+        default:
+            writeString(out, record.key);
+            writeString(out, record.value);
+            break;
+        }
+    }
+
+    private static Record readRecord(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+        case END_OF_CHANGES:
+            return new Record(type, null, null);
+        case WALLET_VERSION:
+        case REMOVE_RECEIVING_ADDRESS:
+        case REMOVE_SENDING_ADDRESS:
+        case REMOVE_PROPERTY:
+            return new Record(type, readString(in), null);
+        case SET_RECEIVING_ADDRESS:
+        case SET_SENDING_ADDRESS:
+        case SET_PROPERTY:
+            String key = readString(in);
+            return new Record(type, key, readString(in));
+        default:
+            throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Strings are written as their length in bytes followed by their UTF-8 encoding. A null string is written as
+     * empty.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(ENCODING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new EOFException("String of length " + length + " runs past the end of the file");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("The file '" + file.getAbsolutePath() + "' is too large to be a wallet info file");
+        }
+        byte[] bytes = new byte[(int) length];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * Rename the temporary file over the target. Where the platform will not rename over an existing file the
+     * target is deleted first.
+     */
+    private static void replaceWithTemporaryFile(File temporaryFile, File targetFile) throws IOException {
+        if (temporaryFile.renameTo(targetFile)) {
+            return;
+        }
+        if (targetFile.exists() && !targetFile.delete()) {
+            throw new IOException("Could not delete '" + targetFile.getAbsolutePath() + "'");
+        }
+        if (!temporaryFile.renameTo(targetFile)) {
+            throw new IOException("Could not rename '" + temporaryFile.getAbsolutePath() + "' to '" + targetFile.getAbsolutePath() + "'");
+        }
+    }
+}
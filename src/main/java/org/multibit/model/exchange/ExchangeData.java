@@ -19,6 +19,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.joda.money.BigMoney;
 
@@ -61,56 +63,74 @@ public class ExchangeData {
     public static final BigMoney DO_NOT_KNOW = null;
     
     private String shortExchangeName;
-    private Map<String, BigMoney> currencyToLastPriceMap;
-    private Map<String, BigMoney> currencyToAskMap;
-    private Map<String, BigMoney> currencyToBidMap;
+
+    /**
+     * The last price, bid and ask for a currency, got from the exchange at the same time.
+     */
+    private static class Rates {
+        private final BigMoney last;
+        private final BigMoney bid;
+        private final BigMoney ask;
+
+        private Rates(BigMoney last, BigMoney bid, BigMoney ask) {
+            this.last = last;
+            this.bid = bid;
+            this.ask = ask;
+        }
+    }
+
+    private static final Rates NO_RATES = new Rates(DO_NOT_KNOW, DO_NOT_KNOW, DO_NOT_KNOW);
+
+    /**
+     * Written by the ticker and read by the Swing thread. The rates for a currency are replaced together so a reader
+     * never sees a bid from one ticker and an ask from the next.
+     */
+    private final ConcurrentMap<String, Rates> currencyToRatesMap;
        
     private static Map<String,  Collection<String>> exchangeNameToAvailableCurrenciesMap  = new HashMap<String, Collection<String>>();
     
     public ExchangeData() {
         setShortExchangeName(EXCHANGE_NOT_SET);
-        currencyToLastPriceMap = new HashMap<String, BigMoney>();
-        currencyToBidMap = new HashMap<String, BigMoney>();
-        currencyToAskMap = new HashMap<String, BigMoney>();
+        currencyToRatesMap = new ConcurrentHashMap<String, Rates>();
     }
-    
+
     public BigMoney getLastPrice(String currency) {
-        BigMoney lastPrice = currencyToLastPriceMap.get(currency);
-        if (lastPrice == null) {
-            return DO_NOT_KNOW;
-        } else {
-            return lastPrice;
-        }
+        return getRates(currency).last;
     }
 
     public BigMoney getLastBid(String currency) {
-        BigMoney bid = currencyToBidMap.get(currency);
-        if (bid == null) {
-            return DO_NOT_KNOW;
-        } else {
-            return bid;
-        }
+        return getRates(currency).bid;
     }
     
     public BigMoney getLastAsk(String currency) {
-        BigMoney ask = currencyToAskMap.get(currency);
-        if (ask == null) {
-            return DO_NOT_KNOW;
-        } else {
-            return ask;
-        }
+        return getRates(currency).ask;
+    }
+
+    /**
+     * Replace the last price, bid and ask for the currency in one go.
+     */
+    public void setRates(String currency, BigMoney lastPrice, BigMoney lastBid, BigMoney lastAsk) {
+        currencyToRatesMap.put(currency, new Rates(lastPrice, lastBid, lastAsk));
     }
 
     public void setLastPrice(String currency, BigMoney lastPrice) {
-        currencyToLastPriceMap.put(currency, lastPrice);
+        Rates rates = getRates(currency);
+        setRates(currency, lastPrice, rates.bid, rates.ask);
     }
 
     public void setLastBid(String currency, BigMoney lastBid) {
-        currencyToBidMap.put(currency, lastBid);
+        Rates rates = getRates(currency);
+        setRates(currency, rates.last, lastBid, rates.ask);
     }
 
     public void setLastAsk(String currency, BigMoney lastAsk) {
-        currencyToAskMap.put(currency, lastAsk);
+        Rates rates = getRates(currency);
+        setRates(currency, rates.last, rates.bid, lastAsk);
+    }
+
+    private Rates getRates(String currency) {
+        Rates rates = currency == null ? null : currencyToRatesMap.get(currency);
+        return rates == null ? NO_RATES : rates;
     }
 
     /**
@@ -23,8 +23,8 @@
  */
 package org.multibit.model.exchange;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.multibit.model.AbstractModel;
 import org.multibit.model.ModelEnum;
 import org.multibit.model.core.CoreModel;
@@ -66,7 +66,8 @@ public class ExchangeModel extends AbstractModel<CoreModel> {
         exchangeData1.setShortExchangeName(getUserPreference(ExchangeModel.TICKER_FIRST_ROW_EXCHANGE));
         exchangeData2.setShortExchangeName(getUserPreference(ExchangeModel.TICKER_SECOND_ROW_EXCHANGE));
         
-        shortExchangeNameToExchangeMap = new HashMap<String, ExchangeData>();
+        // Exchange data is added by the ticker threads.
+        shortExchangeNameToExchangeMap = new ConcurrentHashMap<String, ExchangeData>();
         shortExchangeNameToExchangeMap.put(ExchangeModel.TICKER_FIRST_ROW_EXCHANGE, exchangeData1);
         shortExchangeNameToExchangeMap.put(ExchangeModel.TICKER_SECOND_ROW_EXCHANGE, exchangeData2);
         
@@ -78,6 +79,9 @@ public class ExchangeModel extends AbstractModel<CoreModel> {
     }
     
     public ExchangeData getExchangeData(String shortExchangeName) {
+        if (shortExchangeName == null) {
+            return null;
+        }
         return shortExchangeNameToExchangeMap.get(shortExchangeName);
     }
     
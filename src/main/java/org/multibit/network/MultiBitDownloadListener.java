@@ -174,6 +174,9 @@ public class MultiBitDownloadListener extends DownloadListener {
      */
     @Override
     protected void doneDownload() {
+        if (bitcoinController.getMultiBitService() != null) {
+            bitcoinController.getMultiBitService().flushBlockStore();
+        }
         ReplayManager.INSTANCE.taskHasCompleted(null);
 
         String downloadStatusText = controller.getLocaliser().getString("multiBitDownloadListener.doneDownloadText");
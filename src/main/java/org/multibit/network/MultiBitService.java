@@ -39,6 +39,7 @@ import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.file.BackupManager;
 import org.multibit.file.FileHandlerException;
+import org.multibit.file.LoadedWallet;
 import org.multibit.file.WalletSaveException;
 import org.multibit.message.Message;
 import org.multibit.message.MessageManager;
@@ -47,6 +48,7 @@ import org.multibit.model.bitcoin.WalletData;
 import org.multibit.model.bitcoin.WalletInfoData;
 import org.multibit.model.core.StatusEnum;
 import org.multibit.store.MultiBitWalletVersion;
+import org.multibit.store.ReplayableBlockStore;
 import org.multibit.store.WalletVersionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -406,6 +408,17 @@ public class MultiBitService {
      * @return perWalletModelData
      */
     public WalletData addWalletFromFilename(String walletFilename) throws IOException {
+        return addWalletFromFilename(walletFilename, null);
+    }
+
+    /**
+     * Initialize wallet from the wallet filename, using a wallet that has already been read from disk if there is one.
+     * 
+     * @param walletFilename
+     * @param loadedWallet the wallet as read by FileHandler#readWalletFromFile, or null to read it now
+     * @return perWalletModelData
+     */
+    public WalletData addWalletFromFilename(String walletFilename, LoadedWallet loadedWallet) throws IOException {
         WalletData perWalletModelDataToReturn = null;
         Wallet wallet = null;
 
@@ -419,7 +432,11 @@ public class MultiBitService {
                 walletFileIsADirectory = true;
             } else {
 
-                perWalletModelDataToReturn = bitcoinController.getFileHandler().loadFromFile(walletFile);
+                if (loadedWallet != null) {
+                    perWalletModelDataToReturn = bitcoinController.getFileHandler().addLoadedWalletToModel(loadedWallet);
+                } else {
+                    perWalletModelDataToReturn = bitcoinController.getFileHandler().loadFromFile(walletFile);
+                }
                 if (perWalletModelDataToReturn != null) {
                     wallet = perWalletModelDataToReturn.getWallet();
                 }
@@ -698,6 +715,21 @@ public class MultiBitService {
         return blockStore;
     }
 
+    /**
+     * Make the blocks downloaded so far durable, if the block store batches its writes. Called at the end of a
+     * download or replay rather than leaving the last batch to the next sync.
+     */
+    public void flushBlockStore() {
+        BlockStore currentBlockStore = blockStore;
+        if (currentBlockStore instanceof ReplayableBlockStore) {
+            try {
+                ((ReplayableBlockStore) currentBlockStore).flush();
+            } catch (BlockStoreException e) {
+                log.error("Could not flush the block store : " + e.getClass().getName() + " " + e.getMessage());
+            }
+        }
+    }
+
     public SecureRandom getSecureRandom() {
         return secureRandom;
     };
@@ -0,0 +1,483 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.Sha256Hash;
+
+/**
+ * A persistent block hash to record position index, kept in a sidecar file next to a ReplayableBlockStore.<p>
+ *
+ * The index is an open addressing hash table (linear probing) of fixed size slots, each holding a 32 byte block hash
+ * and the position of its record in the block store. A slot with a position of zero is empty.<p>
+ *
+ * The index is only a cache of what is in the block store. It is marked dirty whilst open and clean when closed so
+ * that after a crash it is rebuilt from the block store rather than trusted. Entries are never deleted: after a
+ * truncation the block store checks the record found at a position still holds the hash looked up.<p>
+ *
+ * The slots are either read and written through the file channel or, for a block store whose records are memory
+ * mapped, through a memory mapping of the table so that a lookup or put does not need a system call. Writes to the
+ * mapping are forced to disk before the index is marked clean.
+ */
+class BlockHashIndex {
+    private static final Logger log = LoggerFactory.getLogger(BlockHashIndex.class);
+
+    private static final byte[] MAGIC = new byte[] {'M', 'B', 'H', 'I'};
+    private static final int INDEX_FORMAT_VERSION = 1;
+
+    // magic (4) + version (4) + clean flag (4) + capacity (4) + size (4) + indexed length (8), padded.
+    static final int HEADER_SIZE = 32;
+    static final int SLOT_SIZE = 32 + 8;
+
+    static final int INITIAL_CAPACITY = 1 << 14;
+
+    // The slots of a mapped table are mapped in segments of this many slots, as the table can be larger than a single
+    // mapping allows.
+    static final int SLOTS_PER_SEGMENT = 1 << 16;
+
+    private static final int CLEAN = 1;
+    private static final int DIRTY = 0;
+
+    private final File indexFile;
+    private final boolean mapped;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private Slots slots;
+
+    private int capacity;
+    private int size;
+    private long indexedLength;
+
+    private final ByteBuffer slotBuffer = ByteBuffer.allocate(SLOT_SIZE);
+    private final byte[] slotHash = new byte[32];
+
+    BlockHashIndex(File indexFile) {
+        this(indexFile, false);
+    }
+
+    /**
+     * @param mapped
+     *            true to access the slots through a memory mapping rather than the file channel
+     */
+    BlockHashIndex(File indexFile, boolean mapped) {
+        this.indexFile = indexFile;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Open an existing index.
+     *
+     * @return true if the index was closed cleanly last time and can be used, false if it is missing or unusable
+     *         and needs to be rebuilt with create() and put()
+     */
+    boolean open() throws IOException {
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            return false;
+        }
+        openFile();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.read(header, 0) < HEADER_SIZE) {
+            abandon();
+            return false;
+        }
+        header.flip();
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            log.debug("Block hash index {} has a bad magic number", indexFile);
+            abandon();
+            return false;
+        }
+        int version = header.getInt();
+        int clean = header.getInt();
+        capacity = header.getInt();
+        size = header.getInt();
+        indexedLength = header.getLong();
+        if (version != INDEX_FORMAT_VERSION || clean != CLEAN || Integer.bitCount(capacity) != 1
+                || channel.size() < HEADER_SIZE + (long) capacity * SLOT_SIZE) {
+            log.debug("Block hash index {} was not closed cleanly or is of an unknown version", indexFile);
+            abandon();
+            return false;
+        }
+        slots = createSlots(channel, capacity);
+
+        // Anything from now on is not trusted after a crash.
+        writeHeader(DIRTY);
+        return true;
+    }
+
+    /**
+     * Create a new, empty index sized to hold the expected number of blocks, replacing any existing index file.
+     */
+    void create(long expectedEntries) throws IOException {
+        delete();
+        openFile();
+
+        capacity = capacityFor(expectedEntries);
+        size = 0;
+        indexedLength = 0;
+        file.setLength(HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        slots = createSlots(channel, capacity);
+        writeHeader(DIRTY);
+    }
+
+    /**
+     * Find the record position for the hash.
+     *
+     * @return the position of the record in the block store, or -1 if the hash has not been indexed
+     */
+    long get(Sha256Hash hash) throws IOException {
+        byte[] hashBytes = hash.getBytes();
+        int slot = slotFor(hashBytes, capacity);
+        for (int probes = 0; probes < capacity; probes++) {
+            long position = slots.read(slot);
+            if (position == 0) {
+                return -1;
+            }
+            if (Arrays.equals(slotHash, hashBytes)) {
+                return position;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Record the position of the hash in the block store, replacing any earlier position for the same hash.
+     */
+    void put(Sha256Hash hash, long position) throws IOException {
+        if ((size + 1) * 2L > capacity) {
+            grow();
+        }
+        if (insert(slots, capacity, hash.getBytes(), position)) {
+            size++;
+        }
+    }
+
+    long getIndexedLength() {
+        return indexedLength;
+    }
+
+    /**
+     * Set the length of the block store that is covered by this index.
+     */
+    void setIndexedLength(long indexedLength) {
+        this.indexedLength = indexedLength;
+    }
+
+    int size() {
+        return size;
+    }
+
+    File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Write out the header and mark the index as clean.
+     */
+    void close() throws IOException {
+        if (file == null) {
+            return;
+        }
+        try {
+            // The slots must be on disk before the header says they can be trusted.
+            if (slots != null) {
+                slots.force();
+            }
+            writeHeader(CLEAN);
+            channel.force(true);
+        } finally {
+            if (slots != null) {
+                slots.release();
+            }
+            file.close();
+            file = null;
+            channel = null;
+            slots = null;
+        }
+    }
+
+    /**
+     * Close the index without marking it as clean, so that it is rebuilt when next opened.
+     */
+    void abandon() throws IOException {
+        if (file == null) {
+            return;
+        }
+        try {
+            if (slots != null) {
+                slots.release();
+            }
+            file.close();
+        } finally {
+            file = null;
+            channel = null;
+            slots = null;
+        }
+    }
+
+    /**
+     * Close and delete the index file, for when the block store it covers is replaced.
+     */
+    void delete() throws IOException {
+        abandon();
+        if (indexFile.exists() && !indexFile.delete()) {
+            throw new IOException("Could not delete the block hash index " + indexFile.getAbsolutePath());
+        }
+    }
+
+    private void openFile() throws IOException {
+        if (file == null) {
+            file = new RandomAccessFile(indexFile, "rw");
+            channel = file.getChannel();
+        }
+    }
+
+    private void writeHeader(int clean) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC);
+        header.putInt(INDEX_FORMAT_VERSION);
+        header.putInt(clean);
+        header.putInt(capacity);
+        header.putInt(size);
+        header.putLong(indexedLength);
+        header.position(0);
+        channel.write(header, 0);
+        if (clean == DIRTY) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Double the capacity of the table, copying it into a new file that replaces the old one.
+     */
+    private void grow() throws IOException {
+        int newCapacity = capacity * 2;
+        log.debug("Growing block hash index {} from {} to {} slots", new Object[] {indexFile, capacity, newCapacity});
+
+        File growFile = new File(indexFile.getAbsolutePath() + ".tmp");
+        if (growFile.exists() && !growFile.delete()) {
+            throw new IOException("Could not delete " + growFile.getAbsolutePath());
+        }
+        RandomAccessFile newFile = new RandomAccessFile(growFile, "rw");
+        int newSize = 0;
+        try {
+            newFile.setLength(HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+            Slots newSlots = new ChannelSlots(newFile.getChannel());
+            for (int slot = 0; slot < capacity; slot++) {
+                long position = slots.read(slot);
+                if (position != 0 && insert(newSlots, newCapacity, slotHash, position)) {
+                    newSize++;
+                }
+            }
+        } finally {
+            newFile.close();
+        }
+
+        abandon();
+        if (!indexFile.delete() || !growFile.renameTo(indexFile)) {
+            throw new IOException("Could not replace block hash index " + indexFile.getAbsolutePath());
+        }
+        openFile();
+        capacity = newCapacity;
+        size = newSize;
+        slots = createSlots(channel, capacity);
+        writeHeader(DIRTY);
+    }
+
+    /**
+     * @return true if a new slot was used, false if an existing entry for the hash was updated
+     */
+    private boolean insert(Slots target, int targetCapacity, byte[] hashBytes, long position) throws IOException {
+        byte[] hashCopy = hashBytes.clone();
+        int slot = slotFor(hashCopy, targetCapacity);
+        while (true) {
+            long existing = target.read(slot);
+            if (existing == 0 || Arrays.equals(slotHash, hashCopy)) {
+                target.write(slot, hashCopy, position);
+                return existing == 0;
+            }
+            slot = (slot + 1) & (targetCapacity - 1);
+        }
+    }
+
+    private Slots createSlots(FileChannel source, int slotCapacity) {
+        return mapped ? new MappedSlots(source, slotCapacity) : new ChannelSlots(source);
+    }
+
+    /**
+     * The slots of a table.
+     */
+    private interface Slots {
+        /**
+         * Read a slot into slotHash.
+         *
+         * @return the record position stored in the slot, zero if it is empty
+         */
+        long read(int slot) throws IOException;
+
+        void write(int slot, byte[] hashBytes, long position) throws IOException;
+
+        /**
+         * Force any writes out to disk.
+         */
+        void force() throws IOException;
+
+        /**
+         * Release any resources held, before the file is closed. The slots cannot be used afterwards.
+         */
+        void release();
+    }
+
+    /**
+     * Slots read and written with a system call each through the file channel.
+     */
+    private class ChannelSlots implements Slots {
+        private final FileChannel source;
+
+        private ChannelSlots(FileChannel source) {
+            this.source = source;
+        }
+
+        @Override
+        public long read(int slot) throws IOException {
+            slotBuffer.clear();
+            if (source.read(slotBuffer, slotPosition(slot)) < SLOT_SIZE) {
+                // Beyond the end of a sparse file - treat as empty.
+                return 0;
+            }
+            slotBuffer.flip();
+            slotBuffer.get(slotHash);
+            return slotBuffer.getLong();
+        }
+
+        @Override
+        public void write(int slot, byte[] hashBytes, long position) throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(SLOT_SIZE);
+            entry.put(hashBytes);
+            entry.putLong(position);
+            entry.position(0);
+            source.write(entry, slotPosition(slot));
+        }
+
+        @Override
+        public void force() throws IOException {
+            // The slots are forced with the header.
+        }
+
+        @Override
+        public void release() {
+            // Nothing is held.
+        }
+    }
+
+    /**
+     * Slots read and written through a memory mapping of the table. Segments are mapped as they are first used.
+     */
+    private class MappedSlots implements Slots {
+        private final FileChannel source;
+        private final int slotsPerSegment;
+        private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+        private MappedSlots(FileChannel source, int slotCapacity) {
+            this.source = source;
+            this.slotsPerSegment = Math.min(slotCapacity, SLOTS_PER_SEGMENT);
+        }
+
+        @Override
+        public long read(int slot) throws IOException {
+            ByteBuffer entry = entry(slot);
+            entry.get(slotHash);
+            return entry.getLong();
+        }
+
+        @Override
+        public void write(int slot, byte[] hashBytes, long position) throws IOException {
+            ByteBuffer entry = entry(slot);
+            entry.put(hashBytes);
+            entry.putLong(position);
+        }
+
+        @Override
+        public void force() throws IOException {
+            for (MappedByteBuffer segment : segments) {
+                if (segment != null) {
+                    segment.force();
+                }
+            }
+        }
+
+        @Override
+        public void release() {
+            // Unmapped now so that the file can be deleted or replaced when the index is grown.
+            for (MappedByteBuffer segment : segments) {
+                MappedRecordFile.unmap(segment);
+            }
+            segments.clear();
+        }
+
+        private ByteBuffer entry(int slot) throws IOException {
+            int segmentIndex = slot / slotsPerSegment;
+            while (segments.size() <= segmentIndex) {
+                segments.add(null);
+            }
+            MappedByteBuffer segment = segments.get(segmentIndex);
+            if (segment == null) {
+                segment = source.map(FileChannel.MapMode.READ_WRITE, slotPosition(segmentIndex * slotsPerSegment),
+                        (long) slotsPerSegment * SLOT_SIZE);
+                segments.set(segmentIndex, segment);
+            }
+            ByteBuffer entry = segment.duplicate();
+            entry.position((slot % slotsPerSegment) * SLOT_SIZE);
+            return entry;
+        }
+    }
+
+    private static long slotPosition(int slot) {
+        return HEADER_SIZE + (long) slot * SLOT_SIZE;
+    }
+
+    /**
+     * Block hashes are stored big endian so the leading bytes are mostly zero - use the trailing ones.
+     */
+    private static int slotFor(byte[] hashBytes, int capacity) {
+        long key = ByteBuffer.wrap(hashBytes, hashBytes.length - 8, 8).getLong();
+        return (int) (key ^ (key >>> 32)) & (capacity - 1);
+    }
+
+    static int capacityFor(long expectedEntries) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < expectedEntries * 2 && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
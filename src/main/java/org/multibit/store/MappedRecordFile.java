@@ -0,0 +1,225 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.store;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory mapped access to the fixed size records of a ReplayableBlockStore.<p>
+ *
+ * The record region of the file is mapped in segments of a whole number of records, so no record straddles two
+ * segments. Segments are mapped as the store grows. Mapping a segment extends the file to the end of the segment so
+ * the logical end of the records is tracked separately: unused space at the end of the file is all zeros and is
+ * trimmed off when the file is opened or closed.<p>
+ *
+ * Writes to the mapping are not durable until force() is called.
+ */
+class MappedRecordFile {
+    private static final Logger log = LoggerFactory.getLogger(MappedRecordFile.class);
+
+    static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 16;
+
+    private static final long NOTHING_UNFORCED = Long.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final long firstRecordPosition;
+    private final int recordSize;
+    private final long segmentSize;
+
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+    // The position just past the last record.
+    private long end;
+
+    // Writes from this position onwards have not been forced to disk.
+    private long unforcedFrom = NOTHING_UNFORCED;
+
+    MappedRecordFile(FileChannel channel, long firstRecordPosition, int recordSize) {
+        this(channel, firstRecordPosition, recordSize, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    MappedRecordFile(FileChannel channel, long firstRecordPosition, int recordSize, int recordsPerSegment) {
+        this.channel = channel;
+        this.firstRecordPosition = firstRecordPosition;
+        this.recordSize = recordSize;
+        this.segmentSize = (long) recordSize * recordsPerSegment;
+    }
+
+    /**
+     * Map the existing records and find the end of them.
+     */
+    void open() throws IOException {
+        long size = channel.size();
+        end = firstRecordPosition + Math.max(0, (size - firstRecordPosition) / recordSize * recordSize);
+
+        // Trim off any zeroed space left by a mapping that was not closed cleanly.
+        while (end > firstRecordPosition && isZero(slice(end - recordSize))) {
+            end -= recordSize;
+        }
+        if (end != size) {
+            log.debug("Trimmed {} bytes of unused space from the end of the records", size - end);
+        }
+    }
+
+    /**
+     * @return the position just past the last record
+     */
+    long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return a buffer positioned at the start of the record and limited to its end, or null if there is no record
+     *         at that position
+     */
+    ByteBuffer slice(long position) throws IOException {
+        if (position < firstRecordPosition || position + recordSize > end) {
+            return null;
+        }
+        long offset = position - firstRecordPosition;
+        ByteBuffer segment = segment((int) (offset / segmentSize)).duplicate();
+        int offsetInSegment = (int) (offset % segmentSize);
+        segment.limit(offsetInSegment + recordSize);
+        segment.position(offsetInSegment);
+        return segment;
+    }
+
+    /**
+     * Append a record to the mapping.
+     *
+     * @return the position the record was written at
+     */
+    long append(ByteBuffer record) throws IOException {
+        long position = end;
+        end += recordSize;
+        ByteBuffer target = slice(position);
+        target.put(record);
+        unforcedFrom = Math.min(unforcedFrom, position);
+        return position;
+    }
+
+    /**
+     * Remove all records from the position onwards. The removed records are zeroed and forced to disk.
+     */
+    void truncate(long newEnd) throws IOException {
+        if (newEnd >= end) {
+            return;
+        }
+        byte[] zeros = new byte[recordSize];
+        for (long position = newEnd; position < end; position += recordSize) {
+            slice(position).put(zeros);
+        }
+        unforcedFrom = Math.min(unforcedFrom, newEnd);
+        end = newEnd;
+        force();
+    }
+
+    /**
+     * Force all writes to the mapping out to disk.
+     */
+    void force() throws IOException {
+        if (unforcedFrom == NOTHING_UNFORCED) {
+            return;
+        }
+        int firstSegment = (int) ((unforcedFrom - firstRecordPosition) / segmentSize);
+        for (int i = firstSegment; i < segments.size(); i++) {
+            segments.get(i).force();
+        }
+        unforcedFrom = NOTHING_UNFORCED;
+    }
+
+    /**
+     * Force all writes and drop the mapping. The unused space at the end of the file is trimmed off if the platform
+     * allows it - otherwise it is trimmed when the file is next opened.
+     */
+    void close() throws IOException {
+        force();
+        for (MappedByteBuffer segment : segments) {
+            unmap(segment);
+        }
+        segments.clear();
+        try {
+            channel.truncate(end);
+        } catch (IOException e) {
+            // Some platforms do not allow a mapped file to be truncated whilst it is still mapped.
+            log.debug("Could not trim the block store to the end of the records: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Release a mapping now rather than when it is garbage collected, so that the file can be truncated or deleted
+     * on platforms that do not allow it whilst it is mapped. The buffer must not be used afterwards.<p>
+     * 
+     * There is no public API for this so the JDK's cleaner for the buffer is called by reflection - through
+     * Unsafe.invokeCleaner on Java 9 and later, or the buffer's own cleaner before that. If neither is possible the
+     * mapping is left to be released when it is garbage collected.
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleanerMethod = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafeField = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafeField.setAccessible(true);
+            invokeCleanerMethod.invoke(theUnsafeField.get(null), buffer);
+            return;
+        } catch (Exception e) {
+            // Before Java 9 - use the buffer's cleaner.
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method cleanMethod = cleaner.getClass().getMethod("clean");
+                cleanMethod.setAccessible(true);
+                cleanMethod.invoke(cleaner);
+            }
+        } catch (Exception e) {
+            log.debug("Could not unmap a buffer, it is released when garbage collected : " + e.getClass().getName()
+                    + " " + e.getMessage());
+        }
+    }
+
+    private MappedByteBuffer segment(int index) throws IOException {
+        while (segments.size() <= index) {
+            long start = firstRecordPosition + segments.size() * segmentSize;
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, start, segmentSize));
+        }
+        return segments.get(index);
+    }
+
+    static boolean isZero(ByteBuffer record) {
+        while (record.hasRemaining()) {
+            if (record.get() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -21,8 +21,12 @@ import com.google.bitcoin.utils.NamedSemaphores;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.math.BigInteger;
@@ -30,8 +34,10 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkState;
@@ -39,6 +45,7 @@ import static com.google.common.base.Preconditions.checkState;
 import org.multibit.MultiBit;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.file.FileHandler;
+import org.multibit.model.bitcoin.BitcoinModel;
 
 import com.google.bitcoin.store.BlockStore;
 import com.google.bitcoin.store.BlockStoreException;
@@ -51,20 +58,73 @@ import com.google.bitcoin.store.BlockStoreException;
  * stored. It exploits operating system level buffering and the fact that get() requests are, in normal usage,
  * localized in chain space.<p>
  *
- * Blocks are stored sequentially. Most blocks are fetched out of a small in-memory cache. The slowest part is
- * traversing difficulty transition points, which requires seeking backwards over around 2000 blocks. On a Google
- * Nexus S phone this takes a couple of seconds. On a MacBook Pro it takes around 50msec.<p>
+ * Blocks are stored sequentially. Most blocks are fetched out of a small in-memory cache. Blocks that are not in the
+ * cache are found with a {@link BlockHashIndex} kept in a sidecar file next to the block store, so a lookup is a
+ * constant number of reads regardless of the height of the chain. The index is rebuilt from the block store if it is
+ * missing or was not closed cleanly.<p>
  *
- * The store has much room for optimization. Expanding the size of the cache will likely allow us to traverse
- * difficulty transitions without using too much memory and without hitting the disk at all, for the case of initial
- * block chain download. Storing the hashes on disk would allow us to avoid deserialization and hashing which is
- * expensive on Android.
+ * By default every write is synchronous. The store can instead be opened, or configured with the blockStoreMode user
+ * preference, in one of two batched {@link Mode}s, in which records are made durable together every
+ * {@link #getSyncInterval()} records or {@link #getSyncWindowMillis()} milliseconds, whichever comes first, on
+ * {@link #flush()} at the end of a download, and on truncation and close:
+ * <ul>
+ * <li>GROUP_COMMIT buffers the records in memory and commits each batch with one write and one fsync.</li>
+ * <li>MEMORY_MAPPED accesses the records through a memory mapping (see {@link MappedRecordFile}) so that reading or
+ * writing a record does not need a system call, and forces the mapping to disk for each batch. The block hash index is
+ * memory mapped too.</li>
+ * </ul>
+ * In both the chain head pointer on disk is only advanced once the records it refers to are durable, so after a crash
+ * it always points at a stored block. Blocks after it that were not yet durable are downloaded again.<p>
+ *
+ * Each record holds the hash of its block so that finding a block or rebuilding the index only compares bytes, with no
+ * deserialization or hashing which is expensive on Android. Stores written in version 1 of the file format, which did
+ * not hold the hashes, are migrated once when they are loaded.<p>
  *
  * This variant of BlockStore has the ability to replay blocks
  */
 public class ReplayableBlockStore implements BlockStore {
     private static final Logger log = LoggerFactory.getLogger(ReplayableBlockStore.class);
-    private static final byte FILE_FORMAT_VERSION = 1;
+    private static final byte FILE_FORMAT_VERSION = 2;
+
+    // Version 1 records are the same as the current ones without the block hash.
+    private static final byte FILE_FORMAT_VERSION_1 = 1;
+    private static final int VERSION_1_RECORD_SIZE = 4 + 16 + Block.HEADER_SIZE;
+
+    // The version byte whilst a version 1 store is being converted from its copy in the VERSION_1_FILE_SUFFIX file.
+    private static final byte MIGRATING_FROM_VERSION_1 = (byte) 0x81;
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+
+    private static final String MIGRATING_FILE_SUFFIX = ".migrating";
+    private static final String VERSION_1_FILE_SUFFIX = ".v1";
+
+    // The version byte and chain head hash come before the first record.
+    private static final long FIRST_RECORD_POSITION = 1 + 32;
+
+    public static final String INDEX_FILE_SUFFIX = ".index";
+
+    /**
+     * How records are written to disk.
+     */
+    public enum Mode {
+        /** Every record and chain head is written synchronously. */
+        SYNCHRONOUS,
+        /** Records are buffered in memory and written in batches with one write and one fsync per batch. */
+        GROUP_COMMIT,
+        /** Records are accessed through a memory mapping which is forced to disk in batches. */
+        MEMORY_MAPPED
+    }
+
+    /**
+     * The default number of records appended in batched modes between making them durable.
+     */
+    public static final int DEFAULT_SYNC_INTERVAL = 500;
+
+    /**
+     * The default longest time in milliseconds that a record appended in batched modes stays unsynced for, provided
+     * the store is still being written to.
+     */
+    public static final long DEFAULT_SYNC_WINDOW_MILLIS = 2000;
+
     private static NamedSemaphores semaphores = new NamedSemaphores();
 
     private RandomAccessFile file;
@@ -100,6 +160,25 @@ public class ReplayableBlockStore implements BlockStore {
     private FileChannel channel;
     private FileLock lock;
     private String fileName;
+    private final BlockHashIndex index;
+
+    private final Mode mode;
+    private int syncInterval = DEFAULT_SYNC_INTERVAL;
+    private long syncWindowMillis = DEFAULT_SYNC_WINDOW_MILLIS;
+
+    // When memory mapped, the records are accessed through mappedRecords rather than the channel.
+    private MappedRecordFile mappedRecords;
+
+    // When group committing, the records past committedEnd are held in pendingRecords until the batch is written.
+    private ByteBuffer pendingRecords;
+    private long committedEnd;
+
+    // Records appended and the time of the first change since the last sync, zero if there is nothing to sync.
+    private int unsyncedRecords;
+    private long firstUnsyncedTime;
+
+    // The chain head currently written in the file, which can lag chainHead in batched modes.
+    private Sha256Hash chainHeadOnDisk;
 
     private static class Record {
         // A BigInteger representing the total amount of work done so far on this chain. As of May 2011 it takes 8
@@ -110,16 +189,34 @@ public class ReplayableBlockStore implements BlockStore {
         private int height;           // 4 bytes
         private byte[] chainWork;     // 16 bytes
         private byte[] blockHeader;   // 80 bytes
+        private byte[] blockHash;     // 32 bytes
 
-        public static final int SIZE = 4 + Record.CHAIN_WORK_BYTES + Block.HEADER_SIZE;
+        public static final int SIZE = 4 + Record.CHAIN_WORK_BYTES + Block.HEADER_SIZE + 32;
 
         public Record() {
             height = 0;
             chainWork = new byte[CHAIN_WORK_BYTES];
             blockHeader = new byte[Block.HEADER_SIZE];
+            blockHash = new byte[32];
+        }
+
+        /**
+         * Append the block to the end of the channel.
+         *
+         * @return the position the record was written at
+         */
+        public static long write(FileChannel channel, StoredBlock block) throws IOException {
+            ByteBuffer buf = serialize(block);
+            long position = channel.size();
+            if (channel.write(buf, position) < Record.SIZE)
+                throw new IOException("Failed to write record!");
+            return position;
         }
 
-        public static void write(FileChannel channel, StoredBlock block) throws IOException {
+        /**
+         * @return a buffer containing the record for the block, positioned at the start
+         */
+        public static ByteBuffer serialize(StoredBlock block) {
             ByteBuffer buf = ByteBuffer.allocate(Record.SIZE);
             buf.putInt(block.getHeight());
             byte[] chainWorkBytes = block.getChainWork().toByteArray();
@@ -130,11 +227,9 @@ public class ReplayableBlockStore implements BlockStore {
             }
             buf.put(chainWorkBytes);
             buf.put(block.getHeader().bitcoinSerialize());
+            buf.put(block.getHeader().getHash().getBytes());
             buf.position(0);
-            channel.position(channel.size());
-            if (channel.write(buf) < Record.SIZE)
-                throw new IOException("Failed to write record!");
-            channel.position(channel.size() - Record.SIZE);
+            return buf;
         }
 
         public boolean read(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
@@ -143,16 +238,32 @@ public class ReplayableBlockStore implements BlockStore {
             if (bytesRead < Record.SIZE)
                 return false;
             buffer.position(0);
+            read(buffer);
+            return true;
+        }
+
+        /**
+         * Read the record from the current position of the buffer.
+         */
+        public void read(ByteBuffer buffer) {
             height = buffer.getInt();
             buffer.get(chainWork);
             buffer.get(blockHeader);
-            return true;
+            buffer.get(blockHash);
         }
 
         public BigInteger getChainWork() {
             return new BigInteger(1, chainWork);
         }
 
+        public Sha256Hash getHash() {
+            return new Sha256Hash(blockHash.clone());
+        }
+
+        public boolean hasHash(Sha256Hash hash) {
+            return Arrays.equals(blockHash, hash.getBytes());
+        }
+
         public Block getHeader(NetworkParameters params) throws ProtocolException {
             return new Block(params, blockHeader);
         }
@@ -166,10 +277,24 @@ public class ReplayableBlockStore implements BlockStore {
         }
     }
     
+    /**
+     * Open the store in the mode chosen by the BitcoinModel.BLOCK_STORE_MODE user preference, or synchronously if
+     * there is no preference.
+     */
     public ReplayableBlockStore(NetworkParameters params, File file, boolean alwaysCreateNewStore) throws BlockStoreException {
+        this(params, file, alwaysCreateNewStore, getPreferredMode());
+    }
+
+    /**
+     * @param mode
+     *            how records are written to disk
+     */
+    public ReplayableBlockStore(NetworkParameters params, File file, boolean alwaysCreateNewStore, Mode mode) throws BlockStoreException {
         this.params = params;
         this.fileName = file.getAbsolutePath();
-        
+        this.mode = mode;
+        this.index = new BlockHashIndex(new File(fileName + INDEX_FILE_SUFFIX), mode == Mode.MEMORY_MAPPED);
+
         if (alwaysCreateNewStore) {
             createBlockStore(params, file, false);
         } else {
@@ -182,11 +307,36 @@ public class ReplayableBlockStore implements BlockStore {
         }
     }
 
+    /**
+     * @return the mode in the BitcoinModel.BLOCK_STORE_MODE user preference, or SYNCHRONOUS if it is not set or not
+     *         recognised
+     */
+    static Mode getPreferredMode() {
+        BitcoinController controller = MultiBit.getBitcoinController();
+        if (controller == null || controller.getModel() == null) {
+            return Mode.SYNCHRONOUS;
+        }
+        String preferredMode = controller.getModel().getUserPreference(BitcoinModel.BLOCK_STORE_MODE);
+        if (preferredMode == null || "".equals(preferredMode.trim())) {
+            return Mode.SYNCHRONOUS;
+        }
+        try {
+            return Mode.valueOf(preferredMode.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            log.error("Unknown block store mode '" + preferredMode + "' - writing synchronously");
+            return Mode.SYNCHRONOUS;
+        }
+    }
+
     synchronized private void createBlockStore(NetworkParameters params, File file, boolean copyInstalledBlockChain) throws BlockStoreException {
         // Create a new block store if the file wasn't found or anything went wrong whilst reading.
         clearCaches();
         try {
             boolean blockChainLoadedOk = false;
+
+            // Any existing index is for the block store being replaced.
+            index.delete();
+
             if (copyInstalledBlockChain) {
                 // Recopy in the installer blockchain.
                 BitcoinController controller = MultiBit.getBitcoinController();
@@ -213,11 +363,14 @@ public class ReplayableBlockStore implements BlockStore {
                 StoredBlock storedGenesis = new StoredBlock(genesis, genesis.getWork(), 0);
 
                 // Create fresh. The d makes writes synchronous.
-                this.file = new RandomAccessFile(file, "rwd");
+                this.file = new RandomAccessFile(file, getFileMode());
                 this.channel = this.file.getChannel();
                 this.file.write(FILE_FORMAT_VERSION);
                 this.chainHead = storedGenesis.getHeader().getHash();
                 this.file.write(this.chainHead.getBytes());
+                this.chainHeadOnDisk = this.chainHead;
+                openRecords();
+                index.create(0);
                 put(storedGenesis);
               
                 // truncate to just the genesis block
@@ -232,15 +385,17 @@ public class ReplayableBlockStore implements BlockStore {
 
     private void load(File file) throws IOException, BlockStoreException {
         log.info("Reading block store from {}", file);
-        // Open in synchronous mode. See above.
-        this.file = new RandomAccessFile(file, "rwd");
+        // Open in synchronous mode unless batching. See above.
+        this.file = new RandomAccessFile(file, getFileMode());
         channel = this.file.getChannel();
-        log.info("Reading block store from {}", file);
         
         if (lock == null) {
            lock();
         }
         try {
+            // The store is only migrated once it is locked, so no other instance can be opening it at the same time.
+            migrateIfNeeded();
+
             // Read a version byte.
             int version = this.file.read();
             if (version == -1) {
@@ -256,9 +411,13 @@ public class ReplayableBlockStore implements BlockStore {
             if (this.file.read(chainHeadHash) < chainHeadHash.length)
                 throw new BlockStoreException("Truncated store: could not read chain head hash.");
             this.chainHead = new Sha256Hash(chainHeadHash);
+            this.chainHeadOnDisk = this.chainHead;
             log.info("Read chain head from disk: {}", this.chainHead);
-            channel.position(channel.size() - Record.SIZE);
+            openRecords();
+            openIndex();
         } catch (IOException e) {
+            mappedRecords = null;
+            pendingRecords = null;
             if (channel != null) {
                 channel.close();
             }
@@ -267,6 +426,8 @@ public class ReplayableBlockStore implements BlockStore {
             }
             throw e;
         } catch (BlockStoreException e) {
+            mappedRecords = null;
+            pendingRecords = null;
             if (channel != null) {
                 channel.close();
             }
@@ -277,6 +438,381 @@ public class ReplayableBlockStore implements BlockStore {
         }
     }
 
+    /**
+     * Convert a locked block store in version 1 of the file format to the current version, in place.<p>
+     * 
+     * The version 1 store is first copied to a file next to it, and the version byte is then set to
+     * MIGRATING_FROM_VERSION_1. The records are converted from the copy, and the version byte is only set to the current
+     * version once they are all on disk. A migration that stops part way through is started again from the copy.
+     */
+    private void migrateIfNeeded() throws IOException, BlockStoreException {
+        byte version = readVersion();
+        if (version != FILE_FORMAT_VERSION_1 && version != MIGRATING_FROM_VERSION_1) {
+            return;
+        }
+
+        log.info("Migrating block store {} from version {} to version {}", new Object[] {fileName, FILE_FORMAT_VERSION_1, FILE_FORMAT_VERSION});
+        long startTime = new Date().getTime();
+        File version1File = new File(fileName + VERSION_1_FILE_SUFFIX);
+        if (version == FILE_FORMAT_VERSION_1) {
+            copyVersion1Store(version1File);
+            writeVersion(MIGRATING_FROM_VERSION_1);
+        }
+
+        // Any index holds the positions of the version 1 records.
+        index.delete();
+
+        int numberOfRecords = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(version1File)));
+        try {
+            in.readByte();
+            byte[] chainHeadHash = new byte[32];
+            in.readFully(chainHeadHash);
+            channel.write(ByteBuffer.wrap(chainHeadHash), 1);
+
+            // The converted records are longer, so they are read from the copy and written in batches over the store.
+            ByteBuffer records = ByteBuffer.allocate(MIGRATION_BATCH_SIZE * Record.SIZE);
+            long position = FIRST_RECORD_POSITION;
+            byte[] record = new byte[VERSION_1_RECORD_SIZE];
+            for (long remaining = version1File.length() - FIRST_RECORD_POSITION; remaining >= VERSION_1_RECORD_SIZE; remaining -= VERSION_1_RECORD_SIZE) {
+                in.readFully(record);
+                records.put(record);
+                byte[] header = Arrays.copyOfRange(record, VERSION_1_RECORD_SIZE - Block.HEADER_SIZE, VERSION_1_RECORD_SIZE);
+                records.put(new Block(params, header).getHash().getBytes());
+                numberOfRecords++;
+                if (!records.hasRemaining()) {
+                    position = writeBatch(records, position);
+                }
+            }
+            position = writeBatch(records, position);
+            channel.truncate(position);
+            channel.force(true);
+        } catch (ProtocolException e) {
+            throw new BlockStoreException(e);
+        } finally {
+            in.close();
+        }
+
+        writeVersion(FILE_FORMAT_VERSION);
+        if (!version1File.delete()) {
+            log.debug("Could not delete {}", version1File);
+        }
+        log.info("Migrated {} blocks in {} seconds", numberOfRecords, (new Date().getTime() - startTime) / 1000.0);
+    }
+
+    /**
+     * @return the version byte of the open store, or -1 if it is empty
+     */
+    private byte readVersion() throws IOException {
+        ByteBuffer versionBuffer = ByteBuffer.allocate(1);
+        if (channel.read(versionBuffer, 0) < 1) {
+            return -1;
+        }
+        return versionBuffer.get(0);
+    }
+
+    private void writeVersion(byte version) throws IOException {
+        ByteBuffer versionBuffer = ByteBuffer.wrap(new byte[] { version });
+        while (versionBuffer.hasRemaining()) {
+            channel.write(versionBuffer, 0);
+        }
+        channel.force(true);
+    }
+
+    /**
+     * Copy the open version 1 store to version1File, replacing any left by an earlier migration.
+     */
+    private void copyVersion1Store(File version1File) throws IOException {
+        File copyingFile = new File(fileName + MIGRATING_FILE_SUFFIX);
+        FileOutputStream copyStream = new FileOutputStream(copyingFile);
+        try {
+            FileChannel copyChannel = copyStream.getChannel();
+            long size = channel.size();
+            for (long position = 0; position < size;) {
+                position += channel.transferTo(position, size - position, copyChannel);
+            }
+            copyChannel.force(true);
+        } finally {
+            copyStream.close();
+        }
+        if (version1File.exists() && !version1File.delete()) {
+            throw new IOException("Could not delete " + version1File.getAbsolutePath());
+        }
+        if (!copyingFile.renameTo(version1File)) {
+            throw new IOException("Could not rename " + copyingFile.getAbsolutePath() + " to " + version1File.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Write the records in the buffer to the store and empty it.
+     * 
+     * @return the position after the records written
+     */
+    private long writeBatch(ByteBuffer records, long position) throws IOException {
+        records.flip();
+        while (records.hasRemaining()) {
+            position += channel.write(records, position);
+        }
+        records.clear();
+        return position;
+    }
+
+    /**
+     * Open the block hash index, rebuilding it from the block store if it cannot be trusted and indexing any records
+     * appended since it was last closed.
+     */
+    private void openIndex() throws IOException {
+        long length = getRecordsEnd();
+        if (index.open() && index.getIndexedLength() <= length) {
+            if (index.getIndexedLength() < length) {
+                log.debug("Indexing blocks added to {} since the index was last closed", fileName);
+                indexRecords(Math.max(index.getIndexedLength(), FIRST_RECORD_POSITION));
+            }
+        } else {
+            long startTime = new Date().getTime();
+            index.create((length - FIRST_RECORD_POSITION) / Record.SIZE);
+            indexRecords(FIRST_RECORD_POSITION);
+            log.info("Rebuilt block hash index of {} blocks in {} seconds", index.size(), (new Date().getTime() - startTime) / 1000.0);
+        }
+    }
+
+    private void indexRecords(long startPosition) throws IOException {
+        Record record = new Record();
+        long length = getRecordsEnd();
+        long pos = startPosition;
+        while (pos + Record.SIZE <= length) {
+            if (!readRecord(pos, record)) {
+                throw new IOException("Failed to read buffer");
+            }
+            index.put(record.getHash(), pos);
+            pos += Record.SIZE;
+        }
+        index.setIndexedLength(pos);
+    }
+
+    private String getFileMode() {
+        return mode == Mode.SYNCHRONOUS ? "rwd" : "rw";
+    }
+
+    private void openRecords() throws IOException {
+        unsyncedRecords = 0;
+        firstUnsyncedTime = 0;
+        if (mode == Mode.MEMORY_MAPPED) {
+            mappedRecords = new MappedRecordFile(channel, FIRST_RECORD_POSITION, Record.SIZE);
+            mappedRecords.open();
+        } else {
+            // Drop any partly written record at the end so that appended records stay aligned.
+            long size = channel.size();
+            long end = FIRST_RECORD_POSITION + Math.max(0, (size - FIRST_RECORD_POSITION) / Record.SIZE * Record.SIZE);
+            if (end != size) {
+                log.info("Dropping {} bytes of a partly written record from the end of {}", size - end, fileName);
+                file.setLength(end);
+            }
+            // A store last opened memory mapped and not closed cleanly ends in zeroed space rather than records.
+            long trimmedEnd = end;
+            ByteBuffer record = ByteBuffer.allocate(Record.SIZE);
+            while (trimmedEnd > FIRST_RECORD_POSITION) {
+                record.clear();
+                if (channel.read(record, trimmedEnd - Record.SIZE) < Record.SIZE) {
+                    break;
+                }
+                record.flip();
+                if (!MappedRecordFile.isZero(record)) {
+                    break;
+                }
+                trimmedEnd -= Record.SIZE;
+            }
+            if (trimmedEnd != end) {
+                log.info("Trimming {} bytes of unused space from the end of {}", end - trimmedEnd, fileName);
+                file.setLength(trimmedEnd);
+                end = trimmedEnd;
+            }
+            committedEnd = end;
+            if (mode == Mode.GROUP_COMMIT) {
+                pendingRecords = ByteBuffer.allocate(syncInterval * Record.SIZE);
+            }
+        }
+    }
+
+    private long getRecordsEnd() throws IOException {
+        switch (mode) {
+        case MEMORY_MAPPED:
+            return mappedRecords.getEnd();
+        case GROUP_COMMIT:
+            return committedEnd + pendingRecords.position();
+        default:
+            return channel.size();
+        }
+    }
+
+    private boolean readRecord(long position, Record record) throws IOException {
+        if (mode == Mode.MEMORY_MAPPED) {
+            ByteBuffer slice = mappedRecords.slice(position);
+            if (slice == null) {
+                return false;
+            }
+            record.read(slice);
+            return true;
+        }
+        if (mode == Mode.GROUP_COMMIT && position >= committedEnd) {
+            // Not written yet.
+            int offset = (int) (position - committedEnd);
+            if (offset + Record.SIZE > pendingRecords.position()) {
+                return false;
+            }
+            ByteBuffer pending = pendingRecords.duplicate();
+            pending.limit(offset + Record.SIZE);
+            pending.position(offset);
+            record.read(pending);
+            return true;
+        }
+        return record.read(channel, position, buf);
+    }
+
+    private long appendRecord(StoredBlock block) throws IOException {
+        long position;
+        switch (mode) {
+        case MEMORY_MAPPED:
+            position = mappedRecords.append(Record.serialize(block));
+            break;
+        case GROUP_COMMIT:
+            if (!pendingRecords.hasRemaining()) {
+                sync();
+            }
+            position = committedEnd + pendingRecords.position();
+            pendingRecords.put(Record.serialize(block));
+            break;
+        default:
+            return Record.write(channel, block);
+        }
+
+        unsyncedRecords++;
+        markUnsynced();
+        if (unsyncedRecords >= syncInterval || isSyncWindowOver()) {
+            sync();
+        }
+        return position;
+    }
+
+    private void truncateRecords(long end) throws IOException {
+        switch (mode) {
+        case MEMORY_MAPPED:
+            mappedRecords.truncate(end);
+            break;
+        case GROUP_COMMIT:
+            if (end >= committedEnd) {
+                // Only drop records that have not been written yet.
+                pendingRecords.position((int) (end - committedEnd));
+                unsyncedRecords = pendingRecords.position() / Record.SIZE;
+                break;
+            }
+            pendingRecords.clear();
+            unsyncedRecords = 0;
+            file.setLength(end);
+            channel.force(false);
+            committedEnd = end;
+            break;
+        default:
+            file.setLength(end);
+        }
+    }
+
+    private void markUnsynced() {
+        if (firstUnsyncedTime == 0) {
+            firstUnsyncedTime = System.currentTimeMillis();
+        }
+    }
+
+    private boolean isSyncWindowOver() {
+        return firstUnsyncedTime != 0 && System.currentTimeMillis() - firstUnsyncedTime >= syncWindowMillis;
+    }
+
+    /**
+     * Make any batched records durable and then bring the chain head pointer on disk up to date.
+     */
+    private void sync() throws IOException {
+        switch (mode) {
+        case MEMORY_MAPPED:
+            mappedRecords.force();
+            break;
+        case GROUP_COMMIT:
+            if (pendingRecords.position() > 0) {
+                pendingRecords.flip();
+                long position = committedEnd;
+                while (pendingRecords.hasRemaining()) {
+                    position += channel.write(pendingRecords, position);
+                }
+                pendingRecords.clear();
+                channel.force(false);
+                committedEnd = position;
+            }
+            break;
+        default:
+            // Every record write is already synchronous.
+        }
+        unsyncedRecords = 0;
+        firstUnsyncedTime = 0;
+
+        if (chainHead != null && !chainHead.equals(chainHeadOnDisk)) {
+            // Write out new hash to the first 32 bytes of the file past one (first byte is version number).
+            channel.write(ByteBuffer.wrap(chainHead.getBytes()), 1);
+            chainHeadOnDisk = chainHead;
+        }
+    }
+
+    /**
+     * Make all records and the chain head durable. Call this at the end of a run of writes, for example when a replay
+     * finishes, rather than waiting for the next batch.
+     */
+    public synchronized void flush() throws BlockStoreException {
+        ensureOpen();
+        try {
+            sync();
+            if (mode != Mode.SYNCHRONOUS) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new BlockStoreException(e);
+        }
+    }
+
+    /**
+     * @return the number of records appended in batched modes between making them durable
+     */
+    public synchronized int getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * Set the number of records appended in batched modes between making them durable. Has no effect in
+     * SYNCHRONOUS mode as every write is then durable straight away.
+     */
+    public synchronized void setSyncInterval(int syncInterval) throws BlockStoreException {
+        checkState(syncInterval > 0, "The sync interval must be positive");
+        if (file != null && pendingRecords != null) {
+            // Commit what is buffered before resizing the batch.
+            flush();
+            pendingRecords = ByteBuffer.allocate(syncInterval * Record.SIZE);
+        }
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * @return the longest time in milliseconds that a change in batched modes stays unsynced for whilst the store is
+     *         being written to
+     */
+    public synchronized long getSyncWindowMillis() {
+        return syncWindowMillis;
+    }
+
+    public synchronized void setSyncWindowMillis(long syncWindowMillis) {
+        this.syncWindowMillis = syncWindowMillis;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
     private void lock() throws IOException, BlockStoreException {
         if (!semaphores.tryAcquire(fileName)) {
             throw new BlockStoreException("File in use");
@@ -309,7 +845,9 @@ public class ReplayableBlockStore implements BlockStore {
         try {
             Sha256Hash hash = block.getHeader().getHash();
             // Append to the end of the file.
-            Record.write(channel, block);
+            long position = appendRecord(block);
+            index.put(hash, position);
+            index.setIndexedLength(position + Record.SIZE);
             blockCache.put(hash, block);
         } catch (IOException e) {
             throw new BlockStoreException(e);
@@ -348,42 +886,36 @@ public class ReplayableBlockStore implements BlockStore {
     private ByteBuffer buf = ByteBuffer.allocateDirect(Record.SIZE);
 
     private Record getRecord(Sha256Hash hash) throws BlockStoreException, IOException, ProtocolException {
-        long startPos = channel.position();
-        // Use our own file pointer within the tight loop as updating channel positions is really expensive.
-        long pos = startPos;
         Record record = new Record();
-        int numMoves = 0;
-        long startTime = new Date().getTime();
-        do {
-            if (!record.read(channel, pos, buf))
-                throw new IOException("Failed to read buffer");
-            if (record.getHeader(params).getHash().equals(hash)) {
-                // Found it. Update file position for next time.
-                channel.position(pos);
-                long endTime = new Date().getTime();
-                if (endTime - startTime > 100) {
-                    log.info("Spent {} seconds doing {} backwards seeks successfully looking for hash " + hash.toString(), (endTime - startTime) / 1000.0, numMoves);
-                }
-                return record;
-            }
-            // Did not find it.
-            if (pos == 1 + 32) {
-                // At the start so wrap around to the end.
-                pos = channel.size() - Record.SIZE;
-            } else {
-                // Move backwards.
-                pos = pos - Record.SIZE;
-                checkState(pos >= 1 + 32, pos);
-            }
-            numMoves++;
-        } while (pos != startPos);
-        // Was never stored.
-        channel.position(pos);
-        long endTime = new Date().getTime();
-        if (endTime - startTime > 1000) {
-            log.info("Spent {} seconds doing {} backwards seeks", (endTime - startTime) / 1000.0, numMoves);
+        if (findRecord(hash, record) < 0) {
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * Find the record for a hash using the block hash index.
+     * 
+     * @param hash
+     *            the hash of the block to find
+     * @param record
+     *            the record to read the block into
+     * @return the position of the record in the file, or -1 if the block is not stored
+     */
+    private long findRecord(Sha256Hash hash, Record record) throws IOException {
+        long pos = index.get(hash);
+        if (pos < FIRST_RECORD_POSITION || pos + Record.SIZE > getRecordsEnd()) {
+            // Never stored or truncated away.
+            return -1;
+        }
+        if (!readRecord(pos, record)) {
+            throw new IOException("Failed to read buffer");
+        }
+        if (!record.hasHash(hash)) {
+            // The block was truncated away and its position reused by a later block.
+            return -1;
         }
-        return null;
+        return pos;
     }
 
     @Override
@@ -401,8 +933,15 @@ public class ReplayableBlockStore implements BlockStore {
         ensureOpen();
         try {
             this.chainHead = chainHead.getHeader().getHash();
-            // Write out new hash to the first 32 bytes of the file past one (first byte is version number).
-            channel.write(ByteBuffer.wrap(this.chainHead.getBytes()), 1);
+            if (mode == Mode.SYNCHRONOUS) {
+                // Every record write is synchronous so the chain head can be written straight away.
+                sync();
+            } else {
+                markUnsynced();
+                if (isSyncWindowOver()) {
+                    sync();
+                }
+            }
         } catch (IOException e) {
             throw new BlockStoreException(e);
         }
@@ -427,14 +966,19 @@ public class ReplayableBlockStore implements BlockStore {
 
             setChainHead(chainHead);
 
+            // The new chain head must be durable before the blocks after it are deleted.
+            flush();
+
             // Find block as a record and delete past it.
-            Record chainHeadRecord = getRecord(chainHeadBlock.getHash());
-            if (chainHeadRecord != null) {
+            Record chainHeadRecord = new Record();
+            long chainHeadPosition = findRecord(chainHeadBlock.getHash(), chainHeadRecord);
+            if (chainHeadPosition >= 0) {
                 // The record was found.
 
                 // Set the length of the file to be the end of the current record.
                 log.debug("File length before truncate was " + file.length());
-                file.setLength(channel.position() + Record.SIZE);
+                truncateRecords(chainHeadPosition + Record.SIZE);
+                index.setIndexedLength(chainHeadPosition + Record.SIZE);
                 log.debug("File length is now " + file.length());
             } else {
                 log.debug("Chainhead of height " + chainHead.getHeight() + " specified was not found. file length is now " + file.length());                
@@ -444,7 +988,7 @@ public class ReplayableBlockStore implements BlockStore {
             clearCaches();
             
             // Put the chainHead into the cache so that it is found immediately when block download starts.
-            if (chainHeadRecord != null) {
+            if (chainHeadPosition >= 0) {
                 StoredBlock chainHeadStoredBlock = chainHeadRecord.toStoredBlock(params);
                 blockCache.put(chainHeadBlock.getHash(), chainHeadStoredBlock);
             }
@@ -468,7 +1012,17 @@ public class ReplayableBlockStore implements BlockStore {
     public void close() throws BlockStoreException {
         ensureOpen();
         try {
-            file.close();
+            try {
+                flush();
+                if (mappedRecords != null) {
+                    mappedRecords.close();
+                    mappedRecords = null;
+                }
+                pendingRecords = null;
+                index.close();
+            } finally {
+                file.close();
+            }
         } catch (IOException e) {
             throw new BlockStoreException(e);
         } finally {
@@ -19,19 +19,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.TimerTask;
 
-import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
-import org.multibit.file.WalletSaveException;
-import org.multibit.message.Message;
-import org.multibit.message.MessageManager;
 import org.multibit.model.bitcoin.WalletData;
-import org.multibit.store.WalletVersionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * TimerTask to detect whether wallet files have been changed by some external
- * process and to save dirty files.
+ * process and to ask for dirty files to be saved by the WalletSaveService.
+ * 
+ * Where the WalletFileWatcher is running changes are picked up by that instead
+ * and the wallet files are not polled.
  * 
  * @see java.util.Timer
  * @see java.util.TimerTask
@@ -43,7 +41,6 @@ public class FileChangeTimerTask extends TimerTask {
 
     private static Logger log = LoggerFactory.getLogger(FileChangeTimerTask.class);
 
-    private final Controller controller;
     private final BitcoinController bitcoinController;
     
     private boolean enable = true;
@@ -56,7 +53,6 @@ public class FileChangeTimerTask extends TimerTask {
      */
     public FileChangeTimerTask(BitcoinController bitcoinController) {
         this.bitcoinController = bitcoinController;
-        this.controller = bitcoinController;
     }
 
     /**
@@ -75,39 +71,18 @@ public class FileChangeTimerTask extends TimerTask {
                     while (iterator.hasNext()) {
                         WalletData loopModelData = iterator.next();
                         if (bitcoinController.getFileHandler() != null) {
-                            // See if the files have been changed by another
-                            // process (non MultiBit).
-                            boolean haveFilesChanged = bitcoinController.getFileHandler().haveFilesChanged(loopModelData);
-                            if (haveFilesChanged) {
-                                boolean previousFilesHaveBeenChanged = loopModelData.isFilesHaveBeenChangedByAnotherProcess();
-                                loopModelData.setFilesHaveBeenChangedByAnotherProcess(true);
-                                if (!previousFilesHaveBeenChanged) {
-                                    // only fire once, when change happens
-                                    bitcoinController.fireFilesHaveBeenChangedByAnotherProcess(loopModelData);
-                                    log.debug("Marking wallet " + loopModelData.getWalletFilename()
-                                            + " as having been changed by another process.");
-                                }
+                            if (bitcoinController.getFileHandler().isWatchingWalletFiles()) {
+                                // Changes are picked up as they happen - just make sure the wallet is watched.
+                                bitcoinController.getFileHandler().getWalletFileWatcher().watch(loopModelData.getWalletFilename());
+                            } else {
+                                // See if the files have been changed by another
+                                // process (non MultiBit).
+                                bitcoinController.getFileHandler().checkForChangesByAnotherProcess(loopModelData);
                             }
 
-                            // See if they are dirty - write out if so.
+                            // See if they are dirty - write out in the background if so.
                             if (loopModelData.isDirty()) {
-                                log.debug("Saving dirty wallet '" + loopModelData.getWalletFilename() + "'...");
-                                try {
-                                    bitcoinController.getFileHandler().savePerWalletModelData(loopModelData, false);
-                                    log.debug("... done.");
-                                } catch (WalletSaveException e) {
-                                    String message = controller.getLocaliser().getString(
-                                            "createNewWalletAction.walletCouldNotBeCreated",
-                                            new Object[] { loopModelData.getWalletFilename(), e.getMessage() });
-                                    log.error(message);
-                                    MessageManager.INSTANCE.addMessage(new Message(message));
-                                } catch (WalletVersionException e) {
-                                    String message = controller.getLocaliser().getString(
-                                            "createNewWalletAction.walletCouldNotBeCreated",
-                                            new Object[] { loopModelData.getWalletFilename(), e.getMessage() });
-                                    log.error(message);
-                                    MessageManager.INSTANCE.addMessage(new Message(message));
-                                }
+                                bitcoinController.getFileHandler().getWalletSaveService().requestSave(loopModelData);
                             }
                         }
                     }
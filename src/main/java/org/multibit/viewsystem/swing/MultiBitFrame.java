@@ -33,6 +33,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.List;
 import java.util.Timer;
@@ -69,7 +70,7 @@ import org.multibit.controller.exchange.ExchangeController;
 import org.multibit.exchange.CurrencyConverter;
 import org.multibit.exchange.CurrencyConverterListener;
 import org.multibit.exchange.ExchangeRate;
-import org.multibit.exchange.TickerTimerTask;
+import org.multibit.exchange.TickerFetcher;
 import org.multibit.message.Message;
 import org.multibit.message.MessageManager;
 import org.multibit.model.bitcoin.BitcoinModel;
@@ -223,10 +224,7 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
     private Timer fileChangeTimer;
     private FileChangeTimerTask fileChangeTimerTask;
 
-    private Timer tickerTimer1;
-    private Timer tickerTimer2;
-    private TickerTimerTask tickerTimerTask1;
-    private TickerTimerTask tickerTimerTask2;
+    private TickerFetcher tickerFetcher;
 
     private JPanel headerPanel;
 
@@ -312,19 +310,23 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
 
         this.bitcoinController.registerWalletBusyListener(this);
 
+        // Watch the wallet files for changes if the Java runtime can, otherwise the file change timer polls them.
+        if (this.bitcoinController.getFileHandler().getWalletFileWatcher() != null) {
+            try {
+                this.bitcoinController.getFileHandler().getWalletFileWatcher().start();
+            } catch (IOException e) {
+                log.error("Could not watch the wallet files for changes, they will be polled instead : " + e.getMessage());
+            }
+        }
+
          // Initialise the file change timer.
         fileChangeTimer = new Timer();
         fileChangeTimerTask = new FileChangeTimerTask(this.bitcoinController);
         fileChangeTimer.schedule(fileChangeTimerTask, FileChangeTimerTask.INITIAL_DELAY, FileChangeTimerTask.DEFAULT_REPEAT_RATE);
 
          // Initialise the tickers.
-        tickerTimer1 = new Timer();
-        tickerTimerTask1 = new TickerTimerTask(this.exchangeController, this, true);
-        tickerTimer1.schedule(tickerTimerTask1, TickerTimerTask.INITIAL_DELAY, TickerTimerTask.DEFAULT_REPEAT_RATE);
-        
-        tickerTimer2 = new Timer();
-        tickerTimerTask2 = new TickerTimerTask(this.exchangeController, this, false);
-        tickerTimer2.schedule(tickerTimerTask2, TickerTimerTask.INITIAL_DELAY + TickerTimerTask.TASK_SEPARATION, TickerTimerTask.DEFAULT_REPEAT_RATE);
+        tickerFetcher = new TickerFetcher(this.exchangeController, this);
+        tickerFetcher.start(TickerFetcher.INITIAL_DELAY);
 
         // Initialise status bar.
         statusBar.initialise();
@@ -989,8 +991,6 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
         if (tickerTablePanel != null) {
             tickerTablePanel.setVisible(isTickerVisible);
         }
-        
-        final MultiBitFrame thisFrame = this;
 
         showTicker.addActionListener(new ActionListener() {
             @Override
@@ -1004,24 +1004,8 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
                         tickerTablePanel.setVisible(true);
                         controller.getModel().setUserPreference(ExchangeModel.TICKER_SHOW, Boolean.TRUE.toString());
                         showTicker.setText(controller.getLocaliser().getString("multiBitFrame.ticker.hide.text"));
-                        // Cancel any existing timer.
-                        if (tickerTimer1 != null) {
-                            tickerTimer1.cancel();
-                        }                        
-                        if (tickerTimer2 != null) {
-                            tickerTimer2.cancel();
-                        }
-                        // Start ticker timer.
-                        tickerTimer1 = new Timer();
-                        tickerTimer1.schedule(new TickerTimerTask(exchangeController, thisFrame, true), 0, TickerTimerTask.DEFAULT_REPEAT_RATE);
-                        
-                        boolean showSecondRow = Boolean.TRUE.toString().equals(
-                                controller.getModel().getUserPreference(ExchangeModel.TICKER_SHOW_SECOND_ROW));
-                        
-                        if (showSecondRow) {
-                            tickerTimer2 = new Timer();
-                            tickerTimer2.schedule(new TickerTimerTask(exchangeController, thisFrame, false), TickerTimerTask.TASK_SEPARATION, TickerTimerTask.DEFAULT_REPEAT_RATE);
-                        }
+                        // Fetch the ticker data now.
+                        tickerFetcher.restart();
                     }
                 }
             }
@@ -1381,11 +1365,13 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
 
     @Override
     public void onCoinsReceived(Wallet wallet, Transaction transaction, BigInteger prevBalance, BigInteger newBalance) {
+        ShowTransactionsPanel.transactionChanged(wallet, transaction);
         fireDataChangedUpdateLater(DisplayHint.WALLET_TRANSACTIONS_HAVE_CHANGED);
     }
 
     @Override
     public void onCoinsSent(Wallet wallet, Transaction transaction, BigInteger prevBalance, BigInteger newBalance) {
+        ShowTransactionsPanel.transactionChanged(wallet, transaction);
         fireDataChangedUpdateLater(DisplayHint.WALLET_TRANSACTIONS_HAVE_CHANGED);
     }
 
@@ -1400,6 +1386,7 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
 
     @Override
     public void onTransactionConfidenceChanged(Wallet wallet, Transaction transaction) {
+        ShowTransactionsPanel.transactionChanged(wallet, transaction);
         if (controller.getCurrentView() == View.TRANSACTIONS_VIEW) {
             ShowTransactionsPanel.updateTransactions(); 
         } else if (controller.getCurrentView() == View.SEND_BITCOIN_VIEW) {
@@ -1735,35 +1722,8 @@ public class MultiBitFrame extends JFrame implements ViewSystem, ApplicationList
         updateHeader();
     }
 
-    public Timer getTickerTimer1() {
-        return tickerTimer1;
-    }
-
-    public void setTickerTimer1(Timer tickerTimer1) {
-        this.tickerTimer1 = tickerTimer1;
-    }
-    
-    public Timer getTickerTimer2() {
-        return tickerTimer2;
-    }
-
-    public void setTickerTimer2(Timer tickerTimer2) {
-        this.tickerTimer2 = tickerTimer2;
-    }
-    
-    public TickerTimerTask getTickerTimerTask1() {
-        return tickerTimerTask1;
-    }
-    public TickerTimerTask getTickerTimerTask2() {
-        return tickerTimerTask2;
-    }
-
-    public void setTickerTimerTask1(TickerTimerTask tickerTimerTask1) {
-        this.tickerTimerTask1 = tickerTimerTask1;
-    }
-
-    public void setTickerTimerTask2(TickerTimerTask tickerTimerTask2) {
-        this.tickerTimerTask2 = tickerTimerTask2;
+    public TickerFetcher getTickerFetcher() {
+        return tickerFetcher;
     }
 
     public FileChangeTimerTask getFileChangeTimerTask() {
@@ -18,7 +18,14 @@ package org.multibit.viewsystem.swing;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
 
 import org.joda.money.Money;
@@ -26,12 +33,24 @@ import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.exchange.CurrencyConverter;
 import org.multibit.exchange.CurrencyInfo;
+import org.multibit.model.bitcoin.WalletData;
 import org.multibit.model.bitcoin.WalletTableData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.WalletTransaction;
 
-
+/**
+ * Table model for the transactions of the active wallet.
+ * 
+ * The rows are created in full when the active wallet changes and are then kept
+ * up to date one transaction at a time from the wallet events, so that a refresh
+ * costs in proportion to the number of transactions that have changed rather
+ * than the size of the wallet.
+ */
 public class WalletTableModel extends AbstractTableModel {
 
     private static final long serialVersionUID = -937886012854496208L;
@@ -42,6 +61,34 @@ public class WalletTableModel extends AbstractTableModel {
 
     private ArrayList<WalletTableData> walletData;
 
+    /**
+     * The formatted amounts of each row, in step with walletData. An entry is null
+     * until the row is first painted.
+     */
+    private ArrayList<FormattedAmounts> formattedAmounts;
+
+    /**
+     * The row of each transaction in walletData.
+     */
+    private Map<Sha256Hash, Integer> transactionHashToRow;
+
+    /**
+     * The wallet the rows were created from.
+     */
+    private volatile Wallet rowsWallet;
+
+    /**
+     * The address book version of the wallet info when the rows were created.
+     * The descriptions hold the address labels so they are recreated when it changes.
+     */
+    private int rowsAddressBookVersion;
+
+    /**
+     * Transactions that have changed since the rows were last updated.
+     * Added to from the wallet event threads.
+     */
+    private final Set<Transaction> changedTransactions = new LinkedHashSet<Transaction>();
+
     private final Controller controller;
     private final BitcoinController bitcoinController;
 
@@ -51,7 +98,7 @@ public class WalletTableModel extends AbstractTableModel {
 
         createHeaders();
 
-        walletData = this.bitcoinController.getModel().createWalletData(this.bitcoinController, this.bitcoinController.getModel().getActiveWalletFilename());
+        createRows();
     }
     
     @Override
@@ -111,34 +158,69 @@ public class WalletTableModel extends AbstractTableModel {
             return walletDataRow.getDescription();
         case 3:
             // Amount in BTC
-            BigInteger debitAmount = walletDataRow.getDebit();
-            if (debitAmount != null && debitAmount.compareTo(BigInteger.ZERO) > 0) {
-                return controller.getLocaliser().bitcoinValueToString(debitAmount.negate(), false, true);
-            }
-
-            BigInteger creditAmount = walletDataRow.getCredit();
-            if (creditAmount != null) {
-                return controller.getLocaliser().bitcoinValueToString(creditAmount, false, true);
-            }
-            
-            return null;         
+            return getFormattedAmounts(row, walletDataRow).bitcoinAmount;
         case 4:
             // Amount in fiat
-            if (walletDataRow.getDebit() != null  && walletDataRow.getDebit().compareTo(BigInteger.ZERO) > 0) {
-                Money debitAmountFiat = CurrencyConverter.INSTANCE.convertFromBTCToFiat(walletDataRow.getDebit());
-                if (debitAmountFiat != null) {
-                    return CurrencyConverter.INSTANCE.getFiatAsLocalisedString(debitAmountFiat.negated(), false, false);
-                }
-            }
+            return getFormattedAmounts(row, walletDataRow).fiatAmount;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Get the formatted amounts of a row, formatting them only if the row is new
+     * or the exchange rate, currency or locale have changed since they were
+     * last formatted.
+     */
+    private FormattedAmounts getFormattedAmounts(int row, WalletTableData walletDataRow) {
+        int formatVersion = CurrencyConverter.INSTANCE.getFormatVersion();
+        Locale locale = controller.getLocaliser().getLocale();
+
+        FormattedAmounts amounts = formattedAmounts.get(row);
+        if (amounts != null && amounts.formatVersion == formatVersion && amounts.locale.equals(locale)) {
+            return amounts;
+        }
+
+        amounts = new FormattedAmounts(formatVersion, locale);
+        BigInteger debitAmount = walletDataRow.getDebit();
+        BigInteger creditAmount = walletDataRow.getCredit();
+        if (debitAmount != null && debitAmount.compareTo(BigInteger.ZERO) > 0) {
+            amounts.bitcoinAmount = controller.getLocaliser().bitcoinValueToString(debitAmount.negate(), false, true);
+        } else if (creditAmount != null) {
+            amounts.bitcoinAmount = controller.getLocaliser().bitcoinValueToString(creditAmount, false, true);
+        }
 
-            Money creditAmountFiat = CurrencyConverter.INSTANCE.convertFromBTCToFiat(walletDataRow.getCredit());
+        amounts.fiatAmount = "";
+        Money debitAmountFiat = null;
+        if (debitAmount != null && debitAmount.compareTo(BigInteger.ZERO) > 0) {
+            debitAmountFiat = CurrencyConverter.INSTANCE.convertFromBTCToFiat(debitAmount);
+        }
+        if (debitAmountFiat != null) {
+            amounts.fiatAmount = CurrencyConverter.INSTANCE.getFiatAsLocalisedString(debitAmountFiat.negated(), false, false);
+        } else {
+            Money creditAmountFiat = CurrencyConverter.INSTANCE.convertFromBTCToFiat(creditAmount);
             if (creditAmountFiat != null) {
-                return CurrencyConverter.INSTANCE.getFiatAsLocalisedString(creditAmountFiat, false, false);
+                amounts.fiatAmount = CurrencyConverter.INSTANCE.getFiatAsLocalisedString(creditAmountFiat, false, false);
             }
-            
-            return "";
-        default:
-            return null;
+        }
+
+        formattedAmounts.set(row, amounts);
+        return amounts;
+    }
+
+    /**
+     * The amounts of a row as formatted for display, and the exchange rate
+     * version and locale they were formatted with.
+     */
+    private static class FormattedAmounts {
+        private final int formatVersion;
+        private final Locale locale;
+        private String bitcoinAmount;
+        private String fiatAmount;
+
+        private FormattedAmounts(int formatVersion, Locale locale) {
+            this.formatVersion = formatVersion;
+            this.locale = locale;
         }
     }
 
@@ -152,10 +234,115 @@ public class WalletTableModel extends AbstractTableModel {
 
     public void recreateWalletData() {
         // Recreate the wallet data as the underlying wallet has changed.
-        walletData = this.bitcoinController.getModel().createActiveWalletData(this.bitcoinController);
+        createRows();
         fireTableDataChanged();
     }
 
+    /**
+     * Note that a transaction has changed so that its row is updated on the next call to updateWalletData().
+     * Can be called from any thread.
+     */
+    public void transactionChanged(Wallet wallet, Transaction transaction) {
+        if (transaction == null || wallet == null || wallet != rowsWallet) {
+            return;
+        }
+        synchronized (changedTransactions) {
+            changedTransactions.add(transaction);
+        }
+    }
+
+    /**
+     * Update the rows of the transactions that have changed since the last update,
+     * firing row level events. If the active wallet or its address book has
+     * changed, or the rows cannot be reconciled with the wallet, all the rows are
+     * recreated.
+     */
+    public void updateWalletData() {
+        WalletData activeWalletData = this.bitcoinController.getModel().getActivePerWalletModelData();
+        Wallet activeWallet = activeWalletData == null ? null : activeWalletData.getWallet();
+        if (activeWallet == null || activeWallet != rowsWallet || getAddressBookVersion(activeWalletData) != rowsAddressBookVersion) {
+            recreateWalletData();
+            return;
+        }
+
+        List<Transaction> transactionsToUpdate;
+        synchronized (changedTransactions) {
+            transactionsToUpdate = new ArrayList<Transaction>(changedTransactions);
+            changedTransactions.clear();
+        }
+
+        for (Transaction transaction : transactionsToUpdate) {
+            Transaction walletTransaction = activeWallet.getTransaction(transaction.getHash());
+            Integer row = transactionHashToRow.get(transaction.getHash());
+            if (walletTransaction == null) {
+                if (row != null) {
+                    // The transaction has been removed from the wallet.
+                    recreateWalletData();
+                    return;
+                }
+                continue;
+            }
+
+            WalletTableData walletDataRow = this.bitcoinController.getModel().createWalletTableData(this.bitcoinController,
+                    activeWalletData, walletTransaction);
+            if (row == null) {
+                int newRow = walletData.size();
+                walletData.add(walletDataRow);
+                formattedAmounts.add(null);
+                transactionHashToRow.put(walletTransaction.getHash(), newRow);
+                fireTableRowsInserted(newRow, newRow);
+            } else {
+                walletData.set(row, walletDataRow);
+                formattedAmounts.set(row, null);
+                fireTableRowsUpdated(row, row);
+            }
+        }
+
+        if (walletData.size() != numberOfTransactionsShown(activeWallet)) {
+            // Some change to the wallet did not come through as a transaction event.
+            recreateWalletData();
+            return;
+        }
+
+        // The depth of every transaction may have changed so repaint the status column.
+        if (!walletData.isEmpty()) {
+            fireTableChanged(new TableModelEvent(this, 0, walletData.size() - 1, 0));
+        }
+    }
+
+    private void createRows() {
+        synchronized (changedTransactions) {
+            changedTransactions.clear();
+        }
+        WalletData activeWalletData = this.bitcoinController.getModel().getActivePerWalletModelData();
+        rowsWallet = activeWalletData == null ? null : activeWalletData.getWallet();
+        rowsAddressBookVersion = getAddressBookVersion(activeWalletData);
+
+        walletData = this.bitcoinController.getModel().createWalletDataInternal(this.bitcoinController, activeWalletData);
+        formattedAmounts = new ArrayList<FormattedAmounts>(walletData.size());
+        transactionHashToRow = new HashMap<Sha256Hash, Integer>();
+        for (int i = 0; i < walletData.size(); i++) {
+            formattedAmounts.add(null);
+            transactionHashToRow.put(walletData.get(i).getTransaction().getHash(), i);
+        }
+    }
+
+    private int getAddressBookVersion(WalletData perWalletModelData) {
+        if (perWalletModelData == null || perWalletModelData.getWalletInfo() == null) {
+            return 0;
+        }
+        return perWalletModelData.getWalletInfo().getAddressBookVersion();
+    }
+
+    /**
+     * The number of transactions in the pools shown in the table, which are the
+     * ones returned by Wallet#getTransactions(false).
+     */
+    private int numberOfTransactionsShown(Wallet wallet) {
+        return wallet.getPoolSize(WalletTransaction.Pool.UNSPENT) + wallet.getPoolSize(WalletTransaction.Pool.SPENT)
+                + wallet.getPoolSize(WalletTransaction.Pool.PENDING);
+    }
+
     public void createHeaders() {
         headers = new ArrayList<String>();
         for (int j = 0; j < WalletTableData.COLUMN_HEADER_KEYS.length; j++) {
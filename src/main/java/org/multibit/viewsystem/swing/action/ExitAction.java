@@ -28,6 +28,7 @@ import org.multibit.controller.core.CoreController;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.file.BackupManager;
 import org.multibit.file.FileHandler;
+import org.multibit.file.FileShredder;
 import org.multibit.file.WalletSaveException;
 import org.multibit.message.Message;
 import org.multibit.message.MessageManager;
@@ -53,6 +54,8 @@ public class ExitAction extends AbstractExitAction {
     
     private static final int MAXIMUM_TIME_TO_WAIT_FOR_FILE_CHANGE_TASK = 10000; // ms
     private static final int TIME_TO_WAIT = 200; // ms
+    private static final int MAXIMUM_TIME_TO_WAIT_FOR_WALLET_SAVES = 10000; // ms
+    private static final int MAXIMUM_TIME_TO_WAIT_FOR_FILE_SHREDDING = 10000; // ms
     
     private final MultiBitFrame mainFrame;
     private static final Logger log = LoggerFactory.getLogger(ExitAction.class);
@@ -114,6 +117,14 @@ public class ExitAction extends AbstractExitAction {
                 }
             }
         }
+
+        if (bitcoinController != null && bitcoinController.getFileHandler() != null) {
+            // Let any background wallet saves finish before the wallets are saved below.
+            log.debug("Waiting for background wallet saves to complete . . .");
+            if (!bitcoinController.getFileHandler().getWalletSaveService().waitUntilSaved(MAXIMUM_TIME_TO_WAIT_FOR_WALLET_SAVES)) {
+                log.debug("Background wallet saves did not complete in time.");
+            }
+        }
         
         if (bitcoinController != null && bitcoinController.getMultiBitService() != null) {
             // Stop the peer group so that blocks are notified to wallets correctly.
@@ -175,6 +186,12 @@ public class ExitAction extends AbstractExitAction {
             // log.debug("exit 6");
         }
 
+        // Let any old backups queued for secure deletion be deleted.
+        log.debug("Waiting for secure deletes to complete . . .");
+        if (!FileShredder.INSTANCE.waitUntilShredded(MAXIMUM_TIME_TO_WAIT_FOR_FILE_SHREDDING)) {
+            log.debug("Secure deletes did not complete in time.");
+        }
+
         log.debug("Shutting down Bitcoin URI checker ...");
         ApplicationInstanceManager.shutdownSocket();
         // log.debug("exit 7");
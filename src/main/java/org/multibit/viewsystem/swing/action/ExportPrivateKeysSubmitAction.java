@@ -231,6 +231,8 @@ public class ExportPrivateKeysSubmitAction extends MultiBitSubmitAction implemen
                     successMeasure = true;
                 } catch (IOException ioe) {
                     logError(ioe);
+                } finally {
+                    privateKeysHandler.clearKeyCache();
                 }
 
                 return successMeasure;
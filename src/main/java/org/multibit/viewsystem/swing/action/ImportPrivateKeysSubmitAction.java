@@ -21,10 +21,14 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.CharBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.Action;
 import javax.swing.ImageIcon;
@@ -35,7 +39,9 @@ import org.bitcoinj.wallet.Protos.Wallet.EncryptionType;
 import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.file.BackupManager;
+import org.multibit.file.KeyFingerprints;
 import org.multibit.file.PrivateKeyAndDate;
+import org.multibit.file.PrivateKeyAndDateListener;
 import org.multibit.file.PrivateKeysHandler;
 import org.multibit.file.PrivateKeysHandlerException;
 import org.multibit.file.WalletSaveException;
@@ -55,7 +61,6 @@ import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 
 import com.google.bitcoin.core.ECKey;
-import com.google.bitcoin.core.Utils;
 import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.crypto.KeyCrypter;
 import com.google.bitcoin.crypto.KeyCrypterException;
@@ -70,6 +75,11 @@ public class ImportPrivateKeysSubmitAction extends MultiBitSubmitAction implemen
 
     private static final long serialVersionUID = 1923492087598757765L;
 
+    /**
+     * The number of imported keys encrypted together on one thread.
+     */
+    private static final int KEY_ENCRYPTION_BATCH_SIZE = 256;
+
     private MultiBitFrame mainFrame;
     private ImportPrivateKeysPanel importPrivateKeysPanel;
     private JPasswordField walletPasswordField;
@@ -165,8 +175,16 @@ public class ImportPrivateKeysSubmitAction extends MultiBitSubmitAction implemen
 
                 PrivateKeysHandler privateKeysHandler = new PrivateKeysHandler(super.bitcoinController.getModel().getNetworkParameters());
                 importPrivateKeysPanel.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-                Collection<PrivateKeyAndDate> privateKeyAndDateArray = privateKeysHandler.readInPrivateKeys(importFile,
-                        passwordCharSequence);
+
+                // Keys already in the wallet or repeated in the file are dropped when they are imported in the
+                // background.
+                final Collection<PrivateKeyAndDate> privateKeyAndDateArray = new ArrayList<PrivateKeyAndDate>();
+                privateKeysHandler.readInPrivateKeys(importFile, passwordCharSequence, new PrivateKeyAndDateListener() {
+                    @Override
+                    public void onPrivateKeyAndDate(PrivateKeyAndDate privateKeyAndDate) {
+                        privateKeyAndDateArray.add(privateKeyAndDate);
+                    }
+                });
 
                 changeWalletBusyAndImportInBackground(privateKeyAndDateArray,  CharBuffer.wrap(walletPasswordField.getPassword()));
                 importPrivateKeysPanel.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
@@ -290,89 +308,61 @@ public class ImportPrivateKeysSubmitAction extends MultiBitSubmitAction implemen
                 try {
                     Wallet walletToAddKeysTo = finalPerWalletModelData.getWallet();
 
-                    Collection<byte[]> unencryptedWalletPrivateKeys = new ArrayList<byte[]>();
                     Date earliestTransactionDate = new Date(DateUtils.nowUtc().getMillis());
 
                     if (walletToAddKeysTo.getEncryptionType() != EncryptionType.UNENCRYPTED) {
                         keyEncryptionRequired = true;
                     }
 
-                    try {
-                        if (walletToAddKeysTo != null) {
-                            synchronized (walletToAddKeysTo.getKeychain()) {
-                                // Work out what the unencrypted private keys are.
-                                KeyCrypter walletKeyCrypter = walletToAddKeysTo.getKeyCrypter();
-                                KeyParameter aesKey = null;
-                                if (keyEncryptionRequired) {
-                                    if (walletKeyCrypter == null) {
-                                        log.error("Missing KeyCrypter. Could not decrypt private keys.");
-                                    }
-                                    aesKey = walletKeyCrypter.deriveKey(CharBuffer.wrap(walletPassword));
-                                }
-                                for (ECKey ecKey : walletToAddKeysTo.getKeychain()) {
-                                    if (keyEncryptionRequired) {
-                                        if (ecKey.getEncryptedPrivateKey() == null
-                                                || ecKey.getEncryptedPrivateKey().getEncryptedBytes() == null
-                                                || ecKey.getEncryptedPrivateKey().getEncryptedBytes().length == 0) {
-
-                                            log.error("Missing encrypted private key bytes for key " + ecKey.toString()
-                                                    + ", enc.priv = "
-                                                    + Utils.bytesToHexString(ecKey.getEncryptedPrivateKey().getEncryptedBytes()));
-                                        } else {
-                                            byte[] decryptedPrivateKey = ecKey.getKeyCrypter().decrypt(
-                                                    ecKey.getEncryptedPrivateKey(), aesKey);
-                                            unencryptedWalletPrivateKeys.add(decryptedPrivateKey);
-                                        }
-
-                                    } else {
-                                        // Wallet is not encrypted.
-                                        unencryptedWalletPrivateKeys.add(ecKey.getPrivKeyBytes());
-                                    }
+                    if (walletToAddKeysTo != null) {
+                        synchronized (walletToAddKeysTo.getKeychain()) {
+                            KeyCrypter walletKeyCrypter = walletToAddKeysTo.getKeyCrypter();
+                            KeyParameter aesKey = null;
+                            if (keyEncryptionRequired) {
+                                if (walletKeyCrypter == null) {
+                                    log.error("Missing KeyCrypter. Could not encrypt private keys.");
                                 }
+                                aesKey = walletKeyCrypter.deriveKey(CharBuffer.wrap(walletPassword));
+                            }
 
-                                // Keep track of earliest transaction date go backwards from now.
-                                if (privateKeyAndDateArray != null) {
-                                    for (PrivateKeyAndDate privateKeyAndDate : privateKeyAndDateArray) {
-                                        ECKey keyToAdd = privateKeyAndDate.getKey();
-                                        if (keyToAdd != null) {
-                                            if (privateKeyAndDate.getDate() != null) {
-                                                keyToAdd.setCreationTimeSeconds(privateKeyAndDate.getDate().getTime()
-                                                        / NUMBER_OF_MILLISECONDS_IN_A_SECOND);
-                                            }
-
-                                            if (!keyChainContainsPrivateKey(unencryptedWalletPrivateKeys, keyToAdd, walletPassword)) {
-                                                if (keyEncryptionRequired) {
-                                                    ECKey encryptedKey = new ECKey(walletKeyCrypter.encrypt(
-                                                            keyToAdd.getPrivKeyBytes(), aesKey), keyToAdd.getPubKey(),
-                                                            walletKeyCrypter);
-                                                    walletToAddKeysTo.addKey(encryptedKey);
-                                                } else {
-                                                    walletToAddKeysTo.addKey(keyToAdd);
-                                                }
+                            // The keys already in the wallet, looked up by public key so nothing needs decrypting.
+                            KeyFingerprints walletKeys = new KeyFingerprints(walletToAddKeysTo.getKeychain());
+
+                            // Keep track of earliest transaction date go backwards from now.
+                            List<ECKey> keysToAdd = new ArrayList<ECKey>();
+                            if (privateKeyAndDateArray != null) {
+                                for (PrivateKeyAndDate privateKeyAndDate : privateKeyAndDateArray) {
+                                    ECKey keyToAdd = privateKeyAndDate.getKey();
+                                    if (keyToAdd != null) {
+                                        if (privateKeyAndDate.getDate() != null) {
+                                            keyToAdd.setCreationTimeSeconds(privateKeyAndDate.getDate().getTime()
+                                                    / NUMBER_OF_MILLISECONDS_IN_A_SECOND);
+                                        }
 
-                                                // Update earliest transaction date.
-                                                if (privateKeyAndDate.getDate() == null) {
-                                                    // Need to go back to the genesis block.
-                                                    earliestTransactionDate = null;
-                                                } else {
-                                                    if (earliestTransactionDate != null) {
-                                                        earliestTransactionDate = earliestTransactionDate.before(privateKeyAndDate
-                                                                .getDate()) ? earliestTransactionDate : privateKeyAndDate.getDate();
-                                                    }
+                                        // Adding to the fingerprints also skips keys repeated in the import.
+                                        if (walletKeys.add(keyToAdd)) {
+                                            keysToAdd.add(keyToAdd);
+
+                                            // Update earliest transaction date.
+                                            if (privateKeyAndDate.getDate() == null) {
+                                                // Need to go back to the genesis block.
+                                                earliestTransactionDate = null;
+                                            } else {
+                                                if (earliestTransactionDate != null) {
+                                                    earliestTransactionDate = earliestTransactionDate.before(privateKeyAndDate
+                                                            .getDate()) ? earliestTransactionDate : privateKeyAndDate.getDate();
                                                 }
                                             }
                                         }
                                     }
                                 }
                             }
-                        }
-                    } finally {
-                        // Wipe the work collection of private key bytes to remove it from memory.
-                        for (byte[] privateKeyBytes : unencryptedWalletPrivateKeys) {
-                            if (privateKeyBytes != null) {
-                                for (int i = 0; i < privateKeyBytes.length; i++) {
-                                    privateKeyBytes[i] = 0;
-                                }
+
+                            if (keyEncryptionRequired) {
+                                keysToAdd = encryptKeys(keysToAdd, walletKeyCrypter, aesKey);
+                            }
+                            for (ECKey keyToAdd : keysToAdd) {
+                                walletToAddKeysTo.addKey(keyToAdd);
                             }
                         }
                     }
@@ -471,24 +461,58 @@ public class ImportPrivateKeysSubmitAction extends MultiBitSubmitAction implemen
     }
 
     /**
-     * Determine whether the key is already in the wallet.
-     * @throws EncrypterDecrypterException 
+     * Encrypt the keys with the wallet's key. Large imports are encrypted in batches in parallel.
+     * 
+     * @return the encrypted keys, in the same order
      */
-    private boolean keyChainContainsPrivateKey(Collection<byte[]> unencryptedPrivateKeys, ECKey keyToAdd, CharSequence walletPassword) throws KeyCrypterException {
-        if (unencryptedPrivateKeys == null || keyToAdd == null) {
-            return false;
-        } else {
-            byte[] unencryptedKeyToAdd = new byte[0];
-            if (keyToAdd.isEncrypted()) {
-                unencryptedKeyToAdd = keyToAdd.getKeyCrypter().decrypt(keyToAdd.getEncryptedPrivateKey(), keyToAdd.getKeyCrypter().deriveKey(walletPassword));
+    private static List<ECKey> encryptKeys(List<ECKey> keys, final KeyCrypter keyCrypter, final KeyParameter aesKey)
+            throws KeyCrypterException {
+        int numberOfBatches = (keys.size() + KEY_ENCRYPTION_BATCH_SIZE - 1) / KEY_ENCRYPTION_BATCH_SIZE;
+        int numberOfThreads = Math.min(numberOfBatches, Runtime.getRuntime().availableProcessors());
+        if (numberOfThreads <= 1) {
+            return encryptKeyBatch(keys, keyCrypter, aesKey);
+        }
+
+        ExecutorService encrypters = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            List<Future<List<ECKey>>> encryptedBatches = new ArrayList<Future<List<ECKey>>>();
+            for (int start = 0; start < keys.size(); start += KEY_ENCRYPTION_BATCH_SIZE) {
+                final List<ECKey> batch = keys.subList(start, Math.min(keys.size(), start + KEY_ENCRYPTION_BATCH_SIZE));
+                encryptedBatches.add(encrypters.submit(new Callable<List<ECKey>>() {
+                    @Override
+                    public List<ECKey> call() throws Exception {
+                        return encryptKeyBatch(batch, keyCrypter, aesKey);
+                    }
+                }));
             }
-            for (byte[] loopEncryptedPrivateKey : unencryptedPrivateKeys) { 
-                if (Arrays.equals(unencryptedKeyToAdd, loopEncryptedPrivateKey)) {
-                    return true;
-                }
+
+            List<ECKey> encryptedKeys = new ArrayList<ECKey>(keys.size());
+            for (Future<List<ECKey>> encryptedBatch : encryptedBatches) {
+                encryptedKeys.addAll(encryptedBatch.get());
             }
-            return false;
+            return encryptedKeys;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KeyCrypterException("Interrupted whilst encrypting the private keys", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof KeyCrypterException) {
+                throw (KeyCrypterException) e.getCause();
+            }
+            throw new KeyCrypterException("Could not encrypt the private keys", e.getCause());
+        } finally {
+            encrypters.shutdownNow();
+        }
+    }
+
+    private static List<ECKey> encryptKeyBatch(List<ECKey> keys, KeyCrypter keyCrypter, KeyParameter aesKey)
+            throws KeyCrypterException {
+        List<ECKey> encryptedKeys = new ArrayList<ECKey>(keys.size());
+        for (ECKey key : keys) {
+            ECKey encryptedKey = new ECKey(keyCrypter.encrypt(key.getPrivKeyBytes(), aesKey), key.getPubKey(), keyCrypter);
+            encryptedKey.setCreationTimeSeconds(key.getCreationTimeSeconds());
+            encryptedKeys.add(encryptedKey);
         }
+        return encryptedKeys;
     }
 
     // Used in testing.
@@ -190,10 +190,8 @@ public class OpenWalletAction extends AbstractAction {
                                     
                                     // Read in the encrypted file and decrypt it.
                                     try {
-                                        byte [] walletBytes = BackupManager.INSTANCE.readFileAndDecrypt(new File(selectedWalletFilename), passwordToUse);
-                                        
-                                        // Make a regular wallet file.
-                                        FileHandler.writeFile(walletBytes, new File(decryptedWalletFileName));
+                                        // Decrypt it straight to a regular wallet file.
+                                        BackupManager.INSTANCE.copyFileAndDecrypt(new File(selectedWalletFilename), new File(decryptedWalletFileName), passwordToUse);
                                         
                                         // Now just use the decrypted file and open it.
                                         selectedWalletFilename = decryptedWalletFileName;
@@ -20,7 +20,6 @@ import java.awt.Cursor;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.math.BigInteger;
-import java.util.Timer;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -36,7 +35,6 @@ import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.controller.exchange.ExchangeController;
 import org.multibit.exchange.CurrencyConverter;
-import org.multibit.exchange.TickerTimerTask;
 import org.multibit.message.Message;
 import org.multibit.message.MessageManager;
 import org.multibit.model.bitcoin.BitcoinModel;
@@ -380,36 +378,8 @@ public class ShowPreferencesSubmitAction extends AbstractAction {
                 // Reinitialise the currency converter.
                 CurrencyConverter.INSTANCE.initialise(controller);
 
-                // Cancel any existing timer.
-                if (mainFrame.getTickerTimer1() != null) {
-                    mainFrame.getTickerTimer1().cancel();
-                }
-                if (mainFrame.getTickerTimer2() != null) {
-                    mainFrame.getTickerTimer2().cancel();
-                }                // Start ticker timer.
-                Timer tickerTimer1 = new Timer();
-                mainFrame.setTickerTimer1(tickerTimer1);
-                
-                TickerTimerTask tickerTimerTask1 = new TickerTimerTask(this.exchangeController, mainFrame, true);
-                tickerTimerTask1.createExchangeObjects(controller.getModel().getUserPreference(ExchangeModel.TICKER_FIRST_ROW_EXCHANGE));
-                mainFrame.setTickerTimerTask1(tickerTimerTask1);
-
-                tickerTimer1.schedule(tickerTimerTask1, 0, TickerTimerTask.DEFAULT_REPEAT_RATE);
-                
-                boolean showSecondRow = Boolean.TRUE.toString().equals(
-                        controller.getModel().getUserPreference(ExchangeModel.TICKER_SHOW_SECOND_ROW));
-                
-                if (showSecondRow) {
-                    Timer tickerTimer2 = new Timer();
-                    mainFrame.setTickerTimer2(tickerTimer2);
-
-                    TickerTimerTask tickerTimerTask2 = new TickerTimerTask(this.exchangeController, mainFrame, false);
-                    tickerTimerTask2.createExchangeObjects(controller.getModel().getUserPreference(
-                            ExchangeModel.TICKER_SECOND_ROW_EXCHANGE));
-                    mainFrame.setTickerTimerTask2(tickerTimerTask2);
-
-                    tickerTimer2.schedule(tickerTimerTask2, TickerTimerTask.TASK_SEPARATION, TickerTimerTask.DEFAULT_REPEAT_RATE);
-                }
+                // Restart the ticker with the new exchanges and currencies.
+                mainFrame.getTickerFetcher().restart();
             }
 
             if (fontHasChanged) {
@@ -16,12 +16,15 @@
 package org.multibit.viewsystem.swing.view.models;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.swing.table.DefaultTableModel;
 
 import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.model.bitcoin.WalletAddressBookData;
+import org.multibit.model.bitcoin.WalletAddressBookList;
 import org.multibit.model.bitcoin.WalletInfoData;
 
 public class AddressBookTableModel extends DefaultTableModel {
@@ -38,6 +41,11 @@ public class AddressBookTableModel extends DefaultTableModel {
     private final Controller controller;
     private final BitcoinController bitcoinController;
 
+    /**
+     * The receiving and sending address book rows last shown.
+     */
+    private AddressBookSnapshot[] snapshots;
+
     public AddressBookTableModel(BitcoinController bitcoinController, boolean isReceiving) {
         this.bitcoinController = bitcoinController;
         this.controller = this.bitcoinController;
@@ -59,20 +67,8 @@ public class AddressBookTableModel extends DefaultTableModel {
         if (controller == null) {
             return 0;
         }
-        WalletInfoData walletInfo = this.bitcoinController.getModel().getActiveWalletWalletInfo();
-        if (isReceiving) {
-            if (walletInfo != null && walletInfo.getReceivingAddresses() != null) {
-                return walletInfo.getReceivingAddresses().size();
-            } else {
-                return 0;
-            }
-        } else {
-            if (walletInfo != null && walletInfo.getSendingAddresses() != null) {
-                return walletInfo.getSendingAddresses().size();
-            } else {
-                return 0;
-            }
-        }
+        AddressBookSnapshot snapshot = getSnapshot(isReceiving);
+        return snapshot == null ? 0 : snapshot.rows.length;
     }
 
     @Override
@@ -82,23 +78,14 @@ public class AddressBookTableModel extends DefaultTableModel {
 
     @Override
     public Object getValueAt(int row, int column) {
-        WalletInfoData walletInfo = this.bitcoinController.getModel().getActiveWalletWalletInfo();
-
-        if (walletInfo == null) {
+        AddressBookSnapshot snapshot = getSnapshot(isReceiving);
+        if (snapshot == null) {
             return null;
         }
 
-        ArrayList<WalletAddressBookData> addresses;
-        if (isReceiving) {
-            addresses = walletInfo.getReceivingAddresses();
-        } else {
-            addresses = walletInfo.getSendingAddresses();
-        }
-
-        WalletAddressBookData[] addressesArray = addresses.toArray(new WalletAddressBookData[addresses.size()]);
         WalletAddressBookData addressBookData = null;
-        if (row >= 0 && row < addresses.size()) {
-            addressBookData = addressesArray[row];
+        if (row >= 0 && row < snapshot.rows.length) {
+            addressBookData = snapshot.rows[row];
         }
 
         if (addressBookData == null) {
@@ -136,40 +123,33 @@ public class AddressBookTableModel extends DefaultTableModel {
         if (address == null) {
             return -1;
         }
-        WalletInfoData walletInfo = this.bitcoinController.getModel().getActiveWalletWalletInfo();
-        if (walletInfo == null) {
+        AddressBookSnapshot snapshot = getSnapshot(isReceiving);
+        if (snapshot == null) {
             return -1;
         }
 
-        ArrayList<WalletAddressBookData> addresses;
-        if (isReceiving) {
-            addresses = walletInfo.getReceivingAddresses();
-        } else {
-            addresses = walletInfo.getSendingAddresses();
-        }
-
-        int row = 0;
-        if (addresses != null) {
-            for (WalletAddressBookData loopAddress : addresses) {
-                if (loopAddress != null) {
-                    if (address.equals(loopAddress.getAddress())) {
-                        // select this row in the table
-                        return row;
-                    }
-                }
-                row++;
-            }
-        }
-        return -1;
+        Integer row = snapshot.rowByAddress.get(address);
+        return row == null ? -1 : row;
     }
 
     /**
      * given a row, return the WalletAddressBookData on this row
      */
     public WalletAddressBookData getAddressBookDataByRow(int row, boolean isReceiving) {
+        AddressBookSnapshot snapshot = getSnapshot(isReceiving);
+        if (snapshot != null && row >= 0 && snapshot.rows.length > row) {
+            return snapshot.rows[row];
+        }
+        return null;
+    }
+
+    /**
+     * set a WalletAddressBookData into a row
+     */
+    public void setAddressBookDataByRow(WalletAddressBookData addressBookData, int row, boolean isReceiving) {
         WalletInfoData walletInfo = this.bitcoinController.getModel().getActiveWalletWalletInfo();
         if (walletInfo == null) {
-            return null;
+            return;
         }
 
         ArrayList<WalletAddressBookData> addresses;
@@ -180,31 +160,68 @@ public class AddressBookTableModel extends DefaultTableModel {
         }
 
         if (addresses != null && addresses.size() > row) {
-            return addresses.get(row);
+            addresses.set(row, addressBookData);
+
+            fireTableDataChanged();
         }
-        return null;
     }
 
     /**
-     * set a WalletAddressBookData into a row
+     * Get the rows of the active wallet's receiving or sending addresses. The rows are copied out of the address book
+     * only when the active wallet or the address book has changed since they were last asked for.
+     * 
+     * @return the rows, or null if there is no active wallet
      */
-    public void setAddressBookDataByRow(WalletAddressBookData addressBookData, int row, boolean isReceiving) {
+    private AddressBookSnapshot getSnapshot(boolean isReceiving) {
         WalletInfoData walletInfo = this.bitcoinController.getModel().getActiveWalletWalletInfo();
         if (walletInfo == null) {
-            return;
+            return null;
         }
 
-        ArrayList<WalletAddressBookData> addresses;
+        WalletAddressBookList addresses;
         if (isReceiving) {
             addresses = walletInfo.getReceivingAddresses();
         } else {
             addresses = walletInfo.getSendingAddresses();
         }
+        if (addresses == null) {
+            return null;
+        }
 
-        if (addresses != null && addresses.size() > row) {
-            addresses.set(row, addressBookData);
+        int index = isReceiving ? 0 : 1;
+        if (snapshots == null) {
+            // The super constructor can ask for rows before the fields are initialised.
+            snapshots = new AddressBookSnapshot[2];
+        }
+        AddressBookSnapshot snapshot = snapshots[index];
+        if (snapshot == null || snapshot.addresses != addresses || snapshot.version != addresses.getVersion()) {
+            snapshot = new AddressBookSnapshot(addresses);
+            snapshots[index] = snapshot;
+        }
+        return snapshot;
+    }
 
-            fireTableDataChanged();
+    /**
+     * The rows of an address book at one version, with the row of each address.
+     */
+    private static class AddressBookSnapshot {
+        private final WalletAddressBookList addresses;
+        private final int version;
+        private final WalletAddressBookData[] rows;
+        private final Map<String, Integer> rowByAddress;
+
+        private AddressBookSnapshot(WalletAddressBookList addresses) {
+            this.addresses = addresses;
+            this.version = addresses.getVersion();
+            this.rows = addresses.toArray(new WalletAddressBookData[addresses.size()]);
+
+            rowByAddress = new HashMap<String, Integer>(Math.max(16, rows.length * 2));
+            for (int row = 0; row < rows.length; row++) {
+                // The first row for an address is selected.
+                if (rows[row] != null && rows[row].getAddress() != null && !rowByAddress.containsKey(rows[row].getAddress())) {
+                    rowByAddress.put(rows[row].getAddress(), row);
+                }
+            }
         }
     }
 
@@ -23,15 +23,13 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
-import java.math.BigInteger;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 import javax.swing.BorderFactory;
@@ -41,6 +39,8 @@ import javax.swing.JScrollPane;
 
 import org.multibit.controller.Controller;
 import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.model.bitcoin.BalanceSeries;
+import org.multibit.model.bitcoin.WalletData;
 import org.multibit.model.core.CoreModel;
 import org.multibit.utils.DateUtils;
 import org.multibit.utils.ImageLoader;
@@ -54,8 +54,6 @@ import org.multibit.viewsystem.swing.view.components.FontSizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.bitcoin.core.Transaction;
-
 import com.xeiam.xchart.BitmapEncoder;
 import com.xeiam.xchart.Chart;
 import com.xeiam.xchart.SeriesColor;
@@ -74,6 +72,7 @@ public class ChartsPanel extends JPanel implements Viewable, ComponentListener {
 
   private static final int NUMBER_OF_DAYS_TO_LOOK_BACK = 30;
   private static final double NUMBER_OF_SATOSHI_IN_ONE_BTC = 100000000;
+  private static final long MILLISECONDS_IN_ONE_DAY = 24L * 60 * 60 * 1000;
 
   private static final int WIDTH_DELTA = 40;
   private static final int HEIGHT_DELTA = 20;
@@ -90,6 +89,15 @@ public class ChartsPanel extends JPanel implements Viewable, ComponentListener {
 
   private boolean generateRandomChart = false;
 
+  // The last chart drawn and what it was drawn from.
+  private XChartPanel lastChartPanel;
+  private BalanceSeries lastBalanceSeries;
+  private int lastBalanceSeriesVersion;
+  private int lastChartWidth;
+  private int lastChartHeight;
+  private Locale lastLocale;
+  private long lastChartTime;
+
   /**
    * Creates a new {@link ChartsPanel}.
    */
@@ -152,17 +160,33 @@ public class ChartsPanel extends JPanel implements Viewable, ComponentListener {
 
       int chartWidth = Math.max(getWidth() - WIDTH_DELTA, MINIMUM_WIDTH);
       int chartHeight = Math.max(getHeight() - HEIGHT_DELTA, MINIMUM_HEIGHT);
-      Chart chart = new Chart(chartWidth, chartHeight);
       Locale locale = controller.getLocaliser().getLocale();
+
+      long now = DateUtils.nowUtc().getMillis();
+      long pastInMillis = now - NUMBER_OF_DAYS_TO_LOOK_BACK * MILLISECONDS_IN_ONE_DAY;
+
+      // Get the last month's balance, at most a few points per pixel. This brings the series up to date with the wallet.
+      BalanceSeries balanceSeries = getActiveBalanceSeries();
+      List<BalanceSeries.Point> points = null;
+      if (balanceSeries != null) {
+        points = balanceSeries.getPoints(this.bitcoinController.getModel().getActiveWallet(), pastInMillis, now, chartWidth);
+      }
+
+      // Reuse the last chart if nothing on it would change - less than a pixel's worth of time has passed.
+      if (!generateRandomChart && lastChartPanel != null && balanceSeries != null && balanceSeries == lastBalanceSeries
+              && balanceSeries.getVersion() == lastBalanceSeriesVersion && chartWidth == lastChartWidth
+              && chartHeight == lastChartHeight && locale.equals(lastLocale)
+              && now - lastChartTime < (now - pastInMillis) / chartWidth) {
+        return lastChartPanel;
+      }
+
+      Chart chart = new Chart(chartWidth, chartHeight);
       chart.getStyleManager().setLocale(locale);
 
       // generates linear data
       Collection<Date> xData = new ArrayList<Date>();
       Collection<Number> yData = new ArrayList<Number>();
 
-      // Get the last month's transaction data.
-      Collection<ChartData> chartDataCollection = getChartData();
-
       if (generateRandomChart) {
         DateFormat sdf = new SimpleDateFormat("dd.MM.yyyy");
         Date date;
@@ -176,20 +200,17 @@ public class ChartsPanel extends JPanel implements Viewable, ComponentListener {
           yData.add(Math.random() * i);
         }
       } else {
-        if (chartDataCollection == null || chartDataCollection.size() == 0) {
-          log.debug("chartDataCollection is null or empty");
+        if (points == null) {
+          log.debug("There is no active wallet to chart");
 
           JPanel chartPanel = new JPanel();
           chartPanel.setBackground(ColorAndFontConstants.BACKGROUND_COLOR);
           chartPanel.setOpaque(true);
           return chartPanel;
-        } else {
-          for (ChartData chartData : chartDataCollection) {
-            if (chartData != null && chartData.getDate() != null && chartData.getValue() != null) {
-              xData.add(chartData.getDate());
-              yData.add(chartData.getValue().doubleValue() / NUMBER_OF_SATOSHI_IN_ONE_BTC);
-            }
-          }
+        }
+        for (BalanceSeries.Point point : points) {
+          xData.add(new Date(point.getTime()));
+          yData.add(point.getBalance() / NUMBER_OF_SATOSHI_IN_ONE_BTC);
         }
       }
 
@@ -223,6 +244,16 @@ public class ChartsPanel extends JPanel implements Viewable, ComponentListener {
       chartPanelToReturn.setSaveAsString(controller.getLocaliser().getString("chartsPanelSaveAs"));
       chartPanelToReturn.setLocale(locale);
       chartPanelToReturn.setMinimumSize(new Dimension(chartWidth, chartHeight));
+
+      if (!generateRandomChart) {
+        lastChartPanel = chartPanelToReturn;
+        lastBalanceSeries = balanceSeries;
+        lastBalanceSeriesVersion = balanceSeries.getVersion();
+        lastChartWidth = chartWidth;
+        lastChartHeight = chartHeight;
+        lastLocale = locale;
+        lastChartTime = now;
+      }
       return chartPanelToReturn;
     } catch (Exception e) {
       e.printStackTrace();
@@ -238,10 +269,16 @@ public class ChartsPanel extends JPanel implements Viewable, ComponentListener {
    */
   private void updateChart() {
 
+    // Recreate the chart data and 'draw' it.
+    JPanel chartPanel = createChartPanel();
+    if (mainPanel.getComponentCount() == 1 && mainPanel.getComponent(0) == chartPanel) {
+      // Unchanged.
+      return;
+    }
+
     // Clear the main panel.
     mainPanel.removeAll();
 
-    // Recreate the chart data and 'draw' it.
     GridBagConstraints constraints = new GridBagConstraints();
 
     constraints.fill = GridBagConstraints.BOTH;
@@ -252,121 +289,22 @@ public class ChartsPanel extends JPanel implements Viewable, ComponentListener {
     constraints.weighty = 1;
     constraints.anchor = GridBagConstraints.CENTER;
 
-    // Recreate chart panel.
-    JPanel chartPanel = createChartPanel();
     chartPanel.setOpaque(true);
     chartPanel.setBackground(ColorAndFontConstants.BACKGROUND_COLOR);
     mainPanel.add(chartPanel, constraints);
   }
 
   /**
-   * Get the transaction data for the chart
+   * Get the balance series of the active wallet.
+   *
+   * @return the balance series, or null if there is no active wallet
    */
-  private Collection<ChartData> getChartData() {
-
+  private BalanceSeries getActiveBalanceSeries() {
     if (controller.getModel() == null || this.bitcoinController.getModel().getActiveWallet() == null) {
-      return new ArrayList<ChartData>();
+      return null;
     }
-
-    ArrayList<Transaction> allTransactions = new ArrayList<Transaction>(this.bitcoinController.getModel().getActiveWallet().getTransactions(false));
-
-    // Order by date.
-    Collections.sort(allTransactions, new Comparator<Transaction>() {
-
-      @Override
-      public int compare(Transaction t1, Transaction t2) {
-
-        Date date1 = t1.getUpdateTime();
-        Date date2 = t2.getUpdateTime();
-        if (date1 == null) {
-          if (date2 == null) {
-            return 0;
-          } else {
-            return -1;
-          }
-        } else {
-          if (date2 == null) {
-            return 1;
-          } else {
-            return date1.compareTo(date2);
-          }
-        }
-
-      }
-    });
-
-    // Work out balance as running total and filter to just last
-    // NUMBER_OF_DAYS_TO_LOOK_BACKs data.
-    BigInteger balance = BigInteger.ZERO;
-
-    // The previous datums balance.
-    BigInteger previousBalance = BigInteger.ZERO;
-
-    // The previous datums timepoint.
-    Date previousDate = null;
-
-    long pastInMillis = DateUtils.nowUtc().plusDays(-1 * NUMBER_OF_DAYS_TO_LOOK_BACK).getMillis();
-
-    // Create ChartData collection.
-    Collection<ChartData> chartData = new ArrayList<ChartData>();
-
-    try {
-      boolean leftEdgeDataPointAdded = false;
-
-      if (allTransactions == null || allTransactions.size() == 0) {
-        // At beginning of time window balance was zero
-        chartData.add(new ChartData(new Date(pastInMillis), BigInteger.ZERO));
-      } else {
-        for (Transaction loop : allTransactions) {
-          balance = balance.add(loop.getValue(this.bitcoinController.getModel().getActiveWallet()));
-
-          Date loopUpdateTime = loop.getUpdateTime();
-          if (loopUpdateTime != null) {
-            long loopTimeInMillis = loopUpdateTime.getTime();
-
-            if (loopTimeInMillis > pastInMillis) {
-              if (!leftEdgeDataPointAdded) {
-                // If the previous transaction was BEFORE the
-                // NUMBER_OF_DAYS_TO_LOOK_BACK cutoff, include a
-                // datapoint at the beginning of the timewindow
-                // with the balance
-                // at that time.
-                if ((previousDate != null) && (previousDate.getTime() <= pastInMillis)) {
-                  // The balance was non-zero.
-                  chartData.add(new ChartData(new Date(pastInMillis), previousBalance));
-                } else {
-                  // At beginning of time window balance was
-                  // zero
-                  chartData.add(new ChartData(new Date(pastInMillis), BigInteger.ZERO));
-                }
-                leftEdgeDataPointAdded = true;
-              }
-
-              // Include this transaction as it is in the last
-              // NUMBER_OF_DAYS_TO_LOOK_BACK days.
-              chartData.add(new ChartData(loop.getUpdateTime(), previousBalance));
-              chartData.add(new ChartData(loop.getUpdateTime(), balance));
-            }
-
-            previousBalance = balance;
-            previousDate = loop.getUpdateTime();
-          }
-        }
-      }
-
-      // If all the datapoints are before the left hand edge, ensure the balance is also added at the left hand edge.
-      if (!leftEdgeDataPointAdded) {
-        chartData.add(new ChartData(new Date(pastInMillis), balance));
-      }
-
-      // Add in the balance at the end of the time window.
-      chartData.add(new ChartData(new Date(DateUtils.nowUtc().getMillis()), balance));
-      // log.debug("Last transaction date = " + previousDate + ", chart balance = " + balance + ", wallet balance = " + controller.getModel().getActiveWallet().getBalance());
-    } catch (com.google.bitcoin.core.ScriptException e1) {
-      e1.printStackTrace();
-    }
-
-    return chartData;
+    WalletData perWalletModelData = this.bitcoinController.getModel().getActivePerWalletModelData();
+    return perWalletModelData == null ? null : perWalletModelData.getBalanceSeries();
   }
 
   @Override
@@ -407,34 +345,6 @@ public class ChartsPanel extends JPanel implements Viewable, ComponentListener {
     return View.CHARTS_VIEW;
   }
 
-  class ChartData {
-
-    private Date date;
-    private BigInteger value;
-
-    public ChartData(Date date, BigInteger value) {
-
-      this.date = date;
-      this.value = value;
-    }
-
-    public Date getDate() {
-
-      return date;
-    }
-
-    public BigInteger getValue() {
-
-      return value;
-    }
-
-    @Override
-    public String toString() {
-
-      return "ChartData [date=" + date + ", value=" + value + "]";
-    }
-  }
-
   @Override
   public void componentHidden(ComponentEvent arg0) {
 
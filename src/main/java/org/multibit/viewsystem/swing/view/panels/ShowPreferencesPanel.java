@@ -68,7 +68,7 @@ import org.multibit.controller.bitcoin.BitcoinController;
 import org.multibit.controller.exchange.ExchangeController;
 import org.multibit.exchange.CurrencyConverter;
 import org.multibit.exchange.CurrencyConverterResult;
-import org.multibit.exchange.TickerTimerTask;
+import org.multibit.exchange.ExchangeTicker;
 import org.multibit.message.Message;
 import org.multibit.message.MessageManager;
 import org.multibit.model.bitcoin.BitcoinModel;
@@ -1145,11 +1145,11 @@ public class ShowPreferencesPanel extends JPanel implements Viewable, Preference
 
         // Make sure the exchange1 has been created and initialised the list of
         // currencies.
-        if (mainFrame != null && mainFrame.getTickerTimerTask1() != null) {
-            TickerTimerTask tickerTimerTask = mainFrame.getTickerTimerTask1();
-            synchronized (tickerTimerTask) {
-                if (tickerTimerTask.getExchange() == null) {
-                    tickerTimerTask.createExchangeObjects(exchangeToUse1);
+        if (mainFrame != null && mainFrame.getTickerFetcher() != null) {
+            ExchangeTicker exchangeTicker = mainFrame.getTickerFetcher().getFirstRowTicker();
+            synchronized (exchangeTicker) {
+                if (exchangeTicker.getExchange() == null) {
+                    exchangeTicker.createExchangeObjects(exchangeToUse1);
                 }
             }
         }
@@ -1182,10 +1182,10 @@ public class ShowPreferencesPanel extends JPanel implements Viewable, Preference
                     String exchangeShortName = item.toString();
                     // Make sure the exchange1 has been created and initialised
                     // the list of currencies.
-                    if (mainFrame != null && mainFrame.getTickerTimerTask1() != null) {
-                        TickerTimerTask tickerTimerTask = mainFrame.getTickerTimerTask1();
-                        synchronized (tickerTimerTask) {
-                            tickerTimerTask.createExchangeObjects(exchangeShortName);
+                    if (mainFrame != null && mainFrame.getTickerFetcher() != null) {
+                        ExchangeTicker exchangeTicker = mainFrame.getTickerFetcher().getFirstRowTicker();
+                        synchronized (exchangeTicker) {
+                            exchangeTicker.createExchangeObjects(exchangeShortName);
                             currencyComboBox1.removeAllItems();
                             Collection<String> currenciesToUse = ExchangeData.getAvailableCurrenciesForExchange(exchangeShortName);
                             if (currenciesToUse != null) {
@@ -1298,10 +1298,10 @@ public class ShowPreferencesPanel extends JPanel implements Viewable, Preference
                     String exchangeShortName = item.toString();
                     // Make sure the exchange2 has been created and initialised
                     // the list of currencies.
-                    if (mainFrame != null && mainFrame.getTickerTimerTask2() != null) {
-                        TickerTimerTask tickerTimerTask = mainFrame.getTickerTimerTask2();
-                        synchronized (tickerTimerTask) {
-                            tickerTimerTask.createExchangeObjects(exchangeShortName);
+                    if (mainFrame != null && mainFrame.getTickerFetcher() != null) {
+                        ExchangeTicker exchangeTicker = mainFrame.getTickerFetcher().getSecondRowTicker();
+                        synchronized (exchangeTicker) {
+                            exchangeTicker.createExchangeObjects(exchangeShortName);
                             currencyComboBox2.removeAllItems();
                             Collection<String> currenciesToUse = ExchangeData.getAvailableCurrenciesForExchange(exchangeShortName);
                             if (currenciesToUse != null) {
@@ -1369,11 +1369,11 @@ public class ShowPreferencesPanel extends JPanel implements Viewable, Preference
 
         // Make sure the exchange2 has been created and initialised the list of
         // currencies.
-        if (mainFrame != null && mainFrame.getTickerTimerTask2() != null) {
-            TickerTimerTask tickerTimerTask = mainFrame.getTickerTimerTask2();
-            synchronized (tickerTimerTask) {
-                if (tickerTimerTask.getExchange() == null) {
-                    tickerTimerTask.createExchangeObjects(exchangeToUse2);
+        if (mainFrame != null && mainFrame.getTickerFetcher() != null) {
+            ExchangeTicker exchangeTicker = mainFrame.getTickerFetcher().getSecondRowTicker();
+            synchronized (exchangeTicker) {
+                if (exchangeTicker.getExchange() == null) {
+                    exchangeTicker.createExchangeObjects(exchangeToUse2);
                 }
             }
         }
@@ -1558,10 +1558,10 @@ public class ShowPreferencesPanel extends JPanel implements Viewable, Preference
             
             controller.getModel().setUserPreference(ExchangeModel.OPEN_EXCHANGE_RATES_API_CODE, apiCode);
             if (ExchangeData.OPEN_EXCHANGE_RATES_EXCHANGE_NAME.equals((String)exchangeComboBox1.getSelectedItem())) {
-                if (mainFrame != null && mainFrame.getTickerTimerTask1() != null) {
-                    TickerTimerTask tickerTimerTask = mainFrame.getTickerTimerTask1();
-                    synchronized (tickerTimerTask) {
-                        tickerTimerTask.createExchangeObjects(ExchangeData.OPEN_EXCHANGE_RATES_EXCHANGE_NAME);
+                if (mainFrame != null && mainFrame.getTickerFetcher() != null) {
+                    ExchangeTicker exchangeTicker = mainFrame.getTickerFetcher().getFirstRowTicker();
+                    synchronized (exchangeTicker) {
+                        exchangeTicker.createExchangeObjects(ExchangeData.OPEN_EXCHANGE_RATES_EXCHANGE_NAME);
                         currencyComboBox1.removeAllItems();
                         Collection<String> currenciesToUse = ExchangeData.getAvailableCurrenciesForExchange(ExchangeData.OPEN_EXCHANGE_RATES_EXCHANGE_NAME);
                         if (currenciesToUse != null) {
@@ -1579,10 +1579,10 @@ public class ShowPreferencesPanel extends JPanel implements Viewable, Preference
                 oerMessageLabel1.setVisible(false);
             }
             if (ExchangeData.OPEN_EXCHANGE_RATES_EXCHANGE_NAME.equals((String)exchangeComboBox2.getSelectedItem())) {
-                if (mainFrame != null && mainFrame.getTickerTimerTask2() != null) {
-                    TickerTimerTask tickerTimerTask = mainFrame.getTickerTimerTask2();
-                    synchronized (tickerTimerTask) {
-                        tickerTimerTask.createExchangeObjects(ExchangeData.OPEN_EXCHANGE_RATES_EXCHANGE_NAME);
+                if (mainFrame != null && mainFrame.getTickerFetcher() != null) {
+                    ExchangeTicker exchangeTicker = mainFrame.getTickerFetcher().getSecondRowTicker();
+                    synchronized (exchangeTicker) {
+                        exchangeTicker.createExchangeObjects(ExchangeData.OPEN_EXCHANGE_RATES_EXCHANGE_NAME);
                         currencyComboBox2.removeAllItems();
                         Collection<String> currenciesToUse = ExchangeData.getAvailableCurrenciesForExchange(ExchangeData.OPEN_EXCHANGE_RATES_EXCHANGE_NAME);
                         if (currenciesToUse != null) {
@@ -91,6 +91,7 @@ import org.slf4j.LoggerFactory;
 import com.google.bitcoin.core.Transaction;
 import com.google.bitcoin.core.TransactionConfidence;
 import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.Wallet;
 
 public class ShowTransactionsPanel extends JPanel implements Viewable, CurrencyConverterListener {
     private static final long serialVersionUID = 1235108897887842662L;
@@ -144,6 +145,11 @@ public class ShowTransactionsPanel extends JPanel implements Viewable, CurrencyC
     private static Timer updateTransactionsTimer;
 
     private static UpdateTransactionsTimerTask updateTransactionsTimerTask;
+
+    /**
+     * The table model that wallet transaction events are passed on to.
+     */
+    private static WalletTableModel walletTableModelForEvents;
     
     public ShowTransactionsPanel(BitcoinController bitcoinController, MultiBitFrame mainFrame) {
         this.bitcoinController = bitcoinController;
@@ -171,6 +177,16 @@ public class ShowTransactionsPanel extends JPanel implements Viewable, CurrencyC
         }
     }
 
+    /**
+     * A transaction in a wallet has been received, sent or has changed confidence.
+     * Its row is updated the next time the view is displayed.
+     */
+    public static void transactionChanged(Wallet wallet, Transaction transaction) {
+        if (walletTableModelForEvents != null) {
+            walletTableModelForEvents.transactionChanged(wallet, transaction);
+        }
+    }
+
     private void createWalletPanel() {
         setBackground(ColorAndFontConstants.BACKGROUND_COLOR);
         setLayout(new GridBagLayout());
@@ -178,6 +194,7 @@ public class ShowTransactionsPanel extends JPanel implements Viewable, CurrencyC
         GridBagConstraints constraints = new GridBagConstraints();
 
         walletTableModel = new WalletTableModel(this.bitcoinController);
+        walletTableModelForEvents = walletTableModel;
         table = new JTable(walletTableModel);
         table.setOpaque(false);
         table.setBorder(BorderFactory.createEmptyBorder());
@@ -371,7 +388,12 @@ public class ShowTransactionsPanel extends JPanel implements Viewable, CurrencyC
         DecimalAlignRenderer decimalAlignRenderer = new DecimalAlignRenderer();
         table.getColumnModel().getColumn(3).setCellRenderer(decimalAlignRenderer);
 
-        walletTableModel.recreateWalletData();
+        if (DisplayHint.WALLET_TRANSACTIONS_HAVE_CHANGED == displayHint) {
+            // Only the rows of transactions that have changed need updating.
+            walletTableModel.updateWalletData();
+        } else {
+            walletTableModel.recreateWalletData();
+        }
 
         if (selectedRow > -1 && selectedRow < table.getRowCount()) {
             table.setRowSelectionInterval(selectedRow, selectedRow);
@@ -16,6 +16,7 @@
 package org.multibit.crypto;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
@@ -318,4 +319,51 @@ public class KeyCrypterOpenSSLTest extends TestCase {
         }
         return stringBuilder.toString();
     }
+
+    @Test
+    public void testKeyCache() throws Exception {
+        KeyCrypterOpenSSL encrypterDecrypter = new KeyCrypterOpenSSL(1);
+
+        String cipherText = encrypterDecrypter.encrypt(TEST_STRING1, PASSWORD1);
+
+        // The key cached for the salt must not be used for a different password.
+        try {
+            encrypterDecrypter.decrypt(cipherText, WRONG_PASSWORD);
+            fail("Decrypt with wrong password did not throw exception");
+        } catch (KeyCrypterException ede) {
+            assertTrue(ede.getMessage().indexOf("Could not decrypt") > -1);
+        }
+
+        String otherCipherText = encrypterDecrypter.encrypt(TEST_STRING2, PASSWORD3);
+        assertEquals(TEST_STRING2, encrypterDecrypter.decrypt(otherCipherText, PASSWORD3));
+        assertEquals(TEST_STRING1, encrypterDecrypter.decrypt(cipherText, PASSWORD1));
+
+        // Once cleared the keys are derived again.
+        encrypterDecrypter.clearKeyCache();
+        assertEquals(TEST_STRING1, encrypterDecrypter.decrypt(cipherText, PASSWORD1));
+        encrypterDecrypter.clearKeyCache();
+    }
+
+    @Test
+    public void testDecryptStream() throws Exception {
+        KeyCrypterOpenSSL encrypterDecrypter = new KeyCrypterOpenSSL();
+
+        StringBuffer stringBuffer = new StringBuffer();
+        for (int i = 0; i < 100; i++) {
+            stringBuffer.append(i + " ").append(TEST_STRING2).append("\n");
+        }
+        String cipherText = encrypterDecrypter.encrypt(stringBuffer.toString(), PASSWORD2);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(encrypterDecrypter.decrypt(
+                new ByteArrayInputStream(cipherText.getBytes(KeyCrypterOpenSSL.STRING_ENCODING)), PASSWORD2),
+                KeyCrypterOpenSSL.STRING_ENCODING));
+        try {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i + " " + TEST_STRING2, reader.readLine());
+            }
+            assertNull(reader.readLine());
+        } finally {
+            reader.close();
+        }
+    }
 }
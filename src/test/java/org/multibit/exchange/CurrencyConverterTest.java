@@ -60,8 +60,10 @@ public class CurrencyConverterTest extends TestCase {
         // Set and get the exchange rate
         assertNull("Exchange rate was not initially null", converter.getRate());
         
+        int formatVersion = converter.getFormatVersion();
         converter.setRate(BigDecimal.valueOf(5.0));
         assertEquals("Rate not set", BigDecimal.valueOf(5.0), converter.getRate());
+        assertTrue("Format version did not change with the rate", formatVersion != converter.getFormatVersion());
     }
     
     @Test
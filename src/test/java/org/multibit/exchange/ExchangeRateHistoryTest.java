@@ -0,0 +1,95 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.exchange;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.math.BigDecimal;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.joda.money.BigMoney;
+import org.junit.Test;
+
+public class ExchangeRateHistoryTest extends TestCase {
+    private File historyFile;
+
+    @Override
+    public void setUp() throws Exception {
+        historyFile = File.createTempFile("exchangeRateHistoryTest", ".history");
+        historyFile.deleteOnExit();
+        assertTrue(historyFile.delete());
+        ExchangeRateHistory.INSTANCE.initialise(historyFile);
+    }
+
+    @Test
+    public void testQueries() throws Exception {
+        ExchangeRateHistory history = ExchangeRateHistory.INSTANCE;
+        history.add("MtGox", "USD", 1000, BigMoney.parse("USD 100.12345678"), BigMoney.parse("USD 100"), null);
+        history.add("MtGox", "EUR", 1500, BigMoney.parse("EUR 80"), null, null);
+        history.add("MtGox", "USD", 2000, null, BigMoney.parse("USD 101"), null);
+        history.add("MtGox", "USD", 3000, BigMoney.parse("USD 102"), null, null);
+        history.add("MtGox", "USD", 4000, BigMoney.parse("USD 103"), null, null);
+
+        // Older than the latest rate so ignored.
+        history.add("MtGox", "USD", 3500, BigMoney.parse("USD 999"), null, null);
+
+        checkHistory();
+
+        // The history is the same when read back in.
+        history.initialise(historyFile);
+        checkHistory();
+
+        // A partly written record at the end is dropped and the history carries on after the last good record.
+        long goodLength = historyFile.length();
+        FileOutputStream out = new FileOutputStream(historyFile, true);
+        try {
+            out.write(new byte[] { 2, 0, 0, 1, 2, 3 });
+        } finally {
+            out.close();
+        }
+        history.initialise(historyFile);
+        assertEquals(goodLength, historyFile.length());
+        history.add("MtGox", "USD", 5000, BigMoney.parse("USD 104"), null, null);
+        history.initialise(historyFile);
+        checkHistory();
+        assertEquals(0, new BigDecimal("104").compareTo(history.getNearestRate("MtGox", "USD", 6000).getRate()));
+    }
+
+    private void checkHistory() {
+        ExchangeRateHistory history = ExchangeRateHistory.INSTANCE;
+
+        // Rates without a last price are left out.
+        List<ExchangeRate> rates = history.getRates("MtGox", "USD", 1000, 4000);
+        assertEquals(2, rates.size());
+        assertEquals(new BigDecimal("100.12345678"), rates.get(0).getRate());
+        assertEquals(1000, rates.get(0).getRateDate().getTime());
+        assertEquals(3000, rates.get(1).getRateDate().getTime());
+        assertEquals("USD", rates.get(1).getCurrencyUnit().getCurrencyCode());
+
+        assertEquals(1, history.getRates("MtGox", "EUR", 0, Long.MAX_VALUE).size());
+        assertEquals(0, history.getRates("MtGox", "GBP", 0, Long.MAX_VALUE).size());
+        assertEquals(0, history.getRates("BTC-E", "USD", 0, Long.MAX_VALUE).size());
+
+        assertEquals(1000, history.getNearestRate("MtGox", "USD", 0).getRateDate().getTime());
+        assertEquals(1000, history.getNearestRate("MtGox", "USD", 1900).getRateDate().getTime());
+        assertEquals(3000, history.getNearestRate("MtGox", "USD", 2100).getRateDate().getTime());
+        assertEquals(3000, history.getNearestRate("MtGox", "USD", 3400).getRateDate().getTime());
+        assertEquals(0, new BigDecimal("103").compareTo(history.getNearestRate("MtGox", "USD", 3600).getRate()));
+        assertNull(history.getNearestRate("MtGox", "GBP", 1000));
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class BackupCatalogueTest extends TestCase {
+    private File backupDirectory;
+    private File catalogueFile;
+
+    @Override
+    public void setUp() throws Exception {
+        File dataDirectory = File.createTempFile("backupCatalogueTest", BackupManager.TOP_LEVEL_WALLET_BACKUP_SUFFIX);
+        assertTrue(dataDirectory.delete());
+        assertTrue(dataDirectory.mkdir());
+        dataDirectory.deleteOnExit();
+
+        backupDirectory = new File(dataDirectory, BackupManager.ENCRYPTED_WALLET_BACKUP_DIRECTORY_NAME);
+        assertTrue(backupDirectory.mkdir());
+        backupDirectory.deleteOnExit();
+
+        catalogueFile = new File(dataDirectory, BackupManager.ENCRYPTED_WALLET_BACKUP_DIRECTORY_NAME + BackupCatalogue.CATALOGUE_FILE_SUFFIX);
+        catalogueFile.deleteOnExit();
+    }
+
+    @Test
+    public void testCatalogue() throws Exception {
+        createBackup("wallet-20130102030405.wallet", "some bytes");
+        createBackup("wallet-20130101000000.wallet", "some bytes");
+        createBackup("wallet-20130103000000.wallet", "");
+        createBackup("not-a-backup.wallet", "some bytes");
+
+        // The catalogue is built from the directory, oldest first, and empty backups are ignored.
+        BackupCatalogue catalogue = new BackupCatalogue(backupDirectory, catalogueFile);
+        List<BackupCatalogue.Entry> backups = catalogue.getBackups();
+        assertEquals(2, backups.size());
+        assertEquals("wallet-20130101000000.wallet", backups.get(0).getFilename());
+        assertEquals("wallet-20130102030405.wallet", backups.get(1).getFilename());
+        assertEquals(new SimpleDateFormat(BackupManager.BACKUP_SUFFIX_FORMAT).parse("20130102030405").getTime(),
+                backups.get(1).getTimestamp());
+        assertEquals(10, backups.get(1).getSize());
+        assertTrue(catalogueFile.exists());
+
+        // Added and removed backups are written to the catalogue file.
+        File newBackup = createBackup("wallet-20130104000000.wallet", "more bytes");
+        catalogue.add(newBackup, new SimpleDateFormat(BackupManager.BACKUP_SUFFIX_FORMAT).parse("20130104000000").getTime());
+        catalogue.remove(Collections.singletonList(backups.get(0)));
+        catalogue.save();
+
+        backups = new BackupCatalogue(backupDirectory, catalogueFile).getBackups();
+        assertEquals(2, backups.size());
+        assertEquals("wallet-20130102030405.wallet", backups.get(0).getFilename());
+        assertEquals("wallet-20130104000000.wallet", backups.get(1).getFilename());
+    }
+
+    @Test
+    public void testDamagedCatalogueIsRebuilt() throws Exception {
+        createBackup("wallet-20130101000000.wallet", "some bytes");
+
+        FileWriter writer = new FileWriter(catalogueFile);
+        try {
+            writer.write("1 not a number\n");
+        } finally {
+            writer.close();
+        }
+
+        List<BackupCatalogue.Entry> backups = new BackupCatalogue(backupDirectory, catalogueFile).getBackups();
+        assertEquals(1, backups.size());
+        assertEquals("wallet-20130101000000.wallet", backups.get(0).getFilename());
+    }
+
+    private File createBackup(String filename, String contents) throws IOException {
+        File backup = new File(backupDirectory, filename);
+        backup.deleteOnExit();
+        FileWriter writer = new FileWriter(backup);
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+        return backup;
+    }
+}
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -115,6 +116,69 @@ public class BackupManagerTest extends TestCase {
         assertTrue("The wallet after the encrypt save roundtrip has changed", Arrays.areEqual(sourceBytes, decryptedWalletBytes));
     }
     
+    @Test
+    public void testStreamingFileCopyEncryptAndDecrypt() throws IOException {
+        // Make a source file that spans several encryption buffers and does not end on a block boundary.
+        byte[] sourceBytes = new byte[3 * 64 * 1024 + 7];
+        new SecureRandom().nextBytes(sourceBytes);
+        File sourceFile = File.createTempFile(TEST_FILE_COPY_AND_ENCRYPT, ".wallet");
+        sourceFile.deleteOnExit();
+        FileHandler.writeFile(sourceBytes, sourceFile);
+
+        File encryptedFile = new File(sourceFile.getAbsolutePath() + "." + BackupManager.FILE_ENCRYPTED_WALLET_SUFFIX);
+        encryptedFile.deleteOnExit();
+        BackupManager.INSTANCE.copyFileAndEncrypt(sourceFile, encryptedFile, WALLET_PASSWORD);
+
+        byte[] encryptedBytes = FileHandler.read(encryptedFile);
+        assertTrue("The encrypted file does not start with the magic bytes", Arrays.areEqual(BackupManager.ENCRYPTED_FILE_FORMAT_MAGIC_BYTES,
+                Arrays.copyOfRange(encryptedBytes, 0, BackupManager.ENCRYPTED_FILE_FORMAT_MAGIC_BYTES.length)));
+
+        // Decrypt straight to another file.
+        File decryptedFile = new File(sourceFile.getAbsolutePath() + ".decrypted");
+        decryptedFile.deleteOnExit();
+        BackupManager.INSTANCE.copyFileAndDecrypt(encryptedFile, decryptedFile, WALLET_PASSWORD);
+        assertTrue("The file has changed after the streaming encrypt decrypt roundtrip", Arrays.areEqual(sourceBytes, FileHandler.read(decryptedFile)));
+    }
+
+    @Test
+    public void testChooseBackupsToThin() throws IOException {
+        File backupDirectory = createTemporaryDirectory();
+
+        // The first two and last eight are always kept. The ones in between are replaced after these many minutes:
+        // 1, 9, 2, 68.
+        long[] minutes = new long[] {0, 10, 20, 21, 30, 32, 100, 110, 120, 130, 140, 150, 160, 170};
+        List<BackupCatalogue.Entry> backups = new ArrayList<BackupCatalogue.Entry>();
+        for (int i = 0; i < minutes.length; i++) {
+            backups.add(new BackupCatalogue.Entry("thin-" + i + ".wallet", minutes[i] * 60 * 1000, 100));
+        }
+
+        // Once the third backup goes the second is replaced by the fourth 11 minutes later, which is still quicker
+        // than the fifth.
+        List<BackupCatalogue.Entry> backupsToDelete = BackupManager.INSTANCE.chooseBackupsToThin(backupDirectory, backups, 3);
+        assertEquals(3, backupsToDelete.size());
+        assertEquals("thin-2.wallet", backupsToDelete.get(0).getFilename());
+        assertEquals("thin-4.wallet", backupsToDelete.get(1).getFilename());
+        assertEquals("thin-3.wallet", backupsToDelete.get(2).getFilename());
+
+        // Backups with a data directory are never deleted.
+        File dataDirectory = new File(backupDirectory, "thin-4" + BackupManager.TOP_LEVEL_WALLET_BACKUP_SUFFIX);
+        assertTrue(dataDirectory.mkdir());
+        dataDirectory.deleteOnExit();
+        backupsToDelete = BackupManager.INSTANCE.chooseBackupsToThin(backupDirectory, backups, 10);
+        assertEquals(3, backupsToDelete.size());
+        assertEquals("thin-2.wallet", backupsToDelete.get(0).getFilename());
+        assertEquals("thin-3.wallet", backupsToDelete.get(1).getFilename());
+        assertEquals("thin-5.wallet", backupsToDelete.get(2).getFilename());
+    }
+
+    private File createTemporaryDirectory() throws IOException {
+        File directory = File.createTempFile("backupManagerTest", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        directory.deleteOnExit();
+        return directory;
+    }
+
     @Test
     public void checkSaltAndIVLength() {
         // If something changes in the KeyCrypterScrypt it would cause backwards compatibility problems reading and writing
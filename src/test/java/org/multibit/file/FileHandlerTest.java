@@ -33,6 +33,7 @@ import org.junit.Test;
 import org.multibit.Constants;
 import org.multibit.CreateControllers;
 import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.model.bitcoin.BitcoinModel;
 import org.multibit.model.bitcoin.WalletData;
 import org.multibit.model.bitcoin.WalletInfoData;
 import org.multibit.store.MultiBitWalletVersion;
@@ -62,6 +63,8 @@ public class FileHandlerTest extends TestCase {
     private static final String TEST_WALLET_VERSION_2_PREFIX = "testWalletVersion";
 
     private static final String TEST_SCRYPT_PARAMETERS = "testScryptParameters";
+
+    private static final String TEST_BACKGROUND_SAVE_PREFIX = "testBackgroundSave";
     
     private final CharSequence WALLET_PASSWORD = "horatio nelson 123";
 
@@ -356,6 +359,62 @@ public class FileHandlerTest extends TestCase {
         deleteWalletAndCheckDeleted(perWalletModelDataReborn, newWalletFile, walletInfoFile);
     }
     
+    @Test
+    public void testBackgroundSaveOfDirtyWallet() throws IOException {
+        File temporaryWallet = File.createTempFile(TEST_BACKGROUND_SAVE_PREFIX, ".wallet");
+        temporaryWallet.deleteOnExit();
+
+        String newWalletFilename = temporaryWallet.getAbsolutePath();
+
+        Wallet newWallet = new Wallet(NetworkParameters.prodNet());
+        newWallet.getKeychain().add(new ECKey());
+        WalletData perWalletModelData = new WalletData();
+        WalletInfoData walletInfo = new WalletInfoData(newWalletFilename, newWallet, MultiBitWalletVersion.PROTOBUF);
+
+        perWalletModelData.setWalletInfo(walletInfo);
+        perWalletModelData.setWallet(newWallet);
+        perWalletModelData.setWalletFilename(newWalletFilename);
+        perWalletModelData.setWalletDescription(TEST_BACKGROUND_SAVE_PREFIX);
+
+        controller.getFileHandler().savePerWalletModelData(perWalletModelData, true);
+        String firstBackupFilename = walletInfo.getProperty(BitcoinModel.WALLET_BACKUP_FILE);
+
+        // Mark the saved wallet so that it can be recognised in the rolling backup.
+        long savedWalletLastModified = 1360000000000L;
+        assertTrue(new File(newWalletFilename).setLastModified(savedWalletLastModified));
+        long savedWalletLength = new File(newWalletFilename).length();
+
+        // Add a key and ask for the wallet to be saved several times - the requests are coalesced.
+        newWallet.getKeychain().add(new ECKey());
+        perWalletModelData.setDirty(true);
+        WalletSaveService walletSaveService = controller.getFileHandler().getWalletSaveService();
+        walletSaveService.requestSave(perWalletModelData);
+        walletSaveService.requestSave(perWalletModelData);
+        assertTrue("The wallet was not saved in time", walletSaveService.waitUntilSaved(10000));
+        assertFalse(walletSaveService.isSaving());
+        assertFalse(perWalletModelData.isDirty());
+
+        // The new wallet replaced the old one, which was renamed into the rolling backup rather than copied.
+        File newWalletFile = new File(newWalletFilename);
+        assertFalse(new File(newWalletFilename + FileHandler.TEMPORARY_FILE_SUFFIX).exists());
+        String secondBackupFilename = walletInfo.getProperty(BitcoinModel.WALLET_BACKUP_FILE);
+        assertNotNull(secondBackupFilename);
+        assertTrue(new File(secondBackupFilename).exists());
+        assertEquals(savedWalletLastModified, new File(secondBackupFilename).lastModified());
+        assertEquals(savedWalletLength, new File(secondBackupFilename).length());
+        if (firstBackupFilename != null && !firstBackupFilename.equals(secondBackupFilename)) {
+            assertTrue(FileShredder.INSTANCE.waitUntilShredded(10000));
+            assertFalse(new File(firstBackupFilename).exists());
+        }
+
+        WalletData perWalletModelDataReborn = fileHandler.loadFromFile(newWalletFile);
+        assertNotNull(perWalletModelDataReborn);
+        assertEquals(2, perWalletModelDataReborn.getWallet().getKeychain().size());
+
+        File walletInfoFile = new File(WalletInfoData.createWalletInfoFilename(newWalletFilename));
+        deleteWalletAndCheckDeleted(perWalletModelDataReborn, newWalletFile, walletInfoFile);
+    }
+
     private void deleteWalletAndCheckDeleted(WalletData perWalletModelData, File walletFile, File walletInfoFile) {
         // Delete wallet and check it is deleted.
         fileHandler.deleteWalletAndWalletInfo(perWalletModelData);
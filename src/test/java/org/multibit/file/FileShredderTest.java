@@ -0,0 +1,77 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class FileShredderTest extends TestCase {
+    @Test
+    public void testShred() throws Exception {
+        // Larger than one gathering write and not a whole number of buffers.
+        File file = createFile(FileShredder.SHRED_BUFFER_SIZE * 20 + 123);
+        FileShredder.INSTANCE.shred(file);
+        assertFalse(file.exists());
+
+        // Shredding a file that is not there does nothing.
+        FileShredder.INSTANCE.shred(file);
+        FileShredder.INSTANCE.shred(null);
+    }
+
+    @Test
+    public void testShredLater() throws Exception {
+        final List<File> files = new ArrayList<File>();
+        files.add(createFile(0));
+        files.add(createFile(1));
+        files.add(createFile(FileShredder.SHRED_BUFFER_SIZE + 1));
+
+        final boolean[] filesWereGone = new boolean[1];
+        FileShredder.INSTANCE.shredLater(files, new Runnable() {
+            @Override
+            public void run() {
+                filesWereGone[0] = true;
+                for (File file : files) {
+                    filesWereGone[0] = filesWereGone[0] && !file.exists();
+                }
+            }
+        });
+        File last = createFile(10);
+        FileShredder.INSTANCE.shredLater(last);
+
+        assertTrue(FileShredder.INSTANCE.waitUntilShredded(10000));
+        assertTrue(filesWereGone[0]);
+        assertFalse(last.exists());
+    }
+
+    private File createFile(int length) throws IOException {
+        File file = File.createTempFile("fileShredderTest", ".wallet");
+        file.deleteOnExit();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[length]);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+}
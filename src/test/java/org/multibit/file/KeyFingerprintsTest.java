@@ -0,0 +1,80 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.spongycastle.asn1.sec.SECNamedCurves;
+import org.spongycastle.math.ec.ECPoint;
+
+import com.google.bitcoin.core.ECKey;
+
+public class KeyFingerprintsTest extends TestCase {
+    @Test
+    public void testContainsAndAdd() throws Exception {
+        List<ECKey> walletKeys = new ArrayList<ECKey>();
+        ECKey walletKey = new ECKey();
+        walletKeys.add(walletKey);
+        walletKeys.add(new ECKey());
+
+        KeyFingerprints keyFingerprints = new KeyFingerprints(walletKeys);
+        assertEquals(2, keyFingerprints.size());
+
+        // The same private key in a different ECKey is found.
+        ECKey sameKey = new ECKey(walletKey.getPrivKeyBytes(), walletKey.getPubKey());
+        assertTrue(keyFingerprints.contains(sameKey));
+        assertFalse(keyFingerprints.add(sameKey));
+
+        ECKey newKey = new ECKey();
+        assertFalse(keyFingerprints.contains(newKey));
+        assertTrue(keyFingerprints.add(newKey));
+        assertTrue(keyFingerprints.contains(newKey));
+        assertFalse(keyFingerprints.add(newKey));
+        assertEquals(3, keyFingerprints.size());
+
+        assertFalse(keyFingerprints.contains(null));
+        assertFalse(keyFingerprints.add(null));
+    }
+
+    @Test
+    public void testCompressedAndUncompressedAreTheSameKey() throws Exception {
+        ECKey walletKey = new ECKey();
+        ECPoint point = SECNamedCurves.getByName("secp256k1").getCurve().decodePoint(walletKey.getPubKey());
+        byte[] compressedPubKey = new ECPoint.Fp(point.getCurve(), point.getX(), point.getY(), true).getEncoded();
+        byte[] uncompressedPubKey = new ECPoint.Fp(point.getCurve(), point.getX(), point.getY(), false).getEncoded();
+        assertEquals(33, compressedPubKey.length);
+        assertEquals(65, uncompressedPubKey.length);
+
+        ECKey compressedKey = new ECKey(walletKey.getPrivKeyBytes(), compressedPubKey);
+        ECKey uncompressedKey = new ECKey(walletKey.getPrivKeyBytes(), uncompressedPubKey);
+
+        KeyFingerprints keyFingerprints = new KeyFingerprints(Collections.singletonList(compressedKey));
+        assertTrue(keyFingerprints.contains(uncompressedKey));
+        assertFalse(keyFingerprints.add(uncompressedKey));
+        assertEquals(1, keyFingerprints.size());
+
+        keyFingerprints = new KeyFingerprints(Collections.singletonList(uncompressedKey));
+        assertTrue(keyFingerprints.contains(compressedKey));
+        assertTrue(Arrays.equals(compressedPubKey, KeyFingerprints.compress(uncompressedPubKey)));
+        assertTrue(Arrays.equals(compressedPubKey, KeyFingerprints.compress(compressedPubKey)));
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Utils;
+
+public class KeyUsageIndexTest extends TestCase {
+    private static final Date FIRST_DATE = new Date(1360000000000L);
+    private static final Date SECOND_DATE = new Date(1361000000000L);
+    private static final Date THIRD_DATE = new Date(1362000000000L);
+
+    private NetworkParameters networkParameters;
+
+    @Override
+    public void setUp() throws Exception {
+        networkParameters = NetworkParameters.prodNet();
+    }
+
+    @Test
+    public void testUsageDates() throws Exception {
+        ECKey spentKey = new ECKey();
+        ECKey receivingKey = new ECKey();
+        ECKey changeKey = new ECKey();
+        ECKey unusedKey = new ECKey();
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        // The spending transaction is seen before the transactions paying to the key.
+        Transaction spend = createTransaction(THIRD_DATE, changeKey);
+        spend.addInput(new TransactionInput(networkParameters, spend, createInputScript(spentKey)));
+        transactions.add(spend);
+        transactions.add(createTransaction(SECOND_DATE, receivingKey));
+        transactions.add(createTransaction(FIRST_DATE, spentKey));
+
+        KeyUsageIndex keyUsageIndex = new KeyUsageIndex(transactions);
+
+        // Paid to in an output and then spent in an input.
+        assertEquals(FIRST_DATE, keyUsageIndex.getEarliestUsageDate(spentKey));
+        assertEquals(THIRD_DATE, keyUsageIndex.getLatestUsageDate(spentKey));
+
+        // Only paid to in an output.
+        assertEquals(SECOND_DATE, keyUsageIndex.getEarliestUsageDate(receivingKey));
+        assertEquals(SECOND_DATE, keyUsageIndex.getLatestUsageDate(receivingKey));
+        assertEquals(THIRD_DATE, keyUsageIndex.getEarliestUsageDate(changeKey));
+
+        // Never used.
+        assertNull(keyUsageIndex.getEarliestUsageDate(unusedKey));
+        assertNull(keyUsageIndex.getLatestUsageDate(unusedKey));
+        assertNull(keyUsageIndex.getEarliestUsageDate(null));
+    }
+
+    @Test
+    public void testNoTransactions() throws Exception {
+        KeyUsageIndex keyUsageIndex = new KeyUsageIndex(null);
+        assertNull(keyUsageIndex.getEarliestUsageDate(new ECKey()));
+        assertNull(keyUsageIndex.getLatestUsageDate(new ECKey()));
+    }
+
+    private Transaction createTransaction(Date updateTime, ECKey to) {
+        Transaction transaction = new Transaction(networkParameters);
+        transaction.addOutput(new TransactionOutput(networkParameters, transaction, Utils.toNanoCoins(1, 0), to
+                .toAddress(networkParameters)));
+        transaction.setUpdateTime(updateTime);
+        return transaction;
+    }
+
+    /**
+     * @return a signature script of a dummy signature and the key's pubkey
+     */
+    private byte[] createInputScript(ECKey ecKey) {
+        byte[] signature = new byte[71];
+        Arrays.fill(signature, (byte) 1);
+        byte[] pubkey = ecKey.getPubKey();
+
+        ByteArrayOutputStream script = new ByteArrayOutputStream();
+        script.write(signature.length);
+        script.write(signature, 0, signature.length);
+        script.write(pubkey.length);
+        script.write(pubkey, 0, pubkey.length);
+        return script.toByteArray();
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.multibit.CreateControllers;
+import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.model.bitcoin.WalletData;
+import org.multibit.model.bitcoin.WalletInfoData;
+import org.multibit.store.MultiBitWalletVersion;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Wallet;
+
+public class NioWalletFileWatcherTest extends TestCase {
+    private static final String TEST_WATCHED_WALLET_PREFIX = "testWatchedWallet";
+
+    private static final long CHANGE_TIMEOUT = 20000; // milliseconds
+
+    @Test
+    public void testChangeByAnotherProcessIsPickedUp() throws Exception {
+        BitcoinController controller = CreateControllers.createControllers().bitcoinController;
+        FileHandler fileHandler = controller.getFileHandler();
+
+        // The tests run on Java 7 or later so the file handler watches the wallet files.
+        WalletFileWatcher walletFileWatcher = fileHandler.getWalletFileWatcher();
+        assertTrue(walletFileWatcher instanceof NioWalletFileWatcher);
+        walletFileWatcher.start();
+        try {
+            File walletDirectory = FileHandler.createTempDirectory(TEST_WATCHED_WALLET_PREFIX);
+            String walletFilename = walletDirectory.getAbsolutePath() + File.separator + TEST_WATCHED_WALLET_PREFIX
+                    + ".wallet";
+
+            Wallet wallet = new Wallet(NetworkParameters.prodNet());
+            wallet.addKey(new ECKey());
+            WalletData perWalletModelData = new WalletData();
+            perWalletModelData.setWalletInfo(new WalletInfoData(walletFilename, wallet, MultiBitWalletVersion.PROTOBUF));
+            perWalletModelData.setWallet(wallet);
+            perWalletModelData.setWalletFilename(walletFilename);
+            perWalletModelData.setWalletDescription(TEST_WATCHED_WALLET_PREFIX);
+            fileHandler.savePerWalletModelData(perWalletModelData, true);
+
+            // Loading the wallet puts it in the model and watches its directory.
+            WalletData loadedPerWalletModelData = fileHandler.loadFromFile(new File(walletFilename));
+            assertTrue(fileHandler.isWatchingWalletFiles());
+            assertFalse(loadedPerWalletModelData.isFilesHaveBeenChangedByAnotherProcess());
+
+            // Another process adds to the wallet info file. Nothing polls the wallets in this test.
+            FileOutputStream walletInfoOutputStream = new FileOutputStream(
+                    WalletInfoData.createWalletInfoFilename(walletFilename), true);
+            try {
+                walletInfoOutputStream.write("# Changed by another process\n".getBytes("UTF-8"));
+            } finally {
+                walletInfoOutputStream.close();
+            }
+
+            long giveUpTime = System.currentTimeMillis() + CHANGE_TIMEOUT;
+            while (!loadedPerWalletModelData.isFilesHaveBeenChangedByAnotherProcess()
+                    && System.currentTimeMillis() < giveUpTime) {
+                Thread.sleep(100);
+            }
+            assertTrue("The change to the wallet info file was not picked up",
+                    loadedPerWalletModelData.isFilesHaveBeenChangedByAnotherProcess());
+        } finally {
+            walletFileWatcher.stop();
+        }
+        assertFalse(fileHandler.isWatchingWalletFiles());
+    }
+}
@@ -20,9 +20,12 @@ package org.multibit.file;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import junit.framework.TestCase;
 import org.junit.Test;
@@ -30,12 +33,14 @@ import org.junit.Test;
 import org.multibit.Constants;
 import org.multibit.CreateControllers;
 import org.multibit.controller.bitcoin.BitcoinController;
+import org.multibit.crypto.KeyCrypterOpenSSL;
 
 import com.piuk.blockchain.MyWallet;
 
 import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.core.ECKey;
 import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.crypto.KeyCrypterException;
 
 
 
@@ -125,6 +130,75 @@ public class PrivateKeysHandlerTest extends TestCase {
         }
     }
 
+    @Test
+    public void testStreamingImportOfEncryptedFile() throws Exception {
+        final NetworkParameters prodNet = NetworkParameters.prodNet();
+        PrivateKeysHandler privateKeysHandler = new PrivateKeysHandler(prodNet);
+
+        File directory = new File(".");
+        String currentPath = directory.getAbsolutePath();
+
+        String testDirectory = currentPath + File.separator + Constants.TESTDATA_DIRECTORY + File.separator
+                + PRIVATE_KEYS_TESTDATA_DIRECTORY;
+        String expectedPrivateKeysFile = testDirectory + File.separator + EXPECTED_TEST1_PRIVATE_KEYS_FILE;
+
+        // Encrypt the expected private keys into a temporary file.
+        File encryptedPrivateKeysFile = File.createTempFile("streamingImport", ".key");
+        encryptedPrivateKeysFile.deleteOnExit();
+        String encryptedText = new KeyCrypterOpenSSL().encrypt(readFile(new File(expectedPrivateKeysFile)), ENCRYPTED_TEST1_PASSWORD);
+        FileWriter writer = new FileWriter(encryptedPrivateKeysFile);
+        try {
+            writer.write(encryptedText);
+        } finally {
+            writer.close();
+        }
+
+        final List<String> addresses = new ArrayList<String>();
+        privateKeysHandler.readInPrivateKeys(encryptedPrivateKeysFile, ENCRYPTED_TEST1_PASSWORD, new PrivateKeyAndDateListener() {
+            @Override
+            public void onPrivateKeyAndDate(PrivateKeyAndDate privateKeyAndDate) {
+                addresses.add(privateKeyAndDate.getKey().toAddress(prodNet).toString());
+            }
+        });
+        assertEquals(Arrays.asList(EXPECTED_ADDRESSES_FOR_TEST1_WALLET), addresses);
+
+        // The wrong password is reported as a decryption failure, not as a badly formed key.
+        try {
+            privateKeysHandler.readInPrivateKeys(encryptedPrivateKeysFile, "this is the wrong password");
+            fail("An encrypted private key file was read in with the wrong password");
+        } catch (KeyCrypterException kce) {
+            assertTrue(kce.getMessage().indexOf("Could not decrypt input string") > -1);
+        }
+    }
+
+    @Test
+    public void testParseLine() throws Exception {
+        NetworkParameters prodNet = NetworkParameters.prodNet();
+        PrivateKeysHandler privateKeysHandler = new PrivateKeysHandler(prodNet);
+
+        ECKey key = new ECKey();
+        String sipaKey = key.getPrivateKeyEncoded(prodNet).toString();
+
+        assertNull(privateKeysHandler.parseLine(""));
+        assertNull(privateKeysHandler.parseLine(" \t "));
+        assertNull(privateKeysHandler.parseLine("# " + sipaKey));
+
+        PrivateKeyAndDate noDate = privateKeysHandler.parseLine("  " + sipaKey + "\t ");
+        assertEquals(key.toAddress(prodNet), noDate.getKey().toAddress(prodNet));
+        assertNull(noDate.getDate());
+
+        PrivateKeyAndDate withDate = privateKeysHandler.parseLine(sipaKey + " \t2012-06-10T18:35:00Z");
+        assertEquals(key.toAddress(prodNet), withDate.getKey().toAddress(prodNet));
+        assertEquals(1339353300000L, withDate.getDate().getTime());
+
+        try {
+            privateKeysHandler.parseLine(sipaKey + " not-a-date");
+            fail("A badly formed date was parsed");
+        } catch (PrivateKeysHandlerException pkhe) {
+            // Expected.
+        }
+    }
+
     @Test
     public void testMyWalletImportNoEncryption() throws Exception {
         NetworkParameters prodNet = NetworkParameters.prodNet();
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.bitcoin;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class BalanceSeriesTest extends TestCase {
+    @Test
+    public void testRunningBalance() throws Exception {
+        BalanceSeries balanceSeries = new BalanceSeries();
+        balanceSeries.clear();
+
+        // Out of order, and a duplicate.
+        balanceSeries.add("a", 100, 50);
+        balanceSeries.add("c", 300, -20);
+        balanceSeries.add("b", 200, 10);
+        balanceSeries.add("b", 200, 10);
+
+        List<BalanceSeries.Point> points = balanceSeries.getPoints(null, 0, 1000, 1000);
+        assertEquals(0, points.get(0).getTime());
+        assertEquals(0, points.get(0).getBalance());
+
+        // Each transaction is a step from the balance before it to the balance after it.
+        assertPoint(points.get(1), 100, 0);
+        assertPoint(points.get(2), 100, 50);
+        assertPoint(points.get(3), 200, 50);
+        assertPoint(points.get(4), 200, 60);
+        assertPoint(points.get(5), 300, 60);
+        assertPoint(points.get(6), 300, 40);
+        assertPoint(points.get(7), 1000, 40);
+        assertEquals(8, points.size());
+
+        // A range that starts part way through.
+        points = balanceSeries.getPoints(null, 150, 250, 10);
+        assertPoint(points.get(0), 150, 50);
+        assertPoint(points.get(points.size() - 1), 250, 60);
+    }
+
+    @Test
+    public void testDownsampling() throws Exception {
+        BalanceSeries balanceSeries = new BalanceSeries();
+        balanceSeries.clear();
+
+        for (int i = 0; i < 10000; i++) {
+            balanceSeries.add("tx" + i, i, i == 5000 ? 1000000 : (i % 2 == 0 ? 10 : -10));
+        }
+        int numberOfBuckets = 100;
+        List<BalanceSeries.Point> points = balanceSeries.getPoints(null, 0, 10000, numberOfBuckets);
+        assertTrue(points.size() <= numberOfBuckets * BalanceSeries.MAXIMUM_POINTS_PER_BUCKET + 2);
+
+        // The peak is kept.
+        long highest = 0;
+        for (BalanceSeries.Point point : points) {
+            highest = Math.max(highest, point.getBalance());
+        }
+        assertEquals(1000000, highest);
+        assertEquals(999990, points.get(points.size() - 1).getBalance());
+    }
+
+    @Test
+    public void testVersion() throws Exception {
+        BalanceSeries balanceSeries = new BalanceSeries();
+        balanceSeries.clear();
+        int version = balanceSeries.getVersion();
+
+        balanceSeries.add("a", 100, 50);
+        assertTrue(version != balanceSeries.getVersion());
+
+        version = balanceSeries.getVersion();
+        balanceSeries.getPoints(null, 0, 1000, 10);
+        assertEquals(version, balanceSeries.getVersion());
+
+        balanceSeries.invalidate();
+        assertTrue(version != balanceSeries.getVersion());
+    }
+
+    private void assertPoint(BalanceSeries.Point point, long time, long balance) {
+        assertEquals(time, point.getTime());
+        assertEquals(balance, point.getBalance());
+    }
+}
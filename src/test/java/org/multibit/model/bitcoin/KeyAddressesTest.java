@@ -0,0 +1,52 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.bitcoin;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Wallet;
+
+public class KeyAddressesTest extends TestCase {
+    @Test
+    public void testKeysAddedLater() throws Exception {
+        NetworkParameters networkParameters = NetworkParameters.prodNet();
+        Wallet wallet = new Wallet(networkParameters);
+        ECKey firstKey = new ECKey();
+        wallet.addKey(firstKey);
+
+        KeyAddresses keyAddresses = new KeyAddresses(wallet, networkParameters);
+        assertTrue(keyAddresses.contains(firstKey.toAddress(networkParameters).toString()));
+
+        ECKey secondKey = new ECKey();
+        assertFalse(keyAddresses.contains(secondKey.toAddress(networkParameters).toString()));
+
+        // Lookups do not go back to the wallet.
+        wallet.addKey(secondKey);
+        assertFalse(keyAddresses.contains(secondKey.toAddress(networkParameters).toString()));
+
+        assertTrue(keyAddresses.update());
+        assertFalse(keyAddresses.update());
+        assertTrue(keyAddresses.contains(secondKey.toAddress(networkParameters).toString()));
+        assertTrue(keyAddresses.contains(firstKey.toAddress(networkParameters).toString()));
+
+        assertFalse(keyAddresses.contains(null));
+        assertFalse(keyAddresses.contains("1K9A6xh9wGZD1xNLBdxUSFNxtRFUsw5Z4n"));
+    }
+}
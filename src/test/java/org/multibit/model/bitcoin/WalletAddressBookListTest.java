@@ -0,0 +1,77 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.bitcoin;
+
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class WalletAddressBookListTest extends TestCase {
+    private static final String ADDRESS_1 = "1NzESHfiazCbxwhTCg2jiTWcZgpSMKDKhy";
+    private static final String ADDRESS_2 = "1K9A6xh9wGZD1xNLBdxUSFNxtRFUsw5Z4n";
+
+    @Test
+    public void testLookup() throws Exception {
+        WalletAddressBookList addressBook = new WalletAddressBookList();
+        assertNull(addressBook.get(ADDRESS_1));
+
+        WalletAddressBookData first = new WalletAddressBookData("first", ADDRESS_1);
+        addressBook.add(first);
+        addressBook.add(new WalletAddressBookData("second", ADDRESS_2));
+        addressBook.add(new WalletAddressBookData("duplicate", ADDRESS_1));
+        addressBook.add(new WalletAddressBookData("no address", null));
+
+        // The first entry for an address is found.
+        assertTrue(first == addressBook.get(ADDRESS_1));
+        assertEquals("second", addressBook.get(ADDRESS_2).getLabel());
+        assertFalse(addressBook.containsAddress(null));
+        assertFalse(addressBook.containsAddress("1AddressThatIsNotThere"));
+        assertEquals(4, addressBook.size());
+    }
+
+    @Test
+    public void testChangesMadeDirectlyToTheList() throws Exception {
+        WalletAddressBookList addressBook = new WalletAddressBookList();
+        WalletAddressBookData first = new WalletAddressBookData("first", ADDRESS_1);
+        addressBook.add(first);
+        addressBook.add(new WalletAddressBookData("second", ADDRESS_2));
+        assertTrue(addressBook.containsAddress(ADDRESS_1));
+
+        int version = addressBook.getVersion();
+        addressBook.get(0).setLabel("relabelled");
+        assertEquals(version, addressBook.getVersion());
+
+        addressBook.remove(first);
+        assertFalse(addressBook.containsAddress(ADDRESS_1));
+
+        version = addressBook.getVersion();
+        addressBook.set(0, new WalletAddressBookData("replaced", ADDRESS_1));
+        assertTrue(version != addressBook.getVersion());
+        assertEquals("replaced", addressBook.get(ADDRESS_1).getLabel());
+        assertFalse(addressBook.containsAddress(ADDRESS_2));
+
+        Iterator<WalletAddressBookData> iterator = addressBook.iterator();
+        iterator.next();
+        iterator.remove();
+        assertFalse(addressBook.containsAddress(ADDRESS_1));
+
+        addressBook.add(first);
+        addressBook.clear();
+        assertFalse(addressBook.containsAddress(ADDRESS_1));
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.bitcoin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class WalletInfoFileTest extends TestCase {
+    private static final String ADDRESS_1 = "1NzESHfiazCbxwhTCg2jiTWcZgpSMKDKhy";
+    private static final String ADDRESS_2 = "1K9A6xh9wGZD1xNLBdxUSFNxtRFUsw5Z4n";
+    private static final String ADDRESS_3 = "1Bbn8bJqxTQW1GdfEx5V8ttDFNqVbbsFsb";
+
+    private File file;
+
+    @Override
+    public void setUp() throws Exception {
+        file = File.createTempFile("walletInfoFileTest", ".info");
+        file.deleteOnExit();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        WalletInfoFile.Contents contents = createContents();
+        new WalletInfoFile().write(file, contents);
+        assertTrue(WalletInfoFile.isBinary(file));
+
+        WalletInfoFile.Contents reborn = new WalletInfoFile().read(file);
+        assertEquals("3", reborn.getWalletVersion());
+        assertEquals(Arrays.asList(ADDRESS_2, ADDRESS_1), new ArrayList<String>(reborn.getReceivingAddresses().keySet()));
+        assertEquals("label with, comma\nand return", reborn.getReceivingAddresses().get(ADDRESS_2));
+        assertEquals("", reborn.getSendingAddresses().get(ADDRESS_3));
+        assertEquals("aValue", reborn.getProperties().get("aProperty"));
+    }
+
+    @Test
+    public void testChangesAreAppended() throws Exception {
+        WalletInfoFile walletInfoFile = new WalletInfoFile();
+        walletInfoFile.write(file, createContents());
+        long compactedLength = file.length();
+
+        // Change a label, remove an address, add an address and change a property.
+        WalletInfoFile.Contents contents = createContents();
+        contents.getReceivingAddresses().put(ADDRESS_2, "new label");
+        contents.getReceivingAddresses().remove(ADDRESS_1);
+        contents.getReceivingAddresses().put(ADDRESS_3, "added");
+        contents.getProperties().put("aProperty", "anotherValue");
+        walletInfoFile.write(file, contents);
+        assertTrue(file.length() > compactedLength);
+        assertTrue(file.length() < 2 * compactedLength);
+
+        // Writing the same again does not touch the file.
+        long appendedLength = file.length();
+        walletInfoFile.write(file, copyOf(contents));
+        assertEquals(appendedLength, file.length());
+
+        WalletInfoFile.Contents reborn = new WalletInfoFile().read(file);
+        assertEquals(Arrays.asList(ADDRESS_2, ADDRESS_3), new ArrayList<String>(reborn.getReceivingAddresses().keySet()));
+        assertEquals("new label", reborn.getReceivingAddresses().get(ADDRESS_2));
+        assertEquals("anotherValue", reborn.getProperties().get("aProperty"));
+    }
+
+    @Test
+    public void testCopiesDoNotStopChangesBeingAppended() throws Exception {
+        File copy = File.createTempFile("walletInfoFileTest", ".info");
+        copy.deleteOnExit();
+
+        WalletInfoFile walletInfoFile = new WalletInfoFile();
+        walletInfoFile.write(file, createContents());
+        long compactedLength = file.length();
+
+        // Back up the wallet info.
+        WalletInfoFile.writeCopy(copy, createContents());
+        assertEquals(compactedLength, copy.length());
+
+        // The next save still appends to the file rather than compacting it.
+        WalletInfoFile.Contents contents = createContents();
+        contents.getProperties().put("aProperty", "anotherValue");
+        walletInfoFile.write(file, contents);
+        assertTrue(file.length() > compactedLength);
+        assertEquals("anotherValue", new WalletInfoFile().read(file).getProperties().get("aProperty"));
+        assertEquals("aValue", new WalletInfoFile().read(copy).getProperties().get("aProperty"));
+    }
+
+    @Test
+    public void testReorderingCompacts() throws Exception {
+        WalletInfoFile walletInfoFile = new WalletInfoFile();
+        walletInfoFile.write(file, createContents());
+        long compactedLength = file.length();
+
+        WalletInfoFile.Contents contents = createContents();
+        contents.getReceivingAddresses().clear();
+        contents.getReceivingAddresses().put(ADDRESS_1, "");
+        contents.getReceivingAddresses().put(ADDRESS_2, "label with, comma\nand return");
+        walletInfoFile.write(file, contents);
+        assertEquals(compactedLength, file.length());
+
+        WalletInfoFile.Contents reborn = new WalletInfoFile().read(file);
+        assertEquals(Arrays.asList(ADDRESS_1, ADDRESS_2), new ArrayList<String>(reborn.getReceivingAddresses().keySet()));
+    }
+
+    @Test
+    public void testManyChangesCompact() throws Exception {
+        WalletInfoFile walletInfoFile = new WalletInfoFile();
+        walletInfoFile.write(file, createContents());
+        long compactedLength = file.length();
+
+        for (int i = 0; i <= WalletInfoFile.MINIMUM_CHANGES_BEFORE_COMPACTION; i++) {
+            WalletInfoFile.Contents contents = createContents();
+            contents.getProperties().put("aProperty", "value" + i);
+            walletInfoFile.write(file, contents);
+        }
+        assertTrue(file.length() < compactedLength + 20);
+        assertEquals("value" + WalletInfoFile.MINIMUM_CHANGES_BEFORE_COMPACTION, new WalletInfoFile().read(file)
+                .getProperties().get("aProperty"));
+    }
+
+    @Test
+    public void testIncompleteSaveIsIgnored() throws Exception {
+        WalletInfoFile walletInfoFile = new WalletInfoFile();
+        walletInfoFile.write(file, createContents());
+        long compactedLength = file.length();
+
+        WalletInfoFile.Contents contents = createContents();
+        contents.getProperties().put("aProperty", "anotherValue");
+        walletInfoFile.write(file, contents);
+
+        // Cut the appended changes short.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(file.length() - 3);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        WalletInfoFile rebornWalletInfoFile = new WalletInfoFile();
+        assertEquals("aValue", rebornWalletInfoFile.read(file).getProperties().get("aProperty"));
+
+        // The next save rewrites the file.
+        rebornWalletInfoFile.write(file, copyOf(contents));
+        assertEquals(compactedLength + "anotherValue".length() - "aValue".length(), file.length());
+        assertEquals("anotherValue", new WalletInfoFile().read(file).getProperties().get("aProperty"));
+    }
+
+    @Test
+    public void testTextFileIsNotBinary() throws Exception {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write("multiBit.info,1\nwalletVersion,3\n".getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        assertFalse(WalletInfoFile.isBinary(file));
+    }
+
+    private WalletInfoFile.Contents createContents() {
+        WalletInfoFile.Contents contents = new WalletInfoFile.Contents();
+        contents.setWalletVersion("3");
+        contents.getReceivingAddresses().put(ADDRESS_2, "label with, comma\nand return");
+        contents.getReceivingAddresses().put(ADDRESS_1, "");
+        contents.getSendingAddresses().put(ADDRESS_3, "");
+        contents.getProperties().put("aProperty", "aValue");
+        return contents;
+    }
+
+    private WalletInfoFile.Contents copyOf(WalletInfoFile.Contents contents) {
+        WalletInfoFile.Contents copy = new WalletInfoFile.Contents();
+        copy.setWalletVersion(contents.getWalletVersion());
+        copy.getReceivingAddresses().putAll(contents.getReceivingAddresses());
+        copy.getSendingAddresses().putAll(contents.getSendingAddresses());
+        copy.getProperties().putAll(contents.getProperties());
+        return copy;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2013 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.multibit.model.exchange;
+
+import junit.framework.TestCase;
+
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
+import org.junit.Test;
+
+public class ExchangeDataTest extends TestCase {
+    @Test
+    public void testRates() {
+        ExchangeData exchangeData = new ExchangeData();
+        assertEquals(ExchangeData.DO_NOT_KNOW, exchangeData.getLastPrice("USD"));
+        assertEquals(ExchangeData.DO_NOT_KNOW, exchangeData.getLastBid("USD"));
+        assertEquals(ExchangeData.DO_NOT_KNOW, exchangeData.getLastAsk("USD"));
+        assertEquals(ExchangeData.DO_NOT_KNOW, exchangeData.getLastPrice(null));
+
+        BigMoney last = BigMoney.parse("USD 100.5");
+        BigMoney bid = BigMoney.parse("USD 100.25");
+        BigMoney ask = BigMoney.parse("USD 100.75");
+        exchangeData.setRates("USD", last, bid, ask);
+        assertEquals(last, exchangeData.getLastPrice("USD"));
+        assertEquals(bid, exchangeData.getLastBid("USD"));
+        assertEquals(ask, exchangeData.getLastAsk("USD"));
+        assertEquals(ExchangeData.DO_NOT_KNOW, exchangeData.getLastPrice("EUR"));
+
+        // The new rates replace all the old ones.
+        exchangeData.setRates("USD", BigMoney.zero(CurrencyUnit.USD), null, null);
+        assertEquals(BigMoney.zero(CurrencyUnit.USD), exchangeData.getLastPrice("USD"));
+        assertEquals(ExchangeData.DO_NOT_KNOW, exchangeData.getLastBid("USD"));
+        assertEquals(ExchangeData.DO_NOT_KNOW, exchangeData.getLastAsk("USD"));
+
+        // Setting one rate leaves the others.
+        exchangeData.setLastBid("USD", bid);
+        assertEquals(BigMoney.zero(CurrencyUnit.USD), exchangeData.getLastPrice("USD"));
+        assertEquals(bid, exchangeData.getLastBid("USD"));
+    }
+}
@@ -16,12 +16,19 @@
 package org.multibit.store;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 import org.junit.Test;
 
 import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Block;
 import com.google.bitcoin.core.ECKey;
 import com.google.bitcoin.core.NetworkParameters;
 import com.google.bitcoin.core.StoredBlock;
@@ -121,4 +128,242 @@ public class ReplayableBlockStoreTest {
         
         assertEquals("setChainHeadAndTruncate did not roll back blockstore", blockSizeAfterFirstBlockAdded, blockSizeAfterSetChainHeadAndTruncate);
     }
+
+    @Test
+    public void testIndexIsRebuiltWhenMissing() throws Exception {
+        File temporaryBlockStore = File.createTempFile("ReplayableBlockStore-testIndex", null, null);
+        temporaryBlockStore.deleteOnExit();
+        File temporaryIndex = new File(temporaryBlockStore.getAbsolutePath() + ReplayableBlockStore.INDEX_FILE_SUFFIX);
+        temporaryIndex.deleteOnExit();
+
+        NetworkParameters networkParameters = NetworkParameters.unitTests();
+        ReplayableBlockStore store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, true);
+        assertTrue("No index was created", temporaryIndex.exists());
+
+        // Build a short chain.
+        StoredBlock genesis = store.getChainHead();
+        StoredBlock block1 = genesis.build(genesis.getHeader().createNextBlock(new ECKey().toAddress(networkParameters)).cloneAsHeader());
+        store.put(block1);
+        StoredBlock block2 = block1.build(block1.getHeader().createNextBlock(new ECKey().toAddress(networkParameters)).cloneAsHeader());
+        store.put(block2);
+        store.setChainHead(block2);
+        store.close();
+
+        // Delete the index - it should be rebuilt from the block store.
+        assertTrue(temporaryIndex.delete());
+        store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, false);
+        assertTrue("Index was not rebuilt", temporaryIndex.exists());
+        assertEquals(block1, store.get(block1.getHeader().getHash()));
+        assertEquals(block2, store.getChainHead());
+
+        // Truncate back to block1 and build a fork - the truncated block must not be found.
+        store.setChainHeadAndTruncate(block1);
+        assertNull(store.get(block2.getHeader().getHash()));
+        StoredBlock fork2 = block1.build(block1.getHeader().createNextBlock(new ECKey().toAddress(networkParameters)).cloneAsHeader());
+        store.put(fork2);
+        store.setChainHead(fork2);
+        store.close();
+
+        store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, false);
+        assertNull(store.get(block2.getHeader().getHash()));
+        assertEquals(fork2, store.get(fork2.getHeader().getHash()));
+        assertEquals(fork2, store.getChainHead());
+        store.close();
+    }
+
+    @Test
+    public void testMemoryMappedStorage() throws Exception {
+        File temporaryBlockStore = File.createTempFile("ReplayableBlockStore-testMemoryMapped", null, null);
+        temporaryBlockStore.deleteOnExit();
+        new File(temporaryBlockStore.getAbsolutePath() + ReplayableBlockStore.INDEX_FILE_SUFFIX).deleteOnExit();
+
+        NetworkParameters networkParameters = NetworkParameters.unitTests();
+        ReplayableBlockStore store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, true, ReplayableBlockStore.Mode.MEMORY_MAPPED);
+        store.setSyncInterval(2);
+
+        StoredBlock genesis = store.getChainHead();
+        assertEquals(networkParameters.getGenesisBlock(), genesis.getHeader());
+
+        StoredBlock block1 = genesis.build(genesis.getHeader().createNextBlock(new ECKey().toAddress(networkParameters)).cloneAsHeader());
+        store.put(block1);
+        store.setChainHead(block1);
+        StoredBlock block2 = block1.build(block1.getHeader().createNextBlock(new ECKey().toAddress(networkParameters)).cloneAsHeader());
+        store.put(block2);
+        store.setChainHead(block2);
+        StoredBlock block3 = block2.build(block2.getHeader().createNextBlock(new ECKey().toAddress(networkParameters)).cloneAsHeader());
+        store.put(block3);
+        store.setChainHead(block3);
+        store.close();
+
+        // The unused mapped space is trimmed off on close, leaving a file readable without the mapping.
+        store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, false, ReplayableBlockStore.Mode.SYNCHRONOUS);
+        assertEquals(block2, store.get(block2.getHeader().getHash()));
+        assertEquals(block3, store.getChainHead());
+        store.close();
+
+        // Truncate a memory mapped store.
+        store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, false, ReplayableBlockStore.Mode.MEMORY_MAPPED);
+        assertEquals(block3, store.getChainHead());
+        store.setChainHeadAndTruncate(block1);
+        assertNull(store.get(block3.getHeader().getHash()));
+        store.close();
+
+        store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, false, ReplayableBlockStore.Mode.MEMORY_MAPPED);
+        assertEquals(block1, store.getChainHead());
+        assertNull(store.get(block2.getHeader().getHash()));
+        assertEquals(genesis, store.get(genesis.getHeader().getHash()));
+        store.close();
+    }
+
+    @Test
+    public void testZeroedSpaceIsTrimmedWhenNotMemoryMapped() throws Exception {
+        File temporaryBlockStore = File.createTempFile("ReplayableBlockStore-testZeroedSpace", null, null);
+        temporaryBlockStore.deleteOnExit();
+        new File(temporaryBlockStore.getAbsolutePath() + ReplayableBlockStore.INDEX_FILE_SUFFIX).deleteOnExit();
+
+        NetworkParameters networkParameters = NetworkParameters.unitTests();
+        ReplayableBlockStore store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, true, ReplayableBlockStore.Mode.SYNCHRONOUS);
+        StoredBlock genesis = store.getChainHead();
+        StoredBlock block1 = genesis.build(genesis.getHeader().createNextBlock(new ECKey().toAddress(networkParameters)).cloneAsHeader());
+        store.put(block1);
+        store.setChainHead(block1);
+        store.close();
+        long lengthWithRecords = temporaryBlockStore.length();
+
+        // A memory mapped store that was not closed cleanly leaves zeroed space after its records.
+        RandomAccessFile file = new RandomAccessFile(temporaryBlockStore, "rw");
+        file.setLength(lengthWithRecords + 10000);
+        file.close();
+
+        store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, false, ReplayableBlockStore.Mode.GROUP_COMMIT);
+        assertEquals(lengthWithRecords, temporaryBlockStore.length());
+        assertEquals(block1, store.getChainHead());
+
+        // Blocks are appended straight after the existing records.
+        StoredBlock block2 = block1.build(block1.getHeader().createNextBlock(new ECKey().toAddress(networkParameters)).cloneAsHeader());
+        store.put(block2);
+        store.setChainHead(block2);
+        store.close();
+
+        store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, false, ReplayableBlockStore.Mode.SYNCHRONOUS);
+        assertEquals(block2, store.getChainHead());
+        assertEquals(block1, store.get(block1.getHeader().getHash()));
+        store.close();
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        File temporaryBlockStore = File.createTempFile("ReplayableBlockStore-testGroupCommit", null, null);
+        temporaryBlockStore.deleteOnExit();
+        new File(temporaryBlockStore.getAbsolutePath() + ReplayableBlockStore.INDEX_FILE_SUFFIX).deleteOnExit();
+
+        NetworkParameters networkParameters = NetworkParameters.unitTests();
+        ReplayableBlockStore store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, true, ReplayableBlockStore.Mode.GROUP_COMMIT);
+        store.setSyncInterval(3);
+        store.setSyncWindowMillis(Long.MAX_VALUE);
+        long lengthWithGenesis = temporaryBlockStore.length();
+
+        // The first two blocks are buffered but can be read back.
+        StoredBlock genesis = store.getChainHead();
+        StoredBlock block1 = genesis.build(genesis.getHeader().createNextBlock(new ECKey().toAddress(networkParameters)).cloneAsHeader());
+        store.put(block1);
+        store.setChainHead(block1);
+        StoredBlock block2 = block1.build(block1.getHeader().createNextBlock(new ECKey().toAddress(networkParameters)).cloneAsHeader());
+        store.put(block2);
+        store.setChainHead(block2);
+        assertEquals(lengthWithGenesis, temporaryBlockStore.length());
+        assertEquals(block2, store.getChainHead());
+
+        // The third block completes the batch.
+        StoredBlock block3 = block2.build(block2.getHeader().createNextBlock(new ECKey().toAddress(networkParameters)).cloneAsHeader());
+        store.put(block3);
+        store.setChainHead(block3);
+        long lengthWithBatch = temporaryBlockStore.length();
+        assertTrue("The batch was not written", lengthWithBatch > lengthWithGenesis);
+
+        // Truncating back into the committed records shortens the file.
+        store.setChainHeadAndTruncate(block1);
+        assertTrue(temporaryBlockStore.length() < lengthWithBatch);
+        store.close();
+
+        store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, false, ReplayableBlockStore.Mode.SYNCHRONOUS);
+        assertEquals(block1, store.getChainHead());
+        assertNull(store.get(block2.getHeader().getHash()));
+        store.close();
+    }
+
+    @Test
+    public void testVersion1StoreIsMigrated() throws Exception {
+        File temporaryBlockStore = File.createTempFile("ReplayableBlockStore-testMigration", null, null);
+        temporaryBlockStore.deleteOnExit();
+        new File(temporaryBlockStore.getAbsolutePath() + ReplayableBlockStore.INDEX_FILE_SUFFIX).deleteOnExit();
+
+        NetworkParameters networkParameters = NetworkParameters.unitTests();
+        Block genesis = networkParameters.getGenesisBlock().cloneAsHeader();
+
+        writeVersion1Store(temporaryBlockStore, genesis);
+
+        ReplayableBlockStore store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, false);
+        assertEquals(genesis, store.getChainHead().getHeader());
+
+        StoredBlock block1 = store.getChainHead().build(genesis.createNextBlock(new ECKey().toAddress(networkParameters)).cloneAsHeader());
+        store.put(block1);
+        store.setChainHead(block1);
+        store.close();
+
+        RandomAccessFile migrated = new RandomAccessFile(temporaryBlockStore, "r");
+        assertEquals("Version was not updated", 2, migrated.read());
+        migrated.close();
+
+        store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, false);
+        assertEquals(genesis, store.get(genesis.getHash()).getHeader());
+        assertEquals(block1, store.getChainHead());
+        store.close();
+    }
+
+    @Test
+    public void testInterruptedMigrationIsResumed() throws Exception {
+        File temporaryBlockStore = File.createTempFile("ReplayableBlockStore-testResumedMigration", null, null);
+        temporaryBlockStore.deleteOnExit();
+        new File(temporaryBlockStore.getAbsolutePath() + ReplayableBlockStore.INDEX_FILE_SUFFIX).deleteOnExit();
+        File version1Copy = new File(temporaryBlockStore.getAbsolutePath() + ".v1");
+        version1Copy.deleteOnExit();
+
+        NetworkParameters networkParameters = NetworkParameters.unitTests();
+        Block genesis = networkParameters.getGenesisBlock().cloneAsHeader();
+
+        // The store was copied and part converted when the migration stopped.
+        writeVersion1Store(version1Copy, genesis);
+        FileOutputStream out = new FileOutputStream(temporaryBlockStore);
+        out.write(new byte[] { (byte) 0x81 });
+        out.write(new byte[50]);
+        out.close();
+
+        ReplayableBlockStore store = new ReplayableBlockStore(networkParameters, temporaryBlockStore, false);
+        assertEquals(genesis, store.getChainHead().getHeader());
+        assertEquals(genesis, store.get(genesis.getHash()).getHeader());
+        store.close();
+
+        RandomAccessFile migrated = new RandomAccessFile(temporaryBlockStore, "r");
+        assertEquals("Version was not updated", 2, migrated.read());
+        migrated.close();
+        assertFalse(version1Copy.exists());
+    }
+
+    /**
+     * Write a version 1 store holding just the genesis block: height, chain work, header and no hash.
+     */
+    private void writeVersion1Store(File file, Block genesis) throws Exception {
+        ByteBuffer version1 = ByteBuffer.allocate(1 + 32 + 4 + 16 + Block.HEADER_SIZE);
+        version1.put((byte) 1);
+        version1.put(genesis.getHash().getBytes());
+        version1.putInt(0);
+        byte[] chainWork = genesis.getWork().toByteArray();
+        version1.put(new byte[16 - chainWork.length]);
+        version1.put(chainWork);
+        version1.put(genesis.bitcoinSerialize());
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(version1.array());
+        out.close();
+    }
 }
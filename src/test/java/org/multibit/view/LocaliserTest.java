@@ -298,4 +298,39 @@ public class LocaliserTest extends TestCase {
         assertEquals("", localiser.bitcoinValueToString(BigInteger.ZERO, true, true));    
         assertEquals("", localiser.bitcoinValueToString(BigInteger.ZERO, false, true));    
     }
+
+    @Test
+    public void testLookupsFromManyThreads() throws Exception {
+        final Localiser localiser = new Localiser(new Locale("en"));
+        final boolean[] allCorrect = new boolean[] { true };
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        boolean correct = CAPITAL_CITY_EXPECTED_ENGLISH.equals(localiser.getString(CAPITAL_CITY_KEY))
+                                && SUBSTITUTE_TWO_EXPECTED_ENGLISH.equals(localiser.getString(SUBSTITUTE_TWO_KEY, new Object[] {
+                                        SUBSTITUTE_ONE_DATA, SUBSTITUTE_TWO_DATA }));
+                        if (!correct) {
+                            synchronized (allCorrect) {
+                                allCorrect[0] = false;
+                            }
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(allCorrect[0]);
+
+        // Changing locale swaps all the strings at once.
+        localiser.setLocale(new Locale("es"));
+        assertEquals(CAPITAL_CITY_EXPECTED_SPANISH, localiser.getString(CAPITAL_CITY_KEY));
+        assertEquals(SUBSTITUTE_ONE_EXPECTED_SPANISH, localiser.getString(SUBSTITUTE_ONE_KEY, new Object[]{SUBSTITUTE_ONE_DATA}));
+    }
 }